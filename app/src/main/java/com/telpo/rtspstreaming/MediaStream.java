@@ -9,8 +9,10 @@ import android.view.SurfaceHolder;
 import androidx.lifecycle.LiveData;
 import androidx.lifecycle.MutableLiveData;
 
+import com.telpo.rtsplive.CaptureBufferPool;
 import com.telpo.rtsplive.MediaSubsessionDelegate;
 import com.telpo.rtsplive.RtspServer;
+import com.telpo.rtsplive.SurfaceVideoEncoder;
 import com.telpo.rtsplive.VideoEncoder;
 
 import java.util.List;
@@ -20,18 +22,35 @@ import java.util.List;
  * @author gfm
  */
 public class MediaStream implements SurfaceHolder.Callback {
+    private static final int CAPTURE_BUFFER_COUNT = 5;  // Camera 回调缓冲区个数，比编码器输入队列多一个
+
     private Camera mCamera;
     private SurfaceHolder mSurfaceHolder;
     private int mVideoQuality = CamcorderProfile.QUALITY_480P;
     private int mCameraId = Camera.CameraInfo.CAMERA_FACING_BACK;  // TODO：适配设备
+    private CaptureBufferPool mCaptureBufferPool;
 
     private final VideoEncoder mVideoEncoder;
+    private final SurfaceVideoEncoder mSurfaceVideoEncoder;  // Surface 输入时不为 null
     private final MediaSubsessionDelegate mVideoDelegate;
     private final RtspServer mRtspServer;
     private MutableLiveData<String> mRtspUrl = new MutableLiveData<>();
 
     public MediaStream() {
-        mVideoEncoder = VideoEncoder.createDefaultVideoEncoder();  // 创建默认视频编码器 (MediaCodec NV21 -> H264)
+        this(false);
+    }
+
+    /**
+     * @param surfaceInput 是否使用 Surface 输入编码器，Camera 帧经 GPU 直接送入编码器，不做 CPU 格式转换
+     */
+    public MediaStream(boolean surfaceInput) {
+        if (surfaceInput) {
+            mSurfaceVideoEncoder = SurfaceVideoEncoder.createDefaultSurfaceVideoEncoder();  // 创建 Surface 输入编码器 (SurfaceTexture -> GLES -> H264)
+            mVideoEncoder = mSurfaceVideoEncoder;
+        } else {
+            mSurfaceVideoEncoder = null;
+            mVideoEncoder = VideoEncoder.createDefaultVideoEncoder();  // 创建默认视频编码器 (MediaCodec NV21 -> H264)
+        }
         mVideoDelegate = MediaSubsessionDelegate.createDefaultVideoDelegate(mVideoEncoder); // 创建H264媒体会话代理
 
         mRtspServer = RtspServer.createDefaultBuilder()
@@ -68,6 +87,30 @@ public class MediaStream implements SurfaceHolder.Callback {
         this.mVideoQuality = videoQuality;
     }
 
+    /**
+     * 预览中切换视频质量：重新打开 Camera，编码器支持在线切换分辨率时不停止编码，客户端不断开
+     */
+    public void switchVideoQuality(int videoQuality) {
+        CameraThread.getHandler().post(() -> {
+            mVideoQuality = videoQuality;
+            if (mCamera == null) {
+                return;
+            }
+            if (mSurfaceVideoEncoder != null) {
+                // Surface 输入编码器不支持在线切换，重新启动
+                mVideoEncoder.stop();
+            }
+            try {
+                mCamera.stopPreview();
+                mCamera.setPreviewCallbackWithBuffer(null);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+            releaseCamera();
+        });
+        startPreview();
+    }
+
     /**
      * 停止预览
      */
@@ -100,16 +143,22 @@ public class MediaStream implements SurfaceHolder.Callback {
                     mCamera.startPreview();
                     // mCamera.autoFocus(null);
 
-                    int previewFormat = mCamera.getParameters().getPreviewFormat();
-                    Camera.Size previewSize = mCamera.getParameters().getPreviewSize();
-                    int size = previewSize.width * previewSize.height * ImageFormat.getBitsPerPixel(previewFormat) / 8;
-                    mCamera.addCallbackBuffer(new byte[size]);
-                    mCamera.setPreviewCallbackWithBuffer(previewCallback);
+                    if (mSurfaceVideoEncoder == null) {
+                        int previewFormat = mCamera.getParameters().getPreviewFormat();
+                        Camera.Size previewSize = mCamera.getParameters().getPreviewSize();
+                        int size = previewSize.width * previewSize.height * ImageFormat.getBitsPerPixel(previewFormat) / 8;
+                        if (mCaptureBufferPool == null || mCaptureBufferPool.getBufferSize() != size) {
+                            mCaptureBufferPool = new CaptureBufferPool(size, CAPTURE_BUFFER_COUNT);
+                            mVideoEncoder.setCaptureBufferPool(mCaptureBufferPool);
+                        }
+                        mCaptureBufferPool.attach(mCamera);
+                        mCamera.setPreviewCallbackWithBuffer(previewCallback);
+                    }
                     if (mVideoDelegate.isStreamRunning()) {
                         mVideoEncoder.start();
                     }
                     if (mSurfaceHolder != null) {
-                        mCamera.setPreviewDisplay(mSurfaceHolder);
+                        setPreviewDisplay(mSurfaceHolder);
                     }
                 } catch (Exception e) {
                     e.printStackTrace();
@@ -137,7 +186,13 @@ public class MediaStream implements SurfaceHolder.Callback {
             mCamera.setParameters(parameters);
             //mCamera.setDisplayOrientation(90); // TODO：适配设备
 
-            mVideoEncoder.initResolution(previewSize.width, previewSize.height, camInfo.orientation);
+            if (!mVideoEncoder.reconfigure(previewSize.width, previewSize.height, camInfo.orientation)) {
+                mVideoEncoder.initResolution(previewSize.width, previewSize.height, camInfo.orientation);
+            }
+            if (mSurfaceVideoEncoder != null) {
+                // Camera 只能有一个预览目标，预览画面由编码器的渲染线程绘制到 SurfaceView
+                mCamera.setPreviewTexture(mSurfaceVideoEncoder.getInputSurfaceTexture());
+            }
         } catch (Exception e) {
             releaseCamera();
             e.printStackTrace();
@@ -149,6 +204,9 @@ public class MediaStream implements SurfaceHolder.Callback {
             mCamera.release();
             mCamera = null;
         }
+        if (mCaptureBufferPool != null) {
+            mCaptureBufferPool.detach();
+        }
     }
 
     private Camera.PreviewCallback previewCallback = new Camera.PreviewCallback() {
@@ -171,6 +229,11 @@ public class MediaStream implements SurfaceHolder.Callback {
     };
 
     private void setPreviewDisplay(SurfaceHolder holder) {
+        if (mSurfaceVideoEncoder != null) {
+            mSurfaceVideoEncoder.setPreviewSurface(holder.getSurface(),
+                    holder.getSurfaceFrame().width(), holder.getSurfaceFrame().height());
+            return;
+        }
         CameraThread.getHandler().post(() -> {
             if (mCamera != null) {
                 try {
@@ -192,11 +255,18 @@ public class MediaStream implements SurfaceHolder.Callback {
 
     @Override
     public void surfaceChanged(SurfaceHolder holder, int format, int width, int height) {
+        if (mSurfaceVideoEncoder != null) {
+            mSurfaceVideoEncoder.setPreviewSurface(holder.getSurface(), width, height);
+        }
     }
 
     @Override
     public void surfaceDestroyed(SurfaceHolder holder) {
         mSurfaceHolder = null;
+        if (mSurfaceVideoEncoder != null) {
+            mSurfaceVideoEncoder.setPreviewSurface(null, 0, 0);
+            return;
+        }
         if (mCamera != null) {
             try {
                 mCamera.setPreviewDisplay(null);
@@ -0,0 +1,59 @@
+package com.telpo.rtsplive;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * 基准测试使用的合成帧数据
+ *
+ * @author  gfm
+ * @since   1.1
+ */
+final class BenchmarkFrames {
+    /** 1080p Baseline Profile 的 SPS */
+    private static final byte[] SPS = {0x67, 0x42, (byte) 0xC0, 0x28, (byte) 0xDA, 0x01, (byte) 0xE0, 0x08,
+            (byte) 0x9F, (byte) 0x96, 0x10};
+    private static final byte[] PPS = {0x68, (byte) 0xCE, 0x06, (byte) 0xE2};
+    private static final int NAL_IDR = 0x65;
+    private static final int NAL_SLICE = 0x41;
+
+    private BenchmarkFrames() {
+    }
+
+    /**
+     * 生成随机 NV21 帧
+     */
+    static byte[] nv21(int width, int height) {
+        byte[] data = new byte[width * height * 3 / 2];
+        new Random(width * 31 + height).nextBytes(data);
+        return data;
+    }
+
+    /**
+     * 生成 Annex-B 格式的 H264 帧，放在 direct ByteBuffer 中，position 为 0
+     *
+     * @param size 帧大小
+     * @param keyFrame 为 true 时生成 SPS + PPS + IDR，否则生成单个 P slice
+     */
+    static ByteBuffer h264(int size, boolean keyFrame) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(size);
+        if (keyFrame) {
+            putNal(buffer, SPS);
+            putNal(buffer, PPS);
+        }
+        buffer.putInt(1);
+        buffer.put((byte) (keyFrame ? NAL_IDR : NAL_SLICE));
+        // 编码数据经过防竞争处理不会出现起始码，这里用不含 0 的随机字节代替
+        Random random = new Random(size);
+        while (buffer.hasRemaining()) {
+            buffer.put((byte) (1 + random.nextInt(255)));
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static void putNal(ByteBuffer buffer, byte[] nal) {
+        buffer.putInt(1);
+        buffer.put(nal);
+    }
+}
@@ -0,0 +1,69 @@
+package com.telpo.rtsplive;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link FramedSource.OutputListener} 帧分发基准测试，结果单位是帧/秒
+ * <p>
+ * 编码器输出的帧经 {@link H264RtpSubsessionDelegate} 写入帧环，再为每个会话打包为 RTP 包。
+ * 服务没有启动，UDP 会话的发送只记录失败次数，测量结果不包含系统调用
+ *
+ * @author  gfm
+ * @since   1.1
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FanOutBenchmark {
+    /** 1080p 4Mbps 30fps 时的典型帧大小 */
+    private static final int KEY_FRAME_SIZE = 100 * 1024;
+    private static final int FRAME_SIZE = 16 * 1024;
+    private static final int GOP_SIZE = 30;
+
+    @Param({"1", "4", "16"})
+    int sessions;
+
+    private H264RtpSubsessionDelegate delegate;
+    private ByteBuffer keyFrame;
+    private ByteBuffer frame;
+    private long frameIndex;
+
+    @Setup
+    public void setup() {
+        delegate = new H264RtpSubsessionDelegate(null);
+        NioRtspServer server = (NioRtspServer) new NioRtspServerBuilder().setVideoDelegate(delegate).build();
+        InetSocketAddress address = new InetSocketAddress("127.0.0.1", 5000);
+        for (int i = 0; i < sessions; i++) {
+            delegate.addPlayingSession(RtpSession.createUdp(Integer.toString(i), server, null, delegate, "",
+                    address, address));
+        }
+        keyFrame = BenchmarkFrames.h264(KEY_FRAME_SIZE, true);
+        frame = BenchmarkFrames.h264(FRAME_SIZE, false);
+        delegate.onFrameOutput(keyFrame, keyFrame.remaining(), 0);
+        frameIndex = 1;
+    }
+
+    @Benchmark
+    public long deliver() {
+        ByteBuffer buffer = frameIndex % GOP_SIZE == 0 ? keyFrame : frame;
+        delegate.onFrameOutput(buffer, buffer.remaining(), frameIndex * 33333);
+        return frameIndex++;
+    }
+}
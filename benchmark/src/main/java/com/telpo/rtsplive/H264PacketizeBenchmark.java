@@ -0,0 +1,67 @@
+package com.telpo.rtsplive;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * H264 Annex-B 解析和 RTP 分片基准测试，结果单位是帧/秒
+ *
+ * @author  gfm
+ * @since   1.1
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class H264PacketizeBenchmark {
+    /** 帧大小，最后一个是带 SPS/PPS 的关键帧 */
+    @Param({"1024", "16384", "131072"})
+    int frameSize;
+
+    private ByteBuffer frame;
+    private final int[] starts = new int[RtpPacketizer.MAX_NALS_PER_FRAME];
+    private final int[] ends = new int[RtpPacketizer.MAX_NALS_PER_FRAME];
+    private final H264Packetizer packetizer =
+            new H264Packetizer(RtpSubsessionDelegate.PAYLOAD_TYPE, RtpPacketizer.DEFAULT_MAX_PACKET_SIZE);
+    private final ByteBuffer packet = ByteBuffer.allocateDirect(RtpPacketizer.DEFAULT_MAX_PACKET_SIZE);
+    private long presentationTimeUs;
+
+    @Setup
+    public void setup() {
+        frame = BenchmarkFrames.h264(frameSize, frameSize > 100 * 1024);
+    }
+
+    @Benchmark
+    public int split() {
+        return AnnexB.split(frame, frame.position(), frame.limit(), starts, ends);
+    }
+
+    /**
+     * 解析并输出一帧的全部 RTP 包，返回包个数
+     */
+    @Benchmark
+    public int packetize() {
+        packetizer.setAccessUnit(null, 0, frame, frame.remaining(), presentationTimeUs += 33333);
+        int packets = 0;
+        while (packetizer.hasNext()) {
+            packet.clear();
+            packetizer.next(packet);
+            packets++;
+        }
+        return packets;
+    }
+}
@@ -0,0 +1,103 @@
+package com.telpo.rtsplive;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@code HWVideoEncoder.queueInputFrame} 使用的 {@link InputFrameRing} 帧交接基准测试，结果单位是帧/秒
+ * <p>
+ * 生产者和 Camera 回调一样把自己持有的缓冲区和槽位中的缓冲区交换，不复制帧数据；
+ * 队列满时和编码器一样丢帧
+ *
+ * @author  gfm
+ * @since   1.1
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InputFrameHandoffBenchmark {
+    private static final int WIDTH = 1920;
+    private static final int HEIGHT = 1080;
+
+    @State(Scope.Group)
+    public static class Ring {
+        InputFrameRing frames;
+
+        @Setup
+        public void setup() {
+            frames = new InputFrameRing(4);
+            for (int i = 0; i < 4; i++) {
+                frames.claim().data = new byte[WIDTH * HEIGHT * 3 / 2];
+                frames.publish();
+                frames.peek();
+                frames.release();
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Camera {
+        byte[] buffer = new byte[WIDTH * HEIGHT * 3 / 2];
+        long presentationTimeUs;
+    }
+
+    /**
+     * 同一线程中完成一次发布和消费，测量交接本身的开销
+     */
+    @Benchmark
+    @Group("roundTrip")
+    public byte[] roundTrip(Ring ring, Camera camera) {
+        publish(ring.frames, camera);
+        InputFrameRing.Frame frame = ring.frames.peek();
+        byte[] data = frame.data;
+        ring.frames.release();
+        return data;
+    }
+
+    @Benchmark
+    @Group("spsc")
+    @GroupThreads(1)
+    public boolean produce(Ring ring, Camera camera) {
+        return publish(ring.frames, camera);
+    }
+
+    @Benchmark
+    @Group("spsc")
+    @GroupThreads(1)
+    public byte[] consume(Ring ring) {
+        InputFrameRing.Frame frame = ring.frames.peek();
+        if (frame == null) {
+            return null;
+        }
+        byte[] data = frame.data;
+        ring.frames.release();
+        return data;
+    }
+
+    private static boolean publish(InputFrameRing frames, Camera camera) {
+        InputFrameRing.Frame frame = frames.claim();
+        if (frame == null) {
+            return false;
+        }
+        byte[] data = frame.data;
+        frame.data = camera.buffer;
+        frame.presentationTimeUs = camera.presentationTimeUs += 33333;
+        camera.buffer = data;
+        frames.publish();
+        return true;
+    }
+}
@@ -0,0 +1,128 @@
+package com.telpo.rtsplive;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * YUV 格式转换基准测试，结果单位是帧/秒
+ * <p>
+ * {@code twoPass*} 是旧的编码输入路径（NV21 转 I420 并旋转到中间缓冲区，再交织为 NV12）的纯 Java 参照实现，
+ * 用来和 {@link YuvUtils} 的单次遍历实现对比
+ *
+ * @author  gfm
+ * @since   1.1
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class YuvConvertBenchmark {
+    @Param({"640x480", "1280x720", "1920x1080"})
+    String resolution;
+
+    @Param({"0", "90", "180", "270"})
+    int rotation;
+
+    private int width;
+    private int height;
+    private byte[] nv21;
+    private byte[] i420;
+    private ByteBuffer input;
+
+    @Setup
+    public void setup() {
+        String[] size = resolution.split("x");
+        width = Integer.parseInt(size[0]);
+        height = Integer.parseInt(size[1]);
+        nv21 = BenchmarkFrames.nv21(width, height);
+        i420 = new byte[nv21.length];
+        // 和 MediaCodec 输入缓冲区一样使用 direct ByteBuffer
+        input = ByteBuffer.allocateDirect(nv21.length);
+    }
+
+    @Benchmark
+    public ByteBuffer nv21ToNv12() {
+        YuvUtils.NV21ToNV12Rotate(nv21, input, width, height, rotation);
+        return input;
+    }
+
+    @Benchmark
+    public ByteBuffer nv21ToI420() {
+        YuvUtils.NV21ToI420Rotate(nv21, input, width, height, rotation);
+        return input;
+    }
+
+    @Benchmark
+    public ByteBuffer twoPassNv21ToNv12() {
+        rotateToI420(nv21, i420, width, height, rotation);
+        i420ToNv12(i420, input, width, height);
+        return input;
+    }
+
+    /**
+     * 逐像素计算源坐标的 NV21 转 I420 并顺时针旋转
+     */
+    static void rotateToI420(byte[] src, byte[] dst, int width, int height, int rotation) {
+        boolean transpose = rotation == 90 || rotation == 270;
+        int outWidth = transpose ? height : width;
+        int outHeight = transpose ? width : height;
+        for (int y = 0; y < outHeight; y++) {
+            for (int x = 0; x < outWidth; x++) {
+                dst[y * outWidth + x] = src[sourceIndex(x, y, width, height, rotation, width, 1)];
+            }
+        }
+        int chromaWidth = outWidth / 2;
+        int chromaHeight = outHeight / 2;
+        int uOffset = width * height;
+        int vOffset = uOffset + chromaWidth * chromaHeight;
+        for (int y = 0; y < chromaHeight; y++) {
+            for (int x = 0; x < chromaWidth; x++) {
+                int s = uOffset + sourceIndex(x, y, width / 2, height / 2, rotation, width, 2);
+                dst[vOffset + y * chromaWidth + x] = src[s];
+                dst[uOffset + y * chromaWidth + x] = src[s + 1];
+            }
+        }
+    }
+
+    /**
+     * I420 转 NV12，写入 dst.position() 开始的位置
+     */
+    static void i420ToNv12(byte[] src, ByteBuffer dst, int width, int height) {
+        int base = dst.position();
+        int ySize = width * height;
+        int chromaSize = ySize / 4;
+        dst.put(src, 0, ySize);
+        for (int i = 0; i < chromaSize; i++) {
+            dst.put(src[ySize + i]);
+            dst.put(src[ySize + chromaSize + i]);
+        }
+        dst.position(base);
+    }
+
+    private static int sourceIndex(int x, int y, int width, int height, int rotation, int stride, int pixelSize) {
+        switch (rotation) {
+            case 90:
+                return (height - 1 - x) * stride + y * pixelSize;
+            case 180:
+                return (height - 1 - y) * stride + (width - 1 - x) * pixelSize;
+            case 270:
+                return x * stride + (width - 1 - y) * pixelSize;
+            default:
+                return y * stride + x * pixelSize;
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package com.telpo.rtsplive;
+
+import android.media.MediaCodecInfo;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * {@link YuvUtils} 纯 Java 转换的逐字节校验
+ * <p>
+ * 参照实现是 {@link YuvConvertBenchmark#rotateToI420} 和 {@link YuvConvertBenchmark#i420ToNv12}，
+ * 逐像素计算源坐标，和分块转置的实现无关
+ *
+ * @author  gfm
+ * @since   1.1
+ */
+public class YuvUtilsTest {
+    private static final int[] ROTATIONS = {0, 90, 180, 270};
+    /** 第一个是 {@link YuvUtils#TILE} 的整数倍，其余不是 */
+    private static final int[][] SIZES = {{640, 480}, {70, 46}, {34, 18}};
+    /** dst.position() 的初始值，检查输出从 position 开始且不越界 */
+    private static final int DST_OFFSET = 7;
+    private static final byte GUARD = (byte) 0xA5;
+
+    @Test
+    public void nv21ToI420Rotate() {
+        for (int[] size : SIZES) {
+            for (int rotation : ROTATIONS) {
+                byte[] nv21 = BenchmarkFrames.nv21(size[0], size[1]);
+                ByteBuffer dst = newDst(size[0], size[1]);
+                YuvUtils.NV21ToI420Rotate(nv21, dst, size[0], size[1], rotation);
+                assertOutput(expected(nv21, size[0], size[1], rotation, false), dst, size, rotation);
+            }
+        }
+    }
+
+    @Test
+    public void nv21ToNv12Rotate() {
+        for (int[] size : SIZES) {
+            for (int rotation : ROTATIONS) {
+                byte[] nv21 = BenchmarkFrames.nv21(size[0], size[1]);
+                ByteBuffer dst = newDst(size[0], size[1]);
+                YuvUtils.NV21ToNV12Rotate(nv21, dst, size[0], size[1], rotation);
+                assertOutput(expected(nv21, size[0], size[1], rotation, true), dst, size, rotation);
+            }
+        }
+    }
+
+    /**
+     * 编码线程的 NV21 输入路径，平面和半平面颜色格式都使用纯 Java 实现，不依赖 librtsplive.so
+     */
+    @Test
+    @SuppressWarnings("deprecation")
+    public void encoderInputConvert() {
+        int[][] formats = {{MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420Planar, 0},
+                {MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420SemiPlanar, 1}};
+        for (int[] size : SIZES) {
+            for (int rotation : ROTATIONS) {
+                for (int[] format : formats) {
+                    InputFrameRing.Frame frame = new InputFrameRing.Frame();
+                    frame.data = BenchmarkFrames.nv21(size[0], size[1]);
+                    frame.width = size[0];
+                    frame.height = size[1];
+                    frame.rotation = rotation;
+                    ByteBuffer dst = newDst(size[0], size[1]);
+                    HWVideoEncoder.convert(frame, format[0], dst);
+                    assertOutput(size[0] + "x" + size[1] + " rotation " + rotation + " colorFormat " + format[0],
+                            expected(frame.data, size[0], size[1], rotation, format[1] == 1), dst);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void yuv420ToYuvRotate() {
+        for (int[] size : SIZES) {
+            for (int rotation : ROTATIONS) {
+                for (int pixelStride = 1; pixelStride <= 2; pixelStride++) {
+                    for (boolean nv12 : new boolean[]{false, true}) {
+                        checkPlanes(size[0], size[1], rotation, pixelStride, nv12);
+                    }
+                }
+            }
+        }
+    }
+
+    private static void checkPlanes(int width, int height, int rotation, int pixelStride, boolean nv12) {
+        byte[] nv21 = BenchmarkFrames.nv21(width, height);
+        int ySize = width * height;
+        int chromaWidth = width / 2;
+        int chromaHeight = height / 2;
+        // 行跨距大于宽度，和 Image 平面的行对齐一样
+        int yRowStride = width + 16;
+        ByteBuffer y = ByteBuffer.allocateDirect(yRowStride * height);
+        for (int row = 0; row < height; row++) {
+            y.position(row * yRowStride);
+            y.put(nv21, row * width, width);
+        }
+        y.clear();
+        ByteBuffer u;
+        ByteBuffer v;
+        int uvRowStride;
+        if (pixelStride == 2) {
+            // U/V 交织在同一块内存中，V 平面从第一个字节开始，U 平面从第二个字节开始
+            uvRowStride = width + 8;
+            ByteBuffer vu = ByteBuffer.allocateDirect(uvRowStride * chromaHeight);
+            for (int row = 0; row < chromaHeight; row++) {
+                vu.position(row * uvRowStride);
+                vu.put(nv21, ySize + row * width, width);
+            }
+            vu.position(0).limit(uvRowStride * (chromaHeight - 1) + width - 1);
+            v = vu.slice();
+            vu.clear();
+            vu.position(1);
+            u = vu.slice();
+        } else {
+            uvRowStride = chromaWidth + 8;
+            u = ByteBuffer.allocateDirect(uvRowStride * chromaHeight);
+            v = ByteBuffer.allocateDirect(uvRowStride * chromaHeight);
+            for (int row = 0; row < chromaHeight; row++) {
+                for (int col = 0; col < chromaWidth; col++) {
+                    int s = ySize + row * width + col * 2;
+                    v.put(row * uvRowStride + col, nv21[s]);
+                    u.put(row * uvRowStride + col, nv21[s + 1]);
+                }
+            }
+        }
+        ByteBuffer dst = newDst(width, height);
+        YuvUtils.YUV420ToYuvRotate(y, yRowStride, u, v, uvRowStride, pixelStride, dst, width, height,
+                rotation, nv12);
+        String message = width + "x" + height + " rotation " + rotation + " pixelStride " + pixelStride
+                + (nv12 ? " NV12" : " I420");
+        assertEquals(message, 0, y.position());
+        assertEquals(message, 0, u.position());
+        assertEquals(message, 0, v.position());
+        assertOutput(message, expected(nv21, width, height, rotation, nv12), dst);
+    }
+
+    private static byte[] expected(byte[] nv21, int width, int height, int rotation, boolean nv12) {
+        byte[] i420 = new byte[nv21.length];
+        YuvConvertBenchmark.rotateToI420(nv21, i420, width, height, rotation);
+        if (!nv12) {
+            return i420;
+        }
+        ByteBuffer out = ByteBuffer.allocate(i420.length);
+        YuvConvertBenchmark.i420ToNv12(i420, out, width, height);
+        return out.array();
+    }
+
+    /**
+     * 分配 direct 输出缓冲区，前后各留保护字节，position 为 {@link #DST_OFFSET}
+     */
+    private static ByteBuffer newDst(int width, int height) {
+        ByteBuffer dst = ByteBuffer.allocateDirect(DST_OFFSET + width * height * 3 / 2 + DST_OFFSET);
+        for (int i = 0; i < dst.capacity(); i++) {
+            dst.put(i, GUARD);
+        }
+        dst.position(DST_OFFSET);
+        return dst;
+    }
+
+    private static void assertOutput(byte[] expected, ByteBuffer dst, int[] size, int rotation) {
+        assertOutput(size[0] + "x" + size[1] + " rotation " + rotation, expected, dst);
+    }
+
+    private static void assertOutput(String message, byte[] expected, ByteBuffer dst) {
+        assertEquals(message + " position", DST_OFFSET, dst.position());
+        byte[] actual = new byte[dst.capacity()];
+        for (int i = 0; i < actual.length; i++) {
+            actual[i] = dst.get(i);
+        }
+        byte[] wanted = new byte[actual.length];
+        Arrays.fill(wanted, GUARD);
+        System.arraycopy(expected, 0, wanted, DST_OFFSET, expected.length);
+        assertArrayEquals(message, wanted, actual);
+    }
+}
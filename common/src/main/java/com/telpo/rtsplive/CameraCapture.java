@@ -0,0 +1,79 @@
+package com.telpo.rtsplive;
+
+import android.content.Context;
+import android.view.Surface;
+
+/**
+ * Camera2 采集接口
+ * <p>
+ * 使用 ImageReader 以 YUV_420_888 格式采集，每帧的 {@link android.media.Image} 直接交给
+ * {@link VideoEncoder#queueInputImage}，编码器按平面跨距转换到输入缓冲区，不经过 byte[] 复制。
+ * 需要 API 21 及以上和 CAMERA 权限。
+ *
+ * @author  gfm
+ * @since   1.1
+ */
+public interface CameraCapture {
+    /**
+     * 打开相机并开始采集，输出尺寸选择相机支持的尺寸中和期望尺寸最接近的一个，
+     * 返回前会用实际尺寸和传感器方向调用编码器的 {@link VideoEncoder#initResolution}
+     * <p>
+     * 相机在后台线程异步打开，打开失败只打印日志
+     *
+     * @param cameraId 相机 ID，为 null 时使用第一个后置相机
+     * @param width 期望宽度
+     * @param height 期望高度
+     * @return 找不到相机或没有 YUV_420_888 输出时返回 false
+     */
+    boolean open(String cameraId, int width, int height);
+
+    /**
+     * 停止采集并关闭相机
+     * <p>
+     * 编码器还持有的图像会失效，需要先停止编码器
+     */
+    void close();
+
+    /**
+     * 设置预览显示的 Surface，需要在 {@link #open} 之前调用
+     *
+     * @param surface 显示 Surface，为 null 时不显示
+     */
+    void setPreviewSurface(Surface surface);
+
+    /**
+     * 获取实际采集宽度，打开前返回 0
+     */
+    int getWidth();
+
+    /**
+     * 获取实际采集高度，打开前返回 0
+     */
+    int getHeight();
+
+    /**
+     * 获取因编码器持有的图像太多而没能取出的帧数
+     */
+    long getDroppedImages();
+
+    /**
+     * 创建默认 Camera2 采集
+     * <p>
+     * 默认实现类是
+     * com.telpo.rtsplive.Camera2Capture，通过反射来创建对象
+     *
+     * @param context 用于获取 CameraManager
+     * @param videoEncoder 接收采集图像的编码器
+     * @return 返回新创建的 CameraCapture 对象
+     * @throws RuntimeException 如果反射调用异常
+     */
+    static CameraCapture createDefaultCameraCapture(Context context, VideoEncoder videoEncoder) {
+        try {
+            return (CameraCapture) Class.forName("com.telpo.rtsplive.Camera2Capture")
+                    .getConstructor(Context.class, VideoEncoder.class).newInstance(context, videoEncoder);
+        } catch (Exception e) {
+            e.printStackTrace();
+            throw new RuntimeException(e.getMessage());
+        }
+    }
+}
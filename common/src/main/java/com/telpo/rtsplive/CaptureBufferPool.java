@@ -0,0 +1,181 @@
+package com.telpo.rtsplive;
+
+import android.hardware.Camera;
+
+/**
+ * Camera 预览回调缓冲区池
+ * <p>
+ * 预先分配 depth 个缓冲区，由 Camera 和编码器共用，并记录每个缓冲区当前的持有者。
+ * Camera 手里至少有一个缓冲区时才能输出下一帧，单个回调缓冲区时采集和编码线程的转换是串行的，
+ * 编码线程稍有延迟 Camera 就会丢帧。用法：
+ * <pre> {@code
+ * CaptureBufferPool pool = new CaptureBufferPool(size, 5);
+ * videoEncoder.setCaptureBufferPool(pool);
+ * pool.attach(camera);
+ * camera.setPreviewCallbackWithBuffer(callback);
+ * // 回调中和单缓冲区时一样：
+ * if (!videoEncoder.queueInputFrame(data, camera)) {
+ *     camera.addCallbackBuffer(data);
+ * }}</pre>
+ *
+ * @author  gfm
+ * @since   1.1
+ * @see VideoEncoder#setCaptureBufferPool(CaptureBufferPool)
+ */
+public final class CaptureBufferPool {
+    private static final int FREE = 0;
+    private static final int CAMERA = 1;
+    private static final int CONSUMER = 2;
+
+    private final byte[][] buffers;
+    private final int[] owners;
+    private final int bufferSize;
+    private Camera camera;
+    private int cameraCount;
+    private int consumerCount;
+    private volatile long starvations;
+
+    /**
+     * @param bufferSize 每个缓冲区的大小，即一帧预览数据的字节数
+     * @param depth 缓冲区个数，建议 3～5
+     */
+    public CaptureBufferPool(int bufferSize, int depth) {
+        if (bufferSize <= 0 || depth <= 0) {
+            throw new IllegalArgumentException("invalid bufferSize " + bufferSize + " or depth " + depth);
+        }
+        this.bufferSize = bufferSize;
+        buffers = new byte[depth][];
+        owners = new int[depth];
+        for (int i = 0; i < depth; i++) {
+            buffers[i] = new byte[bufferSize];
+        }
+    }
+
+    /**
+     * 把不在编码器手里的缓冲区全部交给 Camera，之后编码器用完的缓冲区直接还给这个 Camera
+     * <p>
+     * 需要在 setPreviewCallbackWithBuffer 前调用，重新打开 Camera 后需要再次调用
+     */
+    public synchronized void attach(Camera camera) {
+        this.camera = camera;
+        cameraCount = 0;
+        for (int i = 0; i < buffers.length; i++) {
+            if (owners[i] != CONSUMER) {
+                owners[i] = CAMERA;
+                cameraCount++;
+                camera.addCallbackBuffer(buffers[i]);
+            }
+        }
+    }
+
+    /**
+     * 和 Camera 解除关联，Camera 手里的缓冲区视为空闲，在释放 Camera 后调用
+     */
+    public synchronized void detach() {
+        camera = null;
+        cameraCount = 0;
+        for (int i = 0; i < owners.length; i++) {
+            if (owners[i] == CAMERA) {
+                owners[i] = FREE;
+            }
+        }
+    }
+
+    /**
+     * Camera 输出了一帧，缓冲区转给编码器，在 Camera 回调线程调用
+     *
+     * @return data 不属于这个池时返回 false
+     */
+    synchronized boolean onCaptured(byte[] data) {
+        int i = indexOf(data);
+        if (i < 0) {
+            return false;
+        }
+        if (owners[i] == CONSUMER) {
+            return true;
+        }
+        if (owners[i] == CAMERA) {
+            cameraCount--;
+        }
+        owners[i] = CONSUMER;
+        consumerCount++;
+        if (cameraCount == 0) {
+            // Camera 手里没有缓冲区，编码器还回缓冲区之前的帧都会被丢弃
+            starvations++;
+        }
+        return true;
+    }
+
+    /**
+     * 编码器用完缓冲区，还给 Camera，可以在任意线程调用
+     *
+     * @return data 不属于这个池或已经还过时返回 false
+     */
+    synchronized boolean recycle(byte[] data) {
+        int i = indexOf(data);
+        if (i < 0 || owners[i] != CONSUMER) {
+            return false;
+        }
+        consumerCount--;
+        if (camera != null) {
+            owners[i] = CAMERA;
+            cameraCount++;
+            camera.addCallbackBuffer(data);
+        } else {
+            owners[i] = FREE;
+        }
+        return true;
+    }
+
+    private int indexOf(byte[] data) {
+        for (int i = 0; i < buffers.length; i++) {
+            if (buffers[i] == data) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 获取缓冲区大小
+     */
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * 获取缓冲区个数
+     */
+    public int getDepth() {
+        return buffers.length;
+    }
+
+    /**
+     * 获取 Camera 手里的缓冲区个数
+     */
+    public synchronized int getCameraBufferCount() {
+        return cameraCount;
+    }
+
+    /**
+     * 获取编码器手里（排队或正在转换）的缓冲区个数
+     */
+    public synchronized int getConsumerBufferCount() {
+        return consumerCount;
+    }
+
+    /**
+     * 获取 Camera 手里的缓冲区被取空的次数，持续增加说明池深度不够或编码跟不上
+     */
+    public long getStarvations() {
+        return starvations;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "CaptureBufferPool{depth=" + buffers.length
+                + ", camera=" + cameraCount
+                + ", consumer=" + consumerCount
+                + ", starvations=" + starvations + "}";
+    }
+}
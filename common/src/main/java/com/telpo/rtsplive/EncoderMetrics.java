@@ -0,0 +1,206 @@
+package com.telpo.rtsplive;
+
+/**
+ * 视频编码器的运行统计
+ * <p>
+ * 计数器只由一个线程写入（采集相关的由 Camera 回调线程，编码相关的由编码线程），其它线程可以随时读取，
+ * 不加锁。计数从创建编码器开始累计，需要区间值时对两次 {@link #copy} 的结果求差
+ *
+ * @author  gfm
+ * @since   1.1
+ * @see VideoEncoder#getMetrics()
+ */
+public final class EncoderMetrics {
+    /** 采集帧间隔指数移动平均的权重 */
+    private static final float INTERVAL_WEIGHT = 0.1f;
+
+    private volatile long capturedFrames;
+    private volatile long droppedFrames;
+    private volatile long decimatedFrames;
+    private volatile long staticSkippedFrames;
+    private volatile int inputQueueDepth;
+    private volatile long encodedFrames;
+    private volatile long encodedBytes;
+    private volatile float captureIntervalUs;
+    private long lastCaptureUs;
+    private final LatencyHistogram encodeLatency;
+    private final LatencyHistogram pushLatency;
+
+    public EncoderMetrics() {
+        this(new LatencyHistogram(), new LatencyHistogram());
+    }
+
+    private EncoderMetrics(LatencyHistogram encodeLatency, LatencyHistogram pushLatency) {
+        this.encodeLatency = encodeLatency;
+        this.pushLatency = pushLatency;
+    }
+
+    /**
+     * 记录一个采集帧，在 Camera 回调线程调用
+     *
+     * @param timeUs 采集时间，单位：微秒
+     */
+    void onFrameCaptured(long timeUs) {
+        long last = lastCaptureUs;
+        lastCaptureUs = timeUs;
+        if (last > 0 && timeUs > last) {
+            float interval = captureIntervalUs;
+            captureIntervalUs = interval == 0 ? timeUs - last : interval + (timeUs - last - interval) * INTERVAL_WEIGHT;
+        }
+        capturedFrames++;
+    }
+
+    /**
+     * 记录一个因编码队列已满而丢弃的帧
+     */
+    void onFrameDropped() {
+        droppedFrames++;
+    }
+
+    /**
+     * 记录一个因帧率限制而丢弃的帧
+     */
+    void onFrameDecimated() {
+        decimatedFrames++;
+    }
+
+    /**
+     * 记录一个因画面静止而跳过的帧
+     */
+    void onFrameStaticSkipped() {
+        staticSkippedFrames++;
+    }
+
+    void setInputQueueDepth(int depth) {
+        inputQueueDepth = depth;
+    }
+
+    /**
+     * 记录一个编码输出帧，在编码线程调用
+     *
+     * @param size 帧大小
+     * @param latencyUs 从输入队列到编码输出的时间，单位：微秒
+     */
+    void onFrameEncoded(int size, long latencyUs) {
+        encodedFrames++;
+        encodedBytes += size;
+        encodeLatency.record(latencyUs);
+    }
+
+    /**
+     * 记录一次输出帧回调（推送到 RTSP 服务）的耗时，在编码线程调用
+     */
+    void onFramePushed(long durationUs) {
+        pushLatency.record(durationUs);
+    }
+
+    /**
+     * 获取采集帧数，不包括因帧率限制丢弃和画面静止跳过的帧
+     */
+    public long getCapturedFrames() {
+        return capturedFrames;
+    }
+
+    /**
+     * 获取因编码队列已满而丢弃的帧数
+     */
+    public long getDroppedFrames() {
+        return droppedFrames;
+    }
+
+    /**
+     * 获取因帧率限制（{@link VideoEncoder#setMaxFrameRate}）而丢弃的帧数
+     */
+    public long getDecimatedFrames() {
+        return decimatedFrames;
+    }
+
+    /**
+     * 获取因画面静止（{@link VideoEncoder#setStaticFrameRate}）而跳过的帧数
+     */
+    public long getStaticSkippedFrames() {
+        return staticSkippedFrames;
+    }
+
+    /**
+     * 获取因画面静止跳过的帧占通过帧率限制的帧的比例
+     */
+    public float getStaticSkipRatio() {
+        long skipped = staticSkippedFrames;
+        long total = skipped + capturedFrames;
+        return total > 0 ? (float) skipped / total : 0;
+    }
+
+    /**
+     * 获取最近一次采集时编码队列中等待的帧数
+     */
+    public int getInputQueueDepth() {
+        return inputQueueDepth;
+    }
+
+    /**
+     * 获取编码输出帧数，不包括 codec-config 数据
+     */
+    public long getEncodedFrames() {
+        return encodedFrames;
+    }
+
+    /**
+     * 获取编码输出字节数
+     */
+    public long getEncodedBytes() {
+        return encodedBytes;
+    }
+
+    /**
+     * 获取采集帧率（按采集间隔的移动平均计算）
+     */
+    public float getCaptureFps() {
+        float interval = captureIntervalUs;
+        return interval > 0 ? 1000000f / interval : 0;
+    }
+
+    /**
+     * 获取编码延迟直方图：从帧放入编码队列到编码器输出，单位：微秒
+     */
+    public LatencyHistogram getEncodeLatency() {
+        return encodeLatency;
+    }
+
+    /**
+     * 获取推送延迟直方图：输出帧回调（例如 native 服务的推帧、NIO 服务的打包发送）的耗时，单位：微秒
+     */
+    public LatencyHistogram getPushLatency() {
+        return pushLatency;
+    }
+
+    /**
+     * 复制当前数据，用于生成快照
+     */
+    public EncoderMetrics copy() {
+        EncoderMetrics copy = new EncoderMetrics(encodeLatency.copy(), pushLatency.copy());
+        copy.capturedFrames = capturedFrames;
+        copy.droppedFrames = droppedFrames;
+        copy.decimatedFrames = decimatedFrames;
+        copy.staticSkippedFrames = staticSkippedFrames;
+        copy.inputQueueDepth = inputQueueDepth;
+        copy.encodedFrames = encodedFrames;
+        copy.encodedBytes = encodedBytes;
+        copy.captureIntervalUs = captureIntervalUs;
+        return copy;
+    }
+
+    @Override
+    public String toString() {
+        return "EncoderMetrics{captureFps=" + String.format("%.1f", getCaptureFps())
+                + ", captured=" + capturedFrames
+                + ", dropped=" + droppedFrames
+                + ", decimated=" + decimatedFrames
+                + ", staticSkipped=" + staticSkippedFrames
+                + ", queueDepth=" + inputQueueDepth
+                + ", encoded=" + encodedFrames
+                + ", encodedBytes=" + encodedBytes
+                + ", encodeLatency={" + encodeLatency + "}"
+                + ", pushLatency={" + pushLatency + "}}";
+    }
+}
@@ -0,0 +1,110 @@
+package com.telpo.rtsplive;
+
+import java.io.File;
+
+/**
+ * 事件录像接口
+ * <p>
+ * 作为帧源的额外输出监听，在固定大小的内存缓冲区中始终保留最近一段时间的 H264 帧，平时不写存储。
+ * 发生事件时调用 {@link #trigger()}，把事件前缓冲的画面和事件后一段时间的画面导出为一个 MP4 文件，用法：
+ * <pre> {@code
+ * EventRecorder recorder = EventRecorder.createPreEventRecorder(new File(context.getExternalFilesDir(null), "event"));
+ * recorder.setPreEventDuration(15);
+ * recorder.setPostEventDuration(10);
+ * recorder.start();
+ * videoEncoder.addOutputListener(recorder);
+ * // 发生事件时
+ * File clip = recorder.trigger();}</pre>
+ * 缓冲区按 GOP 淘汰，总是从关键帧开始。导出在后台线程进行，不影响直播
+ *
+ * @author  gfm
+ * @since   1.1
+ */
+public interface EventRecorder extends FramedSource.OutputListener {
+    /**
+     * 设置事件前保留的时长，需要在 {@link #start()} 之前调用
+     * <p>
+     * 缓冲区按 GOP 淘汰，实际保留的时长在这个时长和这个时长加一个 GOP 之间，缓冲区大小不够时会更短
+     *
+     * @param seconds 事件前时长，单位：秒，不设置默认为 10
+     */
+    void setPreEventDuration(int seconds);
+
+    /**
+     * 设置事件后继续录制的时长
+     *
+     * @param seconds 事件后时长，单位：秒，不设置默认为 10
+     */
+    void setPostEventDuration(int seconds);
+
+    /**
+     * 设置帧缓冲区大小，需要在 {@link #start()} 之前调用
+     *
+     * @param bytes 缓冲区大小，不设置默认为 8MB，需要大于事件前时长加上导出过程中的码流
+     */
+    void setBufferSize(int bytes);
+
+    /**
+     * 分配缓冲区并启动导出线程
+     */
+    void start();
+
+    /**
+     * 停止导出线程，正在导出的文件写完已收到的帧后关闭，阻塞到写入完成
+     */
+    void stop();
+
+    /**
+     * 触发事件，在下一帧到达时冻结当前缓冲的画面，导出到新文件，直到事件后时长结束
+     * <p>
+     * 导出过程中再次触发时不创建新文件，而是从这一次触发开始重新计算事件后时长
+     *
+     * @return 导出的文件，文件名为 yyyyMMdd-HHmmss.mp4，未启动时返回 null
+     */
+    File trigger();
+
+    /**
+     * 是否有已触发还没有写完的导出
+     */
+    boolean isExporting();
+
+    /**
+     * 获取缓冲区中画面的时长，单位：毫秒
+     */
+    long getBufferedDuration();
+
+    /**
+     * 获取已完成的导出文件个数
+     */
+    int getClipCount();
+
+    /**
+     * 获取因缓冲区已满而丢弃的帧数，导出期间写入速度跟不上时增加
+     */
+    long getDroppedFrames();
+
+    /**
+     * 获取写入或创建文件失败的次数
+     */
+    long getWriteErrors();
+
+    /**
+     * 创建事件前预录像
+     * <p>
+     * 实现类是
+     * com.telpo.rtsplive.PreEventRecorder，通过反射来创建对象
+     *
+     * @param directory 导出文件的保存目录，不存在时自动创建
+     * @return 返回新创建的 EventRecorder 对象
+     * @throws RuntimeException 如果反射调用异常
+     */
+    static EventRecorder createPreEventRecorder(File directory) {
+        try {
+            return (EventRecorder) Class.forName("com.telpo.rtsplive.PreEventRecorder")
+                    .getConstructor(File.class).newInstance(directory);
+        } catch (Exception e) {
+            e.printStackTrace();
+            throw new RuntimeException(e.getMessage());
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.telpo.rtsplive;
 
+import java.io.File;
 import java.nio.ByteBuffer;
 
 /**
@@ -39,4 +40,51 @@ public interface FramedSource {
      * @see OutputListener
      */
     void setOutputListener(OutputListener listener);
+
+    /**
+     * 添加额外的输出帧监听，例如本地录像，和 {@link #setOutputListener} 设置的监听同时生效
+     * <p>
+     * 额外的监听在 setOutputListener 设置的监听之后、在同一个输出线程中回调，回调中不能阻塞，否则会延迟下一帧。
+     * 帧源强引用添加的监听，不再使用时需要调用 {@link #removeOutputListener} 移除
+     *
+     * @throws UnsupportedOperationException 帧源不支持多个监听
+     * @since 1.1
+     */
+    default void addOutputListener(OutputListener listener) {
+        throw new UnsupportedOperationException("multiple listeners not supported");
+    }
+
+    /**
+     * 移除 {@link #addOutputListener} 添加的监听
+     *
+     * @since 1.1
+     */
+    default void removeOutputListener(OutputListener listener) {
+    }
+
+    /**
+     * 创建 H264 Annex-B 文件帧源
+     * <p>
+     * 实现类是
+     * com.telpo.rtsplive.AnnexBFileSource，通过反射来创建对象
+     * <p>
+     * 文件被映射到内存并建立帧索引，按指定帧率输出映射缓冲区的视图，不复制数据也不需要编码器，
+     * 可以用作循环点播源，或者在没有 Camera 的情况下测试 RtspServer 的发送能力
+     *
+     * @param file H264 Annex-B 裸流文件，不能超过 2GB
+     * @param frameRate 输出帧率
+     * @param loop 播放到文件末尾后是否从头循环
+     * @return 返回新创建的 FramedSource 对象
+     * @throws RuntimeException 如果反射调用异常、文件读取失败或文件中没有 IDR 帧
+     * @since 1.1
+     */
+    static FramedSource createFileSource(File file, int frameRate, boolean loop) {
+        try {
+            return (FramedSource) Class.forName("com.telpo.rtsplive.AnnexBFileSource")
+                    .getConstructor(File.class, int.class, boolean.class).newInstance(file, frameRate, loop);
+        } catch (Exception e) {
+            e.printStackTrace();
+            throw new RuntimeException(e.getMessage());
+        }
+    }
 }
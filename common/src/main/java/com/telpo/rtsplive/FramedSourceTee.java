@@ -0,0 +1,97 @@
+package com.telpo.rtsplive;
+
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 帧源的输出监听分发
+ * <p>
+ * {@link FramedSource#setOutputListener} 设置的主监听（通常是会话委托）用弱引用保存，每帧最先回调，
+ * 直播不受其他监听影响；{@link FramedSource#addOutputListener} 添加的监听用强引用保存，之后按添加顺序回调。
+ * 每个监听收到的缓冲区 position/limit 相同，监听修改后会被恢复。分发在帧源输出线程执行，不加锁也不分配内存。
+ * <p>
+ * 编码器只在启动时输出一次配置帧（SPS/PPS），{@link #dispatchConfig} 保存它的副本，
+ * 之后添加的监听在输出线程收到下一帧之前先收到这个配置帧
+ *
+ * @author  gfm
+ * @since   1.1
+ */
+final class FramedSourceTee {
+    private volatile WeakReference<FramedSource.OutputListener> primary;
+    private final CopyOnWriteArrayList<FramedSource.OutputListener> listeners = new CopyOnWriteArrayList<>();
+    /** 还没有收到配置帧的监听 */
+    private final CopyOnWriteArrayList<FramedSource.OutputListener> pendingConfig = new CopyOnWriteArrayList<>();
+    private volatile ByteBuffer config;
+    private volatile long configPtsUs;
+
+    void setPrimary(FramedSource.OutputListener listener) {
+        primary = new WeakReference<>(listener);
+    }
+
+    void add(FramedSource.OutputListener listener) {
+        if (listener != null && listeners.addIfAbsent(listener) && config != null) {
+            pendingConfig.add(listener);
+        }
+    }
+
+    void remove(FramedSource.OutputListener listener) {
+        listeners.remove(listener);
+        pendingConfig.remove(listener);
+    }
+
+    /**
+     * 分发编码器配置帧，保存一份副本给之后添加的监听
+     *
+     * @return 没有任何监听时返回 false
+     */
+    boolean dispatchConfig(ByteBuffer buffer, int size, long presentationTimeUs) {
+        ByteBuffer source = buffer.duplicate();
+        source.limit(source.position() + size);
+        ByteBuffer copy = ByteBuffer.allocate(size);
+        copy.put(source);
+        copy.flip();
+        configPtsUs = presentationTimeUs;
+        config = copy;
+        pendingConfig.clear();
+        return dispatch(buffer, size, presentationTimeUs);
+    }
+
+    /**
+     * 把一帧分发给所有监听
+     *
+     * @return 没有任何监听时返回 false
+     */
+    boolean dispatch(ByteBuffer buffer, int size, long presentationTimeUs) {
+        WeakReference<FramedSource.OutputListener> reference = primary;
+        FramedSource.OutputListener listener = reference == null ? null : reference.get();
+        int position = buffer.position();
+        int limit = buffer.limit();
+        boolean dispatched = false;
+        if (listener != null) {
+            listener.onFrameOutput(buffer, size, presentationTimeUs);
+            dispatched = true;
+        }
+        if (!pendingConfig.isEmpty()) {
+            replayConfig();
+        }
+        for (FramedSource.OutputListener extra : listeners) {
+            buffer.limit(limit);
+            buffer.position(position);
+            extra.onFrameOutput(buffer, size, presentationTimeUs);
+            dispatched = true;
+        }
+        return dispatched;
+    }
+
+    private void replayConfig() {
+        ByteBuffer copy = config;
+        for (FramedSource.OutputListener listener : pendingConfig) {
+            pendingConfig.remove(listener);
+            if (copy != null && listeners.contains(listener)) {
+                ByteBuffer view = copy.duplicate();
+                listener.onFrameOutput(view, view.remaining(), configPtsUs);
+            }
+        }
+    }
+}
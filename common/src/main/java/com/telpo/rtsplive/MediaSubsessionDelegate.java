@@ -61,4 +61,33 @@ public interface MediaSubsessionDelegate {
             throw new RuntimeException(e.getMessage());
         }
     }
+
+    /**
+     * 创建供 NIO RtspServer 使用的视频会话委托
+     * <p>
+     * 实现类是
+     * com.telpo.rtsplive.H264RtpSubsessionDelegate，帧源是媒体类型为 video/hevc 的 {@link VideoEncoder} 时是
+     * com.telpo.rtsplive.H265RtpSubsessionDelegate，通过反射来创建对象
+     * <p>
+     * 与 {@link #createDefaultVideoDelegate} 不同，这个委托在 Java 层完成 H264 RTP 打包（RFC 6184）
+     * 或 H265 RTP 打包（RFC 7798），只能配合 {@link RtspServer#createNioBuilder} 创建的 RtspServer 使用
+     *
+     * @param framedSource 提供 H264 或 H265 数据帧
+     * @return 返回新创建的 MediaSubsessionDelegate 对象
+     * @throws RuntimeException 如果反射调用异常
+     * @since 1.1
+     */
+    static MediaSubsessionDelegate createRtpVideoDelegate(FramedSource framedSource) {
+        try {
+            boolean hevc = framedSource instanceof VideoEncoder
+                    && VideoEncoder.MIME_HEVC.equals(((VideoEncoder) framedSource).getMime());
+            Class<?> clazz = Class.forName(hevc ? "com.telpo.rtsplive.H265RtpSubsessionDelegate"
+                    : "com.telpo.rtsplive.H264RtpSubsessionDelegate");
+            Constructor c = clazz.getConstructor(FramedSource.class);
+            return (MediaSubsessionDelegate) c.newInstance(framedSource);
+        } catch (Exception e) {
+            e.printStackTrace();
+            throw new RuntimeException(e.getMessage());
+        }
+    }
 }
@@ -0,0 +1,106 @@
+package com.telpo.rtsplive;
+
+/**
+ * 单个挂载点的统计快照
+ *
+ * @author  gfm
+ * @since   1.1
+ * @see ServerMetrics#getMounts()
+ */
+public final class MountMetrics {
+    private final String streamName;
+    private final int sessionCount;
+    private final int playingSessionCount;
+    private final long ringDroppedFrames;
+    private final EncoderMetrics encoderMetrics;
+    private final LatencyHistogram pacingDelay;
+    private final long keyFrameRequests;
+    private final long suppressedKeyFrameRequests;
+
+    MountMetrics(String streamName, int sessionCount, int playingSessionCount, long ringDroppedFrames,
+                 EncoderMetrics encoderMetrics, LatencyHistogram pacingDelay, long keyFrameRequests,
+                 long suppressedKeyFrameRequests) {
+        this.streamName = streamName;
+        this.sessionCount = sessionCount;
+        this.playingSessionCount = playingSessionCount;
+        this.ringDroppedFrames = ringDroppedFrames;
+        this.encoderMetrics = encoderMetrics;
+        this.pacingDelay = pacingDelay;
+        this.keyFrameRequests = keyFrameRequests;
+        this.suppressedKeyFrameRequests = suppressedKeyFrameRequests;
+    }
+
+    /**
+     * 获取流名称，不含开头和结尾的 /，默认挂载点为空字符串
+     */
+    public String getStreamName() {
+        return streamName;
+    }
+
+    /**
+     * 获取会话个数
+     */
+    public int getSessionCount() {
+        return sessionCount;
+    }
+
+    /**
+     * 获取正在播放的会话个数
+     */
+    public int getPlayingSessionCount() {
+        return playingSessionCount;
+    }
+
+    /**
+     * 获取因大于帧环数据区而无法发送的帧数
+     */
+    public long getRingDroppedFrames() {
+        return ringDroppedFrames;
+    }
+
+    /**
+     * 获取视频编码器的统计
+     *
+     * @return 视频会话委托的帧源不是 {@link VideoEncoder} 或编码器不支持统计时返回 null
+     */
+    public EncoderMetrics getEncoderMetrics() {
+        return encoderMetrics;
+    }
+
+    /**
+     * 获取平滑发送的排队延迟直方图：帧写入帧环到最后一个 RTP 包发出，单位：微秒
+     *
+     * @return 没有启用平滑发送时返回 null
+     * @see RtspServer.Builder#setPacing(boolean, int)
+     */
+    public LatencyHistogram getPacingDelay() {
+        return pacingDelay;
+    }
+
+    /**
+     * 获取发给编码器的关键帧请求数，由客户端开始播放或 RTCP PLI/FIR 触发
+     *
+     * @see VideoEncoder#requestKeyFrame()
+     */
+    public long getKeyFrameRequests() {
+        return keyFrameRequests;
+    }
+
+    /**
+     * 获取因限频被忽略的关键帧请求数，大量客户端同时加入时这个值会增加
+     */
+    public long getSuppressedKeyFrameRequests() {
+        return suppressedKeyFrameRequests;
+    }
+
+    @Override
+    public String toString() {
+        return "MountMetrics{stream=" + streamName
+                + ", sessions=" + sessionCount
+                + ", playing=" + playingSessionCount
+                + ", ringDropped=" + ringDroppedFrames
+                + ", encoder=" + encoderMetrics
+                + ", keyFrameRequests=" + keyFrameRequests + "/" + suppressedKeyFrameRequests
+                + (pacingDelay == null ? "" : ", pacingDelay=" + pacingDelay) + "}";
+    }
+}
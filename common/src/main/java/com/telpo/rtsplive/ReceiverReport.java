@@ -0,0 +1,114 @@
+package com.telpo.rtsplive;
+
+/**
+ * 客户端 RTCP 接收者报告（RFC 3550 RR）中与本端 RTP 流相关的统计数据
+ *
+ * @author  gfm
+ * @since   1.1
+ * @see RtspServer.ReceiverReportListener
+ */
+public final class ReceiverReport {
+    private final String sessionId;
+    private final int ssrc;
+    private final float fractionLost;
+    private final int cumulativeLost;
+    private final long highestSequence;
+    private final int jitterMs;
+    private final int roundTripTimeMs;
+    private final long lag;
+    private final long receivedTimeMs;
+
+    ReceiverReport(String sessionId, int ssrc, float fractionLost, int cumulativeLost, long highestSequence,
+                   int jitterMs, int roundTripTimeMs, long lag, long receivedTimeMs) {
+        this.sessionId = sessionId;
+        this.ssrc = ssrc;
+        this.fractionLost = fractionLost;
+        this.cumulativeLost = cumulativeLost;
+        this.highestSequence = highestSequence;
+        this.jitterMs = jitterMs;
+        this.roundTripTimeMs = roundTripTimeMs;
+        this.lag = lag;
+        this.receivedTimeMs = receivedTimeMs;
+    }
+
+    /**
+     * 获取 RTSP 会话 ID
+     */
+    public String getSessionId() {
+        return sessionId;
+    }
+
+    /**
+     * 获取报告对应的 RTP 流 SSRC
+     */
+    public int getSsrc() {
+        return ssrc;
+    }
+
+    /**
+     * 获取上一个报告间隔内的丢包率
+     *
+     * @return 0 到 1 之间
+     */
+    public float getFractionLost() {
+        return fractionLost;
+    }
+
+    /**
+     * 获取累计丢包数，收到重复包时可能为负数
+     */
+    public int getCumulativeLost() {
+        return cumulativeLost;
+    }
+
+    /**
+     * 获取收到的最大扩展序号（高 16 位是序号回绕次数）
+     */
+    public long getHighestSequence() {
+        return highestSequence;
+    }
+
+    /**
+     * 获取到达间隔抖动，单位：毫秒
+     */
+    public int getJitterMs() {
+        return jitterMs;
+    }
+
+    /**
+     * 获取由 SR/RR 计算的往返时间，单位：毫秒
+     *
+     * @return 客户端还没有收到 SR 时返回 -1
+     */
+    public int getRoundTripTimeMs() {
+        return roundTripTimeMs;
+    }
+
+    /**
+     * 获取收到报告时会话的发送积压帧数
+     * <p>
+     * TCP 交织传输不会丢包，网络拥塞表现为发送积压
+     */
+    public long getLag() {
+        return lag;
+    }
+
+    /**
+     * 获取收到报告的时间，单位：毫秒（{@link System#currentTimeMillis()}）
+     */
+    public long getReceivedTimeMs() {
+        return receivedTimeMs;
+    }
+
+    @Override
+    public String toString() {
+        return "ReceiverReport{session=" + sessionId
+                + ", ssrc=" + String.format("%08X", ssrc)
+                + ", fractionLost=" + fractionLost
+                + ", cumulativeLost=" + cumulativeLost
+                + ", highestSequence=" + highestSequence
+                + ", jitterMs=" + jitterMs
+                + ", rttMs=" + roundTripTimeMs
+                + ", lag=" + lag + "}";
+    }
+}
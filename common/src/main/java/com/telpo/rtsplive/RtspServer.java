@@ -1,5 +1,7 @@
 package com.telpo.rtsplive;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.concurrent.Executor;
 
 /**
@@ -28,6 +30,36 @@ public interface RtspServer {
         void onStart(RtspServer server);
     }
 
+    /**
+     * RTCP 接收者报告监听接口，仅 NIO 实现支持
+     *
+     * @see Builder#setReceiverReportListener(ReceiverReportListener)
+     * @since 1.1
+     */
+    interface ReceiverReportListener {
+        /**
+         * 收到客户端的接收者报告时回调，在 RtspServer 的事件循环线程中调用，不能做耗时操作
+         *
+         * @param report 接收者报告
+         */
+        void onReceiverReport(ReceiverReport report);
+    }
+
+    /**
+     * 统计监听接口，仅 NIO 实现支持
+     *
+     * @see Builder#setMetricsListener(MetricsListener, long)
+     * @since 1.1
+     */
+    interface MetricsListener {
+        /**
+         * 定时回调统计快照，在 RtspServer 的事件循环线程中调用，不能做耗时操作
+         *
+         * @param metrics 统计快照
+         */
+        void onMetrics(ServerMetrics metrics);
+    }
+
     /**
      * 启动 Rtsp 服务
      *
@@ -67,6 +99,41 @@ public interface RtspServer {
      */
     String getResultMsg();
 
+    /**
+     * 获取当前的统计快照，包括会话的发送统计、RTCP 丢包和视频编码器的统计，可以在任何线程调用
+     *
+     * @return 不支持统计时返回 null（默认 native 实现）
+     * @since 1.1
+     */
+    default ServerMetrics getMetrics() {
+        return null;
+    }
+
+    /**
+     * 添加挂载点，所有挂载点共用一个监听端口和事件循环，可以在服务运行时调用，仅 NIO 实现支持
+     * <p>
+     * 挂载点的 Rtsp Url 地址是 rtsp://host:port/streamName
+     *
+     * @param streamName 流名称，为 null 或空字符串时表示默认挂载点
+     * @param delegate 视频会话委托，不能为 null
+     * @return 添加成功返回 true，流名称已经存在或不支持时返回 false
+     * @since 1.1
+     */
+    default boolean addMount(String streamName, MediaSubsessionDelegate delegate) {
+        return false;
+    }
+
+    /**
+     * 移除挂载点并关闭其所有会话，可以在服务运行时调用，仅 NIO 实现支持
+     *
+     * @param streamName 流名称，为 null 或空字符串时表示默认挂载点
+     * @return 移除成功返回 true，流名称不存在或不支持时返回 false
+     * @since 1.1
+     */
+    default boolean removeMount(String streamName) {
+        return false;
+    }
+
     /**
      * 创建默认 Builder（RtspServer 对象使用 Builder 模式来创建）
      * <p>
@@ -86,6 +153,29 @@ public interface RtspServer {
         }
     }
 
+    /**
+     * 创建纯 Java NIO 实现的 Builder
+     * <p>
+     * 实现类是
+     * com.telpo.rtsplive.NioRtspServerBuilder，通过反射来创建对象
+     * <p>
+     * NIO 实现不依赖 native 事件循环，RTSP 控制、RTP 打包及 UDP/TCP 传输都在 Java 层完成，
+     * 视频会话委托需要使用 {@link MediaSubsessionDelegate#createRtpVideoDelegate} 创建
+     *
+     * @return 返回新创建的 NioRtspServerBuilder 对象
+     * @throws RuntimeException 如果反射调用异常
+     * @see Builder
+     * @since 1.1
+     */
+    static Builder createNioBuilder() {
+        try {
+            return (Builder) Class.forName("com.telpo.rtsplive.NioRtspServerBuilder").newInstance();
+        } catch (Exception e) {
+            e.printStackTrace();
+            throw new RuntimeException(e.getMessage());
+        }
+    }
+
     /**
      * Builder 基础抽象类
      * <p>
@@ -101,6 +191,17 @@ public interface RtspServer {
         protected Listener listener;
         protected Executor executor;
         protected MediaSubsessionDelegate videoDelegate;
+        protected ReceiverReportListener receiverReportListener;
+        protected boolean adaptiveBitrate;
+        protected MetricsListener metricsListener;
+        protected long metricsIntervalMs;
+        protected final Map<String, MediaSubsessionDelegate> mounts = new LinkedHashMap<>();
+        protected String multicastGroup;
+        protected int multicastMinPort;
+        protected int multicastMaxPort;
+        protected int multicastTtl;
+        protected boolean pacing;
+        protected int pacingBurstBytes;
 
         /**
          * 设置 Rtsp 流名称
@@ -184,6 +285,106 @@ public interface RtspServer {
             return this;
         }
 
+        /**
+         * 添加挂载点，仅 NIO 实现支持
+         * <p>
+         * {@link #setStreamName} 和 {@link #setVideoDelegate} 设置的是默认挂载点，
+         * 使用这个方法可以在同一个端口上同时提供多路视频流，例如前后摄像头或主码流加子码流
+         *
+         * @param streamName 流名称，Rtsp Url 地址后会带上 /streamName
+         * @param delegate 视频会话委托，不能为 null
+         * @return This Builder
+         * @see RtspServer#addMount
+         * @since 1.1
+         */
+        public Builder addMount(String streamName, MediaSubsessionDelegate delegate) {
+            this.mounts.put(streamName == null ? "" : streamName, delegate);
+            return this;
+        }
+
+        /**
+         * 设置 RTCP 接收者报告监听，仅 NIO 实现支持
+         *
+         * @param listener {@code ReceiverReportListener} 实例对象
+         * @return This Builder
+         * @since 1.1
+         */
+        public Builder setReceiverReportListener(ReceiverReportListener listener) {
+            this.receiverReportListener = listener;
+            return this;
+        }
+
+        /**
+         * 设置是否根据 RTCP 接收者报告自动调整码率和帧率，仅 NIO 实现支持
+         * <p>
+         * 视频会话委托的帧源是 {@link VideoEncoder} 时有效：客户端丢包或发送积压时降低码率，
+         * 码率降到下限后再降低帧率；网络恢复后先恢复帧率，再逐步恢复码率，最高不超过编码器的初始码率
+         *
+         * @param adaptiveBitrate 是否自动调整，不设置默认为 false
+         * @return This Builder
+         * @since 1.1
+         */
+        public Builder setAdaptiveBitrate(boolean adaptiveBitrate) {
+            this.adaptiveBitrate = adaptiveBitrate;
+            return this;
+        }
+
+        /**
+         * 设置组播发送，仅 NIO 实现支持
+         * <p>
+         * 设置后 DESCRIBE 返回的 SDP 使用组播地址，UDP 客户端都加入同一个组播组，
+         * 不管有多少客户端，每个 RTP 包只发送一次；TCP 交织客户端仍然单独发送。
+         * 每个挂载点从端口范围中分配一对端口（RTP 偶数端口，RTCP 为 RTP 端口 + 1），
+         * 组地址在 232.0.0.0/8 内时 SDP 会带上 source-filter 属性（SSM）。
+         * 客户端发到组地址的 RTCP 接收者报告用于统计在线客户端，见 {@link SessionMetrics#isMulticast()}
+         *
+         * @param group 组播组地址，例如 232.1.1.1，为 null 时不使用组播
+         * @param minPort 端口范围下限，包含
+         * @param maxPort 端口范围上限，包含
+         * @param ttl 组播 TTL，局域网一般为 1
+         * @return This Builder
+         * @since 1.1
+         */
+        public Builder setMulticast(String group, int minPort, int maxPort, int ttl) {
+            this.multicastGroup = group;
+            this.multicastMinPort = minPort;
+            this.multicastMaxPort = maxPort;
+            this.multicastTtl = ttl;
+            return this;
+        }
+
+        /**
+         * 设置是否平滑发送 RTP 包，仅 NIO 实现支持
+         * <p>
+         * 启用后每个 UDP 会话按令牌桶发送，速率为 {@link VideoEncoder#getBitrate()} 的 2.5 倍，
+         * 关键帧的 RTP 包会分散在几个帧间隔内发出，避免突发丢包；视频会话委托的帧源不是 {@link VideoEncoder} 时不限速。
+         * 排队延迟见 {@link MountMetrics#getPacingDelay()}
+         *
+         * @param pacing 是否启用，不设置默认为 false
+         * @param burstBytes 每个会话允许连续发送的字节数，不小于一个 RTP 包
+         * @return This Builder
+         * @since 1.1
+         */
+        public Builder setPacing(boolean pacing, int burstBytes) {
+            this.pacing = pacing;
+            this.pacingBurstBytes = burstBytes;
+            return this;
+        }
+
+        /**
+         * 设置统计监听，仅 NIO 实现支持
+         *
+         * @param listener {@code MetricsListener} 实例对象
+         * @param intervalMs 回调间隔，单位：毫秒
+         * @return This Builder
+         * @since 1.1
+         */
+        public Builder setMetricsListener(MetricsListener listener, long intervalMs) {
+            this.metricsListener = listener;
+            this.metricsIntervalMs = intervalMs;
+            return this;
+        }
+
         /**
          * 使用这个 Builder 提供的参数来创建 {@link RtspServer}
          * <p>
@@ -0,0 +1,127 @@
+package com.telpo.rtsplive;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * RtspServer 的统计快照，包括所有客户端会话和各挂载点的统计
+ *
+ * @author  gfm
+ * @since   1.1
+ * @see RtspServer#getMetrics()
+ */
+public final class ServerMetrics {
+    private final long timestampMs;
+    private final List<SessionMetrics> sessions;
+    private final List<MountMetrics> mounts;
+
+    ServerMetrics(long timestampMs, List<SessionMetrics> sessions, List<MountMetrics> mounts) {
+        this.timestampMs = timestampMs;
+        this.sessions = Collections.unmodifiableList(sessions);
+        this.mounts = Collections.unmodifiableList(mounts);
+    }
+
+    /**
+     * 获取快照时间，单位：毫秒（{@link System#currentTimeMillis()}）
+     */
+    public long getTimestampMs() {
+        return timestampMs;
+    }
+
+    /**
+     * 获取所有会话的统计
+     */
+    public List<SessionMetrics> getSessions() {
+        return sessions;
+    }
+
+    /**
+     * 获取所有挂载点的统计，按添加顺序排列
+     */
+    public List<MountMetrics> getMounts() {
+        return mounts;
+    }
+
+    /**
+     * 获取指定挂载点的统计
+     *
+     * @param streamName 流名称，默认挂载点为空字符串
+     * @return 找不到返回 null
+     */
+    public MountMetrics getMount(String streamName) {
+        for (MountMetrics mount : mounts) {
+            if (mount.getStreamName().equals(streamName)) {
+                return mount;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 获取会话个数
+     */
+    public int getSessionCount() {
+        return sessions.size();
+    }
+
+    /**
+     * 获取正在播放的会话个数
+     */
+    public int getPlayingSessionCount() {
+        int count = 0;
+        for (SessionMetrics session : sessions) {
+            if (session.isPlaying()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 获取所有会话已发送的 RTP 包数之和
+     */
+    public long getPacketsSent() {
+        long total = 0;
+        for (SessionMetrics session : sessions) {
+            total += session.getPacketsSent();
+        }
+        return total;
+    }
+
+    /**
+     * 获取所有会话已发送的 RTP 负载字节数之和
+     */
+    public long getBytesSent() {
+        long total = 0;
+        for (SessionMetrics session : sessions) {
+            total += session.getBytesSent();
+        }
+        return total;
+    }
+
+    /**
+     * 获取所有挂载点因大于帧环数据区而无法发送的帧数之和
+     */
+    public long getRingDroppedFrames() {
+        long total = 0;
+        for (MountMetrics mount : mounts) {
+            total += mount.getRingDroppedFrames();
+        }
+        return total;
+    }
+
+    /**
+     * 获取第一个挂载点的视频编码器统计，只有一个挂载点时就是视频编码器的统计
+     *
+     * @return 没有挂载点、帧源不是 {@link VideoEncoder} 或编码器不支持统计时返回 null
+     */
+    public EncoderMetrics getEncoderMetrics() {
+        return mounts.isEmpty() ? null : mounts.get(0).getEncoderMetrics();
+    }
+
+    @Override
+    public String toString() {
+        return "ServerMetrics{sessions=" + sessions
+                + ", mounts=" + mounts + "}";
+    }
+}
@@ -0,0 +1,144 @@
+package com.telpo.rtsplive;
+
+/**
+ * 单个客户端会话的统计快照
+ *
+ * @author  gfm
+ * @since   1.1
+ * @see ServerMetrics#getSessions()
+ */
+public final class SessionMetrics {
+    private final String sessionId;
+    private final String streamName;
+    private final String remoteAddress;
+    private final boolean tcp;
+    private final boolean multicast;
+    private final boolean playing;
+    private final long packetsSent;
+    private final long bytesSent;
+    private final long droppedPackets;
+    private final long lag;
+    private final long overruns;
+    private final ReceiverReport lastReport;
+
+    SessionMetrics(String sessionId, String streamName, String remoteAddress, boolean tcp, boolean multicast,
+                   boolean playing, long packetsSent, long bytesSent, long droppedPackets, long lag,
+                   long overruns, ReceiverReport lastReport) {
+        this.sessionId = sessionId;
+        this.streamName = streamName;
+        this.remoteAddress = remoteAddress;
+        this.tcp = tcp;
+        this.multicast = multicast;
+        this.playing = playing;
+        this.packetsSent = packetsSent;
+        this.bytesSent = bytesSent;
+        this.droppedPackets = droppedPackets;
+        this.lag = lag;
+        this.overruns = overruns;
+        this.lastReport = lastReport;
+    }
+
+    /**
+     * 获取 RTSP 会话 ID
+     */
+    public String getSessionId() {
+        return sessionId;
+    }
+
+    /**
+     * 获取会话所属挂载点的流名称，默认挂载点为空字符串
+     */
+    public String getStreamName() {
+        return streamName;
+    }
+
+    /**
+     * 获取客户端 IP 地址
+     */
+    public String getRemoteAddress() {
+        return remoteAddress;
+    }
+
+    /**
+     * 是否使用 TCP 交织传输
+     */
+    public boolean isTcp() {
+        return tcp;
+    }
+
+    /**
+     * 是否是组播会话
+     * <p>
+     * 组播会话共用一路发送，发送统计是整个组播组的统计，客户端是否在线靠 RTCP 接收者报告和 RTSP 保活判断
+     */
+    public boolean isMulticast() {
+        return multicast;
+    }
+
+    /**
+     * 是否正在播放
+     */
+    public boolean isPlaying() {
+        return playing;
+    }
+
+    /**
+     * 获取已发送的 RTP 包数
+     */
+    public long getPacketsSent() {
+        return packetsSent;
+    }
+
+    /**
+     * 获取已发送的 RTP 负载字节数
+     */
+    public long getBytesSent() {
+        return bytesSent;
+    }
+
+    /**
+     * 获取发送失败丢弃的包数（UDP 发送失败或 TCP 输出缓冲区已满）
+     */
+    public long getDroppedPackets() {
+        return droppedPackets;
+    }
+
+    /**
+     * 获取发送积压帧数
+     */
+    public long getLag() {
+        return lag;
+    }
+
+    /**
+     * 获取因积压过多跳到最近关键帧的次数
+     */
+    public long getOverruns() {
+        return overruns;
+    }
+
+    /**
+     * 获取最近一次收到的 RTCP 接收者报告，其中包括客户端统计的丢包率
+     *
+     * @return 还没有收到时返回 null
+     */
+    public ReceiverReport getLastReport() {
+        return lastReport;
+    }
+
+    @Override
+    public String toString() {
+        return "SessionMetrics{session=" + sessionId
+                + ", stream=" + streamName
+                + ", remote=" + remoteAddress
+                + ", tcp=" + tcp
+                + ", multicast=" + multicast
+                + ", playing=" + playing
+                + ", packets=" + packetsSent
+                + ", bytes=" + bytesSent
+                + ", dropped=" + droppedPackets
+                + ", lag=" + lag
+                + ", overruns=" + overruns
+                + ", fractionLost=" + (lastReport == null ? "-" : String.valueOf(lastReport.getFractionLost())) + "}";
+    }
+}
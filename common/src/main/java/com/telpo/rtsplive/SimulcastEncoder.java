@@ -0,0 +1,75 @@
+package com.telpo.rtsplive;
+
+import android.hardware.Camera;
+
+/**
+ * 多分辨率同时编码（simulcast）接口
+ * <p>
+ * 每个 Camera 帧只送入一次，按各层的缩小倍数缩小后分别送入每层独立的 {@link VideoEncoder}，
+ * 每层有自己的编码线程和 MediaCodec。每层作为帧源挂载到 NIO RtspServer 的一个挂载点，
+ * 没有客户端的层由委托停止编码，也不再做缩小转换。用法：
+ * <pre> {@code
+ * SimulcastEncoder simulcast = SimulcastEncoder.createDefaultSimulcastEncoder(1, 3);
+ * RtspServer.createNioBuilder()
+ *         .setVideoDelegate(MediaSubsessionDelegate.createRtpVideoDelegate(simulcast.getLayer(0)))
+ *         .addMount("sub", MediaSubsessionDelegate.createRtpVideoDelegate(simulcast.getLayer(1)))
+ *         ...
+ * simulcast.initResolution(width, height, rotation);
+ * // Camera 回调中：
+ * if (!simulcast.queueInputFrame(data, camera)) {
+ *     camera.addCallbackBuffer(data);
+ * }}</pre>
+ *
+ * @author  gfm
+ * @since   1.1
+ */
+public interface SimulcastEncoder {
+    /**
+     * 获取层数
+     */
+    int getLayerCount();
+
+    /**
+     * 获取一层的编码器，由媒体子会话委托启动和停止
+     *
+     * @param index 层序号，和创建时缩小倍数的顺序相同
+     */
+    VideoEncoder getLayer(int index);
+
+    /**
+     * 设置源视频帧的宽度、高度以及需要旋转的角度，每层的尺寸是源尺寸除以缩小倍数后向下取偶数
+     * <p>
+     * 编码中调用时各层通过 {@link VideoEncoder#reconfigure} 在线切换
+     *
+     * @see VideoEncoder#initResolution
+     */
+    void initResolution(int width, int height, int rotation);
+
+    /**
+     * 把输入帧缩小后放到各个正在编码的层的编码队列
+     *
+     * @return 和 {@link VideoEncoder#queueInputFrame} 相同
+     */
+    boolean queueInputFrame(byte[] data, Camera camera);
+
+    /**
+     * 创建默认 simulcast 编码器
+     * <p>
+     * 默认实现类是
+     * com.telpo.rtsplive.HWSimulcastEncoder，通过反射来创建对象，每层使用
+     * {@link VideoEncoder#createDefaultVideoEncoder()} 的默认实现
+     *
+     * @param factors 各层的缩小倍数，1 表示原始分辨率
+     * @return 返回新创建的 SimulcastEncoder 对象
+     * @throws RuntimeException 如果反射调用异常
+     */
+    static SimulcastEncoder createDefaultSimulcastEncoder(int... factors) {
+        try {
+            return (SimulcastEncoder) Class.forName("com.telpo.rtsplive.HWSimulcastEncoder")
+                    .getConstructor(int[].class).newInstance((Object) factors);
+        } catch (Exception e) {
+            e.printStackTrace();
+            throw new RuntimeException(e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.telpo.rtsplive;
+
+import java.io.File;
+
+/**
+ * 本地录像接口
+ * <p>
+ * 作为帧源的额外输出监听接收 H264 帧，和直播同时进行。用法：
+ * <pre> {@code
+ * StreamRecorder recorder = StreamRecorder.createMp4Recorder(new File(context.getExternalFilesDir(null), "record"));
+ * recorder.setSegmentDuration(300);
+ * recorder.start();
+ * videoEncoder.addOutputListener(recorder);
+ * // 停止录像
+ * videoEncoder.removeOutputListener(recorder);
+ * recorder.stop();}</pre>
+ * {@link #onFrameOutput} 只把帧复制到预先分配的缓冲区，由后台线程写入文件，不会阻塞帧源输出线程。
+ * 存储写入跟不上时缓冲区满，之后的帧被丢弃直到下一个关键帧，丢弃的帧数见 {@link #getDroppedFrames()}
+ *
+ * @author  gfm
+ * @since   1.1
+ */
+public interface StreamRecorder extends FramedSource.OutputListener {
+    /**
+     * 设置分段时长，到达时长后在下一个关键帧处切换到新文件，需要在 {@link #start()} 之前调用
+     *
+     * @param seconds 分段时长，单位：秒，不设置默认为 60
+     */
+    void setSegmentDuration(int seconds);
+
+    /**
+     * 设置帧缓冲区大小，需要在 {@link #start()} 之前调用
+     *
+     * @param bytes 缓冲区大小，不设置默认为 4MB，需要大于一个关键帧，存储越慢需要越大
+     */
+    void setBufferSize(int bytes);
+
+    /**
+     * 启动写入线程，之后收到的第一个关键帧开始写入新文件
+     */
+    void start();
+
+    /**
+     * 写完缓冲区中的帧后关闭当前文件，停止写入线程，阻塞到写入完成
+     */
+    void stop();
+
+    /**
+     * 获取正在写入的文件
+     *
+     * @return 没有正在写入的文件时返回 null
+     */
+    File getCurrentFile();
+
+    /**
+     * 获取已完成的分段文件个数，不包括正在写入的文件
+     */
+    int getSegmentCount();
+
+    /**
+     * 获取已写入文件的帧数
+     */
+    long getRecordedFrames();
+
+    /**
+     * 获取因缓冲区已满或等待关键帧而丢弃的帧数，持续增加说明存储写入速度不够
+     */
+    long getDroppedFrames();
+
+    /**
+     * 获取写入或创建文件失败的次数
+     */
+    long getWriteErrors();
+
+    /**
+     * 创建分段 fragmented MP4 录像
+     * <p>
+     * 实现类是
+     * com.telpo.rtsplive.FragmentedMp4Recorder，通过反射来创建对象
+     * <p>
+     * 每个分段是一个独立的 fragmented MP4 文件，文件名为 yyyyMMdd-HHmmss.mp4，
+     * 录像中途断电时已写入的片段仍然可以播放
+     *
+     * @param directory 保存目录，不存在时自动创建
+     * @return 返回新创建的 StreamRecorder 对象
+     * @throws RuntimeException 如果反射调用异常
+     */
+    static StreamRecorder createMp4Recorder(File directory) {
+        try {
+            return (StreamRecorder) Class.forName("com.telpo.rtsplive.FragmentedMp4Recorder")
+                    .getConstructor(File.class).newInstance(directory);
+        } catch (Exception e) {
+            e.printStackTrace();
+            throw new RuntimeException(e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.telpo.rtsplive;
+
+import android.graphics.SurfaceTexture;
+import android.hardware.Camera;
+import android.view.Surface;
+
+/**
+ * Surface 输入的视频编码器接口
+ * <p>
+ * Camera 预览直接输出到 {@link #getInputSurfaceTexture()}，由 GLES 旋转后绘制到编码器输入 Surface，
+ * 帧数据不经过 CPU 复制和格式转换。Camera 只能有一个预览目标，需要显示预览时使用
+ * {@link #setPreviewSurface} 由编码器同时绘制到显示 Surface。
+ *
+ * @author  gfm
+ * @since   1.1
+ */
+public interface SurfaceVideoEncoder extends VideoEncoder {
+    /**
+     * 获取 Camera 预览输出的 SurfaceTexture
+     * <p>
+     * 调用 {@link #initResolution} 之后可用，和编码器的启动停止无关，一直有效直到调用 {@link #release()}。
+     * 使用方法：{@code camera.setPreviewTexture(encoder.getInputSurfaceTexture())}
+     *
+     * @return 还没有调用 initResolution 时返回 null
+     */
+    SurfaceTexture getInputSurfaceTexture();
+
+    /**
+     * 设置预览显示的 Surface
+     *
+     * @param surface 显示 Surface，为 null 时不显示
+     * @param width Surface 宽度
+     * @param height Surface 高度
+     */
+    void setPreviewSurface(Surface surface, int width, int height);
+
+    /**
+     * Surface 输入不需要传入帧数据
+     *
+     * @return 总是返回 false
+     */
+    @Override
+    boolean queueInputFrame(byte[] data, Camera camera);
+
+    /**
+     * 停止编码并释放 SurfaceTexture 和 GLES 资源
+     */
+    void release();
+
+    /**
+     * 创建默认 Surface 输入视频编码器
+     * <p>
+     * 默认实现类是
+     * com.telpo.rtsplive.HWSurfaceVideoEncoder，通过反射来创建对象
+     * <p>
+     * 默认实现使用 {@link android.media.MediaCodec#createInputSurface()} 编码，媒体类型是 video/avc，
+     * 视频码率和 {@link VideoEncoder#createDefaultVideoEncoder()} 相同
+     *
+     * @return 返回新创建的 SurfaceVideoEncoder 对象
+     * @throws RuntimeException 如果反射调用异常
+     */
+    static SurfaceVideoEncoder createDefaultSurfaceVideoEncoder() {
+        try {
+            return (SurfaceVideoEncoder) Class.forName("com.telpo.rtsplive.HWSurfaceVideoEncoder").newInstance();
+        } catch (Exception e) {
+            e.printStackTrace();
+            throw new RuntimeException(e.getMessage());
+        }
+    }
+}
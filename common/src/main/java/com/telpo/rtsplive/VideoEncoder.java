@@ -1,6 +1,7 @@
 package com.telpo.rtsplive;
 
 import android.hardware.Camera;
+import android.media.Image;
 
 /**
  * 视频编码器接口
@@ -9,6 +10,11 @@ import android.hardware.Camera;
  * @since   1.0
  */
 public interface VideoEncoder extends FramedSource {
+    /** H264 媒体类型 */
+    String MIME_AVC = "video/avc";
+    /** H265 媒体类型 */
+    String MIME_HEVC = "video/hevc";
+
     /**
      * 获取媒体类型，例如: video/avc
      */
@@ -43,6 +49,112 @@ public interface VideoEncoder extends FramedSource {
      */
     boolean queueInputFrame(byte[] data, Camera camera);
 
+    /**
+     * 把 YUV_420_888 格式的输入帧放到编码队列，平面数据按行跨距和像素跨距直接转换到编码器输入缓冲区，
+     * 不经过 byte[] 复制
+     * <p>
+     * 图像尺寸需要和 {@link #initResolution} 设置的源尺寸一致。用法和 {@link #queueInputFrame} 类似：
+     * <pre> {@code
+     * Image image = reader.acquireNextImage();
+     * if (image != null && !mVideoEncoder.queueInputImage(image)) {
+     *     image.close();
+     * }}</pre>
+     *
+     * @param image 通常来自 {@link android.media.ImageReader}
+     * @return 如果返回 true，表示编码器持有 image，编码完成后会调用 close；返回 false 时由调用者 close
+     * @since 1.1
+     */
+    default boolean queueInputImage(Image image) {
+        return false;
+    }
+
+    /**
+     * 获取因编码队列已满而丢弃的输入帧数
+     *
+     * @since 1.1
+     */
+    default long getDroppedFrames() {
+        return 0;
+    }
+
+    /**
+     * 获取编码器的运行统计，返回的对象是实时更新的
+     *
+     * @return 不支持统计时返回 null
+     * @since 1.1
+     */
+    default EncoderMetrics getMetrics() {
+        return null;
+    }
+
+    /**
+     * 设置目标码率，编码过程中调用会立即生效
+     * <p>
+     * 重新调用 {@link #initResolution} 会恢复为根据分辨率计算的默认码率
+     *
+     * @param bitrate 目标码率，单位：bps
+     * @since 1.1
+     */
+    default void setBitrate(int bitrate) {
+    }
+
+    /**
+     * 设置最大编码帧率，超出的输入帧会被丢弃，用于在带宽不足时降低帧率
+     *
+     * @param frameRate 最大帧率，0 表示不限制
+     * @since 1.1
+     */
+    default void setMaxFrameRate(int frameRate) {
+    }
+
+    /**
+     * 设置静止场景的最低编码帧率：比较每一帧和上一个编码帧的亮度，画面没有变化时按这个帧率编码，
+     * 出现运动的第一帧立即恢复全帧率。跳过的帧不送入编码器，时间戳仍是采集时间
+     *
+     * @param frameRate 静止时的最低帧率，0 表示静止时不编码，-1 表示不检测（默认）
+     * @since 1.1
+     * @see EncoderMetrics#getStaticSkippedFrames()
+     */
+    default void setStaticFrameRate(int frameRate) {
+    }
+
+    /**
+     * 编码过程中切换源分辨率和旋转角度，不停止编码器，已连接的客户端不断开
+     * <p>
+     * 之后送入的帧需要是新尺寸，编码器输出新的 SPS/PPS 和关键帧，RTSP 会话从带内参数集继续解码。
+     * 码率和帧率可以用 {@link #setBitrate} 和 {@link #setMaxFrameRate} 随时切换；和 {@link #initResolution}
+     * 一样，切换分辨率会恢复为根据新分辨率计算的默认码率。没有启动时等同于 initResolution
+     *
+     * @param width 新的源视频帧宽度
+     * @param height 新的源视频帧高度
+     * @param rotation 需要旋转的角度，可以为：0、90、180、270
+     * @return 不支持在线切换时返回 false，需要停止后调用 initResolution 再启动
+     * @since 1.1
+     */
+    default boolean reconfigure(int width, int height, int rotation) {
+        return false;
+    }
+
+    /**
+     * 设置 Camera 回调缓冲区池，{@link #queueInputFrame} 收到池中的缓冲区时直接持有，编码用完后还给 Camera，
+     * 不再和 Camera 交换缓冲区；队列已满丢弃帧时缓冲区也由编码器还给 Camera，queueInputFrame 返回 true
+     *
+     * @param pool 缓冲区池，null 表示不使用
+     * @since 1.1
+     */
+    default void setCaptureBufferPool(CaptureBufferPool pool) {
+    }
+
+    /**
+     * 请求尽快输出一个关键帧，用于新客户端加入或客户端通过 RTCP PLI/FIR 报告解码出错时
+     * <p>
+     * 调用方负责限制请求频率，编码器不会合并短时间内的多次请求
+     *
+     * @since 1.1
+     */
+    default void requestKeyFrame() {
+    }
+
     /**
      * 创建默认视频编码器
      * <p>
@@ -62,4 +174,30 @@ public interface VideoEncoder extends FramedSource {
             throw new RuntimeException(e.getMessage());
         }
     }
+
+    /**
+     * 创建 H265 视频编码器
+     * <p>
+     * 实现类是
+     * com.telpo.rtsplive.HWVideoEncoder，通过反射来创建对象
+     * <p>
+     * 媒体类型是 video/hevc，默认码率约为同分辨率 H264 的 65%。需要配合
+     * {@link MediaSubsessionDelegate#createRtpVideoDelegate} 创建的会话委托和 NIO RtspServer 使用
+     *
+     * @return 返回新创建的 VideoEncoder 对象，设备没有 H265 编码器时返回 null
+     * @throws RuntimeException 如果反射调用异常
+     * @since 1.1
+     */
+    static VideoEncoder createHevcVideoEncoder() {
+        try {
+            Class<?> clazz = Class.forName("com.telpo.rtsplive.HWVideoEncoder");
+            if (!(Boolean) clazz.getMethod("isMimeSupported", String.class).invoke(null, MIME_HEVC)) {
+                return null;
+            }
+            return (VideoEncoder) clazz.getConstructor(String.class).newInstance(MIME_HEVC);
+        } catch (Exception e) {
+            e.printStackTrace();
+            throw new RuntimeException(e.getMessage());
+        }
+    }
 }
@@ -0,0 +1,761 @@
+package com.telpo.rtsplive;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channel;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 压力测试的一个 RTSP 客户端会话，由 {@link LoadTest} 的事件循环驱动，所有方法都只在事件循环线程调用
+ * <p>
+ * 非阻塞地完成 DESCRIBE/SETUP/PLAY 后接收 RTP，统计帧率、丢包、到达间隔抖动（RFC 3550）和首帧时间。
+ * 服务端到客户端的延迟用 RTCP SR 中 NTP 时间和 RTP 时间戳的对应关系换算：帧的 RTP 时间戳对应的发送端时间
+ * 到最后一个包到达的时间，包含编码输出到打包、排队和网络传输。收到第一个 SR 之前到达的帧先缓存，收到后再计算。
+ * 同一台机器上测试时两端的时钟相同，不需要对时
+ *
+ * @author  gfm
+ * @since   1.1
+ */
+final class LoadClient {
+    static final int STATE_CONNECTING = 0;
+    static final int STATE_SETUP = 1;
+    static final int STATE_PLAYING = 2;
+    static final int STATE_FAILED = 3;
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+    private static final String USER_AGENT = "Telpo Streaming LoadTest";
+    private static final int MAX_MESSAGE_SIZE = 64 * 1024;
+    private static final int UDP_RECEIVE_BUFFER_SIZE = 1024 * 1024;
+    private static final int MAX_DATAGRAM_SIZE = 2048;
+    private static final int DEFAULT_SESSION_TIMEOUT_S = 60;
+    private static final int DEFAULT_CLOCK_RATE = 90000;
+    /** NTP 时间戳起点（1900-01-01）与 Unix 时间起点的秒数差 */
+    private static final long NTP_OFFSET_SECONDS = 2208988800L;
+    /** 收到第一个 SR 之前最多缓存的帧数 */
+    private static final int MAX_PENDING_FRAMES = 1024;
+
+    /** 墙上时间基准，用单调时间推算，微秒精度 */
+    private static final long WALL_BASE_US = System.currentTimeMillis() * 1000;
+    private static final long NANO_BASE = System.nanoTime();
+
+    final int id;
+    private final String url;
+    private final InetSocketAddress address;
+    private final boolean interleaved;
+    private final String userName;
+    private final String password;
+
+    private SocketChannel channel;
+    private DatagramChannel rtpChannel;
+    private DatagramChannel rtcpChannel;
+    private SelectionKey key;
+    private final ByteBuffer input = ByteBuffer.allocate(MAX_MESSAGE_SIZE + 4);
+    private final ArrayDeque<ByteBuffer> output = new ArrayDeque<>();
+    private ByteBuffer datagram;
+    private int state = STATE_CONNECTING;
+    private String error;
+    private int cseq;
+    private String pendingMethod;
+    private String pendingUri;
+    private String pendingHeaders;
+    private String session;
+    private String base;
+    private String realm;
+    private String nonce;
+    private boolean basicAuth;
+    private long keepAliveIntervalUs;
+    private long lastKeepAliveUs;
+
+    private int payloadType = -1;
+    private boolean hevc;
+    private int clockRate = DEFAULT_CLOCK_RATE;
+    private int rtpInterleavedChannel = 0;
+    private int rtcpInterleavedChannel = 1;
+
+    // 统计
+    private long startUs;
+    private long timeToFirstFrameUs = -1;
+    private long firstFrameUs;
+    private long lastFrameUs;
+    private long frames;
+    private long packets;
+    private long bytes;
+    private long baseSeq = -1;
+    private long maxSeq;
+    private boolean frameKey;
+    private boolean hasTransit;
+    private long lastTransit;
+    private double jitter;
+    private boolean hasReport;
+    private long reportWallUs;
+    private int reportRtpTimestamp;
+    private final long[] pendingTimestamps = new long[MAX_PENDING_FRAMES];
+    private final long[] pendingArrivals = new long[MAX_PENDING_FRAMES];
+    private int pendingFrames;
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    /**
+     * @param id 客户端编号
+     * @param url rtsp://[user:password@]host[:port]/path
+     * @param interleaved 为 true 时使用 TCP 交织传输，否则使用 UDP
+     */
+    LoadClient(int id, String url, boolean interleaved) {
+        this.id = id;
+        this.interleaved = interleaved;
+        if (!url.regionMatches(true, 0, "rtsp://", 0, 7)) {
+            throw new IllegalArgumentException("invalid url: " + url);
+        }
+        String rest = url.substring(7);
+        int slash = rest.indexOf('/');
+        String authority = slash < 0 ? rest : rest.substring(0, slash);
+        String path = slash < 0 ? "/" : rest.substring(slash);
+        int at = authority.lastIndexOf('@');
+        if (at >= 0) {
+            String credentials = authority.substring(0, at);
+            authority = authority.substring(at + 1);
+            int colon = credentials.indexOf(':');
+            userName = colon < 0 ? credentials : credentials.substring(0, colon);
+            password = colon < 0 ? "" : credentials.substring(colon + 1);
+        } else {
+            userName = null;
+            password = null;
+        }
+        int colon = authority.lastIndexOf(':');
+        int port = 554;
+        String host = authority;
+        if (colon > 0 && authority.indexOf(']', colon) < 0) {
+            try {
+                port = Integer.parseInt(authority.substring(colon + 1));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("invalid url: " + url);
+            }
+            host = authority.substring(0, colon);
+        }
+        this.address = new InetSocketAddress(host, port);
+        this.url = "rtsp://" + authority + path;
+    }
+
+    /**
+     * 当前的单调墙上时间，单位：微秒
+     */
+    static long nowUs() {
+        return WALL_BASE_US + (System.nanoTime() - NANO_BASE) / 1000;
+    }
+
+    /**
+     * 开始连接，连接和后续的读写都注册到 selector
+     */
+    void start(Selector selector) {
+        startUs = nowUs();
+        try {
+            channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            key = channel.register(selector, SelectionKey.OP_CONNECT, this);
+            if (channel.connect(address)) {
+                onConnected();
+            }
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * 处理 selector 选中的通道
+     */
+    void onSelected(SelectionKey selected) {
+        try {
+            if (selected.channel() == channel) {
+                if (selected.isConnectable() && channel.finishConnect()) {
+                    onConnected();
+                }
+                if (selected.isValid() && selected.isWritable()) {
+                    flush();
+                }
+                if (selected.isValid() && selected.isReadable()) {
+                    read();
+                }
+            } else if (selected.isReadable()) {
+                receiveDatagrams((DatagramChannel) selected.channel());
+            }
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * 事件循环定时调用，发送保活请求
+     */
+    void onTick(long nowUs) {
+        if (state == STATE_PLAYING && nowUs - lastKeepAliveUs >= keepAliveIntervalUs) {
+            lastKeepAliveUs = nowUs;
+            try {
+                send("GET_PARAMETER", url, null);
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+    }
+
+    /**
+     * 发送 TEARDOWN 后关闭所有通道，状态和统计保持不变
+     */
+    void close() {
+        if (state == STATE_PLAYING && session != null) {
+            try {
+                send("TEARDOWN", url, null);
+            } catch (IOException ignored) {
+            }
+        }
+        closeQuietly();
+    }
+
+    private void closeQuietly() {
+        closeQuietly(channel);
+        closeQuietly(rtpChannel);
+        closeQuietly(rtcpChannel);
+    }
+
+    private static void closeQuietly(Channel c) {
+        if (c != null) {
+            try {
+                c.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private void fail(IOException e) {
+        if (state != STATE_FAILED) {
+            state = STATE_FAILED;
+            error = e instanceof EOFException ? "connection closed" : e.getMessage();
+        }
+        closeQuietly();
+    }
+
+    private void onConnected() throws IOException {
+        key.interestOps(SelectionKey.OP_READ);
+        request("DESCRIBE", url, "Accept: application/sdp\r\n");
+    }
+
+    // RTSP 控制连接
+
+    private void request(String method, String uri, String headers) throws IOException {
+        pendingMethod = method;
+        pendingUri = uri;
+        pendingHeaders = headers;
+        send(method, uri, headers);
+    }
+
+    private void send(String method, String uri, String headers) throws IOException {
+        StringBuilder sb = new StringBuilder(256);
+        sb.append(method).append(' ').append(uri).append(" RTSP/1.0\r\n");
+        sb.append("CSeq: ").append(++cseq).append("\r\n");
+        sb.append("User-Agent: ").append(USER_AGENT).append("\r\n");
+        if (session != null) {
+            sb.append("Session: ").append(session).append("\r\n");
+        }
+        if (realm != null && nonce != null) {
+            String ha1 = RtspConnection.md5(userName + ":" + realm + ":" + password);
+            String ha2 = RtspConnection.md5(method + ":" + uri);
+            sb.append("Authorization: Digest username=\"").append(userName)
+                    .append("\", realm=\"").append(realm)
+                    .append("\", nonce=\"").append(nonce)
+                    .append("\", uri=\"").append(uri)
+                    .append("\", response=\"").append(RtspConnection.md5(ha1 + ":" + nonce + ":" + ha2))
+                    .append("\"\r\n");
+        } else if (basicAuth) {
+            sb.append("Authorization: Basic ")
+                    .append(RtpSubsessionDelegate.base64((userName + ":" + password).getBytes(ASCII)))
+                    .append("\r\n");
+        }
+        if (headers != null) {
+            sb.append(headers);
+        }
+        sb.append("\r\n");
+        output.add(ByteBuffer.wrap(sb.toString().getBytes(ASCII)));
+        flush();
+    }
+
+    private void flush() throws IOException {
+        while (!output.isEmpty()) {
+            ByteBuffer buffer = output.peek();
+            channel.write(buffer);
+            if (buffer.hasRemaining()) {
+                key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                return;
+            }
+            output.poll();
+        }
+        key.interestOps(SelectionKey.OP_READ);
+    }
+
+    private void read() throws IOException {
+        while (true) {
+            int n = channel.read(input);
+            if (n < 0) {
+                throw new EOFException();
+            }
+            if (n == 0) {
+                return;
+            }
+            input.flip();
+            while (parse()) {
+                // 继续解析缓冲区中剩余的消息
+            }
+            input.compact();
+            if (state >= STATE_FAILED) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 从输入缓冲区解析一个交织数据包或 RTSP 响应
+     *
+     * @return 解析出完整的消息返回 true，数据不够返回 false
+     */
+    private boolean parse() throws IOException {
+        int start = input.position();
+        int available = input.remaining();
+        if (available == 0) {
+            return false;
+        }
+        if (input.get(start) == '$') {
+            if (available < 4) {
+                return false;
+            }
+            int channelId = input.get(start + 1) & 0xFF;
+            int length = input.getShort(start + 2) & 0xFFFF;
+            if (available < 4 + length) {
+                return false;
+            }
+            long now = nowUs();
+            if (channelId == rtpInterleavedChannel) {
+                onRtp(input, start + 4, length, now);
+            } else if (channelId == rtcpInterleavedChannel) {
+                onRtcp(input, start + 4, length);
+            }
+            input.position(start + 4 + length);
+            return true;
+        }
+        int headerEnd = -1;
+        for (int i = start; i + 3 < input.limit(); i++) {
+            if (input.get(i) == '\r' && input.get(i + 1) == '\n' && input.get(i + 2) == '\r'
+                    && input.get(i + 3) == '\n') {
+                headerEnd = i + 4;
+                break;
+            }
+        }
+        if (headerEnd < 0) {
+            if (available >= MAX_MESSAGE_SIZE) {
+                throw new IOException("response too large");
+            }
+            return false;
+        }
+        byte[] header = new byte[headerEnd - start];
+        input.get(header);
+        String[] lines = new String(header, ASCII).split("\r\n");
+        String[] parts = lines[0].split(" ");
+        if (parts.length < 2 || !parts[0].startsWith("RTSP/")) {
+            throw new IOException("bad response: " + lines[0]);
+        }
+        int status;
+        try {
+            status = Integer.parseInt(parts[1]);
+        } catch (NumberFormatException e) {
+            throw new IOException("bad response: " + lines[0]);
+        }
+        Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        for (int i = 1; i < lines.length; i++) {
+            int colon = lines[i].indexOf(':');
+            if (colon > 0) {
+                headers.put(lines[i].substring(0, colon).trim(), lines[i].substring(colon + 1).trim());
+            }
+        }
+        int length = 0;
+        try {
+            String contentLength = headers.get("Content-Length");
+            length = contentLength == null ? 0 : Integer.parseInt(contentLength.trim());
+        } catch (NumberFormatException ignored) {
+        }
+        if (length < 0 || length > MAX_MESSAGE_SIZE) {
+            throw new IOException("bad content length: " + length);
+        }
+        if (input.remaining() < length) {
+            input.position(start);
+            return false;
+        }
+        byte[] body = new byte[length];
+        input.get(body);
+        onResponse(status, headers, new String(body, ASCII));
+        return true;
+    }
+
+    private void onResponse(int status, Map<String, String> headers, String body) throws IOException {
+        String method = pendingMethod;
+        pendingMethod = null;
+        if (method == null) {
+            // 保活请求的响应
+            return;
+        }
+        if (status == 401 && userName != null && realm == null && !basicAuth) {
+            String challenge = headers.get("WWW-Authenticate");
+            if (challenge != null && challenge.regionMatches(true, 0, "Digest", 0, 6)) {
+                realm = RtspConnection.digestParam(challenge, "realm");
+                nonce = RtspConnection.digestParam(challenge, "nonce");
+            } else {
+                basicAuth = challenge != null && challenge.regionMatches(true, 0, "Basic", 0, 5);
+            }
+            if ((realm != null && nonce != null) || basicAuth) {
+                request(method, pendingUri, pendingHeaders);
+                return;
+            }
+        }
+        if (status != 200) {
+            throw new IOException(method + " failed: " + status);
+        }
+        switch (method) {
+            case "DESCRIBE":
+                onDescribe(headers, body);
+                break;
+            case "SETUP":
+                onSetup(headers);
+                break;
+            case "PLAY":
+                state = STATE_PLAYING;
+                lastKeepAliveUs = nowUs();
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void onDescribe(Map<String, String> headers, String sdp) throws IOException {
+        base = headers.get("Content-Base");
+        if (base == null) {
+            base = headers.get("Content-Location");
+        }
+        if (base == null) {
+            base = url;
+        }
+        String control = parseSdp(sdp);
+        String transport;
+        if (interleaved) {
+            transport = "RTP/AVP/TCP;unicast;interleaved=0-1";
+        } else {
+            Selector selector = key.selector();
+            datagram = ByteBuffer.allocate(MAX_DATAGRAM_SIZE);
+            rtpChannel = openDatagramChannel(selector);
+            rtcpChannel = openDatagramChannel(selector);
+            // 服务端使用 client_port 中的两个端口，不要求相邻
+            transport = "RTP/AVP;unicast;client_port=" + localPort(rtpChannel) + "-" + localPort(rtcpChannel);
+        }
+        state = STATE_SETUP;
+        request("SETUP", control, "Transport: " + transport + "\r\n");
+    }
+
+    private DatagramChannel openDatagramChannel(Selector selector) throws IOException {
+        DatagramChannel datagramChannel = DatagramChannel.open();
+        datagramChannel.configureBlocking(false);
+        datagramChannel.setOption(StandardSocketOptions.SO_RCVBUF, UDP_RECEIVE_BUFFER_SIZE);
+        datagramChannel.bind(new InetSocketAddress(0));
+        datagramChannel.register(selector, SelectionKey.OP_READ, this);
+        return datagramChannel;
+    }
+
+    private static int localPort(DatagramChannel datagramChannel) throws IOException {
+        return ((InetSocketAddress) datagramChannel.getLocalAddress()).getPort();
+    }
+
+    private void onSetup(Map<String, String> headers) throws IOException {
+        String sessionHeader = headers.get("Session");
+        if (sessionHeader == null) {
+            throw new IOException("no session");
+        }
+        int semicolon = sessionHeader.indexOf(';');
+        session = (semicolon < 0 ? sessionHeader : sessionHeader.substring(0, semicolon)).trim();
+        int timeoutS = DEFAULT_SESSION_TIMEOUT_S;
+        int timeout = sessionHeader.indexOf("timeout=");
+        if (timeout > 0) {
+            try {
+                timeoutS = Integer.parseInt(sessionHeader.substring(timeout + 8).split(";")[0].trim());
+            } catch (NumberFormatException ignored) {
+            }
+        }
+        keepAliveIntervalUs = Math.max(1, timeoutS) * 500000L;
+        String transport = headers.get("Transport");
+        if (interleaved && transport != null) {
+            int i = transport.indexOf("interleaved=");
+            if (i >= 0) {
+                try {
+                    String[] channels = transport.substring(i + 12).split(";")[0].split("-");
+                    rtpInterleavedChannel = Integer.parseInt(channels[0].trim());
+                    rtcpInterleavedChannel = channels.length > 1
+                            ? Integer.parseInt(channels[1].trim()) : rtpInterleavedChannel + 1;
+                } catch (NumberFormatException ignored) {
+                }
+            }
+        }
+        request("PLAY", base, "Range: npt=0.000-\r\n");
+    }
+
+    /**
+     * 解析 SDP，保存第一个视频流的负载类型和时钟频率
+     *
+     * @return 视频流的 SETUP 地址
+     */
+    private String parseSdp(String sdp) throws IOException {
+        String control = null;
+        boolean video = false;
+        for (String line : sdp.split("\r?\n")) {
+            if (line.startsWith("m=")) {
+                if (payloadType >= 0) {
+                    break;
+                }
+                video = line.startsWith("m=video");
+                String[] fields = line.split(" ");
+                if (video && fields.length > 3) {
+                    try {
+                        payloadType = Integer.parseInt(fields[3].trim());
+                    } catch (NumberFormatException ignored) {
+                    }
+                }
+            } else if (video && line.startsWith("a=rtpmap:" + payloadType + " ")) {
+                String encoding = line.substring(line.indexOf(' ') + 1).trim().toUpperCase();
+                hevc = encoding.startsWith("H265/");
+                int slash = encoding.indexOf('/');
+                if (slash > 0) {
+                    try {
+                        clockRate = Integer.parseInt(encoding.substring(slash + 1).split("/")[0]);
+                    } catch (NumberFormatException ignored) {
+                    }
+                }
+            } else if (video && line.startsWith("a=control:")) {
+                control = line.substring(10).trim();
+            }
+        }
+        if (payloadType < 0) {
+            throw new IOException("no video stream");
+        }
+        if (control == null || control.equals("*")) {
+            return base;
+        }
+        if (control.regionMatches(true, 0, "rtsp://", 0, 7)) {
+            return control;
+        }
+        return base.endsWith("/") ? base + control : base + "/" + control;
+    }
+
+    // RTP/RTCP
+
+    private void receiveDatagrams(DatagramChannel datagramChannel) throws IOException {
+        ByteBuffer buffer = datagram;
+        while (true) {
+            buffer.clear();
+            if (datagramChannel.receive(buffer) == null) {
+                return;
+            }
+            long now = nowUs();
+            if (datagramChannel == rtpChannel) {
+                onRtp(buffer, 0, buffer.position(), now);
+            } else {
+                onRtcp(buffer, 0, buffer.position());
+            }
+        }
+    }
+
+    private void onRtp(ByteBuffer buffer, int offset, int length, long arrivalUs) {
+        if (length < RtpPacketizer.RTP_HEADER_SIZE || (buffer.get(offset) & 0xC0) != 0x80
+                || (buffer.get(offset + 1) & 0x7F) != payloadType) {
+            return;
+        }
+        packets++;
+        bytes += length;
+        boolean marker = (buffer.get(offset + 1) & 0x80) != 0;
+        int seq = buffer.getShort(offset + 2) & 0xFFFF;
+        int timestamp = buffer.getInt(offset + 4);
+        if (baseSeq < 0) {
+            baseSeq = seq;
+            maxSeq = seq;
+        } else {
+            int delta = (short) (seq - (int) maxSeq);
+            if (delta > 0) {
+                maxSeq += delta;
+            }
+        }
+        // RFC 3550 A.8：同一帧的包时间戳相同，发送间隔也计入抖动
+        long transit = arrivalUs * clockRate / 1000000L - (timestamp & 0xFFFFFFFFL);
+        if (hasTransit) {
+            long d = Math.abs(transit - lastTransit);
+            jitter += (d - jitter) / 16.0;
+        }
+        hasTransit = true;
+        lastTransit = transit;
+
+        int payload = offset + RtpPacketizer.RTP_HEADER_SIZE + (buffer.get(offset) & 0x0F) * 4;
+        if ((buffer.get(offset) & 0x10) != 0 && payload + 4 <= offset + length) {
+            payload += 4 + (buffer.getShort(payload + 2) & 0xFFFF) * 4;
+        }
+        if (payload < offset + length && isKeyFramePayload(buffer, payload, offset + length)) {
+            frameKey = true;
+        }
+        if (marker) {
+            onFrame(timestamp, arrivalUs);
+        }
+    }
+
+    private boolean isKeyFramePayload(ByteBuffer buffer, int payload, int end) {
+        if (hevc) {
+            if (payload + 2 >= end) {
+                return false;
+            }
+            int type = (buffer.get(payload) >> 1) & 0x3F;
+            if (type == 48) {
+                // AP，看第一个 NAL 单元
+                type = payload + 4 < end ? (buffer.get(payload + 4) >> 1) & 0x3F : -1;
+            } else if (type == 49) {
+                int fu = buffer.get(payload + 2);
+                type = (fu & 0x80) != 0 ? fu & 0x3F : -1;
+            }
+            return (type >= 16 && type <= 21) || (type >= 32 && type <= 34);
+        }
+        int type = buffer.get(payload) & 0x1F;
+        if (type == 24) {
+            // STAP-A，看第一个 NAL 单元
+            type = payload + 3 < end ? buffer.get(payload + 3) & 0x1F : -1;
+        } else if (type == 28) {
+            int fu = payload + 1 < end ? buffer.get(payload + 1) : 0;
+            type = (fu & 0x80) != 0 ? fu & 0x1F : -1;
+        }
+        return type == 5 || type == 7;
+    }
+
+    private void onFrame(int timestamp, long arrivalUs) {
+        if (timeToFirstFrameUs < 0) {
+            if (!frameKey) {
+                // 首帧时间按第一个可以解码的关键帧计算
+                return;
+            }
+            timeToFirstFrameUs = arrivalUs - startUs;
+            firstFrameUs = arrivalUs;
+        }
+        frameKey = false;
+        frames++;
+        lastFrameUs = arrivalUs;
+        if (hasReport) {
+            recordLatency(timestamp, arrivalUs);
+        } else if (pendingFrames < MAX_PENDING_FRAMES) {
+            pendingTimestamps[pendingFrames] = timestamp;
+            pendingArrivals[pendingFrames] = arrivalUs;
+            pendingFrames++;
+        }
+    }
+
+    private void recordLatency(int timestamp, long arrivalUs) {
+        long senderUs = reportWallUs + (long) (timestamp - reportRtpTimestamp) * 1000000L / clockRate;
+        latency.record(arrivalUs - senderUs);
+    }
+
+    private void onRtcp(ByteBuffer buffer, int offset, int length) {
+        int position = offset;
+        int end = offset + length;
+        while (position + 4 <= end) {
+            int type = buffer.get(position + 1) & 0xFF;
+            int packetLength = ((buffer.getShort(position + 2) & 0xFFFF) + 1) * 4;
+            if (type == Rtcp.PT_SR && position + 20 <= end) {
+                long seconds = (buffer.getInt(position + 8) & 0xFFFFFFFFL) - NTP_OFFSET_SECONDS;
+                long fraction = buffer.getInt(position + 12) & 0xFFFFFFFFL;
+                reportWallUs = seconds * 1000000L + ((fraction * 1000000L) >>> 32);
+                reportRtpTimestamp = buffer.getInt(position + 16);
+                if (!hasReport) {
+                    hasReport = true;
+                    for (int i = 0; i < pendingFrames; i++) {
+                        recordLatency((int) pendingTimestamps[i], pendingArrivals[i]);
+                    }
+                    pendingFrames = 0;
+                }
+            }
+            position += packetLength;
+        }
+    }
+
+    // 统计
+
+    int getState() {
+        return state;
+    }
+
+    String getError() {
+        return error;
+    }
+
+    /**
+     * 获取从开始连接到收到第一个完整关键帧的时间，单位：微秒
+     *
+     * @return 还没有收到关键帧时返回 -1
+     */
+    long getTimeToFirstFrameUs() {
+        return timeToFirstFrameUs;
+    }
+
+    long getFrames() {
+        return frames;
+    }
+
+    long getPackets() {
+        return packets;
+    }
+
+    long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * 获取接收帧率，从第一帧到最后一帧计算
+     * <p>
+     * 服务端从帧环中缓存的 GOP 开始发送，加入后的追赶阶段帧率会高于源帧率，测试时间越长影响越小
+     */
+    double getFrameRate() {
+        long durationUs = lastFrameUs - firstFrameUs;
+        return frames > 1 && durationUs > 0 ? (frames - 1) * 1000000.0 / durationUs : 0;
+    }
+
+    /**
+     * 获取期望收到的包数，由序号范围计算
+     */
+    long getExpectedPackets() {
+        return baseSeq < 0 ? 0 : maxSeq - baseSeq + 1;
+    }
+
+    /**
+     * 获取丢失的包数，重复的包可能让这个值为负数，按 0 返回
+     */
+    long getLostPackets() {
+        return Math.max(0, getExpectedPackets() - packets);
+    }
+
+    /**
+     * 获取到达间隔抖动，单位：微秒
+     */
+    long getJitterUs() {
+        return (long) (jitter * 1000000L / clockRate);
+    }
+
+    /**
+     * 获取服务端到客户端的帧延迟直方图，单位：微秒，没有收到 SR 时为空
+     */
+    LatencyHistogram getLatency() {
+        return latency;
+    }
+}
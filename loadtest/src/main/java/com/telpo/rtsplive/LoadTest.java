@@ -0,0 +1,346 @@
+package com.telpo.rtsplive;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * RTSP 并发压力测试，在 JVM 上运行
+ * <p>
+ * 一个线程用一个 {@link Selector} 驱动 N 个 {@link LoadClient} 会话，通过 UDP 或 TCP 交织接收 RTP，
+ * 结束时输出每个客户端的接收帧率、丢包、抖动、首帧时间和延迟百分位，以及全部客户端的汇总。
+ * 不指定 --url 时在本机启动一个 NIO 服务，帧源为合成帧或 --file 指定的 H264 Annex-B 文件：
+ * <pre>
+ * ./gradlew :loadtest:loadtest -PloadtestArgs="--clients 50 --transport tcp --duration 30"
+ * ./gradlew :loadtest:loadtest -PloadtestArgs="--clients 20 --file /tmp/test.h264 --fps 30"
+ * ./gradlew :loadtest:loadtest -PloadtestArgs="--clients 10 --url rtsp://192.168.1.10:8554/live"
+ * </pre>
+ * 有客户端没有收到任何帧时退出码为 1
+ *
+ * @author  gfm
+ * @since   1.1
+ */
+public final class LoadTest {
+    private static final int DEFAULT_PORT = 8554;
+    private static final String STREAM_NAME = "live";
+    private static final long SERVER_START_TIMEOUT_MS = 5000;
+    private static final long TICK_MS = 100;
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+
+    private int clientCount = 10;
+    private boolean interleaved;
+    private int durationS = 10;
+    private int rampMs = 10;
+    private int reportIntervalS = 5;
+    private String url;
+    private int port = DEFAULT_PORT;
+    private File file;
+    private int frameRate = 25;
+    private int bitrate = 2000000;
+    private int gopSize = 50;
+
+    private LoadTest() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadTest test = new LoadTest();
+        try {
+            test.parseArgs(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            printUsage();
+            System.exit(2);
+        }
+        System.exit(test.run() ? 0 : 1);
+    }
+
+    private static void printUsage() {
+        System.err.println("usage: LoadTest [options]\n"
+                + "  --clients N         concurrent sessions (default 10)\n"
+                + "  --transport udp|tcp RTP transport (default udp)\n"
+                + "  --duration S        test duration in seconds (default 10)\n"
+                + "  --ramp MS           delay between session starts (default 10)\n"
+                + "  --interval S        progress report interval, 0 to disable (default 5)\n"
+                + "  --url URL           test an external server instead of the embedded one\n"
+                + "  --port P            embedded server port (default 8554)\n"
+                + "  --file PATH         feed the embedded server from an H264 Annex-B file\n"
+                + "  --fps N             frame rate of the embedded source (default 25)\n"
+                + "  --bitrate BPS       bitrate of the synthetic source (default 2000000)\n"
+                + "  --gop N             key frame interval of the synthetic source (default 50)");
+    }
+
+    private void parseArgs(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String name = args[i];
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("missing value for " + name);
+            }
+            String value = args[++i];
+            switch (name) {
+                case "--clients":
+                    clientCount = positive(name, value);
+                    break;
+                case "--transport":
+                    if (!value.equals("udp") && !value.equals("tcp")) {
+                        throw new IllegalArgumentException("invalid transport: " + value);
+                    }
+                    interleaved = value.equals("tcp");
+                    break;
+                case "--duration":
+                    durationS = positive(name, value);
+                    break;
+                case "--ramp":
+                    rampMs = integer(name, value);
+                    break;
+                case "--interval":
+                    reportIntervalS = integer(name, value);
+                    break;
+                case "--url":
+                    url = value;
+                    break;
+                case "--port":
+                    port = positive(name, value);
+                    break;
+                case "--file":
+                    file = new File(value);
+                    break;
+                case "--fps":
+                    frameRate = positive(name, value);
+                    break;
+                case "--bitrate":
+                    bitrate = positive(name, value);
+                    break;
+                case "--gop":
+                    gopSize = positive(name, value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown option: " + name);
+            }
+        }
+    }
+
+    private static int integer(String name, String value) {
+        try {
+            int n = Integer.parseInt(value);
+            if (n >= 0) {
+                return n;
+            }
+        } catch (NumberFormatException ignored) {
+        }
+        throw new IllegalArgumentException("invalid " + name + ": " + value);
+    }
+
+    private static int positive(String name, String value) {
+        int n = integer(name, value);
+        if (n == 0) {
+            throw new IllegalArgumentException("invalid " + name + ": " + value);
+        }
+        return n;
+    }
+
+    private boolean run() throws IOException, InterruptedException {
+        RtspServer server = null;
+        String target = url;
+        if (target == null) {
+            server = startServer();
+            if (server == null) {
+                return false;
+            }
+            target = "rtsp://127.0.0.1:" + port + "/" + STREAM_NAME;
+        }
+        System.out.println("target: " + target + ", clients: " + clientCount
+                + ", transport: " + (interleaved ? "tcp" : "udp") + ", duration: " + durationS + "s");
+
+        List<LoadClient> clients = new ArrayList<>(clientCount);
+        for (int i = 0; i < clientCount; i++) {
+            clients.add(new LoadClient(i, target, interleaved));
+        }
+        try (Selector selector = Selector.open()) {
+            loop(selector, clients);
+            if (server != null) {
+                ServerMetrics metrics = server.getMetrics();
+                System.out.println("server: playing " + metrics.getPlayingSessionCount() + "/"
+                        + metrics.getSessionCount() + ", packets " + metrics.getPacketsSent()
+                        + ", ringDropped " + metrics.getRingDroppedFrames() + ", " + metrics.getMount(STREAM_NAME));
+            }
+            for (LoadClient client : clients) {
+                client.close();
+            }
+        }
+        if (server != null) {
+            server.stopService();
+        }
+        return report(clients);
+    }
+
+    private RtspServer startServer() throws IOException, InterruptedException {
+        FramedSource source = file != null
+                ? FramedSource.createFileSource(file, frameRate, true)
+                : new SyntheticSource(frameRate, bitrate, gopSize);
+        final CountDownLatch started = new CountDownLatch(1);
+        final int[] errno = {-1};
+        RtspServer server = RtspServer.createNioBuilder()
+                .setPort((short) port)
+                .setStreamName(STREAM_NAME)
+                .setVideoDelegate(MediaSubsessionDelegate.createRtpVideoDelegate(source))
+                .setListener(s -> {
+                    errno[0] = s.getErrno();
+                    if (s.getErrno() != 0) {
+                        System.err.println("start server failed: " + s.getResultMsg());
+                    }
+                    started.countDown();
+                })
+                .build();
+        server.startService();
+        if (!started.await(SERVER_START_TIMEOUT_MS, TimeUnit.MILLISECONDS) || errno[0] != 0) {
+            server.stopService();
+            return null;
+        }
+        return server;
+    }
+
+    private void loop(Selector selector, List<LoadClient> clients) throws IOException {
+        long startMs = System.currentTimeMillis();
+        long endMs = startMs + durationS * 1000L;
+        long nextReportMs = startMs + reportIntervalS * 1000L;
+        int started = 0;
+        while (true) {
+            long nowMs = System.currentTimeMillis();
+            if (nowMs >= endMs) {
+                break;
+            }
+            // 按间隔依次启动会话，避免同时连接超出服务端的监听队列
+            while (started < clients.size() && nowMs - startMs >= (long) started * rampMs) {
+                clients.get(started++).start(selector);
+            }
+            selector.select(TICK_MS);
+            Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+            while (iterator.hasNext()) {
+                SelectionKey key = iterator.next();
+                iterator.remove();
+                if (key.isValid()) {
+                    ((LoadClient) key.attachment()).onSelected(key);
+                }
+            }
+            long nowUs = LoadClient.nowUs();
+            for (int i = 0; i < started; i++) {
+                clients.get(i).onTick(nowUs);
+            }
+            if (reportIntervalS > 0 && nowMs >= nextReportMs) {
+                nextReportMs += reportIntervalS * 1000L;
+                printProgress(clients, (nowMs - startMs) / 1000);
+            }
+        }
+    }
+
+    private static void printProgress(List<LoadClient> clients, long elapsedS) {
+        int playing = 0;
+        int failed = 0;
+        long frames = 0;
+        long lost = 0;
+        long expected = 0;
+        for (LoadClient client : clients) {
+            if (client.getState() == LoadClient.STATE_PLAYING) {
+                playing++;
+            } else if (client.getState() == LoadClient.STATE_FAILED) {
+                failed++;
+            }
+            frames += client.getFrames();
+            lost += client.getLostPackets();
+            expected += client.getExpectedPackets();
+        }
+        System.out.println(String.format(Locale.US, "[%3ds] playing %d/%d, failed %d, frames %d, loss %.2f%%",
+                elapsedS, playing, clients.size(), failed, frames, percent(lost, expected)));
+    }
+
+    private boolean report(List<LoadClient> clients) {
+        System.out.println(String.format(Locale.US, "%6s %-9s %9s %7s %8s %7s %9s %9s %9s",
+                "client", "state", "ttff(ms)", "fps", "loss(%)", "jit(ms)", "p50(ms)", "p99(ms)", "max(ms)"));
+        LatencyHistogram latency = new LatencyHistogram();
+        LatencyHistogram timeToFirstFrame = new LatencyHistogram();
+        double fpsSum = 0;
+        double fpsMin = Double.MAX_VALUE;
+        long lost = 0;
+        long expected = 0;
+        long jitterSum = 0;
+        long bytes = 0;
+        int receiving = 0;
+        for (LoadClient client : clients) {
+            LatencyHistogram clientLatency = client.getLatency();
+            long ttff = client.getTimeToFirstFrameUs();
+            System.out.println(String.format(Locale.US, "%6d %-9s %9s %7.2f %8.3f %7.2f %9s %9s %9s",
+                    client.id, stateName(client), ttff < 0 ? "-" : ms(ttff), client.getFrameRate(),
+                    percent(client.getLostPackets(), client.getExpectedPackets()), client.getJitterUs() / 1000.0,
+                    percentile(clientLatency, 50), percentile(clientLatency, 99),
+                    clientLatency.getCount() == 0 ? "-" : ms(clientLatency.getMax())));
+            if (client.getError() != null) {
+                System.out.println("       error: " + client.getError());
+            }
+            lost += client.getLostPackets();
+            expected += client.getExpectedPackets();
+            bytes += client.getBytes();
+            if (client.getFrames() == 0) {
+                continue;
+            }
+            receiving++;
+            fpsSum += client.getFrameRate();
+            fpsMin = Math.min(fpsMin, client.getFrameRate());
+            jitterSum += client.getJitterUs();
+            timeToFirstFrame.record(ttff);
+            latency.add(clientLatency);
+        }
+        System.out.println(String.format(Locale.US,
+                "summary: %d/%d clients receiving, fps avg %.2f min %.2f, loss %.3f%%, jitter avg %.2fms, %.1f Mbps",
+                receiving, clients.size(), receiving == 0 ? 0 : fpsSum / receiving, receiving == 0 ? 0 : fpsMin,
+                percent(lost, expected), receiving == 0 ? 0 : jitterSum / 1000.0 / receiving,
+                bytes * 8 / 1000000.0 / durationS));
+        System.out.println("time to first frame(ms): " + percentiles(timeToFirstFrame));
+        System.out.println("latency(ms):             " + percentiles(latency));
+        return receiving == clients.size();
+    }
+
+    private static String percentiles(LatencyHistogram histogram) {
+        if (histogram.getCount() == 0) {
+            return "-";
+        }
+        StringBuilder sb = new StringBuilder();
+        for (double p : PERCENTILES) {
+            sb.append("p").append(p == (long) p ? String.valueOf((long) p) : String.valueOf(p)).append(' ')
+                    .append(ms(histogram.getPercentile(p))).append(", ");
+        }
+        return sb.append("max ").append(ms(histogram.getMax())).append(", count ").append(histogram.getCount())
+                .toString();
+    }
+
+    private static String percentile(LatencyHistogram histogram, double p) {
+        return histogram.getCount() == 0 ? "-" : ms(histogram.getPercentile(p));
+    }
+
+    private static String ms(long us) {
+        return String.format(Locale.US, "%.1f", us / 1000.0);
+    }
+
+    private static double percent(long part, long total) {
+        return total == 0 ? 0 : part * 100.0 / total;
+    }
+
+    private static String stateName(LoadClient client) {
+        switch (client.getState()) {
+            case LoadClient.STATE_CONNECTING:
+                return "connect";
+            case LoadClient.STATE_SETUP:
+                return "setup";
+            case LoadClient.STATE_PLAYING:
+                return "playing";
+            default:
+                return "failed";
+        }
+    }
+}
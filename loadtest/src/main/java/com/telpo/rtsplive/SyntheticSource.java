@@ -0,0 +1,140 @@
+package com.telpo.rtsplive;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * 压力测试使用的合成 H264 帧源
+ * <p>
+ * 按固定帧率在后台线程输出 Annex-B 帧，关键帧为 SPS + PPS + IDR，其余为单个 P slice，
+ * 帧大小按码率和 GOP 长度计算，关键帧是 P 帧的 {@link #KEY_FRAME_RATIO} 倍。
+ * 帧内容不能解码，只用于测量服务的打包和分发
+ *
+ * @author  gfm
+ * @since   1.1
+ */
+final class SyntheticSource implements FramedSource, Runnable {
+    /** 1080p Baseline Profile 的 SPS */
+    private static final byte[] SPS = {0x67, 0x42, (byte) 0xC0, 0x28, (byte) 0xDA, 0x01, (byte) 0xE0, 0x08,
+            (byte) 0x9F, (byte) 0x96, 0x10};
+    private static final byte[] PPS = {0x68, (byte) 0xCE, 0x06, (byte) 0xE2};
+    private static final int NAL_IDR = 0x65;
+    private static final int NAL_SLICE = 0x41;
+    private static final int KEY_FRAME_RATIO = 5;
+
+    private final int frameRate;
+    private final int gopSize;
+    private final ByteBuffer keyFrame;
+    private final ByteBuffer frame;
+    private final FramedSourceTee outputTee = new FramedSourceTee();
+    private Thread thread;  // guarded by this
+    private volatile long lastPtsUs;
+    private volatile long outputFrames;
+
+    /**
+     * @param frameRate 帧率
+     * @param bitrate 码率，单位：bps
+     * @param gopSize 关键帧间隔，单位：帧
+     */
+    SyntheticSource(int frameRate, int bitrate, int gopSize) {
+        if (frameRate <= 0 || bitrate <= 0 || gopSize <= 0) {
+            throw new IllegalArgumentException("invalid frameRate " + frameRate + ", bitrate " + bitrate
+                    + " or gopSize " + gopSize);
+        }
+        this.frameRate = frameRate;
+        this.gopSize = gopSize;
+        long gopBytes = (long) bitrate / 8 * gopSize / frameRate;
+        int frameSize = (int) Math.max(64, gopBytes / (gopSize - 1 + KEY_FRAME_RATIO));
+        keyFrame = h264(frameSize * KEY_FRAME_RATIO, true);
+        frame = h264(frameSize, false);
+    }
+
+    private static ByteBuffer h264(int size, boolean keyFrame) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(size + (keyFrame ? 8 + SPS.length + PPS.length : 0));
+        if (keyFrame) {
+            buffer.putInt(1);
+            buffer.put(SPS);
+            buffer.putInt(1);
+            buffer.put(PPS);
+        }
+        buffer.putInt(1);
+        buffer.put((byte) (keyFrame ? NAL_IDR : NAL_SLICE));
+        // 编码数据经过防竞争处理不会出现起始码，这里用不含 0 的随机字节代替
+        Random random = new Random(size);
+        while (buffer.hasRemaining()) {
+            buffer.put((byte) (1 + random.nextInt(255)));
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * 获取已输出的帧数
+     */
+    long getOutputFrames() {
+        return outputFrames;
+    }
+
+    @Override
+    public void setOutputListener(OutputListener listener) {
+        outputTee.setPrimary(listener);
+    }
+
+    @Override
+    public void addOutputListener(OutputListener listener) {
+        outputTee.add(listener);
+    }
+
+    @Override
+    public void removeOutputListener(OutputListener listener) {
+        outputTee.remove(listener);
+    }
+
+    @Override
+    public synchronized void start() {
+        if (thread != null) {
+            return;
+        }
+        thread = new Thread(this, "RtspSyntheticSource");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public synchronized void stop() {
+        Thread current = thread;
+        thread = null;
+        if (current != null) {
+            current.interrupt();
+        }
+    }
+
+    private synchronized boolean isRunning(Thread self) {
+        return thread == self;
+    }
+
+    @Override
+    public void run() {
+        Thread self = Thread.currentThread();
+        long frameIntervalNs = 1000000000L / frameRate;
+        long startNs = System.nanoTime();
+        long baseUs = Math.max(startNs / 1000, lastPtsUs + frameIntervalNs / 1000);
+        long n = 0;
+        while (isRunning(self)) {
+            long delayNs = startNs + n * frameIntervalNs - System.nanoTime();
+            if (delayNs > 0) {
+                try {
+                    Thread.sleep(delayNs / 1000000L, (int) (delayNs % 1000000L));
+                } catch (InterruptedException e) {
+                    break;
+                }
+                continue;
+            }
+            ByteBuffer view = (n % gopSize == 0 ? keyFrame : frame).duplicate();
+            lastPtsUs = baseUs + n * frameIntervalNs / 1000;
+            outputTee.dispatch(view, view.remaining(), lastPtsUs);
+            outputFrames++;
+            n++;
+        }
+    }
+}
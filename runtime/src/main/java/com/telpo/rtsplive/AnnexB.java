@@ -0,0 +1,99 @@
+package com.telpo.rtsplive;
+
+import java.nio.ByteBuffer;
+
+/**
+ * H264/H265 Annex-B 字节流工具
+ * <p>
+ * 所有方法只使用绝对位置访问 ByteBuffer，不会修改 position/limit
+ *
+ * @author  gfm
+ * @since   1.1
+ */
+final class AnnexB {
+    private AnnexB() {
+    }
+
+    /**
+     * 查找下一个起始码（00 00 01 或 00 00 00 01）
+     *
+     * @param buffer 数据缓冲区
+     * @param from 查找起始位置（包含）
+     * @param limit 查找结束位置（不包含）
+     * @return 起始码第一个字节的位置，找不到返回 limit
+     */
+    static int findStartCode(ByteBuffer buffer, int from, int limit) {
+        for (int i = from; i + 2 < limit; ) {
+            byte b2 = buffer.get(i + 2);
+            if (b2 > 1) {
+                i += 3;
+            } else if (b2 == 1 && buffer.get(i + 1) == 0 && buffer.get(i) == 0) {
+                return (i > from && buffer.get(i - 1) == 0) ? i - 1 : i;
+            } else {
+                i++;
+            }
+        }
+        return limit;
+    }
+
+    /**
+     * 获取起始码长度
+     *
+     * @param buffer 数据缓冲区
+     * @param position 起始码第一个字节的位置
+     * @return 3 或 4
+     */
+    static int startCodeLength(ByteBuffer buffer, int position) {
+        return buffer.get(position + 2) == 1 ? 3 : 4;
+    }
+
+    /**
+     * 把一帧数据切分为 NAL 单元（不含起始码）
+     *
+     * @param buffer 数据缓冲区
+     * @param offset 帧数据起始位置
+     * @param limit 帧数据结束位置（不包含）
+     * @param starts 输出 NAL 起始位置
+     * @param ends 输出 NAL 结束位置（不包含）
+     * @return NAL 个数，超过数组长度的部分会被忽略
+     */
+    static int split(ByteBuffer buffer, int offset, int limit, int[] starts, int[] ends) {
+        int count = 0;
+        int sc = findStartCode(buffer, offset, limit);
+        if (sc > offset) {
+            // 没有起始码开头的数据当作一个完整的 NAL
+            starts[count] = offset;
+            ends[count] = sc;
+            count++;
+        }
+        while (sc < limit && count < starts.length) {
+            int nal = sc + startCodeLength(buffer, sc);
+            int next = findStartCode(buffer, nal, limit);
+            int end = next;
+            while (next < limit && end > nal && buffer.get(end - 1) == 0) {
+                end--;
+            }
+            if (end > nal) {
+                starts[count] = nal;
+                ends[count] = end;
+                count++;
+            }
+            sc = next;
+        }
+        return count;
+    }
+
+    /**
+     * 获取 H264 NAL 类型
+     */
+    static int h264Type(ByteBuffer buffer, int nalStart) {
+        return buffer.get(nalStart) & 0x1F;
+    }
+
+    /**
+     * 获取 H265 NAL 类型
+     */
+    static int h265Type(ByteBuffer buffer, int nalStart) {
+        return (buffer.get(nalStart) >> 1) & 0x3F;
+    }
+}
@@ -0,0 +1,216 @@
+package com.telpo.rtsplive;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * H264 Annex-B 文件帧源
+ * <p>
+ * 构造时把文件只读映射到内存，扫描一次起始码建立访问单元（帧）索引，之后按固定帧率在后台线程输出，
+ * 每帧都是映射缓冲区的一个视图，不复制数据，也不需要 Camera 和硬件编码器。
+ * 帧边界按 RFC 6184 的规则判断：AUD/SEI/SPS/PPS 或 first_mb_in_slice 为 0 的片出现在已有片之后时开始新的一帧。
+ * 每次启动从第一个 IDR 帧开始，循环播放时回到这一帧，时间戳保持递增。
+ * 文件不能超过 2GB
+ *
+ * @author  gfm
+ * @since   1.1
+ */
+public class AnnexBFileSource implements FramedSource, Runnable {
+    private static final int NAL_IDR = 5;
+    private static final int NAL_SEI = 6;
+    private static final int NAL_SPS = 7;
+    private static final int NAL_PPS = 8;
+    private static final int NAL_AUD = 9;
+    private static final int NAL_PREFIX = 14;
+    private static final int NAL_RESERVED_LAST = 18;
+    private static final int INITIAL_INDEX_SIZE = 1024;
+
+    private final MappedByteBuffer mapping;
+    private final long frameIntervalNs;
+    private final boolean loop;
+    private int[] frameStarts = new int[INITIAL_INDEX_SIZE];
+    private int[] frameEnds = new int[INITIAL_INDEX_SIZE];
+    private int frameCount;
+    private int firstKeyFrame = -1;
+    private final FramedSourceTee outputTee = new FramedSourceTee();
+    private Thread thread;  // guarded by this
+    private volatile long outputFrames;
+    private volatile long loops;
+    private volatile long lastPtsUs;
+
+    /**
+     * @param file H264 Annex-B 裸流文件
+     * @param frameRate 输出帧率，文件中没有时间戳，按这个帧率计算
+     * @param loop 播放到文件末尾后是否从头循环
+     * @throws IOException 文件读取失败或文件中没有 IDR 帧
+     */
+    public AnnexBFileSource(File file, int frameRate, boolean loop) throws IOException {
+        if (frameRate <= 0) {
+            throw new IllegalArgumentException("invalid frameRate: " + frameRate);
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("file too large: " + file);
+            }
+            mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        frameIntervalNs = 1000000000L / frameRate;
+        this.loop = loop;
+        buildIndex();
+        if (firstKeyFrame < 0) {
+            throw new IOException("no IDR frame in " + file);
+        }
+    }
+
+    /**
+     * 扫描起始码，记录每一帧在文件中的起止位置（含起始码）
+     */
+    private void buildIndex() {
+        int limit = mapping.capacity();
+        int frameStart = -1;
+        boolean hasVcl = false;
+        boolean hasIdr = false;
+        int sc = AnnexB.findStartCode(mapping, 0, limit);
+        while (sc < limit) {
+            int nal = sc + AnnexB.startCodeLength(mapping, sc);
+            int next = AnnexB.findStartCode(mapping, nal, limit);
+            if (nal < next) {
+                int type = AnnexB.h264Type(mapping, nal);
+                boolean vcl = type >= 1 && type <= NAL_IDR;
+                boolean firstSlice = vcl && nal + 1 < next && (mapping.get(nal + 1) & 0x80) != 0;
+                boolean nonVclStart = type == NAL_SEI || type == NAL_SPS || type == NAL_PPS || type == NAL_AUD
+                        || (type >= NAL_PREFIX && type <= NAL_RESERVED_LAST);
+                if (frameStart >= 0 && hasVcl && (firstSlice || nonVclStart)) {
+                    addFrame(frameStart, sc, hasIdr);
+                    frameStart = -1;
+                    hasVcl = false;
+                    hasIdr = false;
+                }
+                if (frameStart < 0) {
+                    frameStart = sc;
+                }
+                hasVcl |= vcl;
+                hasIdr |= type == NAL_IDR;
+            }
+            sc = next;
+        }
+        if (frameStart >= 0 && hasVcl) {
+            addFrame(frameStart, limit, hasIdr);
+        }
+    }
+
+    private void addFrame(int start, int end, boolean keyFrame) {
+        if (frameCount == frameStarts.length) {
+            int size = frameCount * 2;
+            frameStarts = Arrays.copyOf(frameStarts, size);
+            frameEnds = Arrays.copyOf(frameEnds, size);
+        }
+        frameStarts[frameCount] = start;
+        frameEnds[frameCount] = end;
+        if (keyFrame && firstKeyFrame < 0) {
+            firstKeyFrame = frameCount;
+        }
+        frameCount++;
+    }
+
+    /**
+     * 获取文件中的帧数
+     */
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * 获取已经输出的帧数
+     */
+    public long getOutputFrames() {
+        return outputFrames;
+    }
+
+    /**
+     * 获取已经循环的次数
+     */
+    public long getLoops() {
+        return loops;
+    }
+
+    @Override
+    public void setOutputListener(OutputListener listener) {
+        outputTee.setPrimary(listener);
+    }
+
+    @Override
+    public void addOutputListener(OutputListener listener) {
+        outputTee.add(listener);
+    }
+
+    @Override
+    public void removeOutputListener(OutputListener listener) {
+        outputTee.remove(listener);
+    }
+
+    @Override
+    public synchronized void start() {
+        if (thread != null) {
+            return;
+        }
+        thread = new Thread(this, "RtspFileSource");
+        thread.start();
+    }
+
+    @Override
+    public synchronized void stop() {
+        Thread current = thread;
+        thread = null;
+        if (current != null) {
+            current.interrupt();
+        }
+    }
+
+    private synchronized boolean isRunning(Thread self) {
+        return thread == self;
+    }
+
+    @Override
+    public void run() {
+        Thread self = Thread.currentThread();
+        // 重新启动时上一个输出线程可能还没退出，各自使用一个视图
+        ByteBuffer view = mapping.duplicate();
+        long startNs = System.nanoTime();
+        // 重新启动时时间戳接着上次的继续递增
+        long baseUs = Math.max(startNs / 1000, lastPtsUs + frameIntervalNs / 1000);
+        long n = 0;
+        int index = firstKeyFrame;
+        while (isRunning(self)) {
+            long delayNs = startNs + n * frameIntervalNs - System.nanoTime();
+            if (delayNs > 0) {
+                try {
+                    Thread.sleep(delayNs / 1000000L, (int) (delayNs % 1000000L));
+                } catch (InterruptedException e) {
+                    break;
+                }
+                continue;
+            }
+            int start = frameStarts[index];
+            int end = frameEnds[index];
+            view.limit(end);
+            view.position(start);
+            lastPtsUs = baseUs + n * frameIntervalNs / 1000;
+            outputTee.dispatch(view, end - start, lastPtsUs);
+            outputFrames++;
+            n++;
+            if (++index == frameCount) {
+                if (!loop) {
+                    break;
+                }
+                loops++;
+                index = firstKeyFrame;
+            }
+        }
+    }
+}
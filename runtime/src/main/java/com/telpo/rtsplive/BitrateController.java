@@ -0,0 +1,127 @@
+package com.telpo.rtsplive;
+
+/**
+ * 根据 RTCP 接收者报告调整编码码率和帧率的拥塞控制器
+ * <p>
+ * 基于丢包率的 AIMD：任一会话丢包率超过 {@link #LOSS_HIGH} 或发送积压超过 {@link #LAG_HIGH} 帧时按丢包率降低码率
+ * （客户端通常每 5 秒才发送一次报告，每次至少降低 {@link #MIN_DECREASE}），
+ * 码率降到下限后逐级降低帧率；所有会话在 {@link #HOLD_MS} 内都没有拥塞时，先逐级恢复帧率，再按比例恢复码率。
+ * 报告来自多个事件循环线程，所有方法都加锁
+ *
+ * @author  gfm
+ * @since   1.1
+ */
+final class BitrateController {
+    static final float LOSS_HIGH = 0.10f;
+    static final float LOSS_LOW = 0.02f;
+    static final long LAG_HIGH = 15;
+    static final long LAG_LOW = 2;
+    static final float MIN_DECREASE = 0.25f;
+    static final float MAX_DECREASE = 0.5f;
+    /** 两次降低之间的最小间隔，避免多个会话同时报告时连续降低 */
+    static final long DECREASE_INTERVAL_MS = 2000;
+    /** 最近一次拥塞后需要保持的时间，之后才开始恢复 */
+    static final long HOLD_MS = 10000;
+    static final long INCREASE_INTERVAL_MS = 2000;
+    static final float INCREASE_FACTOR = 1.15f;
+    static final int MIN_BITRATE = 64 * 1000;
+    /** 帧率限制等级，0 表示不限制 */
+    static final int[] FRAME_RATES = {0, 15, 10, 5};
+
+    private final VideoEncoder encoder;
+    private int maxBitrate;
+    private int minBitrate;
+    private int bitrate;
+    private int frameRateLevel;
+    private long lastDecreaseMs;
+    private long lastIncreaseMs;
+    private long lastCongestedMs;
+
+    BitrateController(VideoEncoder encoder) {
+        this.encoder = encoder;
+    }
+
+    /**
+     * 恢复编码器的初始码率和帧率，在流启动时调用
+     */
+    synchronized void reset() {
+        if (maxBitrate > 0 && (bitrate != maxBitrate || frameRateLevel != 0)) {
+            encoder.setBitrate(maxBitrate);
+            encoder.setMaxFrameRate(0);
+        }
+        maxBitrate = 0;
+        frameRateLevel = 0;
+        lastDecreaseMs = 0;
+        lastIncreaseMs = 0;
+        lastCongestedMs = 0;
+    }
+
+    /**
+     * 编码器重新配置了分辨率，码率上限按编码器新的码率重新取得，帧率限制解除
+     */
+    synchronized void rebase() {
+        if (frameRateLevel != 0) {
+            encoder.setMaxFrameRate(0);
+        }
+        maxBitrate = 0;
+        frameRateLevel = 0;
+        lastDecreaseMs = 0;
+        lastIncreaseMs = 0;
+    }
+
+    synchronized void onReceiverReport(ReceiverReport report) {
+        if (maxBitrate == 0) {
+            maxBitrate = encoder.getBitrate();
+            if (maxBitrate <= 0) {
+                return;
+            }
+            minBitrate = Math.min(maxBitrate, Math.max(MIN_BITRATE, maxBitrate / 10));
+            bitrate = maxBitrate;
+        }
+        long now = report.getReceivedTimeMs();
+        float loss = report.getFractionLost();
+        long lag = report.getLag();
+        if (loss > LOSS_HIGH || lag > LAG_HIGH) {
+            lastCongestedMs = now;
+            if (now - lastDecreaseMs >= DECREASE_INTERVAL_MS) {
+                lastDecreaseMs = now;
+                decrease(Math.min(MAX_DECREASE, Math.max(MIN_DECREASE, loss)));
+            }
+        } else if (loss < LOSS_LOW && lag <= LAG_LOW
+                && now - lastCongestedMs >= HOLD_MS && now - lastIncreaseMs >= INCREASE_INTERVAL_MS) {
+            lastIncreaseMs = now;
+            increase();
+        }
+    }
+
+    private void decrease(float ratio) {
+        if (bitrate > minBitrate) {
+            setBitrate(Math.max(minBitrate, (int) (bitrate * (1 - ratio))));
+        } else if (frameRateLevel < FRAME_RATES.length - 1) {
+            frameRateLevel++;
+            encoder.setMaxFrameRate(FRAME_RATES[frameRateLevel]);
+        }
+    }
+
+    private void increase() {
+        if (frameRateLevel > 0) {
+            frameRateLevel--;
+            encoder.setMaxFrameRate(FRAME_RATES[frameRateLevel]);
+        } else if (bitrate < maxBitrate) {
+            setBitrate(Math.min(maxBitrate, (int) (bitrate * INCREASE_FACTOR)));
+        }
+    }
+
+    private void setBitrate(int bitrate) {
+        this.bitrate = bitrate;
+        encoder.setBitrate(bitrate);
+    }
+
+    synchronized int getBitrate() {
+        return bitrate;
+    }
+
+    synchronized int getMaxFrameRate() {
+        return FRAME_RATES[frameRateLevel];
+    }
+}
@@ -0,0 +1,45 @@
+package com.telpo.rtsplive;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 缓冲区视图缓存
+ * <p>
+ * 需要读取源缓冲区的一段数据又不能修改它的 position/limit 时使用。
+ * MediaCodec 输出缓冲区对象是固定的几个，预热后不再分配
+ *
+ * @author  gfm
+ * @since   1.1
+ */
+final class BufferViews {
+    private final ByteBuffer[] sources;
+    private final ByteBuffer[] views;
+    private int cursor;
+
+    BufferViews(int size) {
+        sources = new ByteBuffer[size];
+        views = new ByteBuffer[size];
+    }
+
+    /**
+     * 获取源缓冲区 [offset, offset + length) 区间的视图，返回的视图在下次调用前有效
+     */
+    ByteBuffer get(ByteBuffer src, int offset, int length) {
+        ByteBuffer view = null;
+        for (int i = 0; i < sources.length; i++) {
+            if (sources[i] == src) {
+                view = views[i];
+                break;
+            }
+        }
+        if (view == null) {
+            view = src.duplicate();
+            sources[cursor] = src;
+            views[cursor] = view;
+            cursor = (cursor + 1) % views.length;
+        }
+        view.limit(offset + length);
+        view.position(offset);
+        return view;
+    }
+}
@@ -0,0 +1,261 @@
+package com.telpo.rtsplive;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.graphics.ImageFormat;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCaptureSession;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraDevice;
+import android.hardware.camera2.CameraManager;
+import android.hardware.camera2.CaptureRequest;
+import android.hardware.camera2.params.StreamConfigurationMap;
+import android.media.Image;
+import android.media.ImageReader;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+import android.util.Size;
+import android.view.Surface;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 默认 Camera2 采集，ImageReader 输出的 YUV_420_888 图像直接交给 {@link VideoEncoder#queueInputImage}
+ * <p>
+ * 相机回调和图像回调都在同一个后台线程中执行，也就是编码器输入队列的唯一生产者。
+ * 编码器持有的图像在编码完成后才 close，ImageReader 的最大图像数需要大于编码器输入队列长度
+ *
+ * @author  gfm
+ * @since   1.1
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class Camera2Capture implements CameraCapture {
+    private static final String TAG = "RtspCamera2Capture";
+    /** 编码器输入队列最多持有 4 个图像，留出相机继续输出的余量 */
+    private static final int MAX_IMAGES = 6;
+
+    private final Context mContext;
+    private final VideoEncoder mVideoEncoder;
+    private HandlerThread mThread;
+    private Handler mHandler;
+    private ImageReader mImageReader;
+    private Surface mPreviewSurface;
+    private volatile int mWidth;
+    private volatile int mHeight;
+    private volatile long mDroppedImages;
+
+    // 以下字段只在后台线程中访问
+    private CameraDevice mCameraDevice;
+    private CameraCaptureSession mCaptureSession;
+    private boolean mClosed;
+
+    public Camera2Capture(Context context, VideoEncoder videoEncoder) {
+        mContext = context.getApplicationContext();
+        mVideoEncoder = videoEncoder;
+    }
+
+    @Override
+    public synchronized boolean open(String cameraId, int width, int height) {
+        if (mThread != null) {
+            Log.w(TAG, "already opened");
+            return false;
+        }
+        CameraManager manager = (CameraManager) mContext.getSystemService(Context.CAMERA_SERVICE);
+        final String id;
+        final Size size;
+        int orientation;
+        try {
+            id = cameraId != null ? cameraId : findBackCamera(manager);
+            if (id == null) {
+                return false;
+            }
+            CameraCharacteristics characteristics = manager.getCameraCharacteristics(id);
+            StreamConfigurationMap map = characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+            size = map == null ? null : chooseSize(map.getOutputSizes(ImageFormat.YUV_420_888), width, height);
+            if (size == null) {
+                return false;
+            }
+            Integer sensorOrientation = characteristics.get(CameraCharacteristics.SENSOR_ORIENTATION);
+            orientation = sensorOrientation == null ? 0 : sensorOrientation;
+        } catch (CameraAccessException | IllegalArgumentException e) {
+            Log.e(TAG, "query camera failed", e);
+            return false;
+        }
+        Log.d(TAG, "camera: " + id + " size: " + size + " rotation: " + orientation);
+        mWidth = size.getWidth();
+        mHeight = size.getHeight();
+        mVideoEncoder.initResolution(mWidth, mHeight, orientation);
+
+        mClosed = false;
+        mThread = new HandlerThread(TAG);
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+        mImageReader = ImageReader.newInstance(mWidth, mHeight, ImageFormat.YUV_420_888, MAX_IMAGES);
+        mImageReader.setOnImageAvailableListener(this::onImageAvailable, mHandler);
+        final Handler handler = mHandler;
+        handler.post(() -> openCamera(manager, id, handler));
+        return true;
+    }
+
+    private void openCamera(CameraManager manager, String id, Handler handler) {
+        try {
+            manager.openCamera(id, new CameraDevice.StateCallback() {
+                @Override
+                public void onOpened(CameraDevice camera) {
+                    if (mClosed) {
+                        camera.close();
+                        return;
+                    }
+                    mCameraDevice = camera;
+                    createSession(camera, handler);
+                }
+
+                @Override
+                public void onDisconnected(CameraDevice camera) {
+                    Log.w(TAG, "camera disconnected");
+                    closeCamera();
+                }
+
+                @Override
+                public void onError(CameraDevice camera, int error) {
+                    Log.e(TAG, "camera error: " + error);
+                    closeCamera();
+                }
+            }, handler);
+        } catch (CameraAccessException | SecurityException | IllegalArgumentException e) {
+            Log.e(TAG, "open camera failed", e);
+        }
+    }
+
+    private void createSession(CameraDevice camera, Handler handler) {
+        List<Surface> targets = new ArrayList<>(2);
+        targets.add(mImageReader.getSurface());
+        Surface preview = mPreviewSurface;
+        if (preview != null) {
+            targets.add(preview);
+        }
+        try {
+            camera.createCaptureSession(targets, new CameraCaptureSession.StateCallback() {
+                @Override
+                public void onConfigured(CameraCaptureSession session) {
+                    if (mClosed) {
+                        session.close();
+                        return;
+                    }
+                    mCaptureSession = session;
+                    try {
+                        CaptureRequest.Builder builder = camera.createCaptureRequest(CameraDevice.TEMPLATE_RECORD);
+                        for (Surface target : targets) {
+                            builder.addTarget(target);
+                        }
+                        session.setRepeatingRequest(builder.build(), null, handler);
+                    } catch (CameraAccessException | IllegalStateException e) {
+                        Log.e(TAG, "start capture failed", e);
+                    }
+                }
+
+                @Override
+                public void onConfigureFailed(CameraCaptureSession session) {
+                    Log.e(TAG, "configure capture session failed");
+                }
+            }, handler);
+        } catch (CameraAccessException | IllegalStateException e) {
+            Log.e(TAG, "create capture session failed", e);
+        }
+    }
+
+    private void onImageAvailable(ImageReader reader) {
+        Image image;
+        try {
+            image = reader.acquireNextImage();
+        } catch (IllegalStateException e) {
+            // 编码器持有的图像已达到上限，这一帧留在 ImageReader 中，下次回调再取
+            mDroppedImages++;
+            return;
+        }
+        if (image != null && !mVideoEncoder.queueInputImage(image)) {
+            image.close();
+        }
+    }
+
+    private void closeCamera() {
+        if (mCaptureSession != null) {
+            mCaptureSession.close();
+            mCaptureSession = null;
+        }
+        if (mCameraDevice != null) {
+            mCameraDevice.close();
+            mCameraDevice = null;
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        HandlerThread thread = mThread;
+        if (thread == null) {
+            return;
+        }
+        final ImageReader reader = mImageReader;
+        mHandler.post(() -> {
+            mClosed = true;
+            closeCamera();
+            // 编码器还持有的图像在 close 后失效，先停止编码器再关闭采集
+            reader.close();
+        });
+        thread.quitSafely();
+        mThread = null;
+        mHandler = null;
+        mImageReader = null;
+    }
+
+    @Override
+    public void setPreviewSurface(Surface surface) {
+        mPreviewSurface = surface;
+    }
+
+    @Override
+    public int getWidth() {
+        return mWidth;
+    }
+
+    @Override
+    public int getHeight() {
+        return mHeight;
+    }
+
+    @Override
+    public long getDroppedImages() {
+        return mDroppedImages;
+    }
+
+    private static String findBackCamera(CameraManager manager) throws CameraAccessException {
+        String[] ids = manager.getCameraIdList();
+        for (String id : ids) {
+            Integer facing = manager.getCameraCharacteristics(id).get(CameraCharacteristics.LENS_FACING);
+            if (facing != null && facing == CameraCharacteristics.LENS_FACING_BACK) {
+                return id;
+            }
+        }
+        return ids.length > 0 ? ids[0] : null;
+    }
+
+    private static Size chooseSize(Size[] sizes, int width, int height) {
+        if (sizes == null) {
+            return null;
+        }
+        Size best = null;
+        long bestDiff = Long.MAX_VALUE;
+        for (Size size : sizes) {
+            long diff = Math.abs((long) size.getWidth() * size.getHeight() - (long) width * height)
+                    + Math.abs((long) size.getWidth() * height - (long) size.getHeight() * width);
+            if (diff < bestDiff) {
+                bestDiff = diff;
+                best = size;
+            }
+        }
+        return best;
+    }
+}
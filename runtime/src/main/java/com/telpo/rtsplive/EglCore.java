@@ -0,0 +1,126 @@
+package com.telpo.rtsplive;
+
+import android.opengl.EGL14;
+import android.opengl.EGLConfig;
+import android.opengl.EGLContext;
+import android.opengl.EGLDisplay;
+import android.opengl.EGLExt;
+import android.opengl.EGLSurface;
+
+/**
+ * EGL 环境，用于把 GLES 渲染结果输出到编码器输入 Surface
+ * <p>
+ * 所有方法只能在创建它的线程中调用
+ *
+ * @author  gfm
+ * @since   1.1
+ */
+final class EglCore {
+    private static final int EGL_RECORDABLE_ANDROID = 0x3142;
+
+    private EGLDisplay mDisplay = EGL14.EGL_NO_DISPLAY;
+    private EGLContext mContext = EGL14.EGL_NO_CONTEXT;
+    private EGLConfig mConfig;
+    private EGLSurface mDummySurface = EGL14.EGL_NO_SURFACE;
+
+    EglCore() {
+        mDisplay = EGL14.eglGetDisplay(EGL14.EGL_DEFAULT_DISPLAY);
+        if (mDisplay == EGL14.EGL_NO_DISPLAY) {
+            throw new RuntimeException("unable to get EGL14 display");
+        }
+        int[] version = new int[2];
+        if (!EGL14.eglInitialize(mDisplay, version, 0, version, 1)) {
+            mDisplay = EGL14.EGL_NO_DISPLAY;
+            throw new RuntimeException("unable to initialize EGL14");
+        }
+        int[] attribList = {
+                EGL14.EGL_RED_SIZE, 8,
+                EGL14.EGL_GREEN_SIZE, 8,
+                EGL14.EGL_BLUE_SIZE, 8,
+                EGL14.EGL_ALPHA_SIZE, 8,
+                EGL14.EGL_RENDERABLE_TYPE, EGL14.EGL_OPENGL_ES2_BIT,
+                EGL_RECORDABLE_ANDROID, 1,
+                EGL14.EGL_NONE
+        };
+        EGLConfig[] configs = new EGLConfig[1];
+        int[] numConfigs = new int[1];
+        if (!EGL14.eglChooseConfig(mDisplay, attribList, 0, configs, 0, 1, numConfigs, 0)
+                || numConfigs[0] == 0) {
+            release();
+            throw new RuntimeException("unable to find a recordable EGL config");
+        }
+        mConfig = configs[0];
+        int[] contextAttribs = {EGL14.EGL_CONTEXT_CLIENT_VERSION, 2, EGL14.EGL_NONE};
+        mContext = EGL14.eglCreateContext(mDisplay, mConfig, EGL14.EGL_NO_CONTEXT, contextAttribs, 0);
+        checkError("eglCreateContext");
+        int[] surfaceAttribs = {EGL14.EGL_WIDTH, 1, EGL14.EGL_HEIGHT, 1, EGL14.EGL_NONE};
+        mDummySurface = EGL14.eglCreatePbufferSurface(mDisplay, mConfig, surfaceAttribs, 0);
+        checkError("eglCreatePbufferSurface");
+        makeCurrent(mDummySurface);
+    }
+
+    /**
+     * 为 Surface 或 SurfaceTexture 创建 EGL 窗口
+     */
+    EGLSurface createWindowSurface(Object surface) {
+        int[] surfaceAttribs = {EGL14.EGL_NONE};
+        EGLSurface eglSurface = EGL14.eglCreateWindowSurface(mDisplay, mConfig, surface, surfaceAttribs, 0);
+        checkError("eglCreateWindowSurface");
+        return eglSurface;
+    }
+
+    void releaseSurface(EGLSurface eglSurface) {
+        if (eglSurface != EGL14.EGL_NO_SURFACE) {
+            EGL14.eglDestroySurface(mDisplay, eglSurface);
+        }
+    }
+
+    void makeCurrent(EGLSurface eglSurface) {
+        if (!EGL14.eglMakeCurrent(mDisplay, eglSurface, eglSurface, mContext)) {
+            throw new RuntimeException("eglMakeCurrent failed");
+        }
+    }
+
+    /**
+     * 切回内部的 1x1 Pbuffer，释放窗口 Surface 前调用
+     */
+    void makeDummyCurrent() {
+        makeCurrent(mDummySurface);
+    }
+
+    boolean swapBuffers(EGLSurface eglSurface) {
+        return EGL14.eglSwapBuffers(mDisplay, eglSurface);
+    }
+
+    /**
+     * 设置编码器输入帧的时间戳
+     *
+     * @param nsecs 时间戳，单位：纳秒
+     */
+    void setPresentationTime(EGLSurface eglSurface, long nsecs) {
+        EGLExt.eglPresentationTimeANDROID(mDisplay, eglSurface, nsecs);
+    }
+
+    void release() {
+        if (mDisplay != EGL14.EGL_NO_DISPLAY) {
+            EGL14.eglMakeCurrent(mDisplay, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_CONTEXT);
+            releaseSurface(mDummySurface);
+            if (mContext != EGL14.EGL_NO_CONTEXT) {
+                EGL14.eglDestroyContext(mDisplay, mContext);
+            }
+            EGL14.eglReleaseThread();
+            EGL14.eglTerminate(mDisplay);
+        }
+        mDisplay = EGL14.EGL_NO_DISPLAY;
+        mContext = EGL14.EGL_NO_CONTEXT;
+        mDummySurface = EGL14.EGL_NO_SURFACE;
+        mConfig = null;
+    }
+
+    private static void checkError(String msg) {
+        int error = EGL14.eglGetError();
+        if (error != EGL14.EGL_SUCCESS) {
+            throw new RuntimeException(msg + ": EGL error 0x" + Integer.toHexString(error));
+        }
+    }
+}
@@ -0,0 +1,434 @@
+package com.telpo.rtsplive;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 分段 fragmented MP4 录像，{@link StreamRecorder} 的默认实现
+ * <p>
+ * 帧源输出线程（唯一的生产者）把帧复制到固定大小的 direct 缓冲区，写入线程（唯一的消费者）按片段读取，
+ * 两个线程之间只通过 volatile 的读写位置同步，输出线程不等待锁也不分配内存。缓冲区或帧索引已满时丢弃这一帧，
+ * 之后的帧也丢弃，直到下一个关键帧，保证录像中没有无法解码的帧。
+ * <p>
+ * 写入线程每个关键帧或 {@link Mp4FragmentWriter#FRAGMENT_DURATION_US} 用 {@link Mp4FragmentWriter} 聚集写入一个
+ * moof + mdat 片段，NAL 数据不再复制。
+ * Annex-B 起始码换成 4 字节长度，SPS/PPS 放在 avcC 中，参数集变化时切换到新文件。
+ * 新文件创建时按上一个分段的大小预先设置文件长度，关闭时截断到实际长度，写入过程中不再修改文件大小
+ *
+ * @author  gfm
+ * @since   1.1
+ */
+public class FragmentedMp4Recorder implements StreamRecorder, Runnable {
+    private static final int NAL_SLICE = 1;
+    private static final int NAL_IDR = 5;
+    private static final int NAL_SPS = 7;
+    private static final int NAL_PPS = 8;
+    private static final int NAL_AUD = 9;
+    private static final int DEFAULT_SEGMENT_SECONDS = 60;
+    private static final int DEFAULT_BUFFER_SIZE = 4 * 1024 * 1024;
+    /** 帧索引个数，30fps 时约 8 秒 */
+    private static final int MAX_FRAMES = 256;
+    private static final int MAX_NALS_PER_FRAME = 32;
+    private static final long MIN_PREALLOCATE_BYTES = 1024 * 1024;
+    private static final long FIRST_PREALLOCATE_BYTES_PER_SECOND = 512 * 1024;
+    private static final long IDLE_PARK_NS = 20000000L;
+
+    private final File directory;
+    private volatile int segmentSeconds = DEFAULT_SEGMENT_SECONDS;
+    private volatile int bufferSize = DEFAULT_BUFFER_SIZE;
+    private Thread thread;  // guarded by this
+    private volatile Thread writer;
+    private volatile boolean running;
+
+    // 帧缓冲区，start 时分配
+    private ByteBuffer arena;
+    private final long[] frameOffsets = new long[MAX_FRAMES];
+    private final int[] frameSizes = new int[MAX_FRAMES];
+    private final long[] framePts = new long[MAX_FRAMES];
+    /** 生产者已发布的帧数 */
+    private volatile long tail;
+    /** 消费者已处理的帧数 */
+    private volatile long head;
+    /** 消费者已释放的缓冲区位置，单调递增 */
+    private volatile long releasedOffset;
+
+    // 以下字段只在帧源输出线程访问
+    private ByteBuffer producerView;
+    private long writeOffset;
+    private boolean waitKeyFrame;
+    private boolean overflow;
+
+    // 以下字段只在写入线程访问
+    private final int[] nalStarts = new int[MAX_NALS_PER_FRAME];
+    private final int[] nalEnds = new int[MAX_NALS_PER_FRAME];
+    private byte[] sps;
+    private byte[] pps;
+    private boolean parameterSetsChanged;
+    private Mp4FragmentWriter fragments;
+    private RandomAccessFile file;
+    private long segmentStartPts;
+    private long lastSegmentBytes;
+    private long lastSegmentUs;
+    private long processedOffset;
+
+    private volatile File currentFile;
+    private volatile int segmentCount;
+    private volatile long recordedFrames;
+    private volatile long droppedFrames;
+    private volatile long writeErrors;
+
+    public FragmentedMp4Recorder(File directory) {
+        this.directory = directory;
+    }
+
+    @Override
+    public void setSegmentDuration(int seconds) {
+        if (seconds <= 0) {
+            throw new IllegalArgumentException("invalid segment duration: " + seconds);
+        }
+        segmentSeconds = seconds;
+    }
+
+    @Override
+    public void setBufferSize(int bytes) {
+        if (bytes <= 0) {
+            throw new IllegalArgumentException("invalid buffer size: " + bytes);
+        }
+        bufferSize = bytes;
+    }
+
+    @Override
+    public synchronized void start() {
+        if (thread != null) {
+            return;
+        }
+        if (arena == null || arena.capacity() != bufferSize) {
+            arena = ByteBuffer.allocateDirect(bufferSize);
+            fragments = new Mp4FragmentWriter(arena);
+        }
+        producerView = arena.duplicate();
+        tail = 0;
+        head = 0;
+        releasedOffset = 0;
+        writeOffset = 0;
+        waitKeyFrame = true;
+        overflow = false;
+        running = true;
+        thread = new Thread(this, "RtspRecorder");
+        writer = thread;
+        thread.start();
+    }
+
+    @Override
+    public void stop() {
+        Thread current;
+        synchronized (this) {
+            current = thread;
+            if (current == null) {
+                return;
+            }
+            thread = null;
+            running = false;
+        }
+        LockSupport.unpark(current);
+        try {
+            current.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public File getCurrentFile() {
+        return currentFile;
+    }
+
+    @Override
+    public int getSegmentCount() {
+        return segmentCount;
+    }
+
+    @Override
+    public long getRecordedFrames() {
+        return recordedFrames;
+    }
+
+    @Override
+    public long getDroppedFrames() {
+        return droppedFrames;
+    }
+
+    @Override
+    public long getWriteErrors() {
+        return writeErrors;
+    }
+
+    /**
+     * 复制一帧到缓冲区，在帧源输出线程调用，不阻塞
+     */
+    @Override
+    public void onFrameOutput(ByteBuffer buffer, int size, long presentationTimeUs) {
+        if (!running) {
+            return;
+        }
+        int position = buffer.position();
+        boolean resume = false;
+        if (waitKeyFrame) {
+            int type = firstSliceType(buffer, position, position + size);
+            if (type == NAL_SLICE) {
+                if (overflow) {
+                    droppedFrames++;
+                }
+                return;
+            }
+            // 只有参数集的配置帧也写入，但不结束等待
+            resume = type == NAL_IDR;
+        }
+        long t = tail;
+        int capacity = arena.capacity();
+        int offset = (int) (writeOffset % capacity);
+        int skip = offset + size > capacity ? capacity - offset : 0;
+        if (t - head >= MAX_FRAMES || skip + size > capacity - (writeOffset - releasedOffset)) {
+            droppedFrames++;
+            waitKeyFrame = true;
+            overflow = true;
+            return;
+        }
+        if (resume) {
+            waitKeyFrame = false;
+            overflow = false;
+        }
+        // 放不下时跳过缓冲区末尾，每帧都是连续的
+        long start = writeOffset + skip;
+        int limit = buffer.limit();
+        buffer.limit(position + size);
+        producerView.clear();
+        producerView.position((int) (start % capacity));
+        producerView.put(buffer);
+        buffer.limit(limit);
+        buffer.position(position);
+        writeOffset = start + size;
+        int slot = (int) (t % MAX_FRAMES);
+        frameOffsets[slot] = start;
+        frameSizes[slot] = size;
+        framePts[slot] = presentationTimeUs;
+        tail = t + 1;
+        LockSupport.unpark(writer);
+    }
+
+    /**
+     * 获取第一个片的 NAL 类型，只扫描到第一个片为止
+     *
+     * @return 没有片时返回 0
+     */
+    private static int firstSliceType(ByteBuffer buffer, int offset, int limit) {
+        int sc = AnnexB.findStartCode(buffer, offset, limit);
+        while (sc < limit) {
+            int nal = sc + AnnexB.startCodeLength(buffer, sc);
+            if (nal >= limit) {
+                break;
+            }
+            int type = AnnexB.h264Type(buffer, nal);
+            if (type >= NAL_SLICE && type <= NAL_IDR) {
+                return type == NAL_IDR ? NAL_IDR : NAL_SLICE;
+            }
+            sc = AnnexB.findStartCode(buffer, nal, limit);
+        }
+        return 0;
+    }
+
+    @Override
+    public void run() {
+        Thread self = Thread.currentThread();
+        processedOffset = 0;
+        while (true) {
+            long t = tail;
+            if (head == t) {
+                if (!running) {
+                    break;
+                }
+                LockSupport.parkNanos(this, IDLE_PARK_NS);
+                continue;
+            }
+            for (long i = head; i < t; i++) {
+                process((int) (i % MAX_FRAMES));
+                head = i + 1;
+            }
+        }
+        if (fragments.getPendingSamples() > 0) {
+            try {
+                recordedFrames += fragments.finish();
+            } catch (IOException e) {
+                writeErrors++;
+            }
+        }
+        closeSegment();
+        if (writer == self) {
+            writer = null;
+        }
+    }
+
+    private void process(int slot) {
+        long offset = frameOffsets[slot];
+        int size = frameSizes[slot];
+        long pts = framePts[slot];
+        int start = (int) (offset % arena.capacity());
+        int count = AnnexB.split(arena, start, start + size, nalStarts, nalEnds);
+        int sliceType = 0;
+        int sampleSize = 0;
+        int sampleNals = 0;
+        for (int i = 0; i < count; i++) {
+            int type = AnnexB.h264Type(arena, nalStarts[i]);
+            if (type == NAL_SPS) {
+                sps = updateParameterSet(sps, nalStarts[i], nalEnds[i]);
+            } else if (type == NAL_PPS) {
+                pps = updateParameterSet(pps, nalStarts[i], nalEnds[i]);
+            } else if (type != NAL_AUD) {
+                if (type >= NAL_SLICE && type <= NAL_IDR && sliceType == 0) {
+                    sliceType = type == NAL_IDR ? NAL_IDR : NAL_SLICE;
+                }
+                sampleSize += 4 + nalEnds[i] - nalStarts[i];
+                sampleNals++;
+            }
+        }
+        if (sliceType == 0) {
+            // 只有参数集的配置帧
+            onProcessed(offset + size);
+            return;
+        }
+        boolean keyFrame = sliceType == NAL_IDR;
+        if (fragments.isFragmentComplete(pts, keyFrame, sampleNals)) {
+            writeFragment();
+        }
+        if (keyFrame && (!fragments.isOpen() || parameterSetsChanged
+                || pts - segmentStartPts >= segmentSeconds * 1000000L)) {
+            closeSegment();
+            openSegment(pts);
+        }
+        if (!fragments.isOpen() || sampleNals > Mp4FragmentWriter.MAX_NALS_PER_FRAGMENT) {
+            // 等待关键帧，或者这一帧无法写入
+            onProcessed(offset + size);
+            return;
+        }
+        for (int i = 0; i < count; i++) {
+            int type = AnnexB.h264Type(arena, nalStarts[i]);
+            if (type != NAL_SPS && type != NAL_PPS && type != NAL_AUD) {
+                fragments.addNal(nalStarts[i], nalEnds[i]);
+            }
+        }
+        fragments.addSample(pts, sampleSize, keyFrame);
+        onProcessed(offset + size);
+    }
+
+    private byte[] updateParameterSet(byte[] current, int start, int end) {
+        int length = end - start;
+        if (current != null && current.length == length) {
+            boolean same = true;
+            for (int i = 0; i < length && same; i++) {
+                same = current[i] == arena.get(start + i);
+            }
+            if (same) {
+                return current;
+            }
+        }
+        byte[] value = new byte[length];
+        for (int i = 0; i < length; i++) {
+            value[i] = arena.get(start + i);
+        }
+        parameterSetsChanged = true;
+        return value;
+    }
+
+    /**
+     * 一帧处理完成，没有等待写入的样本时释放缓冲区，否则在片段写入后释放
+     */
+    private void onProcessed(long endOffset) {
+        processedOffset = endOffset;
+        if (fragments.getPendingSamples() == 0) {
+            releasedOffset = endOffset;
+        }
+    }
+
+    private void writeFragment() {
+        try {
+            recordedFrames += fragments.writeFragment();
+        } catch (IOException e) {
+            writeErrors++;
+            closeSegment();
+        }
+        releasedOffset = processedOffset;
+    }
+
+    private void openSegment(long pts) {
+        parameterSetsChanged = false;
+        H264Sps info = H264Sps.parse(sps);
+        if (info == null || pps == null) {
+            return;
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            writeErrors++;
+            return;
+        }
+        String name = new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.US).format(new Date());
+        File target = new File(directory, name + ".mp4");
+        for (int i = 1; target.exists(); i++) {
+            target = new File(directory, name + "-" + i + ".mp4");
+        }
+        // 按上一个分段的平均码率预估大小，多留 1/4
+        long preallocate = lastSegmentUs > 0
+                ? lastSegmentBytes * segmentSeconds * 1000000L / lastSegmentUs
+                : FIRST_PREALLOCATE_BYTES_PER_SECOND * segmentSeconds;
+        preallocate = Math.max(MIN_PREALLOCATE_BYTES, preallocate + preallocate / 4);
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(target, "rw");
+            raf.setLength(preallocate);
+            fragments.open(raf.getChannel(), sps, pps, info);
+            file = raf;
+            segmentStartPts = pts;
+            currentFile = target;
+        } catch (IOException e) {
+            writeErrors++;
+            if (raf != null) {
+                try {
+                    raf.close();
+                } catch (IOException ignored) {
+                }
+                target.delete();
+            }
+        }
+    }
+
+    private void closeSegment() {
+        if (!fragments.isOpen()) {
+            return;
+        }
+        long segmentBytes = fragments.getBytes();
+        long segmentDuration = fragments.getDuration();
+        fragments.close();
+        currentFile = null;
+        try {
+            FileChannel fileChannel = file.getChannel();
+            fileChannel.truncate(segmentBytes);
+            fileChannel.force(false);
+        } catch (IOException e) {
+            writeErrors++;
+        }
+        try {
+            file.close();
+        } catch (IOException e) {
+            writeErrors++;
+        }
+        file = null;
+        lastSegmentBytes = segmentBytes;
+        lastSegmentUs = segmentDuration * 1000000L / Mp4Boxes.TIMESCALE;
+        segmentCount++;
+    }
+}
@@ -0,0 +1,39 @@
+package com.telpo.rtsplive;
+
+/**
+ * 按最大帧率丢弃输入帧
+ * <p>
+ * {@link #accept} 只能在一个线程中调用，{@link #setMaxFrameRate} 可以在任何线程调用。
+ * 允许 1/4 帧间隔的时间戳抖动，源帧率不是限制帧率整数倍时按时间均匀丢帧
+ *
+ * @author  gfm
+ * @since   1.1
+ */
+final class FrameRateLimiter {
+    private volatile long intervalUs;
+    private long nextFrameUs;
+
+    /**
+     * @param frameRate 最大帧率，0 表示不限制
+     */
+    void setMaxFrameRate(int frameRate) {
+        intervalUs = frameRate > 0 ? 1000000L / frameRate : 0;
+    }
+
+    /**
+     * 判断这一帧是否需要编码
+     *
+     * @param timeUs 帧时间戳，单位：微秒
+     */
+    boolean accept(long timeUs) {
+        long interval = intervalUs;
+        if (interval == 0) {
+            return true;
+        }
+        if (timeUs < nextFrameUs - interval / 4) {
+            return false;
+        }
+        nextFrameUs = Math.max(nextFrameUs, timeUs - interval / 2) + interval;
+        return true;
+    }
+}
@@ -0,0 +1,194 @@
+package com.telpo.rtsplive;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 有界的堆外帧环形缓冲区
+ * <p>
+ * 编码器输出的每一帧只复制一次到环中，所有会话按各自的读游标（帧序号）从环中读取并打包，
+ * 慢的会话只会落后或被覆盖，不会阻塞编码器和其它会话。环中保留最近一个关键帧开始的 GOP，
+ * 新加入的会话从最近的关键帧开始播放，不用等待下一个 IDR。
+ * <p>
+ * 写入和读取都在帧源输出线程中进行，序号相关的字段是 volatile 的，方便其它线程读取统计信息。
+ * 启用 {@link RtpPacer} 时读取在节拍器线程中进行，读写都要持有帧环对象的锁
+ *
+ * @author  gfm
+ * @since   1.1
+ */
+final class FrameRing {
+    static final int DEFAULT_CAPACITY = 2 * 1024 * 1024;
+    static final int DEFAULT_SLOTS = 256;
+
+    private final ByteBuffer data;
+    private final ByteBuffer reader;
+    private final BufferViews views = new BufferViews(4);
+    private final int slotMask;
+    private final int[] offsets;
+    private final int[] sizes;
+    private final long[] presentationTimes;
+    private final boolean[] keyFrames;
+    private final long[] writeTimes;
+
+    private volatile long head; // 下一个写入的帧序号
+    private volatile long tail; // 最旧的有效帧序号
+    private volatile long lastKeyFrame = -1;
+    private volatile long droppedFrames;
+    private int writePosition;
+
+    /**
+     * @param capacity 数据区大小，单位：字节
+     * @param slots 最多缓存的帧数，必须是 2 的幂
+     */
+    FrameRing(int capacity, int slots) {
+        if (Integer.bitCount(slots) != 1) {
+            throw new IllegalArgumentException("slots must be a power of 2: " + slots);
+        }
+        data = ByteBuffer.allocateDirect(capacity);
+        reader = data.duplicate();
+        slotMask = slots - 1;
+        offsets = new int[slots];
+        sizes = new int[slots];
+        presentationTimes = new long[slots];
+        keyFrames = new boolean[slots];
+        writeTimes = new long[slots];
+    }
+
+    /**
+     * 写入一帧，必要时覆盖最旧的帧
+     *
+     * @param prefix 需要放在帧数据前的数据（例如 SPS/PPS），从 prefix.position() 开始，可以为 null
+     * @param prefixSize prefix 数据大小
+     * @param buffer 帧数据，从 buffer.position() 开始
+     * @param size 帧数据大小
+     * @param presentationTimeUs 帧时间戳，单位：微秒
+     * @param keyFrame 是否关键帧
+     * @return 帧序号，帧大于整个数据区时丢弃并返回 -1
+     */
+    long write(ByteBuffer prefix, int prefixSize, ByteBuffer buffer, int size, long presentationTimeUs,
+               boolean keyFrame) {
+        if (prefix == null) {
+            prefixSize = 0;
+        }
+        int length = prefixSize + size;
+        if (length > data.capacity()) {
+            droppedFrames++;
+            return -1;
+        }
+        long seq = head;
+        int start = writePosition;
+        if (start + length > data.capacity()) {
+            // 帧数据在环中保持连续，尾部放不下就回到开头，尾部剩下的旧帧一起淘汰
+            while (tail < seq && offsets[slot(tail)] >= start) {
+                evict();
+            }
+            start = 0;
+        }
+        while (tail < seq && (seq - tail > slotMask || overlaps(slot(tail), start, length))) {
+            evict();
+        }
+
+        data.clear();
+        data.position(start);
+        if (prefixSize > 0) {
+            data.put(views.get(prefix, prefix.position(), prefixSize));
+        }
+        data.put(views.get(buffer, buffer.position(), size));
+        writePosition = start + length;
+
+        int slot = slot(seq);
+        offsets[slot] = start;
+        sizes[slot] = length;
+        presentationTimes[slot] = presentationTimeUs;
+        keyFrames[slot] = keyFrame;
+        writeTimes[slot] = System.nanoTime();
+        if (keyFrame) {
+            lastKeyFrame = seq;
+        }
+        head = seq + 1;
+        return seq;
+    }
+
+    private boolean overlaps(int slot, int start, int length) {
+        int offset = offsets[slot];
+        return offset < start + length && offset + sizes[slot] > start;
+    }
+
+    private void evict() {
+        long seq = tail + 1;
+        if (lastKeyFrame < seq) {
+            lastKeyFrame = -1;
+        }
+        tail = seq;
+    }
+
+    /**
+     * 清空缓冲区，帧序号继续递增，已有的读游标会被视为被覆盖
+     */
+    void clear() {
+        long seq = head;
+        tail = seq;
+        lastKeyFrame = -1;
+        writePosition = 0;
+    }
+
+    private int slot(long seq) {
+        return (int) seq & slotMask;
+    }
+
+    /**
+     * 下一个写入的帧序号
+     */
+    long head() {
+        return head;
+    }
+
+    /**
+     * 最旧的有效帧序号，小于它的帧已被覆盖
+     */
+    long tail() {
+        return tail;
+    }
+
+    /**
+     * 最近一个关键帧的序号，环中没有关键帧时返回 -1
+     */
+    long lastKeyFrame() {
+        return lastKeyFrame;
+    }
+
+    /**
+     * 帧大于整个数据区而被丢弃的帧数
+     */
+    long getDroppedFrames() {
+        return droppedFrames;
+    }
+
+    /**
+     * 获取帧数据视图，position 为帧起始位置，limit 为帧结束位置，在下次调用前有效
+     */
+    ByteBuffer frame(long seq) {
+        int slot = slot(seq);
+        reader.limit(offsets[slot] + sizes[slot]);
+        reader.position(offsets[slot]);
+        return reader;
+    }
+
+    int size(long seq) {
+        return sizes[slot(seq)];
+    }
+
+    long presentationTimeUs(long seq) {
+        return presentationTimes[slot(seq)];
+    }
+
+    boolean isKeyFrame(long seq) {
+        return keyFrames[slot(seq)];
+    }
+
+    /**
+     * 帧写入时间，单位：纳秒（{@link System#nanoTime()}）
+     */
+    long writeTimeNs(long seq) {
+        return writeTimes[slot(seq)];
+    }
+}
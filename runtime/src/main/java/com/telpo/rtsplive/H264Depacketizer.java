@@ -0,0 +1,252 @@
+package com.telpo.rtsplive;
+
+import java.nio.ByteBuffer;
+
+/**
+ * H264 RTP 解包器（RFC 6184，packetization-mode 0/1）
+ * <p>
+ * 把按序号排好的 RTP 包还原为 Annex-B 格式的一帧（4 字节起始码），支持单 NAL、STAP-A 和 FU-A。
+ * 以 marker 位或时间戳变化作为帧结束，包含丢失数据的帧整帧丢弃。
+ * IDR 帧中没有 SPS/PPS 时在第一个 IDR 片前插入缓存的参数集（来自 SDP 或之前的帧），
+ * 输出的每个 IDR 帧都可以独立解码。只能在一个线程中使用
+ *
+ * @author  gfm
+ * @since   1.1
+ */
+final class H264Depacketizer {
+    private static final int NAL_IDR = 5;
+    private static final int NAL_SPS = 7;
+    private static final int NAL_PPS = 8;
+    private static final int NAL_STAP_A = 24;
+    private static final int NAL_FU_A = 28;
+    private static final int MAX_FRAME_SIZE = 4 * 1024 * 1024;
+
+    interface Sink {
+        /**
+         * 输出一帧，buffer 从 position 0 开始，回调返回后会被复用
+         *
+         * @param timestamp RTP 时间戳
+         * @param keyFrame 是否包含 IDR 片
+         */
+        void onFrame(ByteBuffer buffer, int size, int timestamp, boolean keyFrame);
+    }
+
+    private final Sink sink;
+    private ByteBuffer frame = ByteBuffer.allocateDirect(256 * 1024);
+    private int timestamp;
+    private boolean started;
+    private boolean corrupt;
+    private boolean fragmenting;
+    private boolean hasVcl;
+    private boolean hasIdr;
+    private boolean hasSps;
+    private boolean hasPps;
+    private byte[] sps;
+    private byte[] pps;
+
+    H264Depacketizer(Sink sink) {
+        this.sink = sink;
+    }
+
+    /**
+     * 设置 SDP 中的参数集，帧中出现新的参数集时会被替换
+     */
+    void setParameterSets(byte[] sps, byte[] pps) {
+        this.sps = sps;
+        this.pps = pps;
+    }
+
+    byte[] getSps() {
+        return sps;
+    }
+
+    byte[] getPps() {
+        return pps;
+    }
+
+    /**
+     * 处理一个 RTP 包
+     */
+    void onPacket(byte[] packet, int length) {
+        if ((packet[0] & 0xC0) != 0x80) {
+            return;
+        }
+        int header = RtpPacketizer.RTP_HEADER_SIZE + (packet[0] & 0x0F) * 4;
+        if ((packet[0] & 0x10) != 0 && header + 4 <= length) {
+            header += 4 + (((packet[header + 2] & 0xFF) << 8) | (packet[header + 3] & 0xFF)) * 4;
+        }
+        int end = length;
+        if ((packet[0] & 0x20) != 0) {
+            end -= packet[length - 1] & 0xFF;
+        }
+        if (header >= end) {
+            return;
+        }
+        boolean marker = (packet[1] & 0x80) != 0;
+        int ts = ((packet[4] & 0xFF) << 24) | ((packet[5] & 0xFF) << 16) | ((packet[6] & 0xFF) << 8)
+                | (packet[7] & 0xFF);
+        if (started && ts != timestamp) {
+            // 上一帧的 marker 包丢失或服务器不设置 marker
+            finish();
+        }
+        if (!started) {
+            started = true;
+            timestamp = ts;
+        }
+        int type = packet[header] & 0x1F;
+        if (type == NAL_STAP_A) {
+            int offset = header + 1;
+            while (offset + 2 <= end) {
+                int size = ((packet[offset] & 0xFF) << 8) | (packet[offset + 1] & 0xFF);
+                offset += 2;
+                if (size == 0 || offset + size > end) {
+                    corrupt = true;
+                    break;
+                }
+                writeNal(packet, offset, size);
+                offset += size;
+            }
+        } else if (type == NAL_FU_A) {
+            if (header + 2 > end) {
+                corrupt = true;
+            } else {
+                writeFragment(packet, header, end);
+            }
+        } else if (type >= 1 && type < NAL_STAP_A) {
+            writeNal(packet, header, end - header);
+        }
+        if (marker) {
+            finish();
+        }
+    }
+
+    /**
+     * 有包丢失，当前帧不完整
+     */
+    void onLoss() {
+        corrupt = true;
+        fragmenting = false;
+    }
+
+    /**
+     * 丢弃未完成的帧，重新连接后调用
+     */
+    void reset() {
+        frame.clear();
+        started = false;
+        corrupt = false;
+        fragmenting = false;
+        hasVcl = hasIdr = hasSps = hasPps = false;
+    }
+
+    private void writeFragment(byte[] packet, int header, int end) {
+        int indicator = packet[header];
+        int fuHeader = packet[header + 1];
+        boolean first = (fuHeader & 0x80) != 0;
+        boolean last = (fuHeader & 0x40) != 0;
+        int type = fuHeader & 0x1F;
+        if (first) {
+            beforeNal(type);
+            if (!ensureCapacity(5 + end - header - 2)) {
+                return;
+            }
+            frame.putInt(1);
+            frame.put((byte) ((indicator & 0xE0) | type));
+            fragmenting = true;
+        } else if (!fragmenting) {
+            // 丢失了分片开头
+            corrupt = true;
+            return;
+        }
+        if (!ensureCapacity(end - header - 2)) {
+            return;
+        }
+        frame.put(packet, header + 2, end - header - 2);
+        if (last) {
+            fragmenting = false;
+        }
+    }
+
+    private void writeNal(byte[] data, int offset, int size) {
+        int type = data[offset] & 0x1F;
+        if (type == NAL_SPS) {
+            sps = copyIfChanged(sps, data, offset, size);
+            hasSps = true;
+        } else if (type == NAL_PPS) {
+            pps = copyIfChanged(pps, data, offset, size);
+            hasPps = true;
+        }
+        beforeNal(type);
+        if (ensureCapacity(4 + size)) {
+            frame.putInt(1);
+            frame.put(data, offset, size);
+        }
+    }
+
+    /**
+     * 第一个 IDR 片前补上帧中没有的参数集
+     */
+    private void beforeNal(int type) {
+        if (type >= 1 && type <= NAL_IDR) {
+            hasVcl = true;
+        }
+        if (type != NAL_IDR || hasIdr) {
+            return;
+        }
+        hasIdr = true;
+        if (!hasSps && sps != null && ensureCapacity(4 + sps.length)) {
+            frame.putInt(1);
+            frame.put(sps);
+            hasSps = true;
+        }
+        if (!hasPps && pps != null && ensureCapacity(4 + pps.length)) {
+            frame.putInt(1);
+            frame.put(pps);
+            hasPps = true;
+        }
+    }
+
+    private boolean ensureCapacity(int size) {
+        if (frame.remaining() >= size) {
+            return true;
+        }
+        int required = frame.position() + size;
+        if (required > MAX_FRAME_SIZE) {
+            corrupt = true;
+            return false;
+        }
+        ByteBuffer larger = ByteBuffer.allocateDirect(Math.min(MAX_FRAME_SIZE, Math.max(required, frame.capacity() * 2)));
+        frame.flip();
+        larger.put(frame);
+        frame = larger;
+        return true;
+    }
+
+    private void finish() {
+        int size = frame.position();
+        if (size > 0 && hasVcl && !corrupt && !fragmenting) {
+            frame.flip();
+            sink.onFrame(frame, size, timestamp, hasIdr);
+        }
+        frame.clear();
+        started = false;
+        corrupt = false;
+        fragmenting = false;
+        hasVcl = hasIdr = hasSps = hasPps = false;
+    }
+
+    private static byte[] copyIfChanged(byte[] current, byte[] data, int offset, int size) {
+        if (current != null && current.length == size) {
+            boolean same = true;
+            for (int i = 0; i < size && same; i++) {
+                same = current[i] == data[offset + i];
+            }
+            if (same) {
+                return current;
+            }
+        }
+        byte[] copy = new byte[size];
+        System.arraycopy(data, offset, copy, 0, size);
+        return copy;
+    }
+}
@@ -0,0 +1,92 @@
+package com.telpo.rtsplive;
+
+import java.nio.ByteBuffer;
+
+/**
+ * H264 RTP 打包器（RFC 6184，packetization-mode=1）
+ * <p>
+ * 小于包长的 NAL 单独成包，连续的小 NAL（例如 SPS/PPS/SEI）合并为 STAP-A，大 NAL 拆分为 FU-A
+ *
+ * @author  gfm
+ * @since   1.1
+ */
+final class H264Packetizer extends RtpPacketizer {
+    private static final int NAL_STAP_A = 24;
+    private static final int NAL_FU_A = 28;
+
+    private int nalIndex;
+    private int fuOffset;
+
+    H264Packetizer(int payloadType, int maxPacketSize) {
+        super(payloadType, 90000, maxPacketSize);
+    }
+
+    @Override
+    void onAccessUnit() {
+        nalIndex = 0;
+        fuOffset = 0;
+    }
+
+    @Override
+    boolean hasNext() {
+        return nalIndex < nalCount;
+    }
+
+    @Override
+    int next(ByteBuffer out) {
+        int start = out.position();
+        int maxPayload = maxPacketSize - RTP_HEADER_SIZE;
+        ByteBuffer nal = nalBuffers[nalIndex];
+        int nalStart = nalStarts[nalIndex];
+        int nalSize = nalEnds[nalIndex] - nalStart;
+
+        if (fuOffset == 0 && nalSize <= maxPayload) {
+            // 尝试把后续的小 NAL 合并为 STAP-A
+            int aggregated = 1 + 2 + nalSize;
+            int last = nalIndex;
+            int nri = nal.get(nalStart) & 0x60;
+            while (last + 1 < nalCount) {
+                int nextSize = nalEnds[last + 1] - nalStarts[last + 1];
+                if (aggregated + 2 + nextSize > maxPayload) {
+                    break;
+                }
+                aggregated += 2 + nextSize;
+                nri = Math.max(nri, nalBuffers[last + 1].get(nalStarts[last + 1]) & 0x60);
+                last++;
+            }
+            boolean marker = last == nalCount - 1;
+            writeHeader(out, marker);
+            if (last == nalIndex) {
+                copy(out, nal, nalStart, nalSize);
+            } else {
+                out.put((byte) (nri | NAL_STAP_A));
+                for (int i = nalIndex; i <= last; i++) {
+                    int size = nalEnds[i] - nalStarts[i];
+                    out.putShort((short) size);
+                    copy(out, nalBuffers[i], nalStarts[i], size);
+                }
+            }
+            nalIndex = last + 1;
+            return finishPacket(out, start);
+        }
+
+        // FU-A 分片，跳过原 NAL 头
+        byte header = nal.get(nalStart);
+        int payloadStart = nalStart + 1 + fuOffset;
+        int remaining = nalSize - 1 - fuOffset;
+        int chunk = Math.min(remaining, maxPayload - 2);
+        boolean first = fuOffset == 0;
+        boolean end = chunk == remaining;
+        writeHeader(out, end && nalIndex == nalCount - 1);
+        out.put((byte) ((header & 0x60) | NAL_FU_A));
+        out.put((byte) ((first ? 0x80 : 0) | (end ? 0x40 : 0) | (header & 0x1F)));
+        copy(out, nal, payloadStart, chunk);
+        if (end) {
+            nalIndex++;
+            fuOffset = 0;
+        } else {
+            fuOffset += chunk;
+        }
+        return finishPacket(out, start);
+    }
+}
@@ -0,0 +1,114 @@
+package com.telpo.rtsplive;
+
+import java.nio.ByteBuffer;
+
+/**
+ * H264 RTP 媒体子会话委托
+ * <p>
+ * 缓存编码器输出的 SPS/PPS 用于 SDP 的 sprop-parameter-sets，并在每个 IDR 帧前补发参数集，
+ * 方便中途加入的客户端解码
+ *
+ * @author  gfm
+ * @since   1.1
+ */
+public class H264RtpSubsessionDelegate extends RtpSubsessionDelegate {
+    private static final int NAL_IDR = 5;
+    private static final int NAL_SPS = 7;
+    private static final int NAL_PPS = 8;
+    private static final int MAX_PARAMETER_SETS_SIZE = 1024;
+
+    private volatile byte[] sps;
+    private volatile byte[] pps;
+    private final ByteBuffer parameterSets = ByteBuffer.allocateDirect(MAX_PARAMETER_SETS_SIZE);
+    private final int[] nalStarts = new int[RtpPacketizer.MAX_NALS_PER_FRAME];
+    private final int[] nalEnds = new int[RtpPacketizer.MAX_NALS_PER_FRAME];
+
+    public H264RtpSubsessionDelegate(FramedSource framedSource) {
+        super(framedSource);
+    }
+
+    @Override
+    RtpPacketizer newPacketizer() {
+        return new H264Packetizer(PAYLOAD_TYPE, RtpPacketizer.DEFAULT_MAX_PACKET_SIZE);
+    }
+
+    @Override
+    public void onFrameOutput(ByteBuffer buffer, int size, long presentationTimeUs) {
+        int offset = buffer.position();
+        int count = AnnexB.split(buffer, offset, offset + size, nalStarts, nalEnds);
+        boolean hasIdr = false;
+        boolean hasSps = false;
+        boolean hasVcl = false;
+        boolean configChanged = false;
+        for (int i = 0; i < count; i++) {
+            int type = AnnexB.h264Type(buffer, nalStarts[i]);
+            if (type == NAL_SPS) {
+                hasSps = true;
+                byte[] data = updateParameterSet(sps, buffer, nalStarts[i], nalEnds[i]);
+                if (data != sps) {
+                    sps = data;
+                    configChanged = true;
+                }
+            } else if (type == NAL_PPS) {
+                byte[] data = updateParameterSet(pps, buffer, nalStarts[i], nalEnds[i]);
+                if (data != pps) {
+                    pps = data;
+                    configChanged = true;
+                }
+            } else if (type >= 1 && type <= 5) {
+                hasVcl = true;
+                hasIdr |= type == NAL_IDR;
+            }
+        }
+        if (configChanged) {
+            rebuildParameterSets();
+            notifyConfigReady();
+        }
+        if (!hasVcl) {
+            // MediaCodec 的 codec-config 输出只含参数集，缓存后在 IDR 帧前发送，不单独写入帧环
+            return;
+        }
+        if (hasIdr && !hasSps && parameterSets.limit() > 0) {
+            deliver(parameterSets, parameterSets.limit(), buffer, size, presentationTimeUs, true);
+        } else {
+            deliver(null, 0, buffer, size, presentationTimeUs, hasIdr);
+        }
+    }
+
+    private void rebuildParameterSets() {
+        byte[] sps = this.sps;
+        byte[] pps = this.pps;
+        parameterSets.clear();
+        if (sps != null && pps != null && sps.length + pps.length + 8 <= MAX_PARAMETER_SETS_SIZE) {
+            parameterSets.putInt(1).put(sps).putInt(1).put(pps);
+        }
+        parameterSets.flip();
+    }
+
+    @Override
+    boolean isConfigReady() {
+        return sps != null && pps != null;
+    }
+
+    @Override
+    String getSdpAttributes() {
+        byte[] sps = this.sps;
+        byte[] pps = this.pps;
+        StringBuilder sb = new StringBuilder();
+        sb.append("a=rtpmap:").append(PAYLOAD_TYPE).append(" H264/90000\r\n");
+        sb.append("a=fmtp:").append(PAYLOAD_TYPE).append(" packetization-mode=1");
+        if (sps != null && sps.length >= 4) {
+            sb.append(String.format(";profile-level-id=%02X%02X%02X", sps[1] & 0xFF, sps[2] & 0xFF, sps[3] & 0xFF));
+        }
+        if (sps != null && pps != null) {
+            sb.append(";sprop-parameter-sets=").append(base64(sps)).append(',').append(base64(pps));
+        }
+        sb.append("\r\n");
+        if (framedSource instanceof VideoEncoder) {
+            // 告诉客户端可以用 PLI/FIR 请求关键帧
+            sb.append("a=rtcp-fb:").append(PAYLOAD_TYPE).append(" nack pli\r\n");
+            sb.append("a=rtcp-fb:").append(PAYLOAD_TYPE).append(" ccm fir\r\n");
+        }
+        return sb.toString();
+    }
+}
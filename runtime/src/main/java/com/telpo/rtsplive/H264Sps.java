@@ -0,0 +1,150 @@
+package com.telpo.rtsplive;
+
+import java.util.Arrays;
+
+/**
+ * H264 SPS 解析，只解析 MP4 封装需要的字段：profile、色度格式、位深和裁剪后的图像尺寸
+ *
+ * @author  gfm
+ * @since   1.1
+ */
+final class H264Sps {
+    int profile;
+    int chromaFormat = 1;
+    int bitDepthLuma = 8;
+    int bitDepthChroma = 8;
+    int width;
+    int height;
+
+    private final byte[] rbsp;
+    private int bitPosition;
+
+    private H264Sps(byte[] rbsp) {
+        this.rbsp = rbsp;
+    }
+
+    /**
+     * 解析 SPS
+     *
+     * @param nal SPS NAL 单元，含 NAL 头，不含起始码
+     * @return 格式错误时返回 null
+     */
+    static H264Sps parse(byte[] nal) {
+        if (nal == null || nal.length < 4 || (nal[0] & 0x1F) != 7) {
+            return null;
+        }
+        H264Sps sps = new H264Sps(unescape(nal));
+        try {
+            sps.parse();
+        } catch (ArrayIndexOutOfBoundsException e) {
+            return null;
+        }
+        return sps.width > 0 && sps.height > 0 ? sps : null;
+    }
+
+    /**
+     * 去掉防竞争字节 00 00 03
+     */
+    private static byte[] unescape(byte[] nal) {
+        byte[] rbsp = new byte[nal.length];
+        int length = 0;
+        int zeros = 0;
+        for (byte b : nal) {
+            if (zeros >= 2 && b == 3) {
+                zeros = 0;
+                continue;
+            }
+            zeros = b == 0 ? zeros + 1 : 0;
+            rbsp[length++] = b;
+        }
+        return length == nal.length ? rbsp : Arrays.copyOf(rbsp, length);
+    }
+
+    private void parse() {
+        bitPosition = 8;
+        profile = readBits(8);
+        readBits(16); // constraint_set_flags + level_idc
+        readUe(); // seq_parameter_set_id
+        if (profile == 100 || profile == 110 || profile == 122 || profile == 244 || profile == 44
+                || profile == 83 || profile == 86 || profile == 118 || profile == 128 || profile == 138
+                || profile == 139 || profile == 134 || profile == 135) {
+            chromaFormat = readUe();
+            if (chromaFormat == 3) {
+                readBits(1); // separate_colour_plane_flag
+            }
+            bitDepthLuma = readUe() + 8;
+            bitDepthChroma = readUe() + 8;
+            readBits(1); // qpprime_y_zero_transform_bypass_flag
+            if (readBits(1) == 1) {
+                int lists = chromaFormat == 3 ? 12 : 8;
+                for (int i = 0; i < lists; i++) {
+                    if (readBits(1) == 1) {
+                        skipScalingList(i < 6 ? 16 : 64);
+                    }
+                }
+            }
+        }
+        readUe(); // log2_max_frame_num_minus4
+        int pocType = readUe();
+        if (pocType == 0) {
+            readUe(); // log2_max_pic_order_cnt_lsb_minus4
+        } else if (pocType == 1) {
+            readBits(1); // delta_pic_order_always_zero_flag
+            readUe(); // offset_for_non_ref_pic
+            readUe(); // offset_for_top_to_bottom_field
+            int cycle = readUe();
+            for (int i = 0; i < cycle; i++) {
+                readUe(); // offset_for_ref_frame
+            }
+        }
+        readUe(); // max_num_ref_frames
+        readBits(1); // gaps_in_frame_num_value_allowed_flag
+        int widthInMbs = readUe() + 1;
+        int heightInMapUnits = readUe() + 1;
+        int frameMbsOnly = readBits(1);
+        if (frameMbsOnly == 0) {
+            readBits(1); // mb_adaptive_frame_field_flag
+        }
+        readBits(1); // direct_8x8_inference_flag
+        width = widthInMbs * 16;
+        height = (2 - frameMbsOnly) * heightInMapUnits * 16;
+        if (readBits(1) == 1) {
+            int cropUnitX = chromaFormat == 1 || chromaFormat == 2 ? 2 : 1;
+            int cropUnitY = (chromaFormat == 1 ? 2 : 1) * (2 - frameMbsOnly);
+            width -= cropUnitX * (readUe() + readUe());
+            height -= cropUnitY * (readUe() + readUe());
+        }
+    }
+
+    private void skipScalingList(int size) {
+        int last = 8;
+        int next = 8;
+        for (int i = 0; i < size && next != 0; i++) {
+            // delta_scale 是有符号指数哥伦布码
+            int code = readUe();
+            int delta = (code & 1) != 0 ? (code + 1) / 2 : -(code / 2);
+            next = (last + delta + 256) % 256;
+            last = next == 0 ? last : next;
+        }
+    }
+
+    private int readBits(int count) {
+        int value = 0;
+        for (int i = 0; i < count; i++) {
+            int bit = (rbsp[bitPosition >> 3] >> (7 - (bitPosition & 7))) & 1;
+            value = (value << 1) | bit;
+            bitPosition++;
+        }
+        return value;
+    }
+
+    private int readUe() {
+        int zeros = 0;
+        while (readBits(1) == 0) {
+            if (++zeros > 31) {
+                throw new ArrayIndexOutOfBoundsException("bad exp-golomb code");
+            }
+        }
+        return zeros == 0 ? 0 : (1 << zeros) - 1 + readBits(zeros);
+    }
+}
@@ -0,0 +1,107 @@
+package com.telpo.rtsplive;
+
+import java.nio.ByteBuffer;
+
+/**
+ * H265 RTP 打包器（RFC 7798，sprop-max-don-diff=0，不发送 DONL）
+ * <p>
+ * 小于包长的 NAL 单独成包，连续的小 NAL（例如 VPS/SPS/PPS/SEI）合并为 AP，大 NAL 拆分为 FU
+ *
+ * @author  gfm
+ * @since   1.1
+ */
+final class H265Packetizer extends RtpPacketizer {
+    private static final int NAL_AP = 48;
+    private static final int NAL_FU = 49;
+    private static final int NAL_HEADER_SIZE = 2;
+
+    private int nalIndex;
+    private int fuOffset;
+
+    H265Packetizer(int payloadType, int maxPacketSize) {
+        super(payloadType, 90000, maxPacketSize);
+    }
+
+    @Override
+    void onAccessUnit() {
+        nalIndex = 0;
+        fuOffset = 0;
+    }
+
+    @Override
+    boolean hasNext() {
+        return nalIndex < nalCount;
+    }
+
+    @Override
+    int next(ByteBuffer out) {
+        int start = out.position();
+        int maxPayload = maxPacketSize - RTP_HEADER_SIZE;
+        ByteBuffer nal = nalBuffers[nalIndex];
+        int nalStart = nalStarts[nalIndex];
+        int nalSize = nalEnds[nalIndex] - nalStart;
+
+        if (fuOffset == 0 && nalSize <= maxPayload) {
+            // 尝试把后续的小 NAL 合并为 AP，AP 头的 F 取或，LayerId 和 TID 取最小值
+            int aggregated = NAL_HEADER_SIZE + 2 + nalSize;
+            int last = nalIndex;
+            int forbidden = nal.get(nalStart) & 0x80;
+            int layerId = layerId(nal, nalStart);
+            int tid = nal.get(nalStart + 1) & 0x07;
+            while (last + 1 < nalCount) {
+                ByteBuffer next = nalBuffers[last + 1];
+                int nextStart = nalStarts[last + 1];
+                int nextSize = nalEnds[last + 1] - nextStart;
+                if (aggregated + 2 + nextSize > maxPayload) {
+                    break;
+                }
+                aggregated += 2 + nextSize;
+                forbidden |= next.get(nextStart) & 0x80;
+                layerId = Math.min(layerId, layerId(next, nextStart));
+                tid = Math.min(tid, next.get(nextStart + 1) & 0x07);
+                last++;
+            }
+            boolean marker = last == nalCount - 1;
+            writeHeader(out, marker);
+            if (last == nalIndex) {
+                copy(out, nal, nalStart, nalSize);
+            } else {
+                out.put((byte) (forbidden | (NAL_AP << 1) | (layerId >> 5)));
+                out.put((byte) ((layerId << 3) | tid));
+                for (int i = nalIndex; i <= last; i++) {
+                    int size = nalEnds[i] - nalStarts[i];
+                    out.putShort((short) size);
+                    copy(out, nalBuffers[i], nalStarts[i], size);
+                }
+            }
+            nalIndex = last + 1;
+            return finishPacket(out, start);
+        }
+
+        // FU 分片，跳过原 NAL 头，PayloadHdr 沿用原 NAL 头的 F、LayerId 和 TID
+        byte header0 = nal.get(nalStart);
+        byte header1 = nal.get(nalStart + 1);
+        int type = (header0 >> 1) & 0x3F;
+        int payloadStart = nalStart + NAL_HEADER_SIZE + fuOffset;
+        int remaining = nalSize - NAL_HEADER_SIZE - fuOffset;
+        int chunk = Math.min(remaining, maxPayload - NAL_HEADER_SIZE - 1);
+        boolean first = fuOffset == 0;
+        boolean end = chunk == remaining;
+        writeHeader(out, end && nalIndex == nalCount - 1);
+        out.put((byte) ((header0 & 0x81) | (NAL_FU << 1)));
+        out.put(header1);
+        out.put((byte) ((first ? 0x80 : 0) | (end ? 0x40 : 0) | type));
+        copy(out, nal, payloadStart, chunk);
+        if (end) {
+            nalIndex++;
+            fuOffset = 0;
+        } else {
+            fuOffset += chunk;
+        }
+        return finishPacket(out, start);
+    }
+
+    private static int layerId(ByteBuffer nal, int start) {
+        return ((nal.get(start) & 0x01) << 5) | ((nal.get(start + 1) >> 3) & 0x1F);
+    }
+}
@@ -0,0 +1,159 @@
+package com.telpo.rtsplive;
+
+import java.nio.ByteBuffer;
+
+/**
+ * H265 RTP 媒体子会话委托
+ * <p>
+ * 缓存编码器输出的 VPS/SPS/PPS 用于 SDP 的 sprop-vps/sprop-sps/sprop-pps，并在每个 IRAP 帧前补发参数集，
+ * 方便中途加入的客户端解码
+ *
+ * @author  gfm
+ * @since   1.1
+ */
+public class H265RtpSubsessionDelegate extends RtpSubsessionDelegate {
+    private static final int NAL_IRAP_FIRST = 16;
+    private static final int NAL_IRAP_LAST = 23;
+    private static final int NAL_VCL_LAST = 31;
+    private static final int NAL_VPS = 32;
+    private static final int NAL_SPS = 33;
+    private static final int NAL_PPS = 34;
+    private static final int MAX_PARAMETER_SETS_SIZE = 1024;
+    /** SPS 中 profile_tier_level 的 general_level_idc 之前的字节数（去掉防竞争字节后） */
+    private static final int SPS_PROFILE_SIZE = 15;
+
+    private volatile byte[] vps;
+    private volatile byte[] sps;
+    private volatile byte[] pps;
+    private final ByteBuffer parameterSets = ByteBuffer.allocateDirect(MAX_PARAMETER_SETS_SIZE);
+    private final int[] nalStarts = new int[RtpPacketizer.MAX_NALS_PER_FRAME];
+    private final int[] nalEnds = new int[RtpPacketizer.MAX_NALS_PER_FRAME];
+
+    public H265RtpSubsessionDelegate(FramedSource framedSource) {
+        super(framedSource);
+    }
+
+    @Override
+    RtpPacketizer newPacketizer() {
+        return new H265Packetizer(PAYLOAD_TYPE, RtpPacketizer.DEFAULT_MAX_PACKET_SIZE);
+    }
+
+    @Override
+    public void onFrameOutput(ByteBuffer buffer, int size, long presentationTimeUs) {
+        int offset = buffer.position();
+        int count = AnnexB.split(buffer, offset, offset + size, nalStarts, nalEnds);
+        boolean hasIrap = false;
+        boolean hasVps = false;
+        boolean hasVcl = false;
+        boolean configChanged = false;
+        for (int i = 0; i < count; i++) {
+            if (nalEnds[i] - nalStarts[i] < 2) {
+                continue;
+            }
+            int type = AnnexB.h265Type(buffer, nalStarts[i]);
+            if (type == NAL_VPS) {
+                hasVps = true;
+                byte[] data = updateParameterSet(vps, buffer, nalStarts[i], nalEnds[i]);
+                if (data != vps) {
+                    vps = data;
+                    configChanged = true;
+                }
+            } else if (type == NAL_SPS) {
+                byte[] data = updateParameterSet(sps, buffer, nalStarts[i], nalEnds[i]);
+                if (data != sps) {
+                    sps = data;
+                    configChanged = true;
+                }
+            } else if (type == NAL_PPS) {
+                byte[] data = updateParameterSet(pps, buffer, nalStarts[i], nalEnds[i]);
+                if (data != pps) {
+                    pps = data;
+                    configChanged = true;
+                }
+            } else if (type <= NAL_VCL_LAST) {
+                hasVcl = true;
+                hasIrap |= type >= NAL_IRAP_FIRST && type <= NAL_IRAP_LAST;
+            }
+        }
+        if (configChanged) {
+            rebuildParameterSets();
+            notifyConfigReady();
+        }
+        if (!hasVcl) {
+            // MediaCodec 的 codec-config 输出只含参数集，缓存后在 IRAP 帧前发送，不单独写入帧环
+            return;
+        }
+        if (hasIrap && !hasVps && parameterSets.limit() > 0) {
+            deliver(parameterSets, parameterSets.limit(), buffer, size, presentationTimeUs, true);
+        } else {
+            deliver(null, 0, buffer, size, presentationTimeUs, hasIrap);
+        }
+    }
+
+    private void rebuildParameterSets() {
+        byte[] vps = this.vps;
+        byte[] sps = this.sps;
+        byte[] pps = this.pps;
+        parameterSets.clear();
+        if (vps != null && sps != null && pps != null
+                && vps.length + sps.length + pps.length + 12 <= MAX_PARAMETER_SETS_SIZE) {
+            parameterSets.putInt(1).put(vps).putInt(1).put(sps).putInt(1).put(pps);
+        }
+        parameterSets.flip();
+    }
+
+    @Override
+    boolean isConfigReady() {
+        return vps != null && sps != null && pps != null;
+    }
+
+    @Override
+    String getSdpAttributes() {
+        byte[] vps = this.vps;
+        byte[] sps = this.sps;
+        byte[] pps = this.pps;
+        StringBuilder sb = new StringBuilder();
+        sb.append("a=rtpmap:").append(PAYLOAD_TYPE).append(" H265/90000\r\n");
+        sb.append("a=fmtp:").append(PAYLOAD_TYPE).append(" sprop-max-don-diff=0");
+        byte[] profile = sps == null ? null : unescape(sps, SPS_PROFILE_SIZE);
+        if (profile != null) {
+            sb.append(";profile-space=").append((profile[3] >> 6) & 0x03);
+            sb.append(";tier-flag=").append((profile[3] >> 5) & 0x01);
+            sb.append(";profile-id=").append(profile[3] & 0x1F);
+            sb.append(";level-id=").append(profile[14] & 0xFF);
+        }
+        if (vps != null && sps != null && pps != null) {
+            sb.append(";sprop-vps=").append(base64(vps));
+            sb.append(";sprop-sps=").append(base64(sps));
+            sb.append(";sprop-pps=").append(base64(pps));
+        }
+        sb.append("\r\n");
+        if (framedSource instanceof VideoEncoder) {
+            // 告诉客户端可以用 PLI/FIR 请求关键帧
+            sb.append("a=rtcp-fb:").append(PAYLOAD_TYPE).append(" nack pli\r\n");
+            sb.append("a=rtcp-fb:").append(PAYLOAD_TYPE).append(" ccm fir\r\n");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 去掉 NAL 开头的防竞争字节（00 00 03 中的 03）
+     *
+     * @param length 需要的字节数
+     * @return NAL 不够长时返回 null
+     */
+    private static byte[] unescape(byte[] nal, int length) {
+        byte[] out = new byte[length];
+        int zeros = 0;
+        int n = 0;
+        for (int i = 0; i < nal.length && n < length; i++) {
+            if (zeros >= 2 && nal[i] == 3) {
+                zeros = 0;
+                continue;
+            }
+            zeros = nal[i] == 0 ? zeros + 1 : 0;
+            out[n++] = nal[i];
+        }
+        return n == length ? out : null;
+    }
+}
@@ -0,0 +1,150 @@
+package com.telpo.rtsplive;
+
+import android.hardware.Camera;
+
+import java.util.Arrays;
+
+/**
+ * 默认 simulcast 编码器，每层是一个 {@link HWVideoEncoder}
+ * <p>
+ * 各层按缩小倍数从小到大排列，每层从倍数能整除它的最近一层继续缩小（例如 1、2、4 时 4 倍层由 2 倍层缩小），
+ * 一帧中每个像素只参与一次缩小。只有正在编码的层和它们依赖的层才做缩小转换。
+ * 缩小在调用 {@link #queueInputFrame} 的 Camera 回调线程完成，原始分辨率层最后送入，可以和 Camera 交换缓冲区
+ *
+ * @author  gfm
+ * @since   1.1
+ */
+public class HWSimulcastEncoder implements SimulcastEncoder {
+    private static final class Layer {
+        final int index;
+        final int factor;
+        final HWVideoEncoder encoder = new HWVideoEncoder();
+        /** 缩小的来源层，null 表示直接从源帧缩小 */
+        Layer parent;
+        int width;
+        int height;
+        /** 缩小后的 NV21 数据，原始分辨率层不使用 */
+        byte[] buffer;
+        /** 当前帧是否需要缩小，只在 Camera 回调线程中访问 */
+        boolean needed;
+
+        Layer(int index, int factor) {
+            this.index = index;
+            this.factor = factor;
+        }
+    }
+
+    private final Layer[] mLayers;  // 按创建顺序
+    private final Layer[] mSorted;  // 按缩小倍数从小到大
+    private int mWidth;
+    private int mHeight;
+
+    /**
+     * @param factors 各层的缩小倍数，1 表示原始分辨率
+     */
+    public HWSimulcastEncoder(int[] factors) {
+        if (factors == null || factors.length == 0) {
+            throw new IllegalArgumentException("no layers");
+        }
+        mLayers = new Layer[factors.length];
+        for (int i = 0; i < factors.length; i++) {
+            if (factors[i] < 1) {
+                throw new IllegalArgumentException("invalid factor: " + factors[i]);
+            }
+            mLayers[i] = new Layer(i, factors[i]);
+        }
+        mSorted = mLayers.clone();
+        Arrays.sort(mSorted, (a, b) -> a.factor != b.factor ? a.factor - b.factor : a.index - b.index);
+        for (int i = 0; i < mSorted.length; i++) {
+            Layer layer = mSorted[i];
+            for (int j = i - 1; j >= 0 && layer.factor > 1; j--) {
+                if (mSorted[j].factor > 1 && layer.factor % mSorted[j].factor == 0) {
+                    layer.parent = mSorted[j];
+                    break;
+                }
+            }
+        }
+    }
+
+    @Override
+    public int getLayerCount() {
+        return mLayers.length;
+    }
+
+    @Override
+    public VideoEncoder getLayer(int index) {
+        return mLayers[index].encoder;
+    }
+
+    @Override
+    public synchronized void initResolution(int width, int height, int rotation) {
+        mWidth = width;
+        mHeight = height;
+        for (Layer layer : mSorted) {
+            if (layer.parent == null) {
+                layer.width = (width / layer.factor) & ~1;
+                layer.height = (height / layer.factor) & ~1;
+            } else {
+                int factor = layer.factor / layer.parent.factor;
+                layer.width = (layer.parent.width / factor) & ~1;
+                layer.height = (layer.parent.height / factor) & ~1;
+            }
+            int size = layer.width * layer.height * 3 / 2;
+            if (layer.factor > 1 && (layer.buffer == null || layer.buffer.length != size)) {
+                layer.buffer = new byte[size];
+            }
+            if (!layer.encoder.reconfigure(layer.width, layer.height, rotation)) {
+                layer.encoder.initResolution(layer.width, layer.height, rotation);
+            }
+        }
+    }
+
+    /**
+     * 只应在 Camera 回调线程中调用，和 {@link #initResolution} 在同一个线程
+     */
+    @Override
+    public boolean queueInputFrame(byte[] data, Camera camera) {
+        if (data.length != mWidth * mHeight * 3 / 2) {
+            return false;
+        }
+        // 倒序标记：正在编码的层需要缩小，它依赖的来源层也需要
+        for (Layer layer : mSorted) {
+            layer.needed = false;
+        }
+        for (int i = mSorted.length - 1; i >= 0; i--) {
+            Layer layer = mSorted[i];
+            if (layer.encoder.isRunning() || layer.needed) {
+                layer.needed = true;
+                if (layer.parent != null) {
+                    layer.parent.needed = true;
+                }
+            }
+        }
+        Layer full = null;
+        for (Layer layer : mSorted) {
+            if (!layer.needed) {
+                continue;
+            }
+            if (layer.factor == 1) {
+                if (full == null) {
+                    full = layer;
+                } else {
+                    layer.encoder.queueInputFrame(data, null);
+                }
+                continue;
+            }
+            if (layer.parent == null) {
+                YuvUtils.NV21Downscale(data, mWidth, mHeight, layer.factor, layer.buffer);
+            } else {
+                Layer parent = layer.parent;
+                YuvUtils.NV21Downscale(parent.buffer, parent.width, parent.height,
+                        layer.factor / parent.factor, layer.buffer);
+            }
+            if (layer.encoder.isRunning()) {
+                // 缩小后的缓冲区下一帧还要复用，编码器复制一份
+                layer.encoder.queueInputFrame(layer.buffer, null);
+            }
+        }
+        return full != null && full.encoder.queueInputFrame(data, camera);
+    }
+}
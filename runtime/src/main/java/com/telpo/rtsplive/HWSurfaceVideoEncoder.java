@@ -0,0 +1,451 @@
+package com.telpo.rtsplive;
+
+import android.graphics.SurfaceTexture;
+import android.hardware.Camera;
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaFormat;
+import android.opengl.EGL14;
+import android.opengl.EGLSurface;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+import android.view.Surface;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * 默认 Surface 输入视频编码器，使用 {@link MediaCodec#createInputSurface()} 编码为 H264
+ * <p>
+ * 渲染线程持有 EGL 上下文和 Camera 输出的 SurfaceTexture，每来一帧就用 GLES 旋转后绘制到编码器输入
+ * Surface（以及可选的预览 Surface）；编码输出由单独的线程取出并回调。帧数据全程在 GPU 中，
+ * 省去了 NV21 → I420 → NV12 的两次 CPU 转换
+ *
+ * @author  gfm
+ * @since   1.1
+ */
+public class HWSurfaceVideoEncoder implements SurfaceVideoEncoder {
+    private static final String TAG = "RtspVideoEncoder";
+    private static final String MIME = "video/avc";
+    private static final int FRAME_RATE = 25;
+    private static final int I_FRAME_INTERVAL = 1;
+    private static final long DEQUEUE_TIMEOUT_US = 10000;
+
+    private int mWidth;
+    private int mHeight;
+    private int mRotation;
+    private volatile boolean mRunning = false;
+    private final FramedSourceTee mOutputTee = new FramedSourceTee();
+
+    private HandlerThread mRenderThread;
+    private volatile Handler mRenderHandler;
+    private DrainThread mDrainThread;
+    private MediaCodec mMediaCodec;
+    private Surface mCodecInputSurface;
+
+    // 以下字段只在渲染线程中访问
+    private EglCore mEglCore;
+    private OesTextureProgram mProgram;
+    private int mTexture;
+    private volatile SurfaceTexture mSurfaceTexture;
+    private EGLSurface mEncoderEglSurface = EGL14.EGL_NO_SURFACE;
+    private int mEncoderWidth;
+    private int mEncoderHeight;
+    private EGLSurface mPreviewEglSurface = EGL14.EGL_NO_SURFACE;
+    private int mPreviewWidth;
+    private int mPreviewHeight;
+    private final float[] mTexMatrix = new float[16];
+    private volatile int mBitrate;
+    private final FrameRateLimiter mFrameRateLimiter = new FrameRateLimiter();
+    private final EncoderMetrics mMetrics = new EncoderMetrics();
+
+    private final Runnable mDrawTask = new Runnable() {
+        @Override
+        public void run() {
+            drawFrame();
+        }
+    };
+
+    @Override
+    public String getMime() {
+        return MIME;
+    }
+
+    @Override
+    public int getBitrate() {
+        int bitrate = mBitrate;
+        return bitrate > 0 ? bitrate : HWVideoEncoder.calcBitrate(mWidth, mHeight);
+    }
+
+    @Override
+    public EncoderMetrics getMetrics() {
+        return mMetrics;
+    }
+
+    @Override
+    public synchronized void setBitrate(int bitrate) {
+        if (bitrate <= 0) {
+            return;
+        }
+        mBitrate = bitrate;
+        if (mMediaCodec != null) {
+            Bundle params = new Bundle();
+            params.putInt(MediaCodec.PARAMETER_KEY_VIDEO_BITRATE, bitrate);
+            try {
+                mMediaCodec.setParameters(params);
+            } catch (IllegalStateException e) {
+                Log.w(TAG, "set bitrate failed", e);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void requestKeyFrame() {
+        if (mMediaCodec != null) {
+            Bundle params = new Bundle();
+            params.putInt(MediaCodec.PARAMETER_KEY_REQUEST_SYNC_FRAME, 0);
+            try {
+                mMediaCodec.setParameters(params);
+            } catch (IllegalStateException e) {
+                Log.w(TAG, "request key frame failed", e);
+            }
+        }
+    }
+
+    /**
+     * 超出帧率的帧只绘制到预览 Surface，不送入编码器
+     */
+    @Override
+    public void setMaxFrameRate(int frameRate) {
+        mFrameRateLimiter.setMaxFrameRate(frameRate);
+    }
+
+    @Override
+    public synchronized void initResolution(int width, int height, int rotation) {
+        if (mRunning) {
+            return;
+        }
+        mWidth = width;
+        mHeight = height;
+        mRotation = rotation;
+        mBitrate = 0;
+        if (mRenderThread == null) {
+            mRenderThread = new HandlerThread("RtspSurfaceRender", Process.THREAD_PRIORITY_DISPLAY);
+            mRenderThread.start();
+            mRenderHandler = new Handler(mRenderThread.getLooper());
+            runOnRenderThread(this::prepareRender);
+        }
+    }
+
+    @Override
+    public SurfaceTexture getInputSurfaceTexture() {
+        return mSurfaceTexture;
+    }
+
+    @Override
+    public void setPreviewSurface(final Surface surface, final int width, final int height) {
+        runOnRenderThread(() -> {
+            if (mEglCore == null) {
+                return;
+            }
+            if (mPreviewEglSurface != EGL14.EGL_NO_SURFACE) {
+                mEglCore.makeDummyCurrent();
+                mEglCore.releaseSurface(mPreviewEglSurface);
+                mPreviewEglSurface = EGL14.EGL_NO_SURFACE;
+            }
+            if (surface != null && surface.isValid()) {
+                mPreviewEglSurface = mEglCore.createWindowSurface(surface);
+                mPreviewWidth = width;
+                mPreviewHeight = height;
+            }
+        });
+    }
+
+    @Override
+    public void setOutputListener(OutputListener listener) {
+        mOutputTee.setPrimary(listener);
+    }
+
+    @Override
+    public void addOutputListener(OutputListener listener) {
+        mOutputTee.add(listener);
+    }
+
+    @Override
+    public void removeOutputListener(OutputListener listener) {
+        mOutputTee.remove(listener);
+    }
+
+    @Override
+    public boolean queueInputFrame(byte[] data, Camera camera) {
+        return false;
+    }
+
+    @Override
+    public synchronized void start() {
+        if (mWidth == 0 || mHeight == 0 || mRenderHandler == null) {
+            Log.w(TAG, "should initResolution before start");
+            return;
+        }
+        if (mRunning) {
+            Log.w(TAG, "already started");
+            return;
+        }
+        MediaCodecInfo codecInfo = HWVideoEncoder.selectCodec(MIME);
+        if (codecInfo == null) {
+            Log.e(TAG, "no encoder for " + MIME);
+            return;
+        }
+        int width = mWidth;
+        int height = mHeight;
+        if (mRotation == 90 || mRotation == 270) {
+            width = mHeight;
+            height = mWidth;
+        }
+        int bitrate = getBitrate();
+        Log.d(TAG, String.format("codec: %s; mime: %s; surface input; bitrate: %d; width %d; height: %d; fps: %d",
+                codecInfo.getName(), MIME, bitrate, width, height, FRAME_RATE));
+        try {
+            mMediaCodec = MediaCodec.createByCodecName(codecInfo.getName());
+            MediaFormat format = MediaFormat.createVideoFormat(MIME, width, height);
+            format.setInteger(MediaFormat.KEY_BIT_RATE, bitrate);
+            format.setInteger(MediaFormat.KEY_FRAME_RATE, FRAME_RATE);
+            format.setInteger(MediaFormat.KEY_COLOR_FORMAT, MediaCodecInfo.CodecCapabilities.COLOR_FormatSurface);
+            format.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, I_FRAME_INTERVAL);
+            mMediaCodec.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+            mCodecInputSurface = mMediaCodec.createInputSurface();
+            mMediaCodec.start();
+            Bundle params = new Bundle();
+            params.putInt(MediaCodec.PARAMETER_KEY_REQUEST_SYNC_FRAME, 0);
+            mMediaCodec.setParameters(params);
+        } catch (Exception e) {
+            e.printStackTrace();
+            releaseCodec();
+            return;
+        }
+
+        final Surface inputSurface = mCodecInputSurface;
+        final int outputWidth = width;
+        final int outputHeight = height;
+        runOnRenderThread(() -> {
+            if (mEglCore != null) {
+                mEncoderEglSurface = mEglCore.createWindowSurface(inputSurface);
+                mEncoderWidth = outputWidth;
+                mEncoderHeight = outputHeight;
+            }
+        });
+        mRunning = true;
+        mDrainThread = new DrainThread(mMediaCodec);
+        mDrainThread.start();
+    }
+
+    @Override
+    public synchronized void stop() {
+        if (!mRunning) {
+            return;
+        }
+        mRunning = false;
+        runOnRenderThread(this::releaseEncoderSurface);
+        DrainThread thread = mDrainThread;
+        mDrainThread = null;
+        if (thread != null) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+        releaseCodec();
+    }
+
+    @Override
+    public synchronized void release() {
+        stop();
+        if (mRenderThread != null) {
+            runOnRenderThread(this::releaseRender);
+            mRenderThread.quit();
+            mRenderThread = null;
+            mRenderHandler = null;
+        }
+    }
+
+    private void releaseCodec() {
+        if (mMediaCodec != null) {
+            try {
+                mMediaCodec.stop();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+            mMediaCodec.release();
+            mMediaCodec = null;
+        }
+        if (mCodecInputSurface != null) {
+            mCodecInputSurface.release();
+            mCodecInputSurface = null;
+        }
+    }
+
+    /**
+     * 在渲染线程执行任务并等待完成
+     */
+    private void runOnRenderThread(final Runnable task) {
+        Handler handler = mRenderHandler;
+        if (handler == null) {
+            return;
+        }
+        if (Looper.myLooper() == handler.getLooper()) {
+            task.run();
+            return;
+        }
+        final CountDownLatch latch = new CountDownLatch(1);
+        boolean posted = handler.post(() -> {
+            try {
+                task.run();
+            } catch (Exception e) {
+                e.printStackTrace();
+            } finally {
+                latch.countDown();
+            }
+        });
+        if (!posted) {
+            return;
+        }
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void prepareRender() {
+        mEglCore = new EglCore();
+        mProgram = new OesTextureProgram();
+        mTexture = OesTextureProgram.createTexture();
+        SurfaceTexture surfaceTexture = new SurfaceTexture(mTexture);
+        surfaceTexture.setOnFrameAvailableListener(new SurfaceTexture.OnFrameAvailableListener() {
+            @Override
+            public void onFrameAvailable(SurfaceTexture st) {
+                Handler handler = mRenderHandler;
+                if (handler != null) {
+                    handler.post(mDrawTask);
+                }
+            }
+        });
+        mSurfaceTexture = surfaceTexture;
+    }
+
+    private void releaseEncoderSurface() {
+        if (mEncoderEglSurface != EGL14.EGL_NO_SURFACE) {
+            mEglCore.makeDummyCurrent();
+            mEglCore.releaseSurface(mEncoderEglSurface);
+            mEncoderEglSurface = EGL14.EGL_NO_SURFACE;
+        }
+    }
+
+    private void releaseRender() {
+        if (mEglCore == null) {
+            return;
+        }
+        releaseEncoderSurface();
+        if (mPreviewEglSurface != EGL14.EGL_NO_SURFACE) {
+            mEglCore.releaseSurface(mPreviewEglSurface);
+            mPreviewEglSurface = EGL14.EGL_NO_SURFACE;
+        }
+        if (mSurfaceTexture != null) {
+            mSurfaceTexture.setOnFrameAvailableListener(null);
+            mSurfaceTexture.release();
+            mSurfaceTexture = null;
+        }
+        OesTextureProgram.deleteTexture(mTexture);
+        mProgram.release();
+        mProgram = null;
+        mEglCore.release();
+        mEglCore = null;
+    }
+
+    private void drawFrame() {
+        SurfaceTexture surfaceTexture = mSurfaceTexture;
+        if (mEglCore == null || surfaceTexture == null) {
+            return;
+        }
+        try {
+            mEglCore.makeDummyCurrent();
+            surfaceTexture.updateTexImage();
+            surfaceTexture.getTransformMatrix(mTexMatrix);
+            long timestampNs = surfaceTexture.getTimestamp();
+            if (timestampNs == 0) {
+                timestampNs = System.nanoTime();
+            }
+            boolean encode = mEncoderEglSurface != EGL14.EGL_NO_SURFACE;
+            if (encode && !mFrameRateLimiter.accept(timestampNs / 1000)) {
+                encode = false;
+                mMetrics.onFrameDecimated();
+            }
+            if (encode) {
+                mMetrics.onFrameCaptured(timestampNs / 1000);
+                mEglCore.makeCurrent(mEncoderEglSurface);
+                mProgram.draw(mTexture, mTexMatrix, mRotation, mEncoderWidth, mEncoderHeight);
+                mEglCore.setPresentationTime(mEncoderEglSurface, timestampNs);
+                mEglCore.swapBuffers(mEncoderEglSurface);
+            }
+            if (mPreviewEglSurface != EGL14.EGL_NO_SURFACE) {
+                mEglCore.makeCurrent(mPreviewEglSurface);
+                mProgram.draw(mTexture, mTexMatrix, mRotation, mPreviewWidth, mPreviewHeight);
+                mEglCore.swapBuffers(mPreviewEglSurface);
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "draw frame failed", e);
+        }
+    }
+
+    /**
+     * 编码输出线程
+     */
+    private class DrainThread extends Thread {
+        private final MediaCodec mCodec;
+        private final MediaCodec.BufferInfo mBufferInfo = new MediaCodec.BufferInfo();
+
+        DrainThread(MediaCodec codec) {
+            super(TAG);
+            mCodec = codec;
+        }
+
+        @Override
+        public void run() {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_AUDIO);
+            MediaCodec.BufferInfo info = mBufferInfo;
+            try {
+                while (mRunning) {
+                    int index = mCodec.dequeueOutputBuffer(info, DEQUEUE_TIMEOUT_US);
+                    if (index < 0) {
+                        continue;
+                    }
+                    ByteBuffer output;
+                    if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+                        output = mCodec.getOutputBuffers()[index];
+                    } else {
+                        output = mCodec.getOutputBuffer(index);
+                    }
+                    long nowUs = System.nanoTime() / 1000;
+                    if ((info.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) == 0) {
+                        // SurfaceTexture 时间戳和 System.nanoTime 使用同一个单调时钟
+                        mMetrics.onFrameEncoded(info.size, nowUs - info.presentationTimeUs);
+                    }
+                    boolean config = (info.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0;
+                    if (config ? mOutputTee.dispatchConfig(output, info.size, info.presentationTimeUs)
+                            : mOutputTee.dispatch(output, info.size, info.presentationTimeUs)) {
+                        mMetrics.onFramePushed(System.nanoTime() / 1000 - nowUs);
+                    }
+                    mCodec.releaseOutputBuffer(index, false);
+                }
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
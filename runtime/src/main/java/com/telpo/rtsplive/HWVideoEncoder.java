@@ -0,0 +1,971 @@
+package com.telpo.rtsplive;
+
+import android.annotation.TargetApi;
+import android.graphics.ImageFormat;
+import android.hardware.Camera;
+import android.media.Image;
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaCodecList;
+import android.media.MediaFormat;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * 默认视频编码器，使用 {@link MediaCodec} 把 Camera NV21 帧编码为 H264，也可以指定为 H265
+ * <p>
+ * Camera 回调线程和编码线程之间通过预分配的 {@link InputFrameRing} 交接帧数据，
+ * 帧缓冲区和 Camera 的回调缓冲区直接交换，整个过程不加锁、预热后不分配内存。
+ * 设置了 {@link CaptureBufferPool} 时改为直接持有池中的缓冲区，转换完成后还给 Camera。
+ * {@link #queueInputImage} 输入的 Camera2 图像直接放入队列，编码线程按平面跨距转换后 close。
+ * API 21 及以上默认使用 {@link MediaCodec.Callback} 异步模式，API 19/20 使用同步轮询。
+ * 设置了保温时间时，停止后编码器 flush 并保留一段时间，期间重新启动直接复用。
+ * 编码过程中可以通过 {@link #reconfigure} 切换分辨率，编码线程遇到新尺寸的第一帧时重新配置编码器
+ *
+ * @author  gfm
+ * @since   1.0
+ */
+public class HWVideoEncoder implements VideoEncoder {
+    private static final String TAG = "RtspVideoEncoder";
+    private static final int FRAME_RATE = 25;
+    private static final int I_FRAME_INTERVAL = 1;
+    private static final int INPUT_QUEUE_SIZE = 4;
+    private static final long DEQUEUE_TIMEOUT_US = 5000;
+    private static final long WAIT_FRAME_TIMEOUT_MS = 100;
+    private static final int MAX_INPUT_BUFFERS = 64;
+    /** 相同画质下 H265 相对 H264 的默认码率比例 */
+    private static final float HEVC_BITRATE_RATIO = 0.65f;
+
+    // 编码器列表和颜色格式在进程内不会变化，查询一次后缓存
+    private static final Map<String, MediaCodecInfo> sCodecs = new HashMap<>();      // guarded by itself
+    private static final Map<String, Integer> sColorFormats = new HashMap<>();       // guarded by sCodecs
+
+    private final String mMime;
+    private volatile int mWidth;
+    private volatile int mHeight;
+    private volatile int mRotation;
+    private volatile boolean mRunning = false;
+    private final FramedSourceTee mOutputTee = new FramedSourceTee();
+    private volatile EncodeThread mEncodeThread;
+    private volatile InputFrameRing mInputFrames;
+    private final EncoderMetrics mMetrics = new EncoderMetrics();
+    private volatile int mBitrate;
+    private volatile boolean mKeyFrameRequested;
+    private volatile CaptureBufferPool mCapturePool;
+    private final FrameRateLimiter mFrameRateLimiter = new FrameRateLimiter();
+    private final MotionGate mMotionGate = new MotionGate();
+    private boolean mAsyncMode = Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP;
+    private long mKeepWarmMs;  // guarded by this
+
+    public HWVideoEncoder() {
+        this(MIME_AVC);
+    }
+
+    /**
+     * @param mime 编码媒体类型，{@link #MIME_AVC} 或 {@link #MIME_HEVC}
+     * @since 1.1
+     */
+    public HWVideoEncoder(String mime) {
+        if (!MIME_AVC.equals(mime) && !MIME_HEVC.equals(mime)) {
+            throw new IllegalArgumentException("unsupported mime: " + mime);
+        }
+        mMime = mime;
+    }
+
+    /**
+     * 判断设备是否有指定媒体类型的编码器
+     *
+     * @since 1.1
+     */
+    public static boolean isMimeSupported(String mime) {
+        return selectCodec(mime) != null;
+    }
+
+    static int calcBitrate(int width, int height) {
+        int bitrate = (int) (width * height * 20 * 2 * 0.05f);
+        if (width >= 1920 || height >= 1920) {
+            bitrate *= 0.3;
+        } else if (width >= 1280 || height >= 1280) {
+            bitrate *= 0.4;
+        } else if (width >= 720 || height >= 720) {
+            bitrate *= 0.6;
+        }
+        return bitrate;
+    }
+
+    static int selectColorFormat(MediaCodecInfo codecInfo, String mimeType) {
+        String key = codecInfo.getName() + '/' + mimeType.toLowerCase(Locale.US);
+        synchronized (sCodecs) {
+            Integer colorFormat = sColorFormats.get(key);
+            if (colorFormat != null) {
+                return colorFormat;
+            }
+        }
+        int colorFormat = findColorFormat(codecInfo, mimeType);
+        synchronized (sCodecs) {
+            sColorFormats.put(key, colorFormat);
+        }
+        return colorFormat;
+    }
+
+    private static int findColorFormat(MediaCodecInfo codecInfo, String mimeType) {
+        MediaCodecInfo.CodecCapabilities capabilities = codecInfo.getCapabilitiesForType(mimeType);
+        for (int colorFormat : capabilities.colorFormats) {
+            if (isRecognizedFormat(colorFormat)) {
+                return colorFormat;
+            }
+        }
+        Log.e(TAG, "couldn't find a good color format for " + codecInfo.getName() + " / " + mimeType);
+        return 0;
+    }
+
+    static boolean isRecognizedFormat(int colorFormat) {
+        switch (colorFormat) {
+            case MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420Planar:
+            case MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420PackedPlanar:
+            case MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420SemiPlanar:
+            case MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420PackedSemiPlanar:
+            case MediaCodecInfo.CodecCapabilities.COLOR_TI_FormatYUV420PackedSemiPlanar:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    static boolean isSemiPlanar(int colorFormat) {
+        return colorFormat == MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420SemiPlanar
+                || colorFormat == MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420PackedSemiPlanar
+                || colorFormat == MediaCodecInfo.CodecCapabilities.COLOR_TI_FormatYUV420PackedSemiPlanar;
+    }
+
+    /**
+     * 查找支持指定媒体类型的编码器，结果在进程内缓存
+     *
+     * @return 找不到返回 null
+     */
+    static MediaCodecInfo selectCodec(String mimeType) {
+        String key = mimeType.toLowerCase(Locale.US);
+        synchronized (sCodecs) {
+            if (sCodecs.containsKey(key)) {
+                return sCodecs.get(key);
+            }
+        }
+        MediaCodecInfo codecInfo = findCodec(mimeType);
+        synchronized (sCodecs) {
+            sCodecs.put(key, codecInfo);
+        }
+        return codecInfo;
+    }
+
+    private static MediaCodecInfo findCodec(String mimeType) {
+        int numCodecs = MediaCodecList.getCodecCount();
+        for (int i = 0; i < numCodecs; i++) {
+            MediaCodecInfo codecInfo = MediaCodecList.getCodecInfoAt(i);
+            if (!codecInfo.isEncoder()) {
+                continue;
+            }
+            for (String type : codecInfo.getSupportedTypes()) {
+                if (type.equalsIgnoreCase(mimeType)) {
+                    return codecInfo;
+                }
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public synchronized void start() {
+        if (mWidth == 0 || mHeight == 0) {
+            Log.w(TAG, "should initResolution before start");
+            return;
+        }
+        if (mRunning) {
+            Log.w(TAG, "already started");
+            return;
+        }
+        EncodeThread thread = mEncodeThread;
+        if (thread != null && thread.matches(mWidth, mHeight, mRotation, mAsyncMode)) {
+            // 保温中的编码器配置没有变化，直接恢复
+            mRunning = true;
+            if (thread.unpark()) {
+                Log.d(TAG, "warm start");
+                mInputFrames = thread.mFrames;
+                return;
+            }
+            mRunning = false;
+        }
+        if (thread != null) {
+            mEncodeThread = null;
+            thread.quit();
+            thread.interrupt();
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+        mInputFrames = new InputFrameRing(INPUT_QUEUE_SIZE);
+        mEncodeThread = new EncodeThread(mInputFrames, mAsyncMode);
+        mRunning = true;
+        mEncodeThread.start();
+    }
+
+    @Override
+    public synchronized void stop() {
+        EncodeThread thread = mEncodeThread;
+        // 先进入保温状态再清除 mRunning，编码线程退出编码循环时就能看到保温状态
+        if (thread != null && mKeepWarmMs > 0 && thread.park(mKeepWarmMs)) {
+            mRunning = false;
+            mInputFrames = null;
+            return;
+        }
+        mRunning = false;
+        if (thread != null) {
+            thread.quit();
+            try {
+                thread.join(100);
+                if (thread.isAlive()) {
+                    thread.interrupt();
+                }
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+            mEncodeThread = null;
+            mInputFrames = null;
+        }
+    }
+
+    boolean isRunning() {
+        return mRunning;
+    }
+
+    @Override
+    public String getMime() {
+        return mMime;
+    }
+
+    @Override
+    public int getBitrate() {
+        int bitrate = mBitrate;
+        if (bitrate > 0) {
+            return bitrate;
+        }
+        bitrate = calcBitrate(mWidth, mHeight);
+        return MIME_HEVC.equals(mMime) ? (int) (bitrate * HEVC_BITRATE_RATIO) : bitrate;
+    }
+
+    /**
+     * 编码过程中调用时由编码线程在下一个输入帧前通过 {@link MediaCodec#setParameters} 生效
+     */
+    @Override
+    public void setBitrate(int bitrate) {
+        if (bitrate > 0) {
+            mBitrate = bitrate;
+        }
+    }
+
+    @Override
+    public void setMaxFrameRate(int frameRate) {
+        mFrameRateLimiter.setMaxFrameRate(frameRate);
+    }
+
+    /**
+     * 运动检测在调用 {@link #queueInputFrame} 的线程中进行，只采样 Y 平面 1/16 的像素；有关键帧请求时不跳帧
+     */
+    @Override
+    public void setStaticFrameRate(int frameRate) {
+        mMotionGate.setMinFrameRate(frameRate);
+    }
+
+    @Override
+    public void setCaptureBufferPool(CaptureBufferPool pool) {
+        mCapturePool = pool;
+    }
+
+    /**
+     * 请求在编码线程送入下一个输入帧前生效
+     */
+    @Override
+    public void requestKeyFrame() {
+        mKeyFrameRequested = true;
+    }
+
+    @Override
+    public void initResolution(int width, int height, int rotation) {
+        if (mRunning) {
+            return;
+        }
+        mWidth = width;
+        mHeight = height;
+        mRotation = rotation;
+        mBitrate = 0;
+    }
+
+    /**
+     * 编码线程在第一个新尺寸的输入帧前停止并重新配置同一个 {@link MediaCodec}，编码线程和输出不中断，
+     * 之后输出新的 SPS/PPS 和关键帧。已经在队列中的旧尺寸帧仍按旧配置编码，之后送入的旧尺寸帧被丢弃
+     */
+    @Override
+    public synchronized boolean reconfigure(int width, int height, int rotation) {
+        if (width == mWidth && height == mHeight && rotation == mRotation) {
+            return true;
+        }
+        mWidth = width;
+        mHeight = height;
+        mRotation = rotation;
+        mBitrate = 0;
+        return true;
+    }
+
+    @Override
+    public void setOutputListener(OutputListener listener) {
+        mOutputTee.setPrimary(listener);
+    }
+
+    @Override
+    public void addOutputListener(OutputListener listener) {
+        mOutputTee.add(listener);
+    }
+
+    @Override
+    public void removeOutputListener(OutputListener listener) {
+        mOutputTee.remove(listener);
+    }
+
+    /**
+     * 只应在 Camera 回调线程中调用，编码队列是单生产者的
+     */
+    @Override
+    public boolean queueInputFrame(byte[] data, Camera camera) {
+        InputFrameRing frames = mInputFrames;
+        int width = mWidth;
+        int height = mHeight;
+        int rotation = mRotation;
+        if (!mRunning || frames == null || data.length != width * height * 3 / 2) {
+            // 切换分辨率时还在路上的旧尺寸帧直接丢弃
+            return false;
+        }
+        CaptureBufferPool pool = mCapturePool;
+        boolean pooled = camera != null && pool != null && pool.onCaptured(data);
+        long timeUs = System.nanoTime() / 1000;
+        if (!mFrameRateLimiter.accept(timeUs)) {
+            // 带宽不足时按设置的最大帧率降低帧率，不算作丢帧
+            mMetrics.onFrameDecimated();
+            return pooled && pool.recycle(data);
+        }
+        if (!mMotionGate.accept(data, width, height, timeUs, mKeyFrameRequested)) {
+            // 画面静止，不算作丢帧
+            mMetrics.onFrameStaticSkipped();
+            return pooled && pool.recycle(data);
+        }
+        mMetrics.onFrameCaptured(timeUs);
+        mMetrics.setInputQueueDepth(frames.size());
+        InputFrameRing.Frame frame = frames.claim();
+        if (frame == null) {
+            // 编码跟不上，丢弃这一帧，池缓冲区直接还给 Camera，否则由调用者还
+            mMetrics.onFrameDropped();
+            return pooled && pool.recycle(data);
+        }
+        frame.width = width;
+        frame.height = height;
+        frame.rotation = rotation;
+        if (pooled) {
+            // 缓冲区归编码器所有，转换完成后由编码线程还给 Camera
+            frame.data = data;
+            frame.presentationTimeUs = timeUs;
+            frames.publish();
+            notifyFrameQueued();
+            return true;
+        }
+        byte[] spare = frame.data;
+        if (spare == null || spare.length != data.length) {
+            spare = new byte[data.length];
+        }
+        if (camera != null) {
+            // 直接交换缓冲区：槽位持有这一帧，槽位原来的缓冲区还给 Camera
+            frame.data = data;
+            frame.presentationTimeUs = timeUs;
+            frames.publish();
+            notifyFrameQueued();
+            camera.addCallbackBuffer(spare);
+            return true;
+        }
+        System.arraycopy(data, 0, spare, 0, data.length);
+        frame.data = spare;
+        frame.presentationTimeUs = timeUs;
+        frames.publish();
+        notifyFrameQueued();
+        return false;
+    }
+
+    /**
+     * 图像由编码线程直接转换到编码器输入缓冲区后 close，只应在图像回调线程中调用，编码队列是单生产者的
+     */
+    @Override
+    public boolean queueInputImage(Image image) {
+        InputFrameRing frames = mInputFrames;
+        int width = mWidth;
+        int height = mHeight;
+        int rotation = mRotation;
+        if (!mRunning || frames == null || image.getFormat() != ImageFormat.YUV_420_888
+                || image.getWidth() != width || image.getHeight() != height) {
+            return false;
+        }
+        long timeUs = System.nanoTime() / 1000;
+        if (!mFrameRateLimiter.accept(timeUs)) {
+            mMetrics.onFrameDecimated();
+            return false;
+        }
+        Image.Plane luma = image.getPlanes()[0];
+        if (!mMotionGate.accept(luma.getBuffer(), luma.getRowStride(), width, height, timeUs, mKeyFrameRequested)) {
+            mMetrics.onFrameStaticSkipped();
+            return false;
+        }
+        mMetrics.onFrameCaptured(timeUs);
+        mMetrics.setInputQueueDepth(frames.size());
+        InputFrameRing.Frame frame = frames.claim();
+        if (frame == null) {
+            mMetrics.onFrameDropped();
+            return false;
+        }
+        frame.image = image;
+        frame.width = width;
+        frame.height = height;
+        frame.rotation = rotation;
+        frame.presentationTimeUs = timeUs;
+        frames.publish();
+        notifyFrameQueued();
+        return true;
+    }
+
+    private void notifyFrameQueued() {
+        EncodeThread thread = mEncodeThread;
+        if (thread != null) {
+            thread.onFrameQueued();
+        }
+    }
+
+    /**
+     * 设置是否使用 {@link MediaCodec.Callback} 异步模式，需要在 {@link #start()} 之前调用
+     * <p>
+     * 默认在 API 21 及以上使用异步模式，API 19/20 只能使用同步模式
+     *
+     * @param asyncMode 是否使用异步模式
+     * @since 1.1
+     */
+    public void setAsyncMode(boolean asyncMode) {
+        mAsyncMode = asyncMode && Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP;
+    }
+
+    /**
+     * 设置停止后编码器的保温时间，保温期间再次 {@link #start()} 且分辨率没有变化时复用已配置的
+     * {@link MediaCodec}，只需要 flush，不用重新创建和配置，客户端断线重连时能更快出第一帧
+     * <p>
+     * 保温期间编码器一直占用硬件编码资源，已经开始保温的编码器按原来的时间释放
+     *
+     * @param keepWarmMs 保温时间，单位：毫秒，0 表示停止时立即释放（默认）
+     * @since 1.1
+     */
+    public synchronized void setKeepWarmTime(long keepWarmMs) {
+        mKeepWarmMs = Math.max(0, keepWarmMs);
+    }
+
+    @Override
+    public long getDroppedFrames() {
+        return mMetrics.getDroppedFrames();
+    }
+
+    @Override
+    public EncoderMetrics getMetrics() {
+        return mMetrics;
+    }
+
+    static void convert(InputFrameRing.Frame frame, int colorFormat, ByteBuffer input) {
+        boolean semiPlanar = isSemiPlanar(colorFormat);
+        if (frame.image != null) {
+            Image.Plane[] planes = frame.image.getPlanes();
+            YuvUtils.YUV420ToYuvRotate(planes[0].getBuffer(), planes[0].getRowStride(),
+                    planes[1].getBuffer(), planes[2].getBuffer(), planes[1].getRowStride(), planes[1].getPixelStride(),
+                    input, frame.width, frame.height, frame.rotation, semiPlanar);
+        } else if (semiPlanar) {
+            // 一次遍历完成 NV21 -> NV12 和旋转，不再经过中间 I420 缓冲区
+            YuvUtils.NV21ToNV12Rotate(frame.data, input, frame.width, frame.height, frame.rotation);
+        } else {
+            // 纯 Java 实现，NIO 服务不会加载 librtsplive.so
+            YuvUtils.NV21ToI420Rotate(frame.data, input, frame.width, frame.height, frame.rotation);
+        }
+    }
+
+    /**
+     * 编码线程
+     * <p>
+     * 同步模式下循环 dequeue 输入输出缓冲区；异步模式（API 21+）下线程运行 Looper，
+     * 编码器的输入输出通过 {@link MediaCodec.Callback} 回调到这个线程，
+     * 输入缓冲区和 Camera 帧都就绪时立即填充，空闲时线程不会被唤醒
+     */
+    private class EncodeThread extends Thread {
+        private static final int STATE_RUNNING = 0;
+        private static final int STATE_PARKED = 1;
+        private static final int STATE_EXITED = 2;
+
+        private final InputFrameRing mFrames;
+        private final boolean mAsync;
+        // 编码器当前配置的源尺寸，只在本线程修改，读取需要持有本对象的锁
+        private int mConfigWidth = mWidth;
+        private int mConfigHeight = mHeight;
+        private int mConfigRotation = mRotation;
+        private String mMime;
+        private int mState = STATE_RUNNING;  // guarded by this
+        private long mParkTimeoutMs;         // guarded by this
+        private final MediaCodec.BufferInfo mBufferInfo = new MediaCodec.BufferInfo();
+        private MediaCodec mMediaCodec;
+        private int mColorFormat;
+        private int mAppliedBitrate;
+
+        // 异步模式状态，除 mHandler 外只在本线程中访问
+        private volatile Handler mHandler;
+        private final int[] mInputIndices = new int[MAX_INPUT_BUFFERS];
+        private int mInputHead;
+        private int mInputTail;
+        private final Runnable mFeedTask = new Runnable() {
+            @Override
+            public void run() {
+                feedInput();
+            }
+        };
+        private final Runnable mParkTask = new Runnable() {
+            @Override
+            public void run() {
+                onParked();
+            }
+        };
+        private final Runnable mResumeTask = new Runnable() {
+            @Override
+            public void run() {
+                onResumed();
+            }
+        };
+        private final Runnable mExpireTask = new Runnable() {
+            @Override
+            public void run() {
+                if (expire()) {
+                    quit();
+                }
+            }
+        };
+
+        EncodeThread(InputFrameRing frames, boolean async) {
+            super(TAG);
+            mFrames = frames;
+            mAsync = async;
+        }
+
+        private boolean prepare() throws Exception {
+            // 会话委托按媒体类型打包，没有对应编码器时不能换成其它类型
+            String mime = getMime();
+            MediaCodecInfo codecInfo = selectCodec(mime);
+            if (codecInfo == null) {
+                Log.e(TAG, "no encoder for " + mime);
+                return false;
+            }
+            String codecName = codecInfo.getName();
+            mColorFormat = selectColorFormat(codecInfo, mime);
+            mMime = mime;
+            Log.d(TAG, String.format("codec: %s; mime: %s; colorFormat: %d; async: %b",
+                    codecName, mime, mColorFormat, mAsync));
+
+            mMediaCodec = MediaCodec.createByCodecName(codecName);
+            configure();
+            return true;
+        }
+
+        /**
+         * 按 mConfigWidth 等当前配置设置并启动编码器，编码器需要处于未配置状态
+         */
+        private void configure() {
+            int bitrate = getBitrate();
+            mAppliedBitrate = bitrate;
+            int width = mConfigWidth;
+            int height = mConfigHeight;
+            if (mConfigRotation == 90 || mConfigRotation == 270) {
+                width = mConfigHeight;
+                height = mConfigWidth;
+            }
+            Log.d(TAG, String.format("configure bitrate: %d; width %d; height: %d; fps: %d",
+                    bitrate, width, height, FRAME_RATE));
+            if (mAsync) {
+                setCallback();
+            }
+            MediaFormat format = MediaFormat.createVideoFormat(mMime, width, height);
+            format.setInteger(MediaFormat.KEY_BIT_RATE, bitrate);
+            format.setInteger(MediaFormat.KEY_FRAME_RATE, FRAME_RATE);
+            format.setInteger(MediaFormat.KEY_COLOR_FORMAT, mColorFormat);
+            format.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, I_FRAME_INTERVAL);
+            mMediaCodec.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+            mMediaCodec.start();
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+                Bundle params = new Bundle();
+                params.putInt(MediaCodec.PARAMETER_KEY_REQUEST_SYNC_FRAME, 0);
+                mMediaCodec.setParameters(params);
+            }
+        }
+
+        /**
+         * 帧的尺寸和编码器当前配置不同时停止并按新尺寸重新配置编码器，编码器重新输出 SPS/PPS 和关键帧
+         *
+         * @return 重新配置了编码器返回 true，之前取得的输入缓冲区索引全部失效
+         */
+        private boolean reconfigureIfNeeded(InputFrameRing.Frame frame) {
+            if (frame.width == mConfigWidth && frame.height == mConfigHeight && frame.rotation == mConfigRotation) {
+                return false;
+            }
+            if (!mAsync) {
+                drainOutput();
+            }
+            mMediaCodec.stop();
+            synchronized (this) {
+                mConfigWidth = frame.width;
+                mConfigHeight = frame.height;
+                mConfigRotation = frame.rotation;
+            }
+            mInputHead = 0;
+            mInputTail = 0;
+            configure();
+            return true;
+        }
+
+        @Override
+        public void run() {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_AUDIO);
+            try {
+                if (mAsync) {
+                    Looper.prepare();
+                    mHandler = new Handler(Looper.myLooper());
+                }
+                if (!mRunning || !prepare()) {
+                    return;
+                }
+                if (mAsync) {
+                    if (mRunning) {
+                        Looper.loop();
+                    }
+                } else {
+                    do {
+                        encodeLoop();
+                    } while (awaitResume());
+                }
+            } catch (Exception e) {
+                e.printStackTrace();
+            } finally {
+                synchronized (this) {
+                    mState = STATE_EXITED;
+                }
+                mHandler = null;
+                // 没来得及编码的图像要 close，池缓冲区要还给 Camera，否则停止再启动后可用的缓冲区会越来越少
+                for (InputFrameRing.Frame frame = mFrames.peek(); frame != null; frame = mFrames.peek()) {
+                    recycle(frame);
+                    mFrames.release();
+                }
+                if (mMediaCodec != null) {
+                    mMediaCodec.stop();
+                    mMediaCodec.release();
+                    mMediaCodec = null;
+                }
+            }
+        }
+
+        /**
+         * 通知有新的输入帧，在 Camera 回调线程调用
+         */
+        void onFrameQueued() {
+            Handler handler = mHandler;
+            if (handler != null) {
+                handler.post(mFeedTask);
+            }
+        }
+
+        synchronized boolean matches(int width, int height, int rotation, boolean async) {
+            return mConfigWidth == width && mConfigHeight == height && mConfigRotation == rotation && mAsync == async;
+        }
+
+        /**
+         * 编码器停止后进入保温状态，在调用 {@link #stop()} 的线程调用
+         *
+         * @return 线程已经退出时返回 false
+         */
+        synchronized boolean park(long timeoutMs) {
+            if (mState == STATE_PARKED) {
+                return true;
+            }
+            if (mState != STATE_RUNNING || !isAlive()) {
+                return false;
+            }
+            mState = STATE_PARKED;
+            mParkTimeoutMs = timeoutMs;
+            Handler handler = mHandler;
+            if (handler != null) {
+                handler.post(mParkTask);
+            }
+            notifyAll();
+            return true;
+        }
+
+        /**
+         * 从保温状态恢复编码，在调用 {@link #start()} 的线程调用
+         *
+         * @return 已经超时释放时返回 false，需要创建新的编码线程
+         */
+        synchronized boolean unpark() {
+            if (mState != STATE_PARKED) {
+                return false;
+            }
+            mState = STATE_RUNNING;
+            Handler handler = mHandler;
+            if (handler != null) {
+                handler.post(mResumeTask);
+            }
+            notifyAll();
+            return true;
+        }
+
+        // 保温超时，返回 true 表示线程应该退出并释放编码器
+        private synchronized boolean expire() {
+            if (mState != STATE_PARKED) {
+                return false;
+            }
+            mState = STATE_EXITED;
+            return true;
+        }
+
+        /**
+         * flush 编码器并归还还没编码的输入帧，编码器保持已配置状态
+         */
+        private void flush() {
+            if (mMediaCodec != null) {
+                mMediaCodec.flush();
+            }
+            for (InputFrameRing.Frame frame = mFrames.peek(); frame != null; frame = mFrames.peek()) {
+                recycle(frame);
+                mFrames.release();
+            }
+        }
+
+        /**
+         * 同步模式停止后等待恢复，超时或编码器被替换时返回 false
+         */
+        private boolean awaitResume() {
+            synchronized (this) {
+                if (mState != STATE_PARKED || mEncodeThread != this) {
+                    mState = STATE_EXITED;
+                    return false;
+                }
+            }
+            flush();
+            synchronized (this) {
+                long deadline = System.currentTimeMillis() + mParkTimeoutMs;
+                long remaining;
+                while (mState == STATE_PARKED && (remaining = deadline - System.currentTimeMillis()) > 0) {
+                    try {
+                        wait(remaining);
+                    } catch (InterruptedException e) {
+                        break;
+                    }
+                }
+                if (mState != STATE_RUNNING || mEncodeThread != this) {
+                    mState = STATE_EXITED;
+                    return false;
+                }
+            }
+            mKeyFrameRequested = true;
+            return true;
+        }
+
+        // 异步模式：flush 后回调停止，超时前没有恢复就退出 Looper
+        @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+        private void onParked() {
+            long timeoutMs;
+            synchronized (this) {
+                if (mState != STATE_PARKED) {
+                    return;
+                }
+                timeoutMs = mParkTimeoutMs;
+            }
+            flush();
+            mInputHead = 0;
+            mInputTail = 0;
+            mHandler.postDelayed(mExpireTask, timeoutMs);
+        }
+
+        // 异步模式下 flush 之后需要重新 start 才会继续回调输入缓冲区
+        @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+        private void onResumed() {
+            mHandler.removeCallbacks(mExpireTask);
+            mKeyFrameRequested = true;
+            mMediaCodec.start();
+        }
+
+        /**
+         * 结束编码线程，同步模式靠 mRunning 退出循环，异步模式需要退出 Looper
+         */
+        void quit() {
+            Handler handler = mHandler;
+            if (handler != null) {
+                handler.getLooper().quit();
+            }
+        }
+
+        private void encodeLoop() {
+            while (mEncodeThread == this && mRunning) {
+                InputFrameRing.Frame frame = mFrames.peek();
+                if (frame == null) {
+                    drainOutput();
+                    mFrames.await(WAIT_FRAME_TIMEOUT_MS);
+                    continue;
+                }
+                if (reconfigureIfNeeded(frame)) {
+                    continue;
+                }
+                int index = mMediaCodec.dequeueInputBuffer(DEQUEUE_TIMEOUT_US);
+                if (index >= 0) {
+                    ByteBuffer input;
+                    if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+                        input = mMediaCodec.getInputBuffers()[index];
+                        input.clear();
+                    } else {
+                        input = mMediaCodec.getInputBuffer(index);
+                    }
+                    queueInput(index, input, frame);
+                }
+                drainOutput();
+            }
+        }
+
+        /**
+         * 关闭槽位持有的图像，或把池缓冲区还给 Camera，槽位不再引用它们，生产者下次会另外分配交换用的缓冲区
+         */
+        private void recycle(InputFrameRing.Frame frame) {
+            if (frame.image != null) {
+                frame.image.close();
+                frame.image = null;
+                return;
+            }
+            CaptureBufferPool pool = mCapturePool;
+            if (pool != null && pool.recycle(frame.data)) {
+                frame.data = null;
+            }
+        }
+
+        private void queueInput(int index, ByteBuffer input, InputFrameRing.Frame frame) {
+            int bitrate = getBitrate();
+            if (bitrate != mAppliedBitrate && Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+                mAppliedBitrate = bitrate;
+                Bundle params = new Bundle();
+                params.putInt(MediaCodec.PARAMETER_KEY_VIDEO_BITRATE, bitrate);
+                mMediaCodec.setParameters(params);
+            }
+            if (mKeyFrameRequested && Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+                mKeyFrameRequested = false;
+                Bundle params = new Bundle();
+                params.putInt(MediaCodec.PARAMETER_KEY_REQUEST_SYNC_FRAME, 0);
+                mMediaCodec.setParameters(params);
+            }
+            convert(frame, mColorFormat, input);
+            int size = frame.width * frame.height * 3 / 2;
+            long presentationTimeUs = frame.presentationTimeUs;
+            recycle(frame);
+            mFrames.release();
+            mMediaCodec.queueInputBuffer(index, 0, size, presentationTimeUs, 0);
+        }
+
+        private void drainOutput() {
+            MediaCodec.BufferInfo info = mBufferInfo;
+            int index;
+            while ((index = mMediaCodec.dequeueOutputBuffer(info, 0)) >= 0) {
+                ByteBuffer output;
+                if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+                    output = mMediaCodec.getOutputBuffers()[index];
+                } else {
+                    output = mMediaCodec.getOutputBuffer(index);
+                }
+                dispatchOutput(index, output, info);
+            }
+        }
+
+        private void dispatchOutput(int index, ByteBuffer output, MediaCodec.BufferInfo info) {
+            long nowUs = System.nanoTime() / 1000;
+            if ((info.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) == 0) {
+                // 输入帧的时间戳就是放入编码队列的时间
+                mMetrics.onFrameEncoded(info.size, nowUs - info.presentationTimeUs);
+            }
+            boolean config = (info.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0;
+            if (config ? mOutputTee.dispatchConfig(output, info.size, info.presentationTimeUs)
+                    : mOutputTee.dispatch(output, info.size, info.presentationTimeUs)) {
+                mMetrics.onFramePushed(System.nanoTime() / 1000 - nowUs);
+            }
+            mMediaCodec.releaseOutputBuffer(index, false);
+        }
+
+        /**
+         * 用就绪的 Camera 帧填充空闲的输入缓冲区，异步模式在本线程调用
+         */
+        @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+        private void feedInput() {
+            MediaCodec codec = mMediaCodec;
+            if (codec == null || !mRunning) {
+                return;
+            }
+            InputFrameRing.Frame frame;
+            while ((frame = mFrames.peek()) != null) {
+                // 重新配置时 setCallback 会清掉旧编码器还没投递的回调，新的输入缓冲区回调到来后继续填充
+                if (reconfigureIfNeeded(frame) || mInputHead == mInputTail) {
+                    return;
+                }
+                int index = mInputIndices[mInputTail++ & (MAX_INPUT_BUFFERS - 1)];
+                queueInput(index, codec.getInputBuffer(index), frame);
+            }
+        }
+
+        @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+        private void setCallback() {
+            MediaCodec.Callback callback = new MediaCodec.Callback() {
+                @Override
+                public void onInputBufferAvailable(MediaCodec codec, int index) {
+                    if (mInputHead - mInputTail < MAX_INPUT_BUFFERS) {
+                        mInputIndices[mInputHead++ & (MAX_INPUT_BUFFERS - 1)] = index;
+                    }
+                    feedInput();
+                }
+
+                @Override
+                public void onOutputBufferAvailable(MediaCodec codec, int index, MediaCodec.BufferInfo info) {
+                    dispatchOutput(index, codec.getOutputBuffer(index), info);
+                }
+
+                @Override
+                public void onError(MediaCodec codec, MediaCodec.CodecException e) {
+                    Log.e(TAG, "codec error: " + e.getDiagnosticInfo(), e);
+                    quit();
+                }
+
+                @Override
+                public void onOutputFormatChanged(MediaCodec codec, MediaFormat format) {
+                }
+            };
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+                mMediaCodec.setCallback(callback, mHandler);
+            } else {
+                // API 21/22 回调投递到创建编码器的线程的 Looper，也就是本线程
+                mMediaCodec.setCallback(callback);
+            }
+        }
+    }
+}
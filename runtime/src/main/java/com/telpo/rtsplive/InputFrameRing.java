@@ -0,0 +1,121 @@
+package com.telpo.rtsplive;
+
+import android.media.Image;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 单生产者单消费者的输入帧环形队列
+ * <p>
+ * 槽位和帧缓冲区预先分配并循环使用：生产者（Camera 回调线程）用 {@link #claim} 取得空闲槽位、
+ * 填好数据后 {@link #publish}；消费者（编码线程）用 {@link #peek} 取得最旧的帧、
+ * 用完后 {@link #release}。两端只通过 volatile 序号同步，不加锁，预热后不分配内存。
+ *
+ * @author  gfm
+ * @since   1.1
+ */
+final class InputFrameRing {
+    /**
+     * 输入帧槽位
+     */
+    static final class Frame {
+        /** 帧数据，由槽位持有，可以和 Camera 的回调缓冲区交换 */
+        byte[] data;
+        /** YUV_420_888 图像，不为 null 时忽略 data，编码完成后由消费者 close */
+        Image image;
+        /** 帧时间戳，单位：微秒 */
+        long presentationTimeUs;
+        /** 放入队列时编码器的源尺寸和旋转角度，和编码线程当前的配置不同时需要重新配置编码器 */
+        int width;
+        int height;
+        int rotation;
+    }
+
+    private final Frame[] frames;
+    private final int mask;
+    private volatile long head; // 生产者写入
+    private volatile long tail; // 消费者写入
+    private volatile Thread waiter;
+
+    /**
+     * @param capacity 槽位个数，必须是 2 的幂
+     */
+    InputFrameRing(int capacity) {
+        if (Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("capacity must be a power of 2: " + capacity);
+        }
+        frames = new Frame[capacity];
+        for (int i = 0; i < capacity; i++) {
+            frames[i] = new Frame();
+        }
+        mask = capacity - 1;
+    }
+
+    /**
+     * 取得一个空闲槽位，只能在生产者线程调用
+     *
+     * @return 队列已满时返回 null
+     */
+    Frame claim() {
+        long h = head;
+        if (h - tail > mask) {
+            return null;
+        }
+        return frames[(int) h & mask];
+    }
+
+    /**
+     * 发布 {@link #claim} 取得的槽位，只能在生产者线程调用
+     */
+    void publish() {
+        head = head + 1;
+        Thread t = waiter;
+        if (t != null) {
+            LockSupport.unpark(t);
+        }
+    }
+
+    /**
+     * 获取最旧的帧，只能在消费者线程调用
+     *
+     * @return 队列为空时返回 null
+     */
+    Frame peek() {
+        long t = tail;
+        if (t == head) {
+            return null;
+        }
+        return frames[(int) t & mask];
+    }
+
+    /**
+     * 释放 {@link #peek} 取得的帧，只能在消费者线程调用
+     */
+    void release() {
+        tail = tail + 1;
+    }
+
+    /**
+     * 等待队列非空，只能在消费者线程调用
+     *
+     * @param timeoutMs 最长等待时间，单位：毫秒
+     */
+    void await(long timeoutMs) {
+        if (tail != head) {
+            return;
+        }
+        waiter = Thread.currentThread();
+        if (tail == head) {
+            LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(timeoutMs));
+        }
+        waiter = null;
+    }
+
+    /**
+     * 队列中等待编码的帧数
+     */
+    int size() {
+        return (int) (head - tail);
+    }
+}
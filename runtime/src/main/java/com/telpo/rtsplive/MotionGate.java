@@ -0,0 +1,140 @@
+package com.telpo.rtsplive;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * 静止场景跳帧
+ * <p>
+ * 把 Y 平面分成 {@link #GRID_COLUMNS}×{@link #GRID_ROWS} 个块，每个方向每 {@link #STEP} 个像素采样求块平均亮度，
+ * 和上一个编码帧比较，平均亮度变化超过 {@link #PIXEL_THRESHOLD} 的块达到 {@link #CHANGED_BLOCKS} 个时认为有运动，
+ * 这一帧立即编码；否则只按最低帧率编码。和上一个编码帧而不是上一个采集帧比较，缓慢的变化累积到阈值后也会被编码。
+ * <p>
+ * {@link #accept} 只能在一个线程中调用，{@link #setMinFrameRate} 可以在任何线程调用
+ *
+ * @author  gfm
+ * @since   1.1
+ */
+final class MotionGate {
+    static final int GRID_COLUMNS = 32;
+    static final int GRID_ROWS = 24;
+    /** 采样间隔，每个方向每 4 个像素取一个 */
+    static final int STEP = 4;
+    /** 块平均亮度的变化阈值，高于传感器噪声 */
+    static final int PIXEL_THRESHOLD = 12;
+    /** 变化的块数阈值 */
+    static final int CHANGED_BLOCKS = 2;
+
+    private volatile long intervalUs = -1;
+    private final int[] reference = new int[GRID_COLUMNS * GRID_ROWS];
+    private final int[] samples = new int[GRID_COLUMNS * GRID_ROWS];
+    private final int[] counts = new int[GRID_COLUMNS * GRID_ROWS];
+    private int[] columnBlocks = new int[0];
+    private int width;
+    private int height;
+    private long lastFrameUs;
+
+    /**
+     * @param frameRate 静止时的最低帧率，0 表示静止时只在变化后编码，-1 表示不检测
+     */
+    void setMinFrameRate(int frameRate) {
+        intervalUs = frameRate > 0 ? 1000000L / frameRate : frameRate == 0 ? Long.MAX_VALUE : -1;
+    }
+
+    boolean isEnabled() {
+        return intervalUs >= 0;
+    }
+
+    /**
+     * 判断 NV21/NV12 帧是否需要编码
+     *
+     * @param force 强制编码，例如有关键帧请求时
+     */
+    boolean accept(byte[] data, int width, int height, long timeUs, boolean force) {
+        if (!isEnabled()) {
+            return true;
+        }
+        boolean resized = resize(width, height);
+        Arrays.fill(samples, 0);
+        int[] blocks = columnBlocks;
+        for (int y = 0; y < height; y += STEP) {
+            int row = y * GRID_ROWS / height * GRID_COLUMNS;
+            int offset = y * width;
+            for (int i = 0; i < blocks.length; i++) {
+                samples[row + blocks[i]] += data[offset + i * STEP] & 0xff;
+            }
+        }
+        return decide(timeUs, force || resized);
+    }
+
+    /**
+     * 判断 YUV_420_888 图像是否需要编码
+     *
+     * @param y Y 平面，像素间隔为 1
+     */
+    boolean accept(ByteBuffer y, int rowStride, int width, int height, long timeUs, boolean force) {
+        if (!isEnabled()) {
+            return true;
+        }
+        boolean resized = resize(width, height);
+        Arrays.fill(samples, 0);
+        int[] blocks = columnBlocks;
+        int base = y.position();
+        for (int line = 0; line < height; line += STEP) {
+            int row = line * GRID_ROWS / height * GRID_COLUMNS;
+            int offset = base + line * rowStride;
+            for (int i = 0; i < blocks.length; i++) {
+                samples[row + blocks[i]] += y.get(offset + i * STEP) & 0xff;
+            }
+        }
+        return decide(timeUs, force || resized);
+    }
+
+    /**
+     * 尺寸变化时重新计算每个采样列所属的块和每个块的采样数
+     *
+     * @return 尺寸有变化返回 true
+     */
+    private boolean resize(int width, int height) {
+        if (width == this.width && height == this.height) {
+            return false;
+        }
+        this.width = width;
+        this.height = height;
+        columnBlocks = new int[(width + STEP - 1) / STEP];
+        for (int i = 0; i < columnBlocks.length; i++) {
+            columnBlocks[i] = i * STEP * GRID_COLUMNS / width;
+        }
+        Arrays.fill(counts, 0);
+        for (int y = 0; y < height; y += STEP) {
+            int row = y * GRID_ROWS / height * GRID_COLUMNS;
+            for (int block : columnBlocks) {
+                counts[row + block]++;
+            }
+        }
+        return true;
+    }
+
+    private boolean decide(long timeUs, boolean force) {
+        for (int i = 0; i < samples.length; i++) {
+            if (counts[i] > 0) {
+                samples[i] /= counts[i];
+            }
+        }
+        boolean accept = force || timeUs - lastFrameUs >= intervalUs;
+        if (!accept) {
+            int changed = 0;
+            for (int i = 0; i < samples.length; i++) {
+                if (Math.abs(samples[i] - reference[i]) > PIXEL_THRESHOLD && ++changed >= CHANGED_BLOCKS) {
+                    accept = true;
+                    break;
+                }
+            }
+        }
+        if (accept) {
+            System.arraycopy(samples, 0, reference, 0, samples.length);
+            lastFrameUs = timeUs;
+        }
+        return accept;
+    }
+}
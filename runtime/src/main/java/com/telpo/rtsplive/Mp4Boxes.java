@@ -0,0 +1,263 @@
+package com.telpo.rtsplive;
+
+import java.nio.ByteBuffer;
+
+/**
+ * fragmented MP4（ISO/IEC 14496-12）的 box 构造工具，只支持单个 H264 视频轨
+ * <p>
+ * 初始化段为 ftyp + moov，moov 中的样本表为空，样本都在之后的 moof + mdat 片段中。
+ * 时间刻度为 90kHz，和 RTP 时间戳相同
+ *
+ * @author  gfm
+ * @since   1.1
+ */
+final class Mp4Boxes {
+    static final int TIMESCALE = 90000;
+    static final int TRACK_ID = 1;
+    /** 片段头中每个样本占用的字节数：时长、大小、标志 */
+    static final int TRUN_ENTRY_SIZE = 12;
+    /** 不含样本项的 moof 大小 */
+    static final int MOOF_HEADER_SIZE = 8 + 16 + 8 + 16 + 20 + 20;
+
+    private static final int SAMPLE_FLAGS_SYNC = 0x02000000;
+    private static final int SAMPLE_FLAGS_NON_SYNC = 0x01010000;
+    private static final int TFHD_DEFAULT_BASE_IS_MOOF = 0x020000;
+    private static final int TRUN_FLAGS = 0x000001 | 0x000100 | 0x000200 | 0x000400;
+
+    private Mp4Boxes() {
+    }
+
+    /**
+     * 写入初始化段 ftyp + moov
+     *
+     * @param out 输出缓冲区，需要至少 {@link #initSegmentSize} 字节
+     */
+    static void writeInitSegment(ByteBuffer out, byte[] sps, byte[] pps, H264Sps info) {
+        int ftyp = begin(out, "ftyp");
+        putType(out, "isom");
+        out.putInt(0x200);
+        putType(out, "isom");
+        putType(out, "iso5");
+        putType(out, "iso6");
+        putType(out, "avc1");
+        putType(out, "mp41");
+        end(out, ftyp);
+
+        int moov = begin(out, "moov");
+        int mvhd = beginFull(out, "mvhd", 0, 0);
+        out.putInt(0); // creation_time
+        out.putInt(0); // modification_time
+        out.putInt(1000);
+        out.putInt(0); // duration
+        out.putInt(0x00010000); // rate 1.0
+        out.putShort((short) 0x0100); // volume 1.0
+        out.putShort((short) 0);
+        out.putLong(0);
+        putMatrix(out);
+        for (int i = 0; i < 6; i++) {
+            out.putInt(0); // pre_defined
+        }
+        out.putInt(TRACK_ID + 1); // next_track_ID
+        end(out, mvhd);
+
+        int trak = begin(out, "trak");
+        int tkhd = beginFull(out, "tkhd", 0, 0x000003); // enabled | in_movie
+        out.putInt(0);
+        out.putInt(0);
+        out.putInt(TRACK_ID);
+        out.putInt(0);
+        out.putInt(0); // duration
+        out.putLong(0);
+        out.putShort((short) 0); // layer
+        out.putShort((short) 0); // alternate_group
+        out.putShort((short) 0); // volume
+        out.putShort((short) 0);
+        putMatrix(out);
+        out.putInt(info.width << 16);
+        out.putInt(info.height << 16);
+        end(out, tkhd);
+
+        int mdia = begin(out, "mdia");
+        int mdhd = beginFull(out, "mdhd", 0, 0);
+        out.putInt(0);
+        out.putInt(0);
+        out.putInt(TIMESCALE);
+        out.putInt(0); // duration
+        out.putShort((short) 0x55C4); // language: und
+        out.putShort((short) 0);
+        end(out, mdhd);
+        int hdlr = beginFull(out, "hdlr", 0, 0);
+        out.putInt(0);
+        putType(out, "vide");
+        out.putInt(0);
+        out.putInt(0);
+        out.putInt(0);
+        out.put("VideoHandler".getBytes());
+        out.put((byte) 0);
+        end(out, hdlr);
+
+        int minf = begin(out, "minf");
+        int vmhd = beginFull(out, "vmhd", 0, 1);
+        out.putLong(0); // graphicsmode + opcolor
+        end(out, vmhd);
+        int dinf = begin(out, "dinf");
+        int dref = beginFull(out, "dref", 0, 0);
+        out.putInt(1);
+        int url = beginFull(out, "url ", 0, 1); // 数据在同一个文件中
+        end(out, url);
+        end(out, dref);
+        end(out, dinf);
+
+        int stbl = begin(out, "stbl");
+        int stsd = beginFull(out, "stsd", 0, 0);
+        out.putInt(1);
+        writeAvc1(out, sps, pps, info);
+        end(out, stsd);
+        for (String type : new String[]{"stts", "stsc", "stco"}) {
+            int box = beginFull(out, type, 0, 0);
+            out.putInt(0); // entry_count
+            end(out, box);
+        }
+        int stsz = beginFull(out, "stsz", 0, 0);
+        out.putInt(0); // sample_size
+        out.putInt(0); // sample_count
+        end(out, stsz);
+        end(out, stbl);
+        end(out, minf);
+        end(out, mdia);
+        end(out, trak);
+
+        int mvex = begin(out, "mvex");
+        int trex = beginFull(out, "trex", 0, 0);
+        out.putInt(TRACK_ID);
+        out.putInt(1); // default_sample_description_index
+        out.putInt(0);
+        out.putInt(0);
+        out.putInt(0);
+        end(out, trex);
+        end(out, mvex);
+        end(out, moov);
+    }
+
+    /**
+     * 获取初始化段的大小上限
+     */
+    static int initSegmentSize(byte[] sps, byte[] pps) {
+        return 1024 + sps.length + pps.length;
+    }
+
+    private static void writeAvc1(ByteBuffer out, byte[] sps, byte[] pps, H264Sps info) {
+        int avc1 = begin(out, "avc1");
+        out.putInt(0);
+        out.putShort((short) 0);
+        out.putShort((short) 1); // data_reference_index
+        out.putLong(0);
+        out.putLong(0);
+        out.putShort((short) info.width);
+        out.putShort((short) info.height);
+        out.putInt(0x00480000); // 72 dpi
+        out.putInt(0x00480000);
+        out.putInt(0);
+        out.putShort((short) 1); // frame_count
+        for (int i = 0; i < 32; i++) {
+            out.put((byte) 0); // compressorname
+        }
+        out.putShort((short) 0x0018); // depth
+        out.putShort((short) -1);
+
+        int avcC = begin(out, "avcC");
+        out.put((byte) 1);
+        out.put(sps[1]); // profile
+        out.put(sps[2]); // profile_compatibility
+        out.put(sps[3]); // level
+        out.put((byte) 0xFF); // NAL 长度字段 4 字节
+        out.put((byte) 0xE1); // 1 个 SPS
+        out.putShort((short) sps.length);
+        out.put(sps);
+        out.put((byte) 1);
+        out.putShort((short) pps.length);
+        out.put(pps);
+        if (info.profile == 100 || info.profile == 110 || info.profile == 122 || info.profile == 144) {
+            out.put((byte) (0xFC | info.chromaFormat));
+            out.put((byte) (0xF8 | (info.bitDepthLuma - 8)));
+            out.put((byte) (0xF8 | (info.bitDepthChroma - 8)));
+            out.put((byte) 0); // numOfSequenceParameterSetExt
+        }
+        end(out, avcC);
+        end(out, avc1);
+    }
+
+    /**
+     * 写入片段头 moof 和 mdat 的 box 头，之后紧跟 mdat 的样本数据
+     *
+     * @param out 输出缓冲区，需要至少 MOOF_HEADER_SIZE + sampleCount * TRUN_ENTRY_SIZE + 8 字节
+     * @param sequence 片段序号，从 1 开始
+     * @param baseDecodeTime 第一个样本的解码时间，单位：1/90000 秒
+     * @param durations 样本时长，单位：1/90000 秒
+     * @param sizes 样本大小
+     * @param keyFrames 样本是否为关键帧
+     * @param sampleCount 样本个数
+     */
+    static void writeFragmentHeader(ByteBuffer out, int sequence, long baseDecodeTime, int[] durations, int[] sizes,
+                                    boolean[] keyFrames, int sampleCount) {
+        int moof = begin(out, "moof");
+        int mfhd = beginFull(out, "mfhd", 0, 0);
+        out.putInt(sequence);
+        end(out, mfhd);
+        int traf = begin(out, "traf");
+        int tfhd = beginFull(out, "tfhd", 0, TFHD_DEFAULT_BASE_IS_MOOF);
+        out.putInt(TRACK_ID);
+        end(out, tfhd);
+        int tfdt = beginFull(out, "tfdt", 1, 0);
+        out.putLong(baseDecodeTime);
+        end(out, tfdt);
+        int trun = beginFull(out, "trun", 0, TRUN_FLAGS);
+        out.putInt(sampleCount);
+        int dataOffset = out.position();
+        out.putInt(0);
+        long mdatSize = 8;
+        for (int i = 0; i < sampleCount; i++) {
+            out.putInt(durations[i]);
+            out.putInt(sizes[i]);
+            out.putInt(keyFrames[i] ? SAMPLE_FLAGS_SYNC : SAMPLE_FLAGS_NON_SYNC);
+            mdatSize += sizes[i];
+        }
+        end(out, trun);
+        end(out, traf);
+        end(out, moof);
+        // 样本数据从 mdat 头之后开始，偏移相对于 moof 起始位置
+        out.putInt(dataOffset, out.position() - moof + 8);
+        out.putInt((int) mdatSize);
+        putType(out, "mdat");
+    }
+
+    private static int begin(ByteBuffer out, String type) {
+        int start = out.position();
+        out.putInt(0);
+        putType(out, type);
+        return start;
+    }
+
+    private static int beginFull(ByteBuffer out, String type, int version, int flags) {
+        int start = begin(out, type);
+        out.putInt((version << 24) | flags);
+        return start;
+    }
+
+    private static void end(ByteBuffer out, int start) {
+        out.putInt(start, out.position() - start);
+    }
+
+    private static void putType(ByteBuffer out, String type) {
+        for (int i = 0; i < 4; i++) {
+            out.put((byte) type.charAt(i));
+        }
+    }
+
+    private static void putMatrix(ByteBuffer out) {
+        int[] matrix = {0x00010000, 0, 0, 0, 0x00010000, 0, 0, 0, 0x40000000};
+        for (int value : matrix) {
+            out.putInt(value);
+        }
+    }
+}
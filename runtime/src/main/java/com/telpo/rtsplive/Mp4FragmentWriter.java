@@ -0,0 +1,207 @@
+package com.telpo.rtsplive;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * 把帧缓冲区中的 H264 NAL 按 moof + mdat 片段写入 fragmented MP4 文件
+ * <p>
+ * 片段头、每个 NAL 的长度前缀和缓冲区中的 NAL 数据组成一个数组，用一次
+ * {@link FileChannel#write(ByteBuffer[])} 聚集写入，NAL 数据不再复制，写入过程中不分配内存。
+ * 调用方在写入片段之前不能覆盖已添加的 NAL 数据。只在一个线程中使用
+ *
+ * @author  gfm
+ * @since   1.1
+ */
+final class Mp4FragmentWriter {
+    static final int MAX_SAMPLES_PER_FRAGMENT = 128;
+    static final int MAX_NALS_PER_FRAGMENT = 512;
+    static final long FRAGMENT_DURATION_US = 1000000L;
+    /** 没有时间戳间隔可用时的样本时长，单位：1/90000 秒 */
+    private static final int DEFAULT_SAMPLE_DURATION = Mp4Boxes.TIMESCALE / 30;
+
+    private final int[] sampleDurations = new int[MAX_SAMPLES_PER_FRAGMENT];
+    private final int[] sampleSizes = new int[MAX_SAMPLES_PER_FRAGMENT];
+    private final boolean[] sampleKeyFrames = new boolean[MAX_SAMPLES_PER_FRAGMENT];
+    private final ByteBuffer header = ByteBuffer.allocateDirect(
+            Mp4Boxes.MOOF_HEADER_SIZE + MAX_SAMPLES_PER_FRAGMENT * Mp4Boxes.TRUN_ENTRY_SIZE + 8);
+    private final ByteBuffer lengths = ByteBuffer.allocateDirect(MAX_NALS_PER_FRAGMENT * 4);
+    private final ByteBuffer[] lengthViews = new ByteBuffer[MAX_NALS_PER_FRAGMENT];
+    private final ByteBuffer[] nalViews = new ByteBuffer[MAX_NALS_PER_FRAGMENT];
+    private final ByteBuffer[] gather = new ByteBuffer[1 + MAX_NALS_PER_FRAGMENT * 2];
+
+    private FileChannel channel;
+    private int sequence;
+    private long decodeTime;
+    private long bytes;
+    private int sampleCount;
+    private int nalCount;
+    private long fragmentStartPts;
+    private long lastSamplePts;
+
+    /**
+     * @param arena NAL 数据所在的帧缓冲区
+     */
+    Mp4FragmentWriter(ByteBuffer arena) {
+        for (int i = 0; i < MAX_NALS_PER_FRAGMENT; i++) {
+            lengths.limit(i * 4 + 4).position(i * 4);
+            lengthViews[i] = lengths.slice();
+            nalViews[i] = arena.duplicate();
+        }
+    }
+
+    /**
+     * 写入初始化段，之后的样本写入这个文件
+     */
+    void open(FileChannel fileChannel, byte[] sps, byte[] pps, H264Sps info) throws IOException {
+        ByteBuffer init = ByteBuffer.allocate(Mp4Boxes.initSegmentSize(sps, pps));
+        Mp4Boxes.writeInitSegment(init, sps, pps, info);
+        init.flip();
+        while (init.hasRemaining()) {
+            fileChannel.write(init);
+        }
+        channel = fileChannel;
+        bytes = init.limit();
+        decodeTime = 0;
+        sequence = 0;
+        sampleCount = 0;
+        nalCount = 0;
+    }
+
+    /**
+     * 不再写入当前文件，丢弃未写入的样本，文件由调用方关闭
+     */
+    void close() {
+        channel = null;
+        sampleCount = 0;
+        nalCount = 0;
+    }
+
+    boolean isOpen() {
+        return channel != null;
+    }
+
+    /**
+     * 获取已写入文件的字节数，包括初始化段
+     */
+    long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * 获取已写入样本的总时长，单位：1/90000 秒
+     */
+    long getDuration() {
+        return decodeTime;
+    }
+
+    /**
+     * 获取还没有写入的样本个数
+     */
+    int getPendingSamples() {
+        return sampleCount;
+    }
+
+    /**
+     * 添加新样本之前调用，按新样本的时间戳设置上一个样本的时长
+     *
+     * @param nals 新样本的 NAL 个数
+     * @return 需要先调用 {@link #writeFragment()} 时返回 true
+     */
+    boolean isFragmentComplete(long pts, boolean keyFrame, int nals) {
+        if (sampleCount == 0) {
+            return false;
+        }
+        long duration = (pts - lastSamplePts) * Mp4Boxes.TIMESCALE / 1000000L;
+        sampleDurations[sampleCount - 1] = duration > 0 && duration < Integer.MAX_VALUE
+                ? (int) duration : DEFAULT_SAMPLE_DURATION;
+        return keyFrame || pts - fragmentStartPts >= FRAGMENT_DURATION_US
+                || sampleCount == MAX_SAMPLES_PER_FRAGMENT || nalCount + nals > MAX_NALS_PER_FRAGMENT;
+    }
+
+    /**
+     * 添加当前样本的一个 NAL，在 {@link #addSample} 之前调用
+     *
+     * @param start NAL 在帧缓冲区中的起始位置，不含起始码
+     * @param end NAL 在帧缓冲区中的结束位置
+     */
+    void addNal(int start, int end) {
+        lengthViews[nalCount].putInt(0, end - start);
+        ByteBuffer view = nalViews[nalCount];
+        view.clear();
+        view.position(start);
+        view.limit(end);
+        nalCount++;
+    }
+
+    /**
+     * 结束当前样本
+     *
+     * @param size 样本大小，所有 NAL 的长度加上每个 NAL 4 字节的长度前缀
+     */
+    void addSample(long pts, int size, boolean keyFrame) {
+        if (sampleCount == 0) {
+            fragmentStartPts = pts;
+        }
+        sampleSizes[sampleCount] = size;
+        sampleKeyFrames[sampleCount] = keyFrame;
+        sampleDurations[sampleCount] = DEFAULT_SAMPLE_DURATION;
+        sampleCount++;
+        lastSamplePts = pts;
+    }
+
+    /**
+     * 写入最后一个片段，最后一个样本的时长和前一个样本相同
+     *
+     * @return 写入的样本个数
+     */
+    int finish() throws IOException {
+        if (sampleCount > 1) {
+            sampleDurations[sampleCount - 1] = sampleDurations[sampleCount - 2];
+        }
+        return writeFragment();
+    }
+
+    /**
+     * 把已添加的样本写成一个片段，无论是否成功都清空已添加的样本
+     *
+     * @return 写入的样本个数
+     */
+    int writeFragment() throws IOException {
+        int samples = sampleCount;
+        int nals = nalCount;
+        sampleCount = 0;
+        nalCount = 0;
+        if (channel == null || samples == 0) {
+            return 0;
+        }
+        header.clear();
+        Mp4Boxes.writeFragmentHeader(header, ++sequence, decodeTime, sampleDurations, sampleSizes,
+                sampleKeyFrames, samples);
+        header.flip();
+        gather[0] = header;
+        long remaining = header.remaining();
+        for (int i = 0; i < nals; i++) {
+            lengthViews[i].clear();
+            gather[1 + i * 2] = lengthViews[i];
+            gather[2 + i * 2] = nalViews[i];
+            remaining += 4 + nalViews[i].remaining();
+        }
+        try {
+            int length = 1 + nals * 2;
+            while (remaining > 0) {
+                remaining -= channel.write(gather, 0, length);
+            }
+        } finally {
+            Arrays.fill(gather, 1, 1 + nals * 2, null);
+        }
+        bytes += header.limit();
+        for (int i = 0; i < samples; i++) {
+            bytes += sampleSizes[i];
+            decodeTime += sampleDurations[i];
+        }
+        return samples;
+    }
+}
@@ -0,0 +1,164 @@
+package com.telpo.rtsplive;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MulticastSocket;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * 一个挂载点的组播发送组
+ * <p>
+ * 组内只有一个发送会话 {@link #stream}，不管有多少客户端加入，每个 RTP 包都只发送一次。
+ * 客户端的 RTSP 会话只用于计数和接收 RTCP 接收者报告，和发送会话共用一个 RTP 打包器。
+ * <p>
+ * 使用绑定在 RTCP 端口上的 {@link MulticastSocket} 发送和接收（API 19 的 NIO 通道不支持设置 TTL 和加入组），
+ * 客户端发到组地址的 RTCP 由一个后台线程接收，再交给主事件循环处理
+ *
+ * @author  gfm
+ * @since   1.1
+ */
+final class MulticastGroup {
+    final String streamName;
+    final RtpSubsessionDelegate delegate;
+    final InetAddress address;
+    final int port;
+    final int ttl;
+    /** 组播发送会话，不在服务器的会话表中 */
+    final RtpSession stream;
+
+    private final NioRtspServer server;
+    private final MulticastSocket socket;
+    private final byte[] data = new byte[RtpPacketizer.DEFAULT_MAX_PACKET_SIZE];
+    private final DatagramPacket datagram = new DatagramPacket(data, data.length);
+    private int members;  // guarded by NioRtspServer.multicastGroups
+    private int viewers;  // guarded by this
+    private volatile long sendErrors;
+    long lastReportMs;
+
+    MulticastGroup(NioRtspServer server, String streamName, RtpSubsessionDelegate delegate, InetAddress address,
+                   int port, int ttl) throws IOException {
+        this.streamName = streamName;
+        this.delegate = delegate;
+        this.address = address;
+        this.port = port;
+        this.ttl = ttl;
+        this.server = server;
+        MulticastSocket multicastSocket = new MulticastSocket(null);
+        try {
+            multicastSocket.setReuseAddress(true);
+            multicastSocket.bind(new InetSocketAddress(port + 1));
+            multicastSocket.setTimeToLive(ttl);
+            multicastSocket.joinGroup(address);
+        } catch (IOException e) {
+            multicastSocket.close();
+            throw e;
+        }
+        this.socket = multicastSocket;
+        this.stream = RtpSession.createMulticast("multicast-" + streamName, server, delegate, streamName, this);
+        Thread thread = new Thread(this::receive, "RtcpMulticast-" + port);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * 接收客户端发到组地址的 RTCP，直到 socket 关闭
+     */
+    private void receive() {
+        byte[] buffer = new byte[1500];
+        DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+        while (!socket.isClosed()) {
+            try {
+                packet.setLength(buffer.length);
+                socket.receive(packet);
+            } catch (SocketException e) {
+                return;
+            } catch (IOException e) {
+                continue;
+            }
+            if (packet.getAddress() != null) {
+                server.onMulticastRtcp(this, packet.getAddress().getHostAddress(),
+                        ByteBuffer.wrap(Arrays.copyOf(buffer, packet.getLength())));
+            }
+        }
+    }
+
+    /**
+     * 加入一个客户端会话，返回加入后的会话个数
+     */
+    int join() {
+        return ++members;
+    }
+
+    /**
+     * 离开一个客户端会话，返回离开后的会话个数
+     */
+    int leave() {
+        return --members;
+    }
+
+    /**
+     * 客户端开始播放，第一个播放的客户端会让发送会话开始从帧环读取
+     *
+     * @return 是第一个播放的客户端返回 true
+     */
+    synchronized boolean addViewer() {
+        if (viewers++ == 0) {
+            delegate.addPlayingSession(stream);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 客户端停止播放，最后一个客户端停止时发送会话停止发送并发出 BYE
+     */
+    synchronized void removeViewer() {
+        if (viewers > 0 && --viewers == 0) {
+            delegate.removePlayingSession(stream);
+            ByteBuffer bye = ByteBuffer.allocate(8);
+            Rtcp.writeBye(bye, stream.packetizer.ssrc);
+            bye.flip();
+            stream.sendRtcp(bye);
+        }
+    }
+
+    synchronized int getViewers() {
+        return viewers;
+    }
+
+    /**
+     * 发送 RTP 或 RTCP 包到组地址，packet 的 position 会被移动到 limit
+     */
+    synchronized void send(ByteBuffer packet, InetSocketAddress target) {
+        int length = packet.remaining();
+        packet.get(data, 0, length);
+        datagram.setLength(length);
+        datagram.setSocketAddress(target);
+        try {
+            socket.send(datagram);
+        } catch (IOException e) {
+            sendErrors++;
+        }
+    }
+
+    long getSendErrors() {
+        return sendErrors;
+    }
+
+    String getTransport() {
+        return "RTP/AVP;multicast;destination=" + address.getHostAddress()
+                + ";port=" + port + "-" + (port + 1) + ";ttl=" + ttl;
+    }
+
+    void close() {
+        try {
+            socket.leaveGroup(address);
+        } catch (IOException ignored) {
+        }
+        socket.close();
+    }
+}
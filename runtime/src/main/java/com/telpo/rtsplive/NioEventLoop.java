@@ -0,0 +1,152 @@
+package com.telpo.rtsplive;
+
+import java.io.IOException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * 基于 {@link Selector} 的单线程事件循环
+ * <p>
+ * 注册到循环上的通道只在循环线程中读写，其它线程通过 {@link #execute} 投递任务
+ *
+ * @author  gfm
+ * @since   1.1
+ */
+final class NioEventLoop implements Runnable {
+    /**
+     * 通道事件处理接口，作为 SelectionKey 的 attachment
+     */
+    interface Handler {
+        /**
+         * 通道就绪时在循环线程中回调
+         */
+        void onReady(SelectionKey key) throws IOException;
+
+        /**
+         * 循环定时回调，间隔约为 {@link #TICK_INTERVAL_MS}
+         *
+         * @param nowMs 当前时间，单位：毫秒
+         */
+        void onTick(long nowMs);
+
+        /**
+         * 通道出错或循环退出时回调
+         */
+        void onClose();
+    }
+
+    static final long TICK_INTERVAL_MS = 500;
+
+    private final Selector selector;
+    private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final Runnable tickTask;
+    private volatile boolean running = true;
+    private volatile Thread thread;
+
+    NioEventLoop(Runnable tickTask) throws IOException {
+        this.selector = Selector.open();
+        this.tickTask = tickTask;
+    }
+
+    /**
+     * 在循环线程中执行任务，可以在任何线程调用
+     */
+    void execute(Runnable task) {
+        tasks.offer(task);
+        if (Thread.currentThread() != thread) {
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * 注册通道，只能在循环线程中调用
+     */
+    SelectionKey register(SelectableChannel channel, int ops, Handler handler) throws IOException {
+        channel.configureBlocking(false);
+        return channel.register(selector, ops, handler);
+    }
+
+    boolean inLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    void shutdown() {
+        running = false;
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        thread = Thread.currentThread();
+        long nextTick = System.currentTimeMillis() + TICK_INTERVAL_MS;
+        try {
+            while (running) {
+                long timeout = nextTick - System.currentTimeMillis();
+                if (timeout > 0 && tasks.isEmpty()) {
+                    selector.select(timeout);
+                } else {
+                    selector.selectNow();
+                }
+                runTasks();
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    Handler handler = (Handler) key.attachment();
+                    try {
+                        if (key.isValid()) {
+                            handler.onReady(key);
+                        }
+                    } catch (IOException | RuntimeException e) {
+                        key.cancel();
+                        handler.onClose();
+                    }
+                }
+                long now = System.currentTimeMillis();
+                if (now >= nextTick) {
+                    nextTick = now + TICK_INTERVAL_MS;
+                    for (SelectionKey key : selector.keys()) {
+                        if (key.isValid()) {
+                            ((Handler) key.attachment()).onTick(now);
+                        }
+                    }
+                    if (tickTask != null) {
+                        // 定时任务里有用户回调，异常不能结束事件循环
+                        try {
+                            tickTask.run();
+                        } catch (RuntimeException e) {
+                            e.printStackTrace();
+                        }
+                    }
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            runTasks();
+            for (SelectionKey key : selector.keys()) {
+                ((Handler) key.attachment()).onClose();
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            thread = null;
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -0,0 +1,727 @@
+package com.telpo.rtsplive;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.SocketAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 纯 Java NIO 实现的 {@link RtspServer}
+ * <p>
+ * 主事件循环运行在 Builder 设置的 Executor 线程中，负责接受连接、接收 RTCP 及会话超时检查；
+ * 控制连接按轮询方式分配到工作事件循环。RTP 包在帧源输出线程中打包并直接发送。
+ * 多个挂载点共用监听端口、RTP/RTCP 端口和事件循环，按请求路径分发到各自的视频会话委托。
+ * 设置了组播时，每个挂载点的 UDP 客户端共用一个 {@link MulticastGroup}。
+ *
+ * @author  gfm
+ * @since   1.1
+ */
+public class NioRtspServer implements RtspServer {
+    private static final int RTP_PORT_BASE = 6970;
+    private static final int RTP_PORT_ATTEMPTS = 500;
+    private static final long REPORT_INTERVAL_MS = 5000;
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    private final NioRtspServerBuilder builder;
+    /** 会话 ID 不可预测，防止其他客户端猜测 */
+    private final SecureRandom random = new SecureRandom();
+    private final ConcurrentHashMap<String, RtpSession> sessions = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<SocketAddress, RtpSession> udpSessions = new ConcurrentHashMap<>();
+    /** 挂载点，键是不含开头和结尾 / 的流名称，按添加顺序排列 */
+    private final Map<String, RtpSubsessionDelegate> mounts = new LinkedHashMap<>();
+    /** 各挂载点分配的组播 RTP 端口，guarded by mounts */
+    private final Map<String, Integer> multicastPorts = new HashMap<>();
+    /** 有客户端加入的组播组，键是流名称，guarded by itself */
+    private final Map<String, MulticastGroup> multicastGroups = new HashMap<>();
+    /** 组播组地址，不使用组播时为 null */
+    private final InetAddress multicastAddress;
+    private final ByteBuffer rtcpBuffer = ByteBuffer.allocateDirect(1500);
+    private final ByteBuffer reportBuffer = ByteBuffer.allocateDirect(256);
+    private final byte[] cname;
+
+    private volatile boolean stopped = true;
+    private volatile int errno;
+    private volatile String resultMsg = "";
+    private volatile String rtspUrl = "";
+    private volatile NioEventLoop bossLoop;
+    private NioEventLoop[] workerLoops;
+    private int nextWorker;
+    private ServerSocketChannel serverChannel;
+    private volatile DatagramChannel rtpChannel;
+    private volatile DatagramChannel rtcpChannel;
+    private int rtpPort;
+    private long lastMetricsMs;
+
+    NioRtspServer(NioRtspServerBuilder builder) {
+        this.builder = builder;
+        this.cname = ("rtsplive@" + Integer.toHexString(System.identityHashCode(this))).getBytes(ASCII);
+        try {
+            this.multicastAddress = builder.multicastGroup == null ? null : InetAddress.getByName(builder.multicastGroup);
+        } catch (UnknownHostException e) {
+            throw new RuntimeException("invalid multicast group " + builder.multicastGroup);
+        }
+        if (builder.videoDelegate != null) {
+            addMount(builder.streamName, builder.videoDelegate);
+        }
+        for (Map.Entry<String, MediaSubsessionDelegate> mount : builder.mounts.entrySet()) {
+            addMount(mount.getKey(), mount.getValue());
+        }
+    }
+
+    @Override
+    public synchronized void startService() {
+        if (!stopped) {
+            return;
+        }
+        stopped = false;
+        builder.executor.execute(this::run);
+    }
+
+    @Override
+    public synchronized void stopService() {
+        stopped = true;
+        NioEventLoop loop = bossLoop;
+        if (loop != null) {
+            loop.shutdown();
+        }
+    }
+
+    @Override
+    public boolean addMount(String streamName, MediaSubsessionDelegate delegate) {
+        if (!(delegate instanceof RtpSubsessionDelegate)) {
+            throw new IllegalArgumentException("delegate must be created by MediaSubsessionDelegate.createRtpVideoDelegate");
+        }
+        RtpSubsessionDelegate rtpDelegate = (RtpSubsessionDelegate) delegate;
+        String path = mountPath(streamName);
+        synchronized (mounts) {
+            if (mounts.containsKey(path)) {
+                return false;
+            }
+            if (builder.adaptiveBitrate && rtpDelegate.getBitrateController() == null
+                    && rtpDelegate.framedSource instanceof VideoEncoder) {
+                rtpDelegate.setBitrateController(new BitrateController((VideoEncoder) rtpDelegate.framedSource));
+            }
+            if (builder.pacing && rtpDelegate.getPacer() == null) {
+                rtpDelegate.setPacer(new RtpPacer(rtpDelegate, builder.pacingBurstBytes));
+            }
+            mounts.put(path, rtpDelegate);
+            if (multicastAddress != null) {
+                allocateMulticastPort(path);
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean removeMount(String streamName) {
+        String path = mountPath(streamName);
+        synchronized (mounts) {
+            if (mounts.remove(path) == null) {
+                return false;
+            }
+            multicastPorts.remove(path);
+        }
+        for (RtpSession session : sessions.values()) {
+            if (session.streamName.equals(path)) {
+                removeSession(session);
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public ServerMetrics getMetrics() {
+        List<SessionMetrics> sessionMetrics = new ArrayList<>(sessions.size());
+        for (RtpSession session : sessions.values()) {
+            sessionMetrics.add(session.getMetrics());
+        }
+        List<MountMetrics> mountMetrics = new ArrayList<>();
+        for (Map.Entry<String, RtpSubsessionDelegate> mount : getMounts()) {
+            String path = mount.getKey();
+            RtpSubsessionDelegate delegate = mount.getValue();
+            int sessionCount = 0;
+            int playingCount = 0;
+            for (SessionMetrics session : sessionMetrics) {
+                if (session.getStreamName().equals(path)) {
+                    sessionCount++;
+                    if (session.isPlaying()) {
+                        playingCount++;
+                    }
+                }
+            }
+            EncoderMetrics encoderMetrics = null;
+            if (delegate.framedSource instanceof VideoEncoder) {
+                EncoderMetrics metrics = ((VideoEncoder) delegate.framedSource).getMetrics();
+                if (metrics != null) {
+                    encoderMetrics = metrics.copy();
+                }
+            }
+            RtpPacer pacer = delegate.getPacer();
+            mountMetrics.add(new MountMetrics(path, sessionCount, playingCount, delegate.ring.getDroppedFrames(),
+                    encoderMetrics, pacer == null ? null : pacer.getQueueDelay().copy(),
+                    delegate.getKeyFrameRequests(), delegate.getSuppressedKeyFrameRequests()));
+        }
+        return new ServerMetrics(System.currentTimeMillis(), sessionMetrics, mountMetrics);
+    }
+
+    // 端口范围用完时这个挂载点只能单播
+    private void allocateMulticastPort(String path) {
+        int port = builder.multicastMinPort + (builder.multicastMinPort & 1);
+        for (; port + 1 <= builder.multicastMaxPort; port += 2) {
+            if (!multicastPorts.containsValue(port)) {
+                multicastPorts.put(path, port);
+                return;
+            }
+        }
+    }
+
+    /**
+     * 获取挂载点的组播 RTP 端口
+     *
+     * @param streamName 流名称，不含开头和结尾的 /
+     * @return 不使用组播时返回 -1
+     */
+    int getMulticastPort(String streamName) {
+        synchronized (mounts) {
+            Integer port = multicastPorts.get(streamName);
+            return port == null ? -1 : port;
+        }
+    }
+
+    /**
+     * 客户端会话加入挂载点的组播组，第一个加入时创建组
+     *
+     * @return 挂载点不使用组播时返回 null
+     * @throws IOException 创建组播组失败
+     */
+    MulticastGroup joinMulticast(String streamName, RtpSubsessionDelegate delegate) throws IOException {
+        int port = getMulticastPort(streamName);
+        if (port < 0) {
+            return null;
+        }
+        synchronized (multicastGroups) {
+            MulticastGroup group = multicastGroups.get(streamName);
+            if (group == null) {
+                group = new MulticastGroup(this, streamName, delegate, multicastAddress, port, builder.multicastTtl);
+                multicastGroups.put(streamName, group);
+            }
+            group.join();
+            return group;
+        }
+    }
+
+    private void leaveMulticast(MulticastGroup group) {
+        synchronized (multicastGroups) {
+            if (group.leave() == 0) {
+                if (multicastGroups.get(group.streamName) == group) {
+                    multicastGroups.remove(group.streamName);
+                }
+                group.close();
+            }
+        }
+    }
+
+    private List<MulticastGroup> getMulticastGroups() {
+        synchronized (multicastGroups) {
+            return new ArrayList<>(multicastGroups.values());
+        }
+    }
+
+    /**
+     * 处理客户端发到组地址的 RTCP，在组播接收线程中调用，转到主事件循环按来源 IP 找到对应的客户端会话
+     */
+    void onMulticastRtcp(MulticastGroup group, String host, ByteBuffer buffer) {
+        NioEventLoop boss = bossLoop;
+        if (boss == null) {
+            return;
+        }
+        boss.execute(() -> {
+            boolean reported = false;
+            for (RtpSession session : sessions.values()) {
+                if (session.group == group && host.equals(session.connection.getRemoteAddress())) {
+                    // 同一台主机上的多个客户端无法按地址区分，都算作在线，报告只交给第一个
+                    session.touch();
+                    if (!reported) {
+                        reported = true;
+                        onRtcp(session, buffer, 0, buffer.limit());
+                    }
+                }
+            }
+        });
+    }
+
+    private List<Map.Entry<String, RtpSubsessionDelegate>> getMounts() {
+        synchronized (mounts) {
+            return new ArrayList<>(mounts.entrySet());
+        }
+    }
+
+    @Override
+    public String getRtspUrl() {
+        return rtspUrl;
+    }
+
+    @Override
+    public int getErrno() {
+        return errno;
+    }
+
+    @Override
+    public String getResultMsg() {
+        return resultMsg;
+    }
+
+    private void run() {
+        NioEventLoop boss;
+        try {
+            boss = new NioEventLoop(this::onTick);
+            open(boss);
+            errno = 0;
+            resultMsg = "";
+            rtspUrl = "rtsp://" + localAddress() + ":" + (builder.port & 0xFFFF) + "/"
+                    + (builder.streamName == null ? "" : builder.streamName);
+        } catch (IOException e) {
+            errno = -1;
+            resultMsg = "Failed to create RTSP server: " + e.getMessage();
+            rtspUrl = "";
+            close();
+            // 允许再次调用 startService() 重试
+            synchronized (this) {
+                stopped = true;
+            }
+            if (builder.listener != null) {
+                builder.listener.onStart(this);
+            }
+            return;
+        }
+        synchronized (this) {
+            if (stopped) {
+                close();
+                return;
+            }
+            bossLoop = boss;
+        }
+        if (builder.listener != null) {
+            builder.listener.onStart(this);
+        }
+        for (int i = 1; i < workerLoops.length; i++) {
+            Thread thread = new Thread(workerLoops[i], "RtspWorker-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+        boss.run();
+        for (int i = 1; i < workerLoops.length; i++) {
+            workerLoops[i].shutdown();
+        }
+        for (RtpSession session : sessions.values()) {
+            removeSession(session);
+        }
+        close();
+        bossLoop = null;
+        rtspUrl = "";
+    }
+
+    private void open(NioEventLoop boss) throws IOException {
+        int workerCount = Math.max(1, builder.workerCount);
+        workerLoops = new NioEventLoop[workerCount];
+        workerLoops[0] = boss;
+        for (int i = 1; i < workerCount; i++) {
+            workerLoops[i] = new NioEventLoop(null);
+        }
+
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.socket().setReuseAddress(true);
+        serverChannel.socket().bind(new InetSocketAddress(builder.port & 0xFFFF));
+        boss.register(serverChannel, SelectionKey.OP_ACCEPT, new NioEventLoop.Handler() {
+            @Override
+            public void onReady(SelectionKey key) throws IOException {
+                SocketChannel channel;
+                while ((channel = serverChannel.accept()) != null) {
+                    channel.configureBlocking(false);
+                    channel.socket().setTcpNoDelay(true);
+                    NioEventLoop loop = workerLoops[nextWorker++ % workerLoops.length];
+                    RtspConnection connection = new RtspConnection(NioRtspServer.this, loop, channel);
+                    loop.execute(connection::register);
+                }
+            }
+
+            @Override
+            public void onTick(long nowMs) {
+            }
+
+            @Override
+            public void onClose() {
+            }
+        });
+
+        for (int port = RTP_PORT_BASE; port < RTP_PORT_BASE + RTP_PORT_ATTEMPTS * 2; port += 2) {
+            DatagramChannel rtp = DatagramChannel.open();
+            DatagramChannel rtcp = DatagramChannel.open();
+            try {
+                rtp.socket().bind(new InetSocketAddress(port));
+                rtcp.socket().bind(new InetSocketAddress(port + 1));
+                rtp.configureBlocking(false);
+                rtpChannel = rtp;
+                rtcpChannel = rtcp;
+                rtpPort = port;
+                break;
+            } catch (IOException e) {
+                rtp.close();
+                rtcp.close();
+            }
+        }
+        if (rtpChannel == null) {
+            throw new IOException("no free RTP port");
+        }
+        boss.register(rtcpChannel, SelectionKey.OP_READ, new NioEventLoop.Handler() {
+            @Override
+            public void onReady(SelectionKey key) throws IOException {
+                SocketAddress from;
+                rtcpBuffer.clear();
+                while ((from = rtcpChannel.receive(rtcpBuffer)) != null) {
+                    RtpSession session = udpSessions.get(from);
+                    if (session != null) {
+                        session.touch();
+                        onRtcp(session, rtcpBuffer, 0, rtcpBuffer.position());
+                    }
+                    rtcpBuffer.clear();
+                }
+            }
+
+            @Override
+            public void onTick(long nowMs) {
+            }
+
+            @Override
+            public void onClose() {
+            }
+        });
+    }
+
+    private void close() {
+        closeQuietly(serverChannel);
+        closeQuietly(rtpChannel);
+        closeQuietly(rtcpChannel);
+        serverChannel = null;
+        rtpChannel = null;
+        rtcpChannel = null;
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * 主事件循环定时任务：会话超时检查、发送 RTCP SR 和回调统计
+     */
+    private void onTick() {
+        long now = System.currentTimeMillis();
+        for (RtpSession session : sessions.values()) {
+            if (now - session.lastActiveMs > RtpSession.TIMEOUT_SECONDS * 1000L) {
+                removeSession(session);
+                continue;
+            }
+            // 组播客户端会话不单独发送 SR，由组的发送会话统一发送
+            if (session.playing && session.group == null && now - session.lastReportMs >= REPORT_INTERVAL_MS) {
+                session.lastReportMs = now;
+                sendSenderReport(session, now);
+            }
+        }
+        for (MulticastGroup group : getMulticastGroups()) {
+            if (group.getViewers() > 0 && now - group.lastReportMs >= REPORT_INTERVAL_MS) {
+                group.lastReportMs = now;
+                sendSenderReport(group.stream, now);
+            }
+        }
+        RtspServer.MetricsListener listener = builder.metricsListener;
+        if (listener != null && now - lastMetricsMs >= builder.metricsIntervalMs) {
+            lastMetricsMs = now;
+            listener.onMetrics(getMetrics());
+        }
+    }
+
+    private void sendSenderReport(RtpSession session, long now) {
+        ByteBuffer report = reportBuffer;
+        RtpPacketizer packetizer = session.packetizer;
+        report.clear();
+        Rtcp.writeSenderReport(report, packetizer.ssrc, now,
+                packetizer.toRtpTimestamp(System.nanoTime() / 1000),
+                packetizer.getPacketCount(), packetizer.getOctetCount(), cname);
+        report.flip();
+        session.sendRtcp(report);
+    }
+
+    /**
+     * 处理客户端发来的 RTCP 复合包，可以在任何事件循环线程调用
+     */
+    void onRtcp(RtpSession session, ByteBuffer buffer, int offset, int limit) {
+        RtpPacketizer packetizer = session.packetizer;
+        if (Rtcp.hasKeyFrameRequest(buffer, offset, limit, packetizer.ssrc)) {
+            session.delegate.requestKeyFrame();
+        }
+        ReceiverReport report = Rtcp.parseReceiverReport(buffer, offset, limit, packetizer.ssrc,
+                packetizer.clockRate, session, System.currentTimeMillis());
+        if (report == null) {
+            return;
+        }
+        session.lastReport = report;
+        // 回调异常不能抛给事件循环，否则共享的 RTCP 通道会被注销，TCP 连接会被断开
+        BitrateController controller = session.delegate.getBitrateController();
+        if (controller != null) {
+            try {
+                controller.onReceiverReport(report);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+        RtspServer.ReceiverReportListener listener = builder.receiverReportListener;
+        if (listener != null) {
+            try {
+                listener.onReceiverReport(report);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * 查找连接上使用指定 RTCP 交织通道的会话
+     *
+     * @return 找不到返回 null
+     */
+    RtpSession findInterleavedSession(RtspConnection connection, int rtcpChannel) {
+        for (RtpSession session : sessions.values()) {
+            if (session.connection == connection && session.tcp && session.rtcpChannel == rtcpChannel) {
+                return session;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 根据请求路径查找媒体子会话委托
+     *
+     * @param path 请求路径，例如 live 或 live/track1
+     * @return 找不到返回 null
+     */
+    RtpSubsessionDelegate findDelegate(String path) {
+        synchronized (mounts) {
+            return mounts.get(streamPath(path));
+        }
+    }
+
+    /**
+     * 去掉请求路径末尾的轨道 ID，得到挂载点的流名称
+     *
+     * @param path 请求路径，例如 live 或 live/track1
+     */
+    static String streamPath(String path) {
+        if (path.equals(RtpSubsessionDelegate.TRACK_ID)) {
+            return "";
+        } else if (path.endsWith("/" + RtpSubsessionDelegate.TRACK_ID)) {
+            return path.substring(0, path.length() - RtpSubsessionDelegate.TRACK_ID.length() - 1);
+        }
+        return path;
+    }
+
+    /**
+     * 规范化流名称，去掉开头和结尾的 /，null 转为空字符串
+     */
+    static String mountPath(String streamName) {
+        return streamName == null ? "" : RtspRequest.parsePath(streamName);
+    }
+
+    String buildSdp(String host, String streamName, RtpSubsessionDelegate delegate) {
+        long sessionVersion = System.currentTimeMillis();
+        int multicastPort = getMulticastPort(streamName);
+        String media;
+        if (multicastPort > 0) {
+            String group = multicastAddress.getHostAddress();
+            media = "m=video " + multicastPort + " RTP/AVP " + RtpSubsessionDelegate.PAYLOAD_TYPE + "\r\n"
+                    + "c=IN IP4 " + group + "/" + builder.multicastTtl + "\r\n";
+            if ((multicastAddress.getAddress()[0] & 0xFF) == 232) {
+                // SSM 地址，接收端需要按源地址加入（RFC 4570）
+                media += "a=source-filter: incl IN IP4 " + group + " " + host + "\r\n";
+            }
+        } else {
+            media = "m=video 0 RTP/AVP " + RtpSubsessionDelegate.PAYLOAD_TYPE + "\r\n"
+                    + "c=IN IP4 0.0.0.0\r\n";
+        }
+        return "v=0\r\n"
+                + "o=- " + sessionVersion + " 1 IN IP4 " + host + "\r\n"
+                + "s=Telpo Streaming\r\n"
+                + "t=0 0\r\n"
+                + "a=control:*\r\n"
+                + "a=range:npt=0-\r\n"
+                + media
+                + delegate.getSdpAttributes()
+                + "a=control:" + RtpSubsessionDelegate.TRACK_ID + "\r\n";
+    }
+
+    String newSessionId() {
+        String id;
+        do {
+            id = String.format("%016X", random.nextLong());
+        } while (sessions.containsKey(id));
+        return id;
+    }
+
+    RtpSession getSession(String id) {
+        return id == null ? null : sessions.get(id);
+    }
+
+    void addSession(RtpSession session) {
+        sessions.put(session.id, session);
+        if (!session.tcp && session.group == null) {
+            udpSessions.put(session.rtcpAddress, session);
+        }
+        session.delegate.acquire();
+    }
+
+    void removeSession(RtpSession session) {
+        if (sessions.remove(session.id) == null) {
+            return;
+        }
+        session.closed = true;
+        if (!session.tcp && session.group == null) {
+            udpSessions.remove(session.rtcpAddress);
+        }
+        if (stopPlaying(session) && session.group == null) {
+            ByteBuffer bye = ByteBuffer.allocate(8);
+            Rtcp.writeBye(bye, session.packetizer.ssrc);
+            bye.flip();
+            session.sendRtcp(bye);
+        }
+        if (session.group != null) {
+            leaveMulticast(session.group);
+        }
+        session.delegate.release();
+    }
+
+    /**
+     * 会话开始播放，组播会话只增加组的播放计数
+     */
+    void startPlaying(RtpSession session) {
+        synchronized (session) {
+            if (session.playing) {
+                return;
+            }
+            session.playing = true;
+        }
+        if (session.group == null) {
+            session.delegate.addPlayingSession(session);
+            session.delegate.onSessionJoin();
+        } else if (session.group.addViewer()) {
+            session.delegate.onSessionJoin();
+        } else {
+            // 组播发送会话已经在发送，后加入的客户端拿不到缓存的 GOP，只能等下一个关键帧
+            session.delegate.requestKeyFrame();
+        }
+    }
+
+    /**
+     * 会话停止播放
+     *
+     * @return 会话原来在播放返回 true
+     */
+    boolean stopPlaying(RtpSession session) {
+        synchronized (session) {
+            if (!session.playing) {
+                return false;
+            }
+            session.playing = false;
+        }
+        if (session.group != null) {
+            session.group.removeViewer();
+        } else {
+            session.delegate.removePlayingSession(session);
+        }
+        return true;
+    }
+
+    void touchSessions(RtspConnection connection) {
+        for (RtpSession session : sessions.values()) {
+            if (session.connection == connection) {
+                session.touch();
+            }
+        }
+    }
+
+    void onConnectionClosed(RtspConnection connection) {
+        // UDP 和组播会话在控制连接断开后依然有效，靠 RTCP 保活；TCP 交织会话随连接一起关闭
+        for (RtpSession session : sessions.values()) {
+            if (session.connection == connection && session.tcp) {
+                removeSession(session);
+            }
+        }
+    }
+
+    String getUserName() {
+        return builder.userName;
+    }
+
+    String getPassword() {
+        return builder.password;
+    }
+
+    DatagramChannel getRtpChannel() {
+        return rtpChannel;
+    }
+
+    DatagramChannel getRtcpChannel() {
+        return rtcpChannel;
+    }
+
+    int getRtpPort() {
+        return rtpPort;
+    }
+
+    private static String localAddress() {
+        String fallback = "127.0.0.1";
+        try {
+            Enumeration<NetworkInterface> interfaces = NetworkInterface.getNetworkInterfaces();
+            while (interfaces != null && interfaces.hasMoreElements()) {
+                NetworkInterface ni = interfaces.nextElement();
+                if (!ni.isUp() || ni.isLoopback()) {
+                    continue;
+                }
+                Enumeration<InetAddress> addresses = ni.getInetAddresses();
+                while (addresses.hasMoreElements()) {
+                    InetAddress address = addresses.nextElement();
+                    if (address instanceof Inet4Address && !address.isLoopbackAddress()) {
+                        if (address.isSiteLocalAddress()) {
+                            return address.getHostAddress();
+                        }
+                        fallback = address.getHostAddress();
+                    }
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return fallback;
+    }
+}
@@ -0,0 +1,84 @@
+package com.telpo.rtsplive;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+
+/**
+ * {@link NioRtspServer} 的 Builder
+ * <p>
+ * 视频会话委托必须是 {@link RtpSubsessionDelegate}，可以通过
+ * {@link MediaSubsessionDelegate#createRtpVideoDelegate} 创建。
+ * 可以只使用 {@link #addMount} 添加挂载点而不设置默认视频会话委托
+ *
+ * @author  gfm
+ * @since   1.1
+ */
+public class NioRtspServerBuilder extends RtspServer.Builder {
+    protected int workerCount = 1;
+
+    /**
+     * 设置处理控制连接的事件循环个数
+     * <p>
+     * 第一个事件循环运行在 Executor 线程中，其余的各自使用一个后台线程
+     *
+     * @param workerCount 事件循环个数，不设置默认为 1
+     * @return This Builder
+     */
+    public NioRtspServerBuilder setWorkerCount(int workerCount) {
+        this.workerCount = workerCount;
+        return this;
+    }
+
+    @Override
+    public RtspServer build() {
+        if (executor == null) {
+            executor = Executors.newSingleThreadExecutor();
+        }
+        if (videoDelegate == null && mounts.isEmpty()) {
+            throw new RuntimeException("videoDelegate can not be null");
+        }
+        Set<String> paths = new HashSet<>();
+        if (videoDelegate != null) {
+            checkDelegate(videoDelegate);
+            paths.add(NioRtspServer.mountPath(streamName));
+        }
+        for (Map.Entry<String, MediaSubsessionDelegate> mount : mounts.entrySet()) {
+            if (mount.getValue() == null) {
+                throw new RuntimeException("delegate of mount '" + mount.getKey() + "' can not be null");
+            }
+            checkDelegate(mount.getValue());
+            if (!paths.add(NioRtspServer.mountPath(mount.getKey()))) {
+                throw new RuntimeException("duplicate mount '" + mount.getKey() + "'");
+            }
+        }
+        if (multicastGroup != null) {
+            InetAddress group;
+            try {
+                group = InetAddress.getByName(multicastGroup);
+            } catch (UnknownHostException e) {
+                throw new RuntimeException("invalid multicast group " + multicastGroup);
+            }
+            if (!(group instanceof Inet4Address) || !group.isMulticastAddress()) {
+                throw new RuntimeException("invalid multicast group " + multicastGroup);
+            }
+            if (multicastMinPort <= 0 || multicastMaxPort > 65535 || multicastMinPort >= multicastMaxPort) {
+                throw new RuntimeException("invalid multicast port range " + multicastMinPort + "-" + multicastMaxPort);
+            }
+            if (multicastTtl < 1 || multicastTtl > 255) {
+                throw new RuntimeException("invalid multicast ttl " + multicastTtl);
+            }
+        }
+        return new NioRtspServer(this);
+    }
+
+    private static void checkDelegate(MediaSubsessionDelegate delegate) {
+        if (!(delegate instanceof RtpSubsessionDelegate)) {
+            throw new RuntimeException("videoDelegate must be created by MediaSubsessionDelegate.createRtpVideoDelegate");
+        }
+    }
+}
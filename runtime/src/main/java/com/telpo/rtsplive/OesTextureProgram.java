@@ -0,0 +1,161 @@
+package com.telpo.rtsplive;
+
+import android.opengl.GLES11Ext;
+import android.opengl.GLES20;
+import android.opengl.Matrix;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * 绘制 SurfaceTexture 外部纹理的 GLES 程序，绘制时按指定角度顺时针旋转画面
+ * <p>
+ * 需要在有 EGL 上下文的线程中创建和使用
+ *
+ * @author  gfm
+ * @since   1.1
+ */
+final class OesTextureProgram {
+    private static final String VERTEX_SHADER =
+            "uniform mat4 uMVPMatrix;\n"
+            + "uniform mat4 uTexMatrix;\n"
+            + "attribute vec4 aPosition;\n"
+            + "attribute vec4 aTextureCoord;\n"
+            + "varying vec2 vTextureCoord;\n"
+            + "void main() {\n"
+            + "    gl_Position = uMVPMatrix * aPosition;\n"
+            + "    vTextureCoord = (uTexMatrix * aTextureCoord).xy;\n"
+            + "}\n";
+
+    private static final String FRAGMENT_SHADER =
+            "#extension GL_OES_EGL_image_external : require\n"
+            + "precision mediump float;\n"
+            + "varying vec2 vTextureCoord;\n"
+            + "uniform samplerExternalOES sTexture;\n"
+            + "void main() {\n"
+            + "    gl_FragColor = texture2D(sTexture, vTextureCoord);\n"
+            + "}\n";
+
+    private static final float[] VERTICES = {
+            -1.0f, -1.0f,
+            1.0f, -1.0f,
+            -1.0f, 1.0f,
+            1.0f, 1.0f,
+    };
+
+    private static final float[] TEXTURE_COORDS = {
+            0.0f, 0.0f,
+            1.0f, 0.0f,
+            0.0f, 1.0f,
+            1.0f, 1.0f,
+    };
+
+    private final int mProgram;
+    private final int mPositionLoc;
+    private final int mTextureCoordLoc;
+    private final int mMVPMatrixLoc;
+    private final int mTexMatrixLoc;
+    private final FloatBuffer mVertices = createFloatBuffer(VERTICES);
+    private final FloatBuffer mTextureCoords = createFloatBuffer(TEXTURE_COORDS);
+    private final float[] mMVPMatrix = new float[16];
+
+    OesTextureProgram() {
+        mProgram = createProgram(VERTEX_SHADER, FRAGMENT_SHADER);
+        mPositionLoc = GLES20.glGetAttribLocation(mProgram, "aPosition");
+        mTextureCoordLoc = GLES20.glGetAttribLocation(mProgram, "aTextureCoord");
+        mMVPMatrixLoc = GLES20.glGetUniformLocation(mProgram, "uMVPMatrix");
+        mTexMatrixLoc = GLES20.glGetUniformLocation(mProgram, "uTexMatrix");
+    }
+
+    /**
+     * 创建外部纹理
+     */
+    static int createTexture() {
+        int[] textures = new int[1];
+        GLES20.glGenTextures(1, textures, 0);
+        GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, textures[0]);
+        GLES20.glTexParameterf(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+        GLES20.glTexParameterf(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+        GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+        return textures[0];
+    }
+
+    static void deleteTexture(int texture) {
+        GLES20.glDeleteTextures(1, new int[]{texture}, 0);
+    }
+
+    /**
+     * 绘制外部纹理
+     *
+     * @param texture 外部纹理
+     * @param texMatrix SurfaceTexture.getTransformMatrix 得到的纹理变换矩阵
+     * @param rotation 顺时针旋转角度，可以为：0、90、180、270
+     * @param width 输出宽度
+     * @param height 输出高度
+     */
+    void draw(int texture, float[] texMatrix, int rotation, int width, int height) {
+        GLES20.glViewport(0, 0, width, height);
+        GLES20.glUseProgram(mProgram);
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+        GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, texture);
+
+        Matrix.setRotateM(mMVPMatrix, 0, -rotation, 0.0f, 0.0f, 1.0f);
+        GLES20.glUniformMatrix4fv(mMVPMatrixLoc, 1, false, mMVPMatrix, 0);
+        GLES20.glUniformMatrix4fv(mTexMatrixLoc, 1, false, texMatrix, 0);
+
+        GLES20.glEnableVertexAttribArray(mPositionLoc);
+        GLES20.glVertexAttribPointer(mPositionLoc, 2, GLES20.GL_FLOAT, false, 8, mVertices);
+        GLES20.glEnableVertexAttribArray(mTextureCoordLoc);
+        GLES20.glVertexAttribPointer(mTextureCoordLoc, 2, GLES20.GL_FLOAT, false, 8, mTextureCoords);
+        GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
+        GLES20.glDisableVertexAttribArray(mPositionLoc);
+        GLES20.glDisableVertexAttribArray(mTextureCoordLoc);
+        GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, 0);
+        GLES20.glUseProgram(0);
+    }
+
+    void release() {
+        GLES20.glDeleteProgram(mProgram);
+    }
+
+    private static FloatBuffer createFloatBuffer(float[] data) {
+        FloatBuffer buffer = ByteBuffer.allocateDirect(data.length * 4).order(ByteOrder.nativeOrder()).asFloatBuffer();
+        buffer.put(data).position(0);
+        return buffer;
+    }
+
+    private static int createProgram(String vertexSource, String fragmentSource) {
+        int vertexShader = loadShader(GLES20.GL_VERTEX_SHADER, vertexSource);
+        int fragmentShader = loadShader(GLES20.GL_FRAGMENT_SHADER, fragmentSource);
+        int program = GLES20.glCreateProgram();
+        GLES20.glAttachShader(program, vertexShader);
+        GLES20.glAttachShader(program, fragmentShader);
+        GLES20.glLinkProgram(program);
+        int[] linkStatus = new int[1];
+        GLES20.glGetProgramiv(program, GLES20.GL_LINK_STATUS, linkStatus, 0);
+        GLES20.glDeleteShader(vertexShader);
+        GLES20.glDeleteShader(fragmentShader);
+        if (linkStatus[0] != GLES20.GL_TRUE) {
+            String log = GLES20.glGetProgramInfoLog(program);
+            GLES20.glDeleteProgram(program);
+            throw new RuntimeException("could not link program: " + log);
+        }
+        return program;
+    }
+
+    private static int loadShader(int type, String source) {
+        int shader = GLES20.glCreateShader(type);
+        GLES20.glShaderSource(shader, source);
+        GLES20.glCompileShader(shader);
+        int[] compiled = new int[1];
+        GLES20.glGetShaderiv(shader, GLES20.GL_COMPILE_STATUS, compiled, 0);
+        if (compiled[0] == 0) {
+            String log = GLES20.glGetShaderInfoLog(shader);
+            GLES20.glDeleteShader(shader);
+            throw new RuntimeException("could not compile shader " + type + ": " + log);
+        }
+        return shader;
+    }
+}
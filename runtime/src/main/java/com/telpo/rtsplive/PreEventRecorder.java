@@ -0,0 +1,611 @@
+package com.telpo.rtsplive;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 事件前预录像，{@link EventRecorder} 的默认实现
+ * <p>
+ * 帧源输出线程把帧复制到固定大小的 direct 缓冲区，按 GOP 记录关键帧位置。最老的 GOP 在两种情况下被淘汰：
+ * 下一个 GOP 已经覆盖事件前时长，或者缓冲区、帧索引放不下新的帧。除了参数集变化，输出线程不分配内存也不等待锁。
+ * <p>
+ * {@link #trigger()} 只登记导出请求，输出线程在下一帧到达时把当前最老的 GOP 作为导出起点，冻结窗口。
+ * 导出线程从起点开始读取帧，用 {@link Mp4FragmentWriter} 写入 fragmented MP4，直到帧时间戳超过事件后时长。
+ * 导出线程还没有写入的帧不会被覆盖，写入跟不上时新帧被丢弃直到下一个关键帧，直播不受影响
+ *
+ * @author  gfm
+ * @since   1.1
+ */
+public class PreEventRecorder implements EventRecorder, Runnable {
+    private static final int NAL_SLICE = 1;
+    private static final int NAL_IDR = 5;
+    private static final int NAL_SPS = 7;
+    private static final int NAL_PPS = 8;
+    private static final int NAL_AUD = 9;
+    private static final int DEFAULT_PRE_EVENT_SECONDS = 10;
+    private static final int DEFAULT_POST_EVENT_SECONDS = 10;
+    private static final int DEFAULT_BUFFER_SIZE = 8 * 1024 * 1024;
+    /** 帧索引个数，30fps 时约 68 秒 */
+    private static final int MAX_FRAMES = 2048;
+    private static final int MAX_GOPS = 256;
+    private static final int MAX_NALS_PER_FRAME = 32;
+    private static final long NO_EXPORT = Long.MAX_VALUE;
+    private static final long IDLE_PARK_NS = 20000000L;
+
+    private final File directory;
+    private volatile int preEventSeconds = DEFAULT_PRE_EVENT_SECONDS;
+    private volatile int postEventSeconds = DEFAULT_POST_EVENT_SECONDS;
+    private volatile int bufferSize = DEFAULT_BUFFER_SIZE;
+    private Thread thread;  // guarded by this
+    private volatile Thread exporter;
+    private volatile boolean running;
+
+    // 帧缓冲区，start 时分配
+    private ByteBuffer arena;
+    private final long[] frameOffsets = new long[MAX_FRAMES];
+    private final int[] frameSizes = new int[MAX_FRAMES];
+    private final long[] framePts = new long[MAX_FRAMES];
+    /** 输出线程已写入的帧数 */
+    private volatile long tail;
+    /** 窗口中第一帧的序号，总是关键帧 */
+    private volatile long base;
+    private volatile long basePts;
+    /** 最近收到的一帧的时间戳，包括被丢弃的帧 */
+    private volatile long lastPts;
+    /** 当前参数集生效的第一帧的序号 */
+    private volatile long parameterSetsFrame;
+    /** 导出线程还没有写入文件的第一帧的序号，没有导出时为 {@link #NO_EXPORT} */
+    private volatile long exportHead = NO_EXPORT;
+    private volatile long exportEndPts;
+    /** 缓冲区被导出线程还没有写入的帧占满 */
+    private volatile boolean starved;
+    private volatile File pendingClip;  // written under this
+    private File exportFile;  // guarded by this
+
+    // 以下字段只在帧源输出线程访问
+    private ByteBuffer producerView;
+    private long writeOffset;
+    private final long[] gopFrames = new long[MAX_GOPS];
+    private final long[] gopPts = new long[MAX_GOPS];
+    private long gopHead;
+    private long gopTail;
+    private boolean waitKeyFrame;
+    private boolean overflow;
+    private byte[] sps;
+    private byte[] pps;
+
+    // 冻结时由输出线程设置，之后只在导出线程访问
+    private long exportStart;
+    private byte[] exportSps;
+    private byte[] exportPps;
+
+    // 以下字段只在导出线程访问
+    private final int[] nalStarts = new int[MAX_NALS_PER_FRAME];
+    private final int[] nalEnds = new int[MAX_NALS_PER_FRAME];
+    private Mp4FragmentWriter fragments;
+    private RandomAccessFile file;
+    private File clip;
+    private long clipFrames;
+    /** 下一个要写入的帧的序号，已写入片段之前的帧仍由 exportHead 保留在缓冲区中 */
+    private long exportNext;
+
+    private volatile int clipCount;
+    private volatile long droppedFrames;
+    private volatile long writeErrors;
+
+    public PreEventRecorder(File directory) {
+        this.directory = directory;
+    }
+
+    @Override
+    public void setPreEventDuration(int seconds) {
+        if (seconds <= 0) {
+            throw new IllegalArgumentException("invalid pre-event duration: " + seconds);
+        }
+        preEventSeconds = seconds;
+    }
+
+    @Override
+    public void setPostEventDuration(int seconds) {
+        if (seconds < 0) {
+            throw new IllegalArgumentException("invalid post-event duration: " + seconds);
+        }
+        postEventSeconds = seconds;
+    }
+
+    @Override
+    public void setBufferSize(int bytes) {
+        if (bytes <= 0) {
+            throw new IllegalArgumentException("invalid buffer size: " + bytes);
+        }
+        bufferSize = bytes;
+    }
+
+    @Override
+    public synchronized void start() {
+        if (thread != null) {
+            return;
+        }
+        if (arena == null || arena.capacity() != bufferSize) {
+            arena = ByteBuffer.allocateDirect(bufferSize);
+            fragments = new Mp4FragmentWriter(arena);
+        }
+        producerView = arena.duplicate();
+        tail = 0;
+        base = 0;
+        parameterSetsFrame = 0;
+        exportHead = NO_EXPORT;
+        writeOffset = 0;
+        gopHead = 0;
+        gopTail = 0;
+        waitKeyFrame = true;
+        overflow = false;
+        running = true;
+        thread = new Thread(this, "RtspEventRecorder");
+        exporter = thread;
+        thread.start();
+    }
+
+    @Override
+    public void stop() {
+        Thread current;
+        synchronized (this) {
+            current = thread;
+            if (current == null) {
+                return;
+            }
+            thread = null;
+            running = false;
+            pendingClip = null;
+        }
+        LockSupport.unpark(current);
+        try {
+            current.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public synchronized File trigger() {
+        if (thread == null) {
+            return null;
+        }
+        File current = exportFile != null ? exportFile : pendingClip;
+        if (current != null) {
+            // 导出过程中再次触发，延长事件后时长
+            exportEndPts = Math.max(exportEndPts, lastPts + postEventSeconds * 1000000L);
+            return current;
+        }
+        String name = new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.US).format(new Date());
+        File target = new File(directory, name + ".mp4");
+        for (int i = 1; target.exists(); i++) {
+            target = new File(directory, name + "-" + i + ".mp4");
+        }
+        pendingClip = target;
+        exportEndPts = lastPts + postEventSeconds * 1000000L;
+        return target;
+    }
+
+    @Override
+    public synchronized boolean isExporting() {
+        return exportFile != null || pendingClip != null;
+    }
+
+    @Override
+    public long getBufferedDuration() {
+        long pts = basePts;
+        return base < tail ? (lastPts - pts) / 1000 : 0;
+    }
+
+    @Override
+    public int getClipCount() {
+        return clipCount;
+    }
+
+    @Override
+    public long getDroppedFrames() {
+        return droppedFrames;
+    }
+
+    @Override
+    public long getWriteErrors() {
+        return writeErrors;
+    }
+
+    /**
+     * 复制一帧到缓冲区，在帧源输出线程调用，不阻塞
+     */
+    @Override
+    public void onFrameOutput(ByteBuffer buffer, int size, long presentationTimeUs) {
+        if (!running) {
+            return;
+        }
+        int position = buffer.position();
+        int type = scan(buffer, position, position + size);
+        if (type == 0) {
+            // 只有参数集的配置帧
+            return;
+        }
+        boolean keyFrame = type == NAL_IDR;
+        lastPts = presentationTimeUs;
+        if (waitKeyFrame) {
+            if (!keyFrame) {
+                if (overflow) {
+                    droppedFrames++;
+                }
+                return;
+            }
+            waitKeyFrame = false;
+            overflow = false;
+        }
+        long t = tail;
+        if (exportHead == NO_EXPORT && pendingClip != null) {
+            freeze(t, presentationTimeUs);
+        }
+        if (keyFrame) {
+            if (gopTail - gopHead == MAX_GOPS) {
+                evictGop(t);
+            }
+            gopFrames[(int) (gopTail % MAX_GOPS)] = t;
+            gopPts[(int) (gopTail % MAX_GOPS)] = presentationTimeUs;
+            if (gopTail++ == gopHead) {
+                base = t;
+                basePts = presentationTimeUs;
+            }
+        }
+        // 下一个 GOP 已经覆盖事件前时长时淘汰最老的 GOP
+        long window = preEventSeconds * 1000000L;
+        while (gopTail - gopHead > 1 && presentationTimeUs - gopPts[(int) ((gopHead + 1) % MAX_GOPS)] >= window) {
+            evictGop(t);
+        }
+        long start = reserve(t, size);
+        if (start < 0) {
+            droppedFrames++;
+            waitKeyFrame = true;
+            overflow = true;
+            if (keyFrame) {
+                gopTail--;
+                if (gopTail == gopHead) {
+                    base = t;
+                }
+            }
+            return;
+        }
+        int capacity = arena.capacity();
+        int limit = buffer.limit();
+        buffer.limit(position + size);
+        producerView.clear();
+        producerView.position((int) (start % capacity));
+        producerView.put(buffer);
+        buffer.limit(limit);
+        buffer.position(position);
+        writeOffset = start + size;
+        int slot = (int) (t % MAX_FRAMES);
+        frameOffsets[slot] = start;
+        frameSizes[slot] = size;
+        framePts[slot] = presentationTimeUs;
+        tail = t + 1;
+        if (exportHead != NO_EXPORT) {
+            LockSupport.unpark(exporter);
+        }
+    }
+
+    /**
+     * 扫描到第一个片为止，更新参数集
+     *
+     * @return 第一个片的 NAL 类型，没有片时返回 0
+     */
+    private int scan(ByteBuffer buffer, int offset, int limit) {
+        int sc = AnnexB.findStartCode(buffer, offset, limit);
+        while (sc < limit) {
+            int nal = sc + AnnexB.startCodeLength(buffer, sc);
+            if (nal >= limit) {
+                break;
+            }
+            int type = AnnexB.h264Type(buffer, nal);
+            if (type >= NAL_SLICE && type <= NAL_IDR) {
+                return type == NAL_IDR ? NAL_IDR : NAL_SLICE;
+            }
+            int next = AnnexB.findStartCode(buffer, nal, limit);
+            if (type == NAL_SPS) {
+                sps = updateParameterSet(sps, buffer, nal, next);
+            } else if (type == NAL_PPS) {
+                pps = updateParameterSet(pps, buffer, nal, next);
+            }
+            sc = next;
+        }
+        return 0;
+    }
+
+    private byte[] updateParameterSet(byte[] current, ByteBuffer buffer, int start, int end) {
+        while (end > start && buffer.get(end - 1) == 0) {
+            end--;
+        }
+        int length = end - start;
+        if (current != null && current.length == length) {
+            boolean same = true;
+            for (int i = 0; i < length && same; i++) {
+                same = current[i] == buffer.get(start + i);
+            }
+            if (same) {
+                return current;
+            }
+        }
+        byte[] value = new byte[length];
+        for (int i = 0; i < length; i++) {
+            value[i] = buffer.get(start + i);
+        }
+        if (current != null) {
+            // 参数集变化后之前的帧不能和之后的帧放在同一个文件中，清空窗口
+            long t = tail;
+            gopHead = gopTail;
+            base = t;
+            parameterSetsFrame = t;
+            waitKeyFrame = true;
+            overflow = false;
+        }
+        return value;
+    }
+
+    /**
+     * 冻结窗口，从最老的 GOP 开始导出，窗口为空时从这一帧开始
+     */
+    private void freeze(long t, long pts) {
+        synchronized (this) {
+            File target = pendingClip;
+            if (target == null) {
+                return;
+            }
+            pendingClip = null;
+            exportFile = target;
+            exportStart = gopTail > gopHead ? base : t;
+            exportSps = sps;
+            exportPps = pps;
+            exportEndPts = Math.max(exportEndPts, pts + postEventSeconds * 1000000L);
+            exportHead = exportStart;
+        }
+        LockSupport.unpark(exporter);
+    }
+
+    private void evictGop(long t) {
+        gopHead++;
+        if (gopTail > gopHead) {
+            base = gopFrames[(int) (gopHead % MAX_GOPS)];
+            basePts = gopPts[(int) (gopHead % MAX_GOPS)];
+        } else {
+            base = t;
+        }
+    }
+
+    /**
+     * 淘汰旧的 GOP 直到缓冲区能放下新的一帧，当前 GOP 和导出线程还没有写入的帧不会被淘汰
+     *
+     * @return 新的一帧的写入位置，放不下时返回 -1
+     */
+    private long reserve(long t, int size) {
+        int capacity = arena.capacity();
+        if (size > capacity) {
+            return -1;
+        }
+        while (true) {
+            long floor = Math.min(base, exportHead);
+            long freeOffset = floor < t ? frameOffsets[(int) (floor % MAX_FRAMES)] : writeOffset;
+            int offset = (int) (writeOffset % capacity);
+            // 放不下时跳过缓冲区末尾，每帧都是连续的
+            int skip = offset + size > capacity ? capacity - offset : 0;
+            if (t - floor < MAX_FRAMES && skip + size <= capacity - (writeOffset - freeOffset)) {
+                return writeOffset + skip;
+            }
+            if (floor < base) {
+                // 通知导出线程尽快写入已读取的帧
+                starved = true;
+                LockSupport.unpark(exporter);
+                return -1;
+            }
+            if (gopTail - gopHead <= 1) {
+                return -1;
+            }
+            evictGop(t);
+        }
+    }
+
+    @Override
+    public void run() {
+        Thread self = Thread.currentThread();
+        while (true) {
+            long head = exportHead;
+            if (head == NO_EXPORT) {
+                if (!running) {
+                    break;
+                }
+                LockSupport.parkNanos(this, IDLE_PARK_NS);
+                continue;
+            }
+            if (clip == null) {
+                if (!openClip()) {
+                    finishClip();
+                    continue;
+                }
+                exportNext = head;
+            }
+            long t = tail;
+            if (exportNext == t) {
+                // 已写入所有帧，后续的帧都超过事件后时长或被丢弃时也结束
+                if (!running || isExportEnded(lastPts, t)) {
+                    finishClip();
+                    continue;
+                }
+                if (starved && fragments.getPendingSamples() > 0) {
+                    if (!writeFragment(t)) {
+                        finishClip();
+                    }
+                    continue;
+                }
+                starved = false;
+                LockSupport.parkNanos(this, IDLE_PARK_NS);
+                continue;
+            }
+            for (long i = exportNext; i < t; i++) {
+                if (!export(i)) {
+                    finishClip();
+                    break;
+                }
+                exportNext = i + 1;
+            }
+        }
+        if (exporter == self) {
+            exporter = null;
+        }
+    }
+
+    /**
+     * 写入一帧
+     *
+     * @return 导出结束时返回 false
+     */
+    private boolean export(long frame) {
+        int slot = (int) (frame % MAX_FRAMES);
+        long pts = framePts[slot];
+        if (isExportEnded(pts, frame)) {
+            return false;
+        }
+        int start = (int) (frameOffsets[slot] % arena.capacity());
+        int count = AnnexB.split(arena, start, start + frameSizes[slot], nalStarts, nalEnds);
+        boolean keyFrame = false;
+        int sampleSize = 0;
+        int sampleNals = 0;
+        for (int i = 0; i < count; i++) {
+            int type = AnnexB.h264Type(arena, nalStarts[i]);
+            if (type != NAL_SPS && type != NAL_PPS && type != NAL_AUD) {
+                keyFrame |= type == NAL_IDR;
+                sampleSize += 4 + nalEnds[i] - nalStarts[i];
+                sampleNals++;
+            }
+        }
+        if (fragments.isFragmentComplete(pts, keyFrame, sampleNals) && !writeFragment(frame)) {
+            return false;
+        }
+        for (int i = 0; i < count; i++) {
+            int type = AnnexB.h264Type(arena, nalStarts[i]);
+            if (type != NAL_SPS && type != NAL_PPS && type != NAL_AUD) {
+                fragments.addNal(nalStarts[i], nalEnds[i]);
+            }
+        }
+        fragments.addSample(pts, sampleSize, keyFrame);
+        return true;
+    }
+
+    /**
+     * 写入已读取的帧，之后这些帧可以被覆盖
+     *
+     * @param next 下一个要写入的帧的序号
+     */
+    private boolean writeFragment(long next) {
+        starved = false;
+        try {
+            clipFrames += fragments.writeFragment();
+        } catch (IOException e) {
+            writeErrors++;
+            return false;
+        }
+        exportHead = next;
+        return true;
+    }
+
+    /**
+     * 帧时间戳超过事件后时长或参数集已变化时结束导出，和 {@link #trigger()} 的延长互斥，结束后再触发会创建新文件
+     */
+    private boolean isExportEnded(long pts, long frame) {
+        if (pts <= exportEndPts && !isParameterSetsChanged(frame)) {
+            return false;
+        }
+        synchronized (this) {
+            if (pts > exportEndPts || isParameterSetsChanged(frame)) {
+                exportFile = null;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isParameterSetsChanged(long frame) {
+        long changed = parameterSetsFrame;
+        return changed > exportStart && frame >= changed;
+    }
+
+    private boolean openClip() {
+        File target;
+        synchronized (this) {
+            target = exportFile;
+        }
+        H264Sps info = H264Sps.parse(exportSps);
+        if (target == null || info == null || exportPps == null) {
+            writeErrors++;
+            return false;
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            writeErrors++;
+            return false;
+        }
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(target, "rw");
+            raf.setLength(0);
+            fragments.open(raf.getChannel(), exportSps, exportPps, info);
+            file = raf;
+            clip = target;
+            clipFrames = 0;
+            return true;
+        } catch (IOException e) {
+            writeErrors++;
+            if (raf != null) {
+                try {
+                    raf.close();
+                } catch (IOException ignored) {
+                }
+                target.delete();
+            }
+            return false;
+        }
+    }
+
+    /**
+     * 写入最后一个片段并关闭文件，释放缓冲区中等待导出的帧
+     */
+    private void finishClip() {
+        synchronized (this) {
+            exportFile = null;
+        }
+        if (clip != null) {
+            try {
+                clipFrames += fragments.finish();
+                file.getChannel().force(false);
+            } catch (IOException e) {
+                writeErrors++;
+            }
+            fragments.close();
+            try {
+                file.close();
+            } catch (IOException e) {
+                writeErrors++;
+            }
+            if (clipFrames > 0) {
+                clipCount++;
+            } else {
+                // 缓冲区放不下任何一帧，不保留只有初始化段的文件
+                clip.delete();
+            }
+            file = null;
+            clip = null;
+        }
+        starved = false;
+        exportHead = NO_EXPORT;
+    }
+}
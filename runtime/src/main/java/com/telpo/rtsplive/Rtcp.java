@@ -0,0 +1,188 @@
+package com.telpo.rtsplive;
+
+import java.nio.ByteBuffer;
+
+/**
+ * RTCP 包构造和解析工具（RFC 3550）
+ *
+ * @author  gfm
+ * @since   1.1
+ */
+final class Rtcp {
+    static final int PT_SR = 200;
+    static final int PT_RR = 201;
+    static final int PT_SDES = 202;
+    static final int PT_BYE = 203;
+    /** 负载相关反馈（RFC 4585），FMT 1 为 PLI，FMT 4 为 FIR（RFC 5104） */
+    static final int PT_PSFB = 206;
+    static final int FMT_PLI = 1;
+    static final int FMT_FIR = 4;
+
+    /** NTP 时间戳起点（1900-01-01）与 Unix 时间起点的秒数差 */
+    private static final long NTP_OFFSET_SECONDS = 2208988800L;
+    private static final int REPORT_BLOCK_SIZE = 24;
+
+    private Rtcp() {
+    }
+
+    /**
+     * 写入 SR + SDES(CNAME) 复合包
+     *
+     * @param out 输出缓冲区
+     * @param ssrc 发送端 SSRC
+     * @param wallClockMs 当前时间，单位：毫秒
+     * @param rtpTimestamp 当前时间对应的 RTP 时间戳
+     * @param packetCount 已发送 RTP 包数
+     * @param octetCount 已发送 RTP 负载字节数
+     * @param cname CNAME，ASCII 编码
+     */
+    static void writeSenderReport(ByteBuffer out, int ssrc, long wallClockMs, int rtpTimestamp,
+                                  long packetCount, long octetCount, byte[] cname) {
+        out.put((byte) 0x80);
+        out.put((byte) PT_SR);
+        out.putShort((short) 6);
+        out.putInt(ssrc);
+        long seconds = wallClockMs / 1000 + NTP_OFFSET_SECONDS;
+        long fraction = ((wallClockMs % 1000) << 32) / 1000;
+        out.putInt((int) seconds);
+        out.putInt((int) fraction);
+        out.putInt(rtpTimestamp);
+        out.putInt((int) packetCount);
+        out.putInt((int) octetCount);
+
+        int itemLength = 2 + cname.length + 1; // 类型 + 长度 + 文本 + 结束符
+        int chunkLength = (4 + itemLength + 3) & ~3;
+        out.put((byte) 0x81);
+        out.put((byte) PT_SDES);
+        out.putShort((short) (chunkLength / 4));
+        out.putInt(ssrc);
+        out.put((byte) 1);
+        out.put((byte) cname.length);
+        out.put(cname);
+        for (int i = 4 + 2 + cname.length; i < chunkLength; i++) {
+            out.put((byte) 0);
+        }
+    }
+
+    /**
+     * 计算 NTP 时间戳的中间 32 位（SR 的 LSR 字段格式），单位：1/65536 秒
+     *
+     * @param wallClockMs 时间，单位：毫秒
+     */
+    static int compactNtp(long wallClockMs) {
+        long seconds = wallClockMs / 1000 + NTP_OFFSET_SECONDS;
+        long fraction = ((wallClockMs % 1000) << 32) / 1000;
+        return (int) ((seconds << 16) | (fraction >>> 16));
+    }
+
+    /**
+     * 从 RTCP 复合包中解析针对指定 SSRC 的接收报告块（RR 或 SR 中的报告块）
+     *
+     * @param buffer 数据缓冲区，只使用绝对位置访问
+     * @param offset 复合包起始位置
+     * @param limit 复合包结束位置（不包含）
+     * @param ssrc 本端 RTP 流的 SSRC
+     * @param clockRate RTP 时钟频率，用于换算抖动
+     * @param session 报告所属的会话
+     * @param nowMs 收到报告的时间，单位：毫秒
+     * @return 没有针对 ssrc 的报告块或包格式错误时返回 null
+     */
+    static ReceiverReport parseReceiverReport(ByteBuffer buffer, int offset, int limit, int ssrc, int clockRate,
+                                              RtpSession session, long nowMs) {
+        int position = offset;
+        while (position + 4 <= limit) {
+            int first = buffer.get(position) & 0xFF;
+            if ((first >> 6) != 2) {
+                return null;
+            }
+            int count = first & 0x1F;
+            int type = buffer.get(position + 1) & 0xFF;
+            int end = position + ((buffer.getShort(position + 2) & 0xFFFF) + 1) * 4;
+            if (end > limit) {
+                return null;
+            }
+            int block = -1;
+            if (type == PT_RR) {
+                block = position + 8;
+            } else if (type == PT_SR) {
+                block = position + 28;
+            }
+            for (int i = 0; block >= 0 && i < count && block + REPORT_BLOCK_SIZE <= end; i++) {
+                if (buffer.getInt(block) == ssrc) {
+                    return toReceiverReport(buffer, block, ssrc, clockRate, session, nowMs);
+                }
+                block += REPORT_BLOCK_SIZE;
+            }
+            position = end;
+        }
+        return null;
+    }
+
+    /**
+     * 检查 RTCP 复合包中是否有针对指定 SSRC 的关键帧请求（PLI 或 FIR）
+     *
+     * @param buffer 数据缓冲区，只使用绝对位置访问
+     * @param offset 复合包起始位置
+     * @param limit 复合包结束位置（不包含）
+     * @param ssrc 本端 RTP 流的 SSRC
+     */
+    static boolean hasKeyFrameRequest(ByteBuffer buffer, int offset, int limit, int ssrc) {
+        int position = offset;
+        while (position + 4 <= limit) {
+            int first = buffer.get(position) & 0xFF;
+            if ((first >> 6) != 2) {
+                return false;
+            }
+            int format = first & 0x1F;
+            int type = buffer.get(position + 1) & 0xFF;
+            int end = position + ((buffer.getShort(position + 2) & 0xFFFF) + 1) * 4;
+            if (end > limit) {
+                return false;
+            }
+            if (type == PT_PSFB && position + 12 <= end) {
+                if (format == FMT_PLI && buffer.getInt(position + 8) == ssrc) {
+                    return true;
+                }
+                // FIR 的媒体源 SSRC 字段不使用，目标 SSRC 在每个 8 字节的 FCI 条目中
+                for (int fci = position + 12; format == FMT_FIR && fci + 8 <= end; fci += 8) {
+                    if (buffer.getInt(fci) == ssrc) {
+                        return true;
+                    }
+                }
+            }
+            position = end;
+        }
+        return false;
+    }
+
+    private static ReceiverReport toReceiverReport(ByteBuffer buffer, int block, int ssrc, int clockRate,
+                                                   RtpSession session, long nowMs) {
+        int fractionLost = buffer.get(block + 4) & 0xFF;
+        // 累计丢包数是 24 位有符号数
+        int cumulativeLost = (buffer.getInt(block + 4) << 8) >> 8;
+        long highestSequence = buffer.getInt(block + 8) & 0xFFFFFFFFL;
+        long jitter = buffer.getInt(block + 12) & 0xFFFFFFFFL;
+        int lsr = buffer.getInt(block + 16);
+        long dlsr = buffer.getInt(block + 20) & 0xFFFFFFFFL;
+        int roundTripTimeMs = -1;
+        if (lsr != 0) {
+            long rtt = (compactNtp(nowMs) - lsr - dlsr) & 0xFFFFFFFFL;
+            // 时钟回拨等情况下计算结果会溢出为很大的数，丢弃
+            if (rtt < 0x80000000L) {
+                roundTripTimeMs = (int) (rtt * 1000 / 65536);
+            }
+        }
+        return new ReceiverReport(session.id, ssrc, fractionLost / 256f, cumulativeLost, highestSequence,
+                (int) (jitter * 1000 / clockRate), roundTripTimeMs, session.getLag(), nowMs);
+    }
+
+    /**
+     * 写入 BYE 包
+     */
+    static void writeBye(ByteBuffer out, int ssrc) {
+        out.put((byte) 0x81);
+        out.put((byte) PT_BYE);
+        out.putShort((short) 1);
+        out.putInt(ssrc);
+    }
+}
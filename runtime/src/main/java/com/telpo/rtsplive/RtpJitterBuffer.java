@@ -0,0 +1,154 @@
+package com.telpo.rtsplive;
+
+/**
+ * RTP 抖动缓冲
+ * <p>
+ * 按序号重排收到的 RTP 包后依次交给 {@link Consumer}。缺少的包最多等待 maxDelayNs，
+ * 之后的包到达超过这个时间仍没有补上时视为丢失，跳过继续输出。序号跳变超过缓冲槽位数时视为流重新开始。
+ * 只能在一个线程中使用，包数据复制到预分配的槽位中，槽位只在包更大时重新分配
+ *
+ * @author  gfm
+ * @since   1.1
+ */
+final class RtpJitterBuffer {
+    static final int SLOTS = 128;
+    private static final int MASK = SLOTS - 1;
+
+    interface Consumer {
+        /**
+         * 按序号输出一个 RTP 包
+         */
+        void onPacket(byte[] packet, int length);
+
+        /**
+         * 下一个包之前有 count 个包丢失
+         */
+        void onLoss(int count);
+    }
+
+    private final Consumer consumer;
+    private final byte[][] packets = new byte[SLOTS][];
+    private final int[] lengths = new int[SLOTS];
+    private final boolean[] present = new boolean[SLOTS];
+    private final long[] arrivalNs = new long[SLOTS];
+    private long maxDelayNs;
+    private int expected = -1;
+    private int count;
+    private long lost;
+
+    RtpJitterBuffer(Consumer consumer) {
+        this.consumer = consumer;
+    }
+
+    /**
+     * @param delayMs 缺少的包最多等待的时间，0 表示不等待，发现空缺立即跳过
+     */
+    void setMaxDelay(int delayMs) {
+        maxDelayNs = Math.max(0, delayMs) * 1000000L;
+    }
+
+    /**
+     * 放入一个 RTP 包并输出已经连续的包
+     */
+    void put(byte[] data, int offset, int length, long nowNs) {
+        if (length < RtpPacketizer.RTP_HEADER_SIZE) {
+            return;
+        }
+        int seq = ((data[offset + 2] & 0xFF) << 8) | (data[offset + 3] & 0xFF);
+        if (expected < 0) {
+            expected = seq;
+        }
+        int distance = (seq - expected) & 0xFFFF;
+        if (distance >= 0x8000) {
+            // 已经输出或跳过的序号
+            return;
+        }
+        if (distance >= SLOTS) {
+            // 序号跳变太大，先按顺序输出缓冲中的包，再从新序号开始
+            flush();
+            int skipped = (seq - expected) & 0xFFFF;
+            lost += skipped;
+            consumer.onLoss(skipped);
+            expected = seq;
+        }
+        int slot = seq & MASK;
+        if (present[slot]) {
+            // 重复的包
+            return;
+        }
+        byte[] packet = packets[slot];
+        if (packet == null || packet.length < length) {
+            packet = new byte[Math.max(length, RtpPacketizer.DEFAULT_MAX_PACKET_SIZE)];
+            packets[slot] = packet;
+        }
+        System.arraycopy(data, offset, packet, 0, length);
+        lengths[slot] = length;
+        arrivalNs[slot] = nowNs;
+        present[slot] = true;
+        count++;
+        poll(nowNs);
+    }
+
+    /**
+     * 输出连续的包，缺少的包等待超时后跳过，没有新包到达时也需要定期调用
+     */
+    void poll(long nowNs) {
+        while (count > 0) {
+            int slot = expected & MASK;
+            if (present[slot]) {
+                release(slot);
+                continue;
+            }
+            // 找到空缺后第一个已到达的包，它等待超时后跳过空缺
+            int gap = 1;
+            while (!present[(expected + gap) & MASK]) {
+                gap++;
+            }
+            if (nowNs - arrivalNs[(expected + gap) & MASK] < maxDelayNs) {
+                return;
+            }
+            lost += gap;
+            consumer.onLoss(gap);
+            expected = (expected + gap) & 0xFFFF;
+        }
+    }
+
+    private void flush() {
+        while (count > 0) {
+            int slot = expected & MASK;
+            if (present[slot]) {
+                release(slot);
+            } else {
+                int gap = 1;
+                while (!present[(expected + gap) & MASK]) {
+                    gap++;
+                }
+                lost += gap;
+                consumer.onLoss(gap);
+                expected = (expected + gap) & 0xFFFF;
+            }
+        }
+    }
+
+    private void release(int slot) {
+        present[slot] = false;
+        count--;
+        expected = (expected + 1) & 0xFFFF;
+        consumer.onPacket(packets[slot], lengths[slot]);
+    }
+
+    /**
+     * 丢弃缓冲中的包，下一个包作为新的起点，重新连接后调用
+     */
+    void reset() {
+        for (int i = 0; i < SLOTS; i++) {
+            present[i] = false;
+        }
+        count = 0;
+        expected = -1;
+    }
+
+    long getLost() {
+        return lost;
+    }
+}
@@ -0,0 +1,115 @@
+package com.telpo.rtsplive;
+
+/**
+ * RTP 发送节拍器
+ * <p>
+ * 启用后帧源输出线程只把帧写入帧环，由节拍器线程按令牌桶打包发送：每个 UDP 会话（组播时是组的发送会话）
+ * 有一个令牌桶，速率为编码码率的 {@link #PACING_FACTOR} 倍，容量为突发字节数。
+ * 关键帧的 RTP 包因此分散在几个帧间隔内发出，不会一次性突发打满 Wi-Fi AP 的缓冲区。
+ * TCP 交织会话已经有拥塞控制，只受输出缓冲区限制，不限速
+ *
+ * @author  gfm
+ * @since   1.1
+ */
+final class RtpPacer implements Runnable {
+    /** 发送速率相对编码码率的倍数，保证平均码率下能跟上，关键帧在几个帧间隔内发完 */
+    static final double PACING_FACTOR = 2.5;
+    /** TCP 会话输出缓冲区放不下下一帧时的重试间隔，单位：纳秒 */
+    static final long RETRY_NS = 5000000L;
+
+    final int burstBytes;
+    private final RtpSubsessionDelegate delegate;
+    private final LatencyHistogram queueDelay = new LatencyHistogram();
+    private Thread thread;    // guarded by this
+    private boolean pending;  // guarded by this
+
+    /**
+     * @param delegate 媒体子会话委托
+     * @param burstBytes 令牌桶容量，即每个会话最多连续发送的字节数
+     */
+    RtpPacer(RtpSubsessionDelegate delegate, int burstBytes) {
+        this.delegate = delegate;
+        this.burstBytes = Math.max(burstBytes, RtpPacketizer.DEFAULT_MAX_PACKET_SIZE);
+    }
+
+    synchronized void start() {
+        if (thread == null) {
+            thread = new Thread(this, "RtpPacer");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    synchronized void stop() {
+        thread = null;
+        notifyAll();
+    }
+
+    /**
+     * 有新帧写入帧环，在帧源输出线程调用
+     */
+    synchronized void wakeUp() {
+        pending = true;
+        notifyAll();
+    }
+
+    /**
+     * 获取令牌桶速率，单位：字节/秒
+     *
+     * @return 帧源不是 {@link VideoEncoder} 或码率未知时返回 0，表示不限速
+     */
+    long getBytesPerSecond() {
+        if (delegate.framedSource instanceof VideoEncoder) {
+            int bitrate = ((VideoEncoder) delegate.framedSource).getBitrate();
+            if (bitrate > 0) {
+                return (long) (bitrate / 8 * PACING_FACTOR);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * 记录一帧从写入帧环到最后一个 RTP 包发出的时间
+     */
+    void onFrameSent(long delayNs) {
+        queueDelay.record(delayNs / 1000);
+    }
+
+    /**
+     * 获取排队延迟直方图：帧写入帧环到最后一个 RTP 包发出，单位：微秒
+     */
+    LatencyHistogram getQueueDelay() {
+        return queueDelay;
+    }
+
+    @Override
+    public void run() {
+        Thread self = Thread.currentThread();
+        while (true) {
+            synchronized (this) {
+                if (thread != self) {
+                    return;
+                }
+                pending = false;
+            }
+            long waitNs = delegate.pace(this, System.nanoTime());
+            synchronized (this) {
+                if (thread != self) {
+                    return;
+                }
+                if (pending || waitNs <= 0) {
+                    continue;
+                }
+                try {
+                    if (waitNs == Long.MAX_VALUE) {
+                        wait();
+                    } else {
+                        wait(waitNs / 1000000L, (int) (waitNs % 1000000L));
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package com.telpo.rtsplive;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * RTP 打包器基类
+ * <p>
+ * 打包器以迭代方式工作：先调用 {@link #setAccessUnit} 设置一帧数据，再循环调用 {@link #next}
+ * 逐个输出 RTP 包，整个过程不分配内存
+ *
+ * @author  gfm
+ * @since   1.1
+ */
+abstract class RtpPacketizer {
+    static final int RTP_HEADER_SIZE = 12;
+    static final int DEFAULT_MAX_PACKET_SIZE = 1400;
+    static final int MAX_NALS_PER_FRAME = 64;
+
+    private static final Random RANDOM = new Random();
+
+    final int payloadType;
+    final int clockRate;
+    final int maxPacketSize;
+    final int ssrc;
+    private final int timestampBase;
+    private int sequence;
+    private int timestamp;
+    private volatile long packetCount;
+    private volatile long octetCount;
+
+    // 当前帧 NAL 列表，可以来自两个缓冲区（参数集前缀 + 帧数据）
+    final ByteBuffer[] nalBuffers = new ByteBuffer[MAX_NALS_PER_FRAME];
+    final int[] nalStarts = new int[MAX_NALS_PER_FRAME];
+    final int[] nalEnds = new int[MAX_NALS_PER_FRAME];
+    int nalCount;
+    private final int[] splitStarts = new int[MAX_NALS_PER_FRAME];
+    private final int[] splitEnds = new int[MAX_NALS_PER_FRAME];
+    private final BufferViews views = new BufferViews(4);
+
+    RtpPacketizer(int payloadType, int clockRate, int maxPacketSize) {
+        this.payloadType = payloadType;
+        this.clockRate = clockRate;
+        this.maxPacketSize = maxPacketSize;
+        synchronized (RANDOM) {
+            this.ssrc = RANDOM.nextInt();
+            this.timestampBase = RANDOM.nextInt();
+            this.sequence = RANDOM.nextInt() & 0xFFFF;
+        }
+    }
+
+    /**
+     * 设置要打包的一帧数据
+     *
+     * @param prefix 需要在帧数据前发送的 NAL（例如 SPS/PPS），可以为 null
+     * @param prefixSize prefix 数据大小
+     * @param buffer 帧数据，Annex-B 格式，从 buffer.position() 开始
+     * @param size 帧数据大小
+     * @param presentationTimeUs 帧时间戳，单位：微秒
+     */
+    void setAccessUnit(ByteBuffer prefix, int prefixSize, ByteBuffer buffer, int size, long presentationTimeUs) {
+        nalCount = 0;
+        if (prefix != null && prefixSize > 0) {
+            addNals(prefix, prefix.position(), prefix.position() + prefixSize);
+        }
+        addNals(buffer, buffer.position(), buffer.position() + size);
+        timestamp = timestampBase + (int) (presentationTimeUs * clockRate / 1000000L);
+        onAccessUnit();
+    }
+
+    private void addNals(ByteBuffer buffer, int offset, int limit) {
+        int n = AnnexB.split(buffer, offset, limit, splitStarts, splitEnds);
+        for (int i = 0; i < n && nalCount < MAX_NALS_PER_FRAME; i++) {
+            nalBuffers[nalCount] = buffer;
+            nalStarts[nalCount] = splitStarts[i];
+            nalEnds[nalCount] = splitEnds[i];
+            nalCount++;
+        }
+    }
+
+    /**
+     * 新的一帧数据设置完成
+     */
+    abstract void onAccessUnit();
+
+    /**
+     * 是否还有 RTP 包未输出
+     */
+    abstract boolean hasNext();
+
+    /**
+     * 输出下一个 RTP 包
+     *
+     * @param out 输出缓冲区，从 position 开始写入完整 RTP 包（含头），剩余空间不能小于 {@link #maxPacketSize}
+     * @return RTP 包大小
+     */
+    abstract int next(ByteBuffer out);
+
+    final void writeHeader(ByteBuffer out, boolean marker) {
+        out.put((byte) 0x80);
+        out.put((byte) (marker ? 0x80 | payloadType : payloadType));
+        out.putShort((short) sequence);
+        out.putInt(timestamp);
+        out.putInt(ssrc);
+        sequence = (sequence + 1) & 0xFFFF;
+    }
+
+    final int finishPacket(ByteBuffer out, int start) {
+        int size = out.position() - start;
+        packetCount++;
+        octetCount += size - RTP_HEADER_SIZE;
+        return size;
+    }
+
+    /**
+     * 把源缓冲区的一段数据复制到输出缓冲区，不修改源缓冲区的 position/limit
+     */
+    final void copy(ByteBuffer out, ByteBuffer src, int offset, int length) {
+        out.put(views.get(src, offset, length));
+    }
+
+    /**
+     * 下一个 RTP 包的序号
+     */
+    int getSequence() {
+        return sequence;
+    }
+
+    /**
+     * 当前帧的 RTP 时间戳
+     */
+    int getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * 计算任意时间点对应的 RTP 时间戳
+     *
+     * @param presentationTimeUs 时间戳，单位：微秒
+     */
+    int toRtpTimestamp(long presentationTimeUs) {
+        return timestampBase + (int) (presentationTimeUs * clockRate / 1000000L);
+    }
+
+    long getPacketCount() {
+        return packetCount;
+    }
+
+    long getOctetCount() {
+        return octetCount;
+    }
+}
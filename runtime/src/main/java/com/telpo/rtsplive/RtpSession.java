@@ -0,0 +1,223 @@
+package com.telpo.rtsplive;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+
+/**
+ * RTSP 会话，对应一个客户端的一路 RTP 流
+ * <p>
+ * 传输方式可以是 UDP（client_port）、TCP 交织（interleaved）或组播。组播时客户端会话不发送数据，
+ * 由 {@link MulticastGroup#stream} 统一发送
+ *
+ * @author  gfm
+ * @since   1.1
+ */
+final class RtpSession {
+    static final int TIMEOUT_SECONDS = 60;
+    /** 读游标初始值，表示等待从最近的关键帧开始播放 */
+    static final long CURSOR_JOIN = -1;
+    /** TCP 交织发送时每个 RTP 包的额外开销估计：交织头 + RTP 头 + FU 头 */
+    private static final int PACKET_OVERHEAD = 4 + RtpPacketizer.RTP_HEADER_SIZE + 2;
+
+    final String id;
+    final NioRtspServer server;
+    final RtspConnection connection;
+    final RtpSubsessionDelegate delegate;
+    /** 所属挂载点的流名称 */
+    final String streamName;
+    final boolean tcp;
+    final int rtpChannel;
+    final int rtcpChannel;
+    final InetSocketAddress rtpAddress;
+    final InetSocketAddress rtcpAddress;
+    final RtpPacketizer packetizer;
+    /** 组播组，单播会话为 null */
+    final MulticastGroup group;
+
+    // 帧环读状态，除开始播放时重置游标外只在帧源输出线程中修改
+    volatile long cursor = CURSOR_JOIN;
+    volatile long lag;
+    volatile long overruns;
+
+    // 令牌桶状态，只在 RtpPacer 线程中访问
+    long paceTokens;
+    long paceRefillNs;
+
+    /** 最近一次收到的接收者报告 */
+    volatile ReceiverReport lastReport;
+
+    volatile boolean playing;
+    volatile boolean closed;
+    volatile long lastActiveMs;
+    long lastReportMs;
+    private volatile long sendErrors;
+
+    private RtpSession(String id, NioRtspServer server, RtspConnection connection, RtpSubsessionDelegate delegate,
+                       String streamName, boolean tcp, int rtpChannel, int rtcpChannel,
+                       InetSocketAddress rtpAddress, InetSocketAddress rtcpAddress, MulticastGroup group,
+                       RtpPacketizer packetizer) {
+        this.id = id;
+        this.server = server;
+        this.connection = connection;
+        this.delegate = delegate;
+        this.streamName = streamName;
+        this.tcp = tcp;
+        this.rtpChannel = rtpChannel;
+        this.rtcpChannel = rtcpChannel;
+        this.rtpAddress = rtpAddress;
+        this.rtcpAddress = rtcpAddress;
+        this.group = group;
+        this.packetizer = packetizer != null ? packetizer : delegate.newPacketizer();
+        this.lastActiveMs = System.currentTimeMillis();
+    }
+
+    static RtpSession createTcp(String id, NioRtspServer server, RtspConnection connection,
+                                RtpSubsessionDelegate delegate, String streamName, int rtpChannel,
+                                int rtcpChannel) {
+        return new RtpSession(id, server, connection, delegate, streamName, true, rtpChannel, rtcpChannel,
+                null, null, null, null);
+    }
+
+    static RtpSession createUdp(String id, NioRtspServer server, RtspConnection connection,
+                                RtpSubsessionDelegate delegate, String streamName,
+                                InetSocketAddress rtpAddress, InetSocketAddress rtcpAddress) {
+        return new RtpSession(id, server, connection, delegate, streamName, false, -1, -1,
+                rtpAddress, rtcpAddress, null, null);
+    }
+
+    /**
+     * 创建组播组的发送会话
+     */
+    static RtpSession createMulticast(String id, NioRtspServer server, RtpSubsessionDelegate delegate,
+                                      String streamName, MulticastGroup group) {
+        return new RtpSession(id, server, null, delegate, streamName, false, -1, -1,
+                new InetSocketAddress(group.address, group.port),
+                new InetSocketAddress(group.address, group.port + 1), group, null);
+    }
+
+    /**
+     * 创建加入组播组的客户端会话，和组的发送会话共用 RTP 打包器
+     */
+    static RtpSession createMulticastViewer(String id, NioRtspServer server, RtspConnection connection,
+                                            MulticastGroup group) {
+        RtpSession stream = group.stream;
+        return new RtpSession(id, server, connection, group.delegate, group.streamName, false, -1, -1,
+                stream.rtpAddress, stream.rtcpAddress, group, stream.packetizer);
+    }
+
+    boolean isMulticast() {
+        return group != null;
+    }
+
+    /**
+     * 发送 RTP 包，packet 的 position 会被移动到 limit
+     */
+    void sendRtp(ByteBuffer packet) {
+        if (tcp) {
+            connection.sendInterleaved(rtpChannel, packet);
+        } else if (group != null) {
+            group.send(packet, rtpAddress);
+        } else {
+            send(server.getRtpChannel(), packet, rtpAddress);
+        }
+    }
+
+    /**
+     * 发送 RTCP 包，packet 的 position 会被移动到 limit
+     */
+    void sendRtcp(ByteBuffer packet) {
+        if (tcp) {
+            connection.sendInterleaved(rtcpChannel, packet);
+        } else if (group != null) {
+            group.send(packet, rtcpAddress);
+        } else {
+            send(server.getRtcpChannel(), packet, rtcpAddress);
+        }
+    }
+
+    private void send(DatagramChannel channel, ByteBuffer packet, InetSocketAddress address) {
+        try {
+            if (channel == null || channel.send(packet, address) == 0) {
+                sendErrors++;
+            }
+        } catch (IOException e) {
+            sendErrors++;
+        }
+    }
+
+    /**
+     * 判断输出缓冲区能否放下一整帧，UDP 会话总是返回 true
+     *
+     * @param frameSize 帧大小
+     */
+    boolean canSend(int frameSize) {
+        if (!tcp) {
+            return true;
+        }
+        int payloadSize = packetizer.maxPacketSize - RtpPacketizer.RTP_HEADER_SIZE - 2;
+        int packets = frameSize / payloadSize + RtpPacketizer.MAX_NALS_PER_FRAME;
+        return connection.canWrite(frameSize + packets * PACKET_OVERHEAD);
+    }
+
+    void touch() {
+        lastActiveMs = System.currentTimeMillis();
+    }
+
+    long getSendErrors() {
+        return sendErrors;
+    }
+
+    /**
+     * 读游标落后帧环写入位置的帧数
+     */
+    long getLag() {
+        return lag;
+    }
+
+    /**
+     * 读游标被覆盖、跳到最近关键帧的次数
+     */
+    long getOverruns() {
+        return overruns;
+    }
+
+    /**
+     * 获取最近一次收到的接收者报告
+     *
+     * @return 还没有收到时返回 null
+     */
+    ReceiverReport getLastReport() {
+        return lastReport;
+    }
+
+    /**
+     * 生成会话统计快照
+     */
+    SessionMetrics getMetrics() {
+        if (group != null) {
+            // 组播客户端会话本身不发送，发送统计取自组的发送会话
+            RtpSession stream = group.stream;
+            return new SessionMetrics(id, streamName, connection.getRemoteAddress(), false, true, playing,
+                    packetizer.getPacketCount(), packetizer.getOctetCount(), group.getSendErrors(), stream.lag,
+                    stream.overruns, lastReport);
+        }
+        String remoteAddress = tcp ? connection.getRemoteAddress() : rtpAddress.getAddress().getHostAddress();
+        long droppedPackets = tcp ? connection.getDroppedPackets() : sendErrors;
+        return new SessionMetrics(id, streamName, remoteAddress, tcp, false, playing, packetizer.getPacketCount(),
+                packetizer.getOctetCount(), droppedPackets, lag, overruns, lastReport);
+    }
+
+    String getTransport() {
+        String ssrc = String.format(";ssrc=%08X", packetizer.ssrc);
+        if (group != null) {
+            return group.getTransport() + ssrc;
+        }
+        if (tcp) {
+            return "RTP/AVP/TCP;unicast;interleaved=" + rtpChannel + "-" + rtcpChannel + ssrc;
+        }
+        return "RTP/AVP;unicast;client_port=" + rtpAddress.getPort() + "-" + rtcpAddress.getPort()
+                + ";server_port=" + server.getRtpPort() + "-" + (server.getRtpPort() + 1) + ssrc;
+    }
+}
@@ -0,0 +1,406 @@
+package com.telpo.rtsplive;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * NIO RtspServer 使用的媒体子会话委托基类
+ * <p>
+ * 委托负责从 {@link FramedSource} 接收帧、写入共享的 {@link FrameRing}，再按各会话的读游标
+ * 打包为 RTP 包发送，以及提供 SDP 描述。帧源在第一个使用者出现时启动，最后一个使用者离开时停止。
+ * 设置了 {@link RtpPacer} 时改由节拍器线程限速发送。
+ *
+ * @author  gfm
+ * @since   1.1
+ */
+public abstract class RtpSubsessionDelegate implements MediaSubsessionDelegate, FramedSource.OutputListener {
+    static final int PAYLOAD_TYPE = 96;
+    static final String TRACK_ID = "track1";
+    /** 两次关键帧请求的最小间隔，单位：纳秒，避免大量客户端同时加入时连续产生关键帧 */
+    static final long KEY_FRAME_REQUEST_INTERVAL_NS = 1000000000L;
+    /** 新会话加入时帧环中的关键帧超过这个时间才请求新的关键帧，否则从缓存的 GOP 开始发送，单位：纳秒 */
+    static final long KEY_FRAME_MAX_AGE_NS = 500000000L;
+
+    private static final RtpSession[] NO_SESSIONS = new RtpSession[0];
+    private static final char[] BASE64 =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+
+    protected final FramedSource framedSource;
+    final FrameRing ring = new FrameRing(FrameRing.DEFAULT_CAPACITY, FrameRing.DEFAULT_SLOTS);
+    private volatile boolean streamRunning;
+    private int users; // guarded by this
+    private volatile RtpSession[] playingSessions = NO_SESSIONS;
+    private final CopyOnWriteArrayList<Runnable> configListeners = new CopyOnWriteArrayList<>();
+    private final ByteBuffer packet;
+    private volatile BitrateController bitrateController;
+    private volatile RtpPacer pacer;
+    private final AtomicLong lastKeyFrameRequestNs = new AtomicLong();
+    private volatile long keyFrameRequests;
+    private final AtomicLong suppressedKeyFrameRequests = new AtomicLong();
+
+    RtpSubsessionDelegate(FramedSource framedSource) {
+        this.framedSource = framedSource;
+        this.packet = ByteBuffer.allocateDirect(RtpPacketizer.DEFAULT_MAX_PACKET_SIZE);
+        if (framedSource != null) {
+            framedSource.setOutputListener(this);
+        }
+    }
+
+    /**
+     * NIO 实现不创建 native 子会话
+     *
+     * @throws UnsupportedOperationException 总是抛出，这个委托只能配合 NIO RtspServer 使用
+     */
+    @Override
+    public long createMediaSubsession(long nativeService) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " only works with NioRtspServer");
+    }
+
+    @Override
+    public void onStreamCreate() {
+        streamRunning = true;
+        // 上次运行留下的 GOP 时间戳已经过期，不能再发给新会话
+        synchronized (ring) {
+            ring.clear();
+        }
+        RtpPacer rtpPacer = pacer;
+        if (rtpPacer != null) {
+            rtpPacer.start();
+        }
+        BitrateController controller = bitrateController;
+        if (controller != null) {
+            // 上次运行降低的码率和帧率不适用于新的客户端，从初始码率重新开始
+            controller.reset();
+        }
+        if (framedSource != null) {
+            framedSource.start();
+        }
+    }
+
+    @Override
+    public void onStreamClose() {
+        streamRunning = false;
+        if (framedSource != null) {
+            framedSource.stop();
+        }
+        RtpPacer rtpPacer = pacer;
+        if (rtpPacer != null) {
+            rtpPacer.stop();
+        }
+    }
+
+    @Override
+    public boolean isStreamRunning() {
+        return streamRunning;
+    }
+
+    /**
+     * 为新会话创建 RTP 打包器，每个会话有独立的序号和时间戳
+     */
+    abstract RtpPacketizer newPacketizer();
+
+    /**
+     * 判断 SDP 所需的参数集是否已就绪
+     */
+    abstract boolean isConfigReady();
+
+    /**
+     * 获取 SDP 中媒体级属性（rtpmap、fmtp 等），每行以 \r\n 结尾
+     */
+    abstract String getSdpAttributes();
+
+    /**
+     * 增加一个使用者，第一个使用者会启动流
+     */
+    synchronized void acquire() {
+        if (users++ == 0) {
+            onStreamCreate();
+        }
+    }
+
+    /**
+     * 减少一个使用者，最后一个使用者会停止流
+     */
+    synchronized void release() {
+        if (users > 0 && --users == 0) {
+            onStreamClose();
+        }
+    }
+
+    void setBitrateController(BitrateController controller) {
+        bitrateController = controller;
+    }
+
+    BitrateController getBitrateController() {
+        return bitrateController;
+    }
+
+    /**
+     * 设置发送节拍器，需要在流启动前设置
+     */
+    void setPacer(RtpPacer pacer) {
+        this.pacer = pacer;
+    }
+
+    RtpPacer getPacer() {
+        return pacer;
+    }
+
+    /**
+     * 向视频编码器请求关键帧，距上次请求不到 {@link #KEY_FRAME_REQUEST_INTERVAL_NS} 的请求被忽略
+     *
+     * @return 请求已发给编码器返回 true
+     */
+    boolean requestKeyFrame() {
+        if (!(framedSource instanceof VideoEncoder) || !streamRunning) {
+            return false;
+        }
+        long now = System.nanoTime();
+        long last = lastKeyFrameRequestNs.get();
+        if ((last != 0 && now - last < KEY_FRAME_REQUEST_INTERVAL_NS)
+                || !lastKeyFrameRequestNs.compareAndSet(last, now)) {
+            suppressedKeyFrameRequests.incrementAndGet();
+            return false;
+        }
+        keyFrameRequests++;
+        ((VideoEncoder) framedSource).requestKeyFrame();
+        return true;
+    }
+
+    /**
+     * 新会话开始播放，帧环中没有足够新的关键帧时请求关键帧，缩短首屏时间和追赶的数据量
+     */
+    void onSessionJoin() {
+        long keyFrame = ring.lastKeyFrame();
+        if (keyFrame < 0 || System.nanoTime() - ring.writeTimeNs(keyFrame) > KEY_FRAME_MAX_AGE_NS) {
+            requestKeyFrame();
+        }
+    }
+
+    /**
+     * 已发给编码器的关键帧请求数
+     */
+    long getKeyFrameRequests() {
+        return keyFrameRequests;
+    }
+
+    /**
+     * 因限频被忽略的关键帧请求数
+     */
+    long getSuppressedKeyFrameRequests() {
+        return suppressedKeyFrameRequests.get();
+    }
+
+    void addConfigListener(Runnable listener) {
+        configListeners.add(listener);
+    }
+
+    void removeConfigListener(Runnable listener) {
+        configListeners.remove(listener);
+    }
+
+    /**
+     * 参数集就绪或变化时由子类调用，变化通常是编码器切换了分辨率
+     */
+    final void notifyConfigReady() {
+        BitrateController controller = bitrateController;
+        if (controller != null) {
+            controller.rebase();
+        }
+        for (Runnable listener : configListeners) {
+            listener.run();
+        }
+    }
+
+    synchronized void addPlayingSession(RtpSession session) {
+        RtpSession[] sessions = playingSessions;
+        for (RtpSession s : sessions) {
+            if (s == session) {
+                return;
+            }
+        }
+        session.cursor = RtpSession.CURSOR_JOIN;
+        RtpSession[] newSessions = new RtpSession[sessions.length + 1];
+        System.arraycopy(sessions, 0, newSessions, 0, sessions.length);
+        newSessions[sessions.length] = session;
+        playingSessions = newSessions;
+    }
+
+    synchronized void removePlayingSession(RtpSession session) {
+        RtpSession[] sessions = playingSessions;
+        for (int i = 0; i < sessions.length; i++) {
+            if (sessions[i] == session) {
+                RtpSession[] newSessions = new RtpSession[sessions.length - 1];
+                System.arraycopy(sessions, 0, newSessions, 0, i);
+                System.arraycopy(sessions, i + 1, newSessions, i, sessions.length - i - 1);
+                playingSessions = newSessions;
+                return;
+            }
+        }
+    }
+
+    /**
+     * 把一帧数据写入帧环并分发给所有正在播放的会话，在帧源输出线程调用
+     */
+    final void deliver(ByteBuffer prefix, int prefixSize, ByteBuffer buffer, int size, long presentationTimeUs,
+                       boolean keyFrame) {
+        RtpPacer rtpPacer = pacer;
+        if (rtpPacer != null) {
+            synchronized (ring) {
+                ring.write(prefix, prefixSize, buffer, size, presentationTimeUs, keyFrame);
+            }
+            rtpPacer.wakeUp();
+            return;
+        }
+        ring.write(prefix, prefixSize, buffer, size, presentationTimeUs, keyFrame);
+        for (RtpSession session : playingSessions) {
+            drain(session);
+        }
+    }
+
+    /**
+     * 从会话的读游标开始发送，直到追上写入位置或 TCP 输出缓冲区放不下下一帧
+     */
+    private void drain(RtpSession session) {
+        long cursor = session.cursor;
+        if (cursor < ring.tail()) {
+            // 刚加入的会话或游标已被覆盖，从最近的关键帧开始
+            if (cursor != RtpSession.CURSOR_JOIN) {
+                session.overruns++;
+            }
+            cursor = ring.lastKeyFrame();
+            if (cursor < 0) {
+                session.cursor = RtpSession.CURSOR_JOIN;
+                session.lag = 0;
+                return;
+            }
+        }
+        long head = ring.head();
+        while (cursor < head && session.canSend(ring.size(cursor))) {
+            ByteBuffer frame = ring.frame(cursor);
+            RtpPacketizer packetizer = session.packetizer;
+            packetizer.setAccessUnit(null, 0, frame, frame.remaining(), ring.presentationTimeUs(cursor));
+            while (packetizer.hasNext()) {
+                packet.clear();
+                packetizer.next(packet);
+                packet.flip();
+                session.sendRtp(packet);
+            }
+            cursor++;
+        }
+        session.cursor = cursor;
+        session.lag = head - cursor;
+    }
+
+    /**
+     * 按令牌桶给所有正在播放的会话发送 RTP 包，在节拍器线程调用
+     *
+     * @return 距离下次有令牌可以发送的纳秒数，所有会话都已追上写入位置时返回 Long.MAX_VALUE
+     */
+    final long pace(RtpPacer pacer, long nowNs) {
+        long rate = pacer.getBytesPerSecond();
+        long waitNs = Long.MAX_VALUE;
+        for (RtpSession session : playingSessions) {
+            waitNs = Math.min(waitNs, pace(pacer, session, rate, nowNs));
+        }
+        return waitNs;
+    }
+
+    /**
+     * 一个 RTP 包一个 RTP 包地发送，令牌用完就返回；帧可以跨多次调用发送，
+     * 打包器保存帧内的位置，每个包都在帧环的锁内打包，帧在发送中途被覆盖时从最近的关键帧重新开始
+     */
+    private long pace(RtpPacer pacer, RtpSession session, long rate, long nowNs) {
+        boolean limited = rate > 0 && !session.tcp;
+        if (limited) {
+            long elapsedNs = Math.min(nowNs - session.paceRefillNs, 1000000000L);
+            session.paceRefillNs = nowNs;
+            session.paceTokens = Math.min(pacer.burstBytes, session.paceTokens + elapsedNs * rate / 1000000000L);
+        }
+        RtpPacketizer packetizer = session.packetizer;
+        while (true) {
+            if (limited && session.paceTokens <= 0) {
+                return (1 - session.paceTokens) * 1000000000L / rate;
+            }
+            synchronized (ring) {
+                long cursor = session.cursor;
+                if (!packetizer.hasNext() || cursor < ring.tail()) {
+                    if (cursor < ring.tail()) {
+                        if (cursor != RtpSession.CURSOR_JOIN) {
+                            session.overruns++;
+                        }
+                        cursor = ring.lastKeyFrame();
+                        if (cursor < 0) {
+                            session.cursor = RtpSession.CURSOR_JOIN;
+                            session.lag = 0;
+                            return Long.MAX_VALUE;
+                        }
+                    }
+                    long head = ring.head();
+                    session.cursor = cursor;
+                    session.lag = head - cursor;
+                    if (cursor >= head) {
+                        return Long.MAX_VALUE;
+                    }
+                    if (!session.canSend(ring.size(cursor))) {
+                        return RtpPacer.RETRY_NS;
+                    }
+                    ByteBuffer frame = ring.frame(cursor);
+                    packetizer.setAccessUnit(null, 0, frame, frame.remaining(), ring.presentationTimeUs(cursor));
+                    if (!packetizer.hasNext()) {
+                        session.cursor = cursor + 1;
+                        continue;
+                    }
+                }
+                packet.clear();
+                packetizer.next(packet);
+                packet.flip();
+                if (!packetizer.hasNext()) {
+                    pacer.onFrameSent(System.nanoTime() - ring.writeTimeNs(cursor));
+                    session.cursor = cursor + 1;
+                    session.lag = ring.head() - cursor - 1;
+                }
+            }
+            if (limited) {
+                session.paceTokens -= packet.remaining();
+            }
+            session.sendRtp(packet);
+        }
+    }
+
+    /**
+     * 比较缓存的参数集和缓冲区中的 NAL，内容相同时返回 current，否则返回新复制的数组
+     */
+    static byte[] updateParameterSet(byte[] current, ByteBuffer buffer, int start, int end) {
+        int length = end - start;
+        if (current != null && current.length == length) {
+            boolean same = true;
+            for (int i = 0; i < length && same; i++) {
+                same = current[i] == buffer.get(start + i);
+            }
+            if (same) {
+                return current;
+            }
+        }
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = buffer.get(start + i);
+        }
+        return data;
+    }
+
+    static String base64(byte[] data) {
+        StringBuilder sb = new StringBuilder((data.length + 2) / 3 * 4);
+        for (int i = 0; i < data.length; i += 3) {
+            int b0 = data[i] & 0xFF;
+            int b1 = i + 1 < data.length ? data[i + 1] & 0xFF : 0;
+            int b2 = i + 2 < data.length ? data[i + 2] & 0xFF : 0;
+            sb.append(BASE64[b0 >> 2]);
+            sb.append(BASE64[((b0 & 0x03) << 4) | (b1 >> 4)]);
+            sb.append(i + 1 < data.length ? BASE64[((b1 & 0x0F) << 2) | (b2 >> 6)] : '=');
+            sb.append(i + 2 < data.length ? BASE64[b2 & 0x3F] : '=');
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,597 @@
+package com.telpo.rtsplive;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Random;
+
+/**
+ * RTSP 控制连接
+ * <p>
+ * 读取和解析请求只在所属事件循环线程中进行；TCP 交织的 RTP 包可以在帧源输出线程直接写入，
+ * 写不完的数据缓存在有界输出缓冲区中，由事件循环在可写时发送。帧源输出线程在缓冲区放不下一整帧时
+ * 暂停该会话的读游标，缓冲区满时丢包
+ *
+ * @author  gfm
+ * @since   1.1
+ */
+final class RtspConnection implements NioEventLoop.Handler {
+    private static final int MAX_REQUEST_SIZE = 8192;
+    private static final int OUTPUT_BUFFER_SIZE = 256 * 1024;
+    private static final long DESCRIBE_TIMEOUT_MS = 3000;
+    private static final long DESCRIBE_HOLD_MS = 30000;
+    private static final String REALM = "Telpo Streaming";
+    private static final String SERVER_NAME = "Telpo Streaming";
+    private static final String PUBLIC_METHODS =
+            "OPTIONS, DESCRIBE, SETUP, TEARDOWN, PLAY, PAUSE, GET_PARAMETER, SET_PARAMETER";
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+    private static final Random RANDOM = new Random();
+
+    final NioRtspServer server;
+    final NioEventLoop loop;
+    private final SocketChannel channel;
+    private final String remoteAddress;
+    private final String nonce;
+    private SelectionKey key;
+    private final ByteBuffer input = ByteBuffer.allocate(MAX_REQUEST_SIZE);
+    private final ByteBuffer output = ByteBuffer.allocateDirect(OUTPUT_BUFFER_SIZE); // guarded by this
+    private boolean writePending; // guarded by this
+    private volatile boolean closed;
+    private volatile long droppedPackets;
+
+    private RtspRequest pendingDescribe;
+    private RtpSubsessionDelegate describeDelegate;
+    private long describeDeadline;
+    private boolean describeAcquired;
+    private final Runnable configReadyListener = new Runnable() {
+        @Override
+        public void run() {
+            loop.execute(RtspConnection.this::finishDescribe);
+        }
+    };
+    private final Runnable enableWrite = new Runnable() {
+        @Override
+        public void run() {
+            if (key != null && key.isValid()) {
+                key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            }
+        }
+    };
+
+    RtspConnection(NioRtspServer server, NioEventLoop loop, SocketChannel channel) {
+        this.server = server;
+        this.loop = loop;
+        this.channel = channel;
+        this.remoteAddress = channel.socket().getInetAddress() == null
+                ? "" : channel.socket().getInetAddress().getHostAddress();
+        synchronized (RANDOM) {
+            this.nonce = String.format("%016x", RANDOM.nextLong());
+        }
+    }
+
+    /**
+     * 注册到事件循环，只能在循环线程中调用
+     */
+    void register() {
+        try {
+            key = loop.register(channel, SelectionKey.OP_READ, this);
+        } catch (IOException e) {
+            onClose();
+        }
+    }
+
+    @Override
+    public void onReady(SelectionKey key) throws IOException {
+        if (key.isReadable()) {
+            int n = channel.read(input);
+            if (n < 0) {
+                onClose();
+                return;
+            }
+            server.touchSessions(this);
+            parse();
+        }
+        if (key.isValid() && key.isWritable()) {
+            synchronized (this) {
+                output.flip();
+                channel.write(output);
+                output.compact();
+                if (output.position() == 0) {
+                    writePending = false;
+                    key.interestOps(SelectionKey.OP_READ);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void onTick(long nowMs) {
+        if (pendingDescribe != null && nowMs >= describeDeadline) {
+            finishDescribe();
+        } else if (describeAcquired && pendingDescribe == null && nowMs >= describeDeadline + DESCRIBE_HOLD_MS) {
+            // DESCRIBE 之后迟迟没有 SETUP，停止为它启动的帧源
+            describeAcquired = false;
+            describeDelegate.release();
+        }
+    }
+
+    @Override
+    public void onClose() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (key != null) {
+            key.cancel();
+        }
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+        if (describeDelegate != null) {
+            describeDelegate.removeConfigListener(configReadyListener);
+            if (describeAcquired) {
+                describeDelegate.release();
+                describeAcquired = false;
+            }
+        }
+        server.onConnectionClosed(this);
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    long getDroppedPackets() {
+        return droppedPackets;
+    }
+
+    /**
+     * 获取客户端 IP 地址
+     */
+    String getRemoteAddress() {
+        return remoteAddress;
+    }
+
+    /**
+     * 判断输出缓冲区剩余空间能否放下指定大小的数据，超过缓冲区总大小时以空缓冲区为准
+     */
+    synchronized boolean canWrite(int size) {
+        return !closed && output.remaining() >= Math.min(size, output.capacity());
+    }
+
+    /**
+     * 发送 TCP 交织数据包，可以在任何线程调用
+     *
+     * @return 输出缓冲区已满或连接已关闭时返回 false
+     */
+    boolean sendInterleaved(int interleavedChannel, ByteBuffer packet) {
+        int length = packet.remaining();
+        synchronized (this) {
+            if (closed) {
+                return false;
+            }
+            if (output.remaining() < 4 + length) {
+                droppedPackets++;
+                return false;
+            }
+            output.put((byte) '$');
+            output.put((byte) interleavedChannel);
+            output.putShort((short) length);
+            output.put(packet);
+            flushLocked();
+        }
+        return true;
+    }
+
+    private void send(String text) {
+        byte[] data = text.getBytes(ASCII);
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            if (output.remaining() < data.length) {
+                // 控制消息不能丢，输出缓冲区被 RTP 数据占满说明客户端已经跟不上
+                loop.execute(this::onClose);
+                return;
+            }
+            output.put(data);
+            flushLocked();
+        }
+    }
+
+    private void flushLocked() {
+        if (writePending) {
+            return;
+        }
+        output.flip();
+        try {
+            channel.write(output);
+        } catch (IOException e) {
+            output.clear();
+            loop.execute(this::onClose);
+            return;
+        }
+        output.compact();
+        if (output.position() > 0) {
+            writePending = true;
+            loop.execute(enableWrite);
+        }
+    }
+
+    private void parse() {
+        input.flip();
+        while (input.hasRemaining()) {
+            int start = input.position();
+            if (input.get(start) == '$') {
+                // 客户端发来的 TCP 交织数据，通常是 RTCP
+                if (input.remaining() < 4) {
+                    break;
+                }
+                int length = input.getShort(start + 2) & 0xFFFF;
+                if (input.remaining() < 4 + length) {
+                    if (4 + length > input.capacity()) {
+                        onClose();
+                        return;
+                    }
+                    break;
+                }
+                RtpSession session = server.findInterleavedSession(this, input.get(start + 1) & 0xFF);
+                if (session != null) {
+                    session.touch();
+                    server.onRtcp(session, input, start + 4, start + 4 + length);
+                }
+                input.position(start + 4 + length);
+                continue;
+            }
+            int headEnd = indexOfHeadEnd(input, start, input.limit());
+            if (headEnd < 0) {
+                if (input.remaining() == input.capacity()) {
+                    onClose();
+                    return;
+                }
+                break;
+            }
+            String head = new String(input.array(), start, headEnd - start, ASCII);
+            int bodyStart = headEnd + 4;
+            int contentLength = contentLength(head);
+            if (bodyStart + contentLength > input.limit()) {
+                if (bodyStart - start + contentLength > input.capacity()) {
+                    onClose();
+                    return;
+                }
+                break;
+            }
+            String body = new String(input.array(), bodyStart, contentLength, ASCII);
+            input.position(bodyStart + contentLength);
+            RtspRequest request = RtspRequest.parse(head, body);
+            if (request == null) {
+                onClose();
+                return;
+            }
+            handle(request);
+            if (closed) {
+                return;
+            }
+        }
+        input.compact();
+    }
+
+    private static int indexOfHeadEnd(ByteBuffer buffer, int from, int limit) {
+        for (int i = from; i + 3 < limit; i++) {
+            if (buffer.get(i) == '\r' && buffer.get(i + 1) == '\n'
+                    && buffer.get(i + 2) == '\r' && buffer.get(i + 3) == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int contentLength(String head) {
+        for (String line : head.split("\r\n")) {
+            if (line.regionMatches(true, 0, "Content-Length:", 0, 15)) {
+                try {
+                    return Math.max(0, Integer.parseInt(line.substring(15).trim()));
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 0;
+    }
+
+    private void handle(RtspRequest request) {
+        switch (request.method) {
+            case "OPTIONS":
+                respond(request, "200 OK", "Public: " + PUBLIC_METHODS + "\r\n", null);
+                break;
+            case "DESCRIBE":
+                handleDescribe(request);
+                break;
+            case "SETUP":
+                handleSetup(request);
+                break;
+            case "PLAY":
+                handlePlay(request);
+                break;
+            case "PAUSE":
+                handlePause(request);
+                break;
+            case "TEARDOWN":
+                handleTeardown(request);
+                break;
+            case "GET_PARAMETER":
+            case "SET_PARAMETER":
+                RtpSession session = findSession(request);
+                if (session != null) {
+                    session.touch();
+                }
+                respond(request, "200 OK", sessionHeader(session), null);
+                break;
+            default:
+                respond(request, "405 Method Not Allowed", "Allow: " + PUBLIC_METHODS + "\r\n", null);
+                break;
+        }
+    }
+
+    private void handleDescribe(RtspRequest request) {
+        if (!authorize(request)) {
+            return;
+        }
+        RtpSubsessionDelegate delegate = server.findDelegate(request.path);
+        if (delegate == null) {
+            respond(request, "404 Stream Not Found", null, null);
+            return;
+        }
+        if (pendingDescribe != null) {
+            respond(request, "455 Method Not Valid in This State", null, null);
+            return;
+        }
+        if (delegate.isConfigReady()) {
+            sendDescribe(request, delegate);
+            return;
+        }
+        // 参数集还没有输出过，先启动帧源，等收到 SPS/PPS 或超时后再回复
+        pendingDescribe = request;
+        describeDelegate = delegate;
+        describeDeadline = System.currentTimeMillis() + DESCRIBE_TIMEOUT_MS;
+        delegate.addConfigListener(configReadyListener);
+        if (!describeAcquired) {
+            describeAcquired = true;
+            delegate.acquire();
+        }
+    }
+
+    private void finishDescribe() {
+        RtspRequest request = pendingDescribe;
+        if (request == null || closed) {
+            return;
+        }
+        pendingDescribe = null;
+        describeDelegate.removeConfigListener(configReadyListener);
+        sendDescribe(request, describeDelegate);
+    }
+
+    private void sendDescribe(RtspRequest request, RtpSubsessionDelegate delegate) {
+        String host = localHost();
+        String sdp = server.buildSdp(host, NioRtspServer.streamPath(request.path), delegate);
+        String base = request.uri.endsWith("/") ? request.uri : request.uri + "/";
+        respond(request, "200 OK", "Content-Base: " + base + "\r\nContent-Type: application/sdp\r\n", sdp);
+    }
+
+    private void handleSetup(RtspRequest request) {
+        if (!authorize(request)) {
+            return;
+        }
+        RtpSubsessionDelegate delegate = server.findDelegate(request.path);
+        if (delegate == null) {
+            respond(request, "404 Stream Not Found", null, null);
+            return;
+        }
+        RtpSession session = findSession(request);
+        if (session != null) {
+            // 只有一个视频轨道，重复 SETUP 直接返回已有会话
+            respond(request, "200 OK", "Transport: " + session.getTransport() + "\r\n" + sessionHeader(session), null);
+            return;
+        }
+        String transport = request.header("Transport", "");
+        String streamName = NioRtspServer.streamPath(request.path);
+        String id = server.newSessionId();
+        if (transport.contains("RTP/AVP/TCP") || transport.contains("interleaved=")) {
+            int[] channels = parseRange(transport, "interleaved=", 0);
+            session = RtpSession.createTcp(id, server, this, delegate, streamName, channels[0], channels[1]);
+        } else {
+            session = setupMulticast(id, streamName, delegate);
+            if (session == null && transport.contains("client_port=") && !transport.contains("multicast")) {
+                int[] ports = parseRange(transport, "client_port=", -1);
+                if (ports[0] > 0) {
+                    InetSocketAddress remote = (InetSocketAddress) channel.socket().getRemoteSocketAddress();
+                    session = RtpSession.createUdp(id, server, this, delegate, streamName,
+                            new InetSocketAddress(remote.getAddress(), ports[0]),
+                            new InetSocketAddress(remote.getAddress(), ports[1]));
+                }
+            }
+        }
+        if (session == null) {
+            respond(request, "461 Unsupported Transport", null, null);
+            return;
+        }
+        server.addSession(session);
+        if (describeAcquired && describeDelegate == delegate) {
+            // 会话已经持有帧源，DESCRIBE 时的引用可以释放了
+            describeAcquired = false;
+            delegate.release();
+        }
+        respond(request, "200 OK", "Transport: " + session.getTransport() + "\r\n" + sessionHeader(session), null);
+    }
+
+    private void handlePlay(RtspRequest request) {
+        RtpSession session = findSession(request);
+        if (session == null) {
+            respond(request, "454 Session Not Found", null, null);
+            return;
+        }
+        session.touch();
+        RtpPacketizer packetizer = session.packetizer;
+        String url = request.uri;
+        if (!url.endsWith(RtpSubsessionDelegate.TRACK_ID)) {
+            url = (url.endsWith("/") ? url : url + "/") + RtpSubsessionDelegate.TRACK_ID;
+        }
+        String headers = "Range: npt=0.000-\r\n"
+                + "RTP-Info: url=" + url + ";seq=" + packetizer.getSequence()
+                + ";rtptime=" + (packetizer.toRtpTimestamp(System.nanoTime() / 1000) & 0xFFFFFFFFL) + "\r\n"
+                + sessionHeader(session);
+        respond(request, "200 OK", headers, null);
+        server.startPlaying(session);
+    }
+
+    /**
+     * 挂载点使用组播时加入组播组，UDP 客户端不管请求的是什么传输方式都使用组播
+     *
+     * @return 不使用组播或创建组播组失败时返回 null，改用单播
+     */
+    private RtpSession setupMulticast(String id, String streamName, RtpSubsessionDelegate delegate) {
+        try {
+            MulticastGroup group = server.joinMulticast(streamName, delegate);
+            return group == null ? null : RtpSession.createMulticastViewer(id, server, this, group);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    private void handlePause(RtspRequest request) {
+        RtpSession session = findSession(request);
+        if (session == null) {
+            respond(request, "454 Session Not Found", null, null);
+            return;
+        }
+        session.touch();
+        server.stopPlaying(session);
+        respond(request, "200 OK", sessionHeader(session), null);
+    }
+
+    private void handleTeardown(RtspRequest request) {
+        RtpSession session = findSession(request);
+        if (session == null) {
+            respond(request, "454 Session Not Found", null, null);
+            return;
+        }
+        server.removeSession(session);
+        respond(request, "200 OK", null, null);
+    }
+
+    /**
+     * 查找请求 Session 头对应的会话，只能操作本连接建立的会话
+     *
+     * @return 会话不存在或属于其他连接时返回 null
+     */
+    private RtpSession findSession(RtspRequest request) {
+        RtpSession session = server.getSession(request.sessionId());
+        return session != null && session.connection == this ? session : null;
+    }
+
+    private void respond(RtspRequest request, String status, String headers, String body) {
+        StringBuilder sb = new StringBuilder(256);
+        sb.append("RTSP/1.0 ").append(status).append("\r\n");
+        sb.append("CSeq: ").append(request.cseq).append("\r\n");
+        sb.append("Server: ").append(SERVER_NAME).append("\r\n");
+        if (headers != null) {
+            sb.append(headers);
+        }
+        if (body != null) {
+            sb.append("Content-Length: ").append(body.length()).append("\r\n\r\n").append(body);
+        } else {
+            sb.append("\r\n");
+        }
+        send(sb.toString());
+    }
+
+    private static String sessionHeader(RtpSession session) {
+        return session == null ? "" : "Session: " + session.id + ";timeout=" + RtpSession.TIMEOUT_SECONDS + "\r\n";
+    }
+
+    private static int[] parseRange(String transport, String name, int defaultValue) {
+        int[] range = {defaultValue, defaultValue + 1};
+        int i = transport.indexOf(name);
+        if (i < 0) {
+            return range;
+        }
+        int end = transport.indexOf(';', i);
+        String value = transport.substring(i + name.length(), end < 0 ? transport.length() : end);
+        try {
+            int dash = value.indexOf('-');
+            range[0] = Integer.parseInt((dash < 0 ? value : value.substring(0, dash)).trim());
+            range[1] = dash < 0 ? range[0] + 1 : Integer.parseInt(value.substring(dash + 1).trim());
+        } catch (NumberFormatException ignored) {
+        }
+        return range;
+    }
+
+    String localHost() {
+        return channel.socket().getLocalAddress().getHostAddress();
+    }
+
+    /**
+     * Digest 鉴权（RFC 2617，不带 qop）
+     */
+    private boolean authorize(RtspRequest request) {
+        String userName = server.getUserName();
+        String password = server.getPassword();
+        if (userName == null || password == null) {
+            return true;
+        }
+        String authorization = request.header("Authorization");
+        if (authorization != null && authorization.startsWith("Digest ")) {
+            String user = digestParam(authorization, "username");
+            String uri = digestParam(authorization, "uri");
+            String response = digestParam(authorization, "response");
+            if (userName.equals(user) && nonce.equals(digestParam(authorization, "nonce"))
+                    && uri != null && response != null) {
+                String ha1 = md5(userName + ":" + REALM + ":" + password);
+                String ha2 = md5(request.method + ":" + uri);
+                if (response.equalsIgnoreCase(md5(ha1 + ":" + nonce + ":" + ha2))) {
+                    return true;
+                }
+            }
+        }
+        respond(request, "401 Unauthorized",
+                "WWW-Authenticate: Digest realm=\"" + REALM + "\", nonce=\"" + nonce + "\"\r\n", null);
+        return false;
+    }
+
+    static String digestParam(String authorization, String name) {
+        int i = authorization.indexOf(name + "=");
+        while (i > 0 && Character.isLetterOrDigit(authorization.charAt(i - 1))) {
+            i = authorization.indexOf(name + "=", i + 1);
+        }
+        if (i < 0) {
+            return null;
+        }
+        int start = i + name.length() + 1;
+        if (start < authorization.length() && authorization.charAt(start) == '"') {
+            int end = authorization.indexOf('"', start + 1);
+            return end < 0 ? null : authorization.substring(start + 1, end);
+        }
+        int end = authorization.indexOf(',', start);
+        return authorization.substring(start, end < 0 ? authorization.length() : end).trim();
+    }
+
+    static String md5(String text) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(text.getBytes(ASCII));
+            StringBuilder sb = new StringBuilder(32);
+            for (byte b : digest) {
+                sb.append(String.format("%02x", b & 0xFF));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e.getMessage());
+        }
+    }
+}
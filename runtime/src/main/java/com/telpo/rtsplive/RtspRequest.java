@@ -0,0 +1,100 @@
+package com.telpo.rtsplive;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * RTSP 请求
+ *
+ * @author  gfm
+ * @since   1.1
+ */
+final class RtspRequest {
+    final String method;
+    final String uri;
+    final String path;
+    final int cseq;
+    final String body;
+    private final Map<String, String> headers;
+
+    private RtspRequest(String method, String uri, Map<String, String> headers, String body) {
+        this.method = method;
+        this.uri = uri;
+        this.path = parsePath(uri);
+        this.headers = headers;
+        this.body = body;
+        int cseq = 0;
+        try {
+            cseq = Integer.parseInt(header("CSeq", "0").trim());
+        } catch (NumberFormatException ignored) {
+        }
+        this.cseq = cseq;
+    }
+
+    /**
+     * 解析请求行和请求头
+     *
+     * @param head 请求行和请求头文本，不含结尾的空行
+     * @param body 请求体，可以为空字符串
+     * @return 解析失败返回 null
+     */
+    static RtspRequest parse(String head, String body) {
+        String[] lines = head.split("\r\n");
+        String[] requestLine = lines[0].split(" ");
+        if (requestLine.length < 3 || !requestLine[2].startsWith("RTSP/")) {
+            return null;
+        }
+        Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        for (int i = 1; i < lines.length; i++) {
+            int colon = lines[i].indexOf(':');
+            if (colon > 0) {
+                headers.put(lines[i].substring(0, colon).trim(), lines[i].substring(colon + 1).trim());
+            }
+        }
+        return new RtspRequest(requestLine[0], requestLine[1], headers, body);
+    }
+
+    String header(String name) {
+        return headers.get(name);
+    }
+
+    String header(String name, String defaultValue) {
+        String value = headers.get(name);
+        return value == null ? defaultValue : value;
+    }
+
+    /**
+     * 获取 Session 头中的会话 ID
+     */
+    String sessionId() {
+        String session = headers.get("Session");
+        if (session == null) {
+            return null;
+        }
+        int semicolon = session.indexOf(';');
+        return (semicolon < 0 ? session : session.substring(0, semicolon)).trim();
+    }
+
+    /**
+     * 从 URI 中提取路径，不含开头和结尾的 /，例如 rtsp://host:8554/live/track1 返回 live/track1
+     */
+    static String parsePath(String uri) {
+        String path = uri;
+        int scheme = path.indexOf("://");
+        if (scheme >= 0) {
+            int slash = path.indexOf('/', scheme + 3);
+            path = slash < 0 ? "" : path.substring(slash);
+        }
+        int query = path.indexOf('?');
+        if (query >= 0) {
+            path = path.substring(0, query);
+        }
+        while (path.startsWith("/")) {
+            path = path.substring(1);
+        }
+        while (path.endsWith("/")) {
+            path = path.substring(0, path.length() - 1);
+        }
+        return path;
+    }
+}
@@ -0,0 +1,344 @@
+package com.telpo.rtsplive;
+
+import java.nio.ByteBuffer;
+
+/**
+ * YUV 格式转换工具
+ * <p>
+ * native 方法由 librtsplive.so 实现，需要先加载 so（创建默认 RtspServer 时加载）。
+ * {@code *Rotate} 方法是纯 Java 实现：一次遍历完成格式转换和旋转，直接写入编码器输入缓冲区，
+ * 90/270 度按 {@link #TILE} 行一组分块转置，保证读源数据时是连续的
+ *
+ * @author  gfm
+ * @since   1.0
+ */
+public class YuvUtils {
+    /** 90/270 度旋转时每次处理的输出行数 */
+    static final int TILE = 32;
+
+    private static final ThreadLocal<byte[]> SCRATCH = new ThreadLocal<>();
+
+    public static native void NV21ToI420(byte[] src, byte[] dst, int width, int height, int rotation);
+
+    public static native void NV21ToI420Buffer(byte[] src, ByteBuffer dst, int width, int height, int rotation);
+
+    public static native void I420ToNV12Buffer(byte[] src, ByteBuffer dst, int width, int height);
+
+    /**
+     * NV21 转 I420 并顺时针旋转，结果写入 dst.position() 开始的位置，不修改 dst 的 position
+     *
+     * @param src NV21 数据
+     * @param dst 输出缓冲区，剩余空间不能小于 width * height * 3 / 2
+     * @param width 源宽度，必须是偶数
+     * @param height 源高度，必须是偶数
+     * @param rotation 顺时针旋转角度，可以为：0、90、180、270
+     * @since 1.1
+     */
+    public static void NV21ToI420Rotate(byte[] src, ByteBuffer dst, int width, int height, int rotation) {
+        convert(src, dst, width, height, rotation, false);
+    }
+
+    /**
+     * NV21 转 NV12 并顺时针旋转，结果写入 dst.position() 开始的位置，不修改 dst 的 position
+     *
+     * @param src NV21 数据
+     * @param dst 输出缓冲区，剩余空间不能小于 width * height * 3 / 2
+     * @param width 源宽度，必须是偶数
+     * @param height 源高度，必须是偶数
+     * @param rotation 顺时针旋转角度，可以为：0、90、180、270
+     * @since 1.1
+     */
+    public static void NV21ToNV12Rotate(byte[] src, ByteBuffer dst, int width, int height, int rotation) {
+        convert(src, dst, width, height, rotation, true);
+    }
+
+    /**
+     * YUV_420_888 三个平面转 I420 或 NV12 并顺时针旋转，结果写入 dst.position() 开始的位置，不修改 dst 的 position
+     * <p>
+     * 平面通常来自 {@link android.media.Image#getPlanes()}，按行跨距和像素跨距直接读取，不需要先复制为 NV21。
+     * 读取时会移动平面缓冲区的 position，返回前恢复
+     *
+     * @param y Y 平面，像素跨距必须是 1
+     * @param yRowStride Y 平面行跨距
+     * @param u U 平面
+     * @param v V 平面
+     * @param uvRowStride U/V 平面行跨距
+     * @param uvPixelStride U/V 平面像素跨距，可以为 1 或 2
+     * @param dst 输出缓冲区，剩余空间不能小于 width * height * 3 / 2
+     * @param width 源宽度，必须是偶数
+     * @param height 源高度，必须是偶数
+     * @param rotation 顺时针旋转角度，可以为：0、90、180、270
+     * @param nv12 true 输出 NV12，false 输出 I420
+     * @since 1.1
+     */
+    public static void YUV420ToYuvRotate(ByteBuffer y, int yRowStride, ByteBuffer u, ByteBuffer v,
+                                         int uvRowStride, int uvPixelStride, ByteBuffer dst,
+                                         int width, int height, int rotation, boolean nv12) {
+        int base = dst.position();
+        byte[] band = scratch(2 * TILE * Math.max(width, height));
+        try {
+            rotatePlanes(y, null, yRowStride, 1, width, height, rotation, dst, base, band);
+            int chroma = base + width * height;
+            if (nv12) {
+                rotatePlanes(u, v, uvRowStride, uvPixelStride, width / 2, height / 2, rotation, dst, chroma, band);
+            } else {
+                rotatePlanes(u, null, uvRowStride, uvPixelStride, width / 2, height / 2, rotation, dst, chroma, band);
+                rotatePlanes(v, null, uvRowStride, uvPixelStride, width / 2, height / 2, rotation, dst,
+                        chroma + width * height / 4, band);
+            }
+        } finally {
+            dst.position(base);
+        }
+    }
+
+    // second 不为 null 时两个平面交织输出（NV12 的 UV），否则只输出 first
+    private static void rotatePlanes(ByteBuffer first, ByteBuffer second, int rowStride, int pixelStride,
+                                     int width, int height, int rotation, ByteBuffer dst, int base, byte[] band) {
+        int step = second == null ? 1 : 2;
+        boolean transpose = rotation == 90 || rotation == 270;
+        int outWidth = transpose ? height : width;
+        int outHeight = transpose ? width : height;
+        int firstBase = first.position();
+        int secondBase = second == null ? 0 : second.position();
+        if (step == 1 && pixelStride == 1 && rotation != 90 && rotation != 180 && rotation != 270) {
+            // 不旋转的 I420 平面逐行整块复制
+            try {
+                for (int row = 0; row < height; row++) {
+                    first.position(firstBase + row * rowStride);
+                    first.get(band, 0, width);
+                    dst.position(base + row * width);
+                    dst.put(band, 0, width);
+                }
+            } finally {
+                first.position(firstBase);
+            }
+            return;
+        }
+        int start = mapStart(rotation, width, height, rowStride, pixelStride);
+        int dx = mapDx(rotation, rowStride, pixelStride);
+        int dy = mapDy(rotation, rowStride, pixelStride);
+        int rowBytes = outWidth * step;
+        for (int y0 = 0; y0 < outHeight; y0 += TILE) {
+            int rows = Math.min(TILE, outHeight - y0);
+            for (int r = 0; r < rows; r++) {
+                int s = start + (y0 + r) * dy;
+                int d = r * rowBytes;
+                for (int x = 0; x < outWidth; x++) {
+                    band[d] = first.get(firstBase + s);
+                    if (second != null) {
+                        band[d + 1] = second.get(secondBase + s);
+                    }
+                    s += dx;
+                    d += step;
+                }
+            }
+            dst.position(base + y0 * rowBytes);
+            dst.put(band, 0, rows * rowBytes);
+        }
+    }
+
+    /**
+     * NV21 按整数倍缩小，每个输出像素取 factor x factor 块的平均值
+     *
+     * @param src NV21 数据
+     * @param width 源宽度，必须是偶数
+     * @param height 源高度，必须是偶数
+     * @param factor 缩小倍数，不小于 1
+     * @param dst 输出 NV21 数据，长度不能小于 outWidth * outHeight * 3 / 2，
+     *            outWidth、outHeight 是 width / factor、height / factor 向下取偶数
+     * @since 1.1
+     */
+    public static void NV21Downscale(byte[] src, int width, int height, int factor, byte[] dst) {
+        int outWidth = (width / factor) & ~1;
+        int outHeight = (height / factor) & ~1;
+        int area = factor * factor;
+        int d = 0;
+        for (int y = 0; y < outHeight; y++) {
+            int row = y * factor * width;
+            for (int x = 0; x < outWidth; x++) {
+                int sum = 0;
+                for (int s = row + x * factor, r = 0; r < factor; r++, s += width) {
+                    for (int c = 0; c < factor; c++) {
+                        sum += src[s + c] & 0xFF;
+                    }
+                }
+                dst[d++] = (byte) (sum / area);
+            }
+        }
+        // VU 交织平面：宽 width / 2 个像素对，高 height / 2 行
+        int chroma = width * height;
+        for (int y = 0; y < outHeight / 2; y++) {
+            int row = chroma + y * factor * width;
+            for (int x = 0; x < outWidth / 2; x++) {
+                int sumV = 0;
+                int sumU = 0;
+                for (int s = row + x * factor * 2, r = 0; r < factor; r++, s += width) {
+                    for (int c = 0; c < factor * 2; c += 2) {
+                        sumV += src[s + c] & 0xFF;
+                        sumU += src[s + c + 1] & 0xFF;
+                    }
+                }
+                dst[d++] = (byte) (sumV / area);
+                dst[d++] = (byte) (sumU / area);
+            }
+        }
+    }
+
+    private static void convert(byte[] src, ByteBuffer dst, int width, int height, int rotation, boolean nv12) {
+        int base = dst.position();
+        byte[] band = scratch(TILE * Math.max(width, height));
+        try {
+            rotateLuma(src, width, height, rotation, dst, base, band);
+            rotateChroma(src, width, height, rotation, dst, base + width * height, nv12, band);
+        } finally {
+            dst.position(base);
+        }
+    }
+
+    private static byte[] scratch(int size) {
+        byte[] buffer = SCRATCH.get();
+        if (buffer == null || buffer.length < size) {
+            buffer = new byte[size];
+            SCRATCH.set(buffer);
+        }
+        return buffer;
+    }
+
+    // 旋转后输出坐标 (x, y) 对应的源下标为 start + x * dx + y * dy，pixelSize 是每个像素的字节数
+    private static int mapStart(int rotation, int width, int height, int stride, int pixelSize) {
+        switch (rotation) {
+            case 90:
+                return (height - 1) * stride;
+            case 180:
+                return (height - 1) * stride + (width - 1) * pixelSize;
+            case 270:
+                return (width - 1) * pixelSize;
+            default:
+                return 0;
+        }
+    }
+
+    private static int mapDx(int rotation, int stride, int pixelSize) {
+        switch (rotation) {
+            case 90:
+                return -stride;
+            case 180:
+                return -pixelSize;
+            case 270:
+                return stride;
+            default:
+                return pixelSize;
+        }
+    }
+
+    private static int mapDy(int rotation, int stride, int pixelSize) {
+        switch (rotation) {
+            case 90:
+                return pixelSize;
+            case 180:
+                return -stride;
+            case 270:
+                return -pixelSize;
+            default:
+                return stride;
+        }
+    }
+
+    private static void rotateLuma(byte[] src, int width, int height, int rotation,
+                                   ByteBuffer dst, int base, byte[] band) {
+        if (rotation != 90 && rotation != 180 && rotation != 270) {
+            dst.position(base);
+            dst.put(src, 0, width * height);
+            return;
+        }
+        boolean transpose = rotation == 90 || rotation == 270;
+        int outWidth = transpose ? height : width;
+        int outHeight = transpose ? width : height;
+        int start = mapStart(rotation, width, height, width, 1);
+        int dx = mapDx(rotation, width, 1);
+        int dy = mapDy(rotation, width, 1);
+        for (int y0 = 0; y0 < outHeight; y0 += TILE) {
+            int rows = Math.min(TILE, outHeight - y0);
+            if (transpose) {
+                // 源数据按列读取，一次取 rows 个连续字节分散到 rows 个输出行
+                for (int x = 0; x < outWidth; x++) {
+                    int s = start + x * dx + y0 * dy;
+                    int d = x;
+                    for (int r = 0; r < rows; r++) {
+                        band[d] = src[s];
+                        s += dy;
+                        d += outWidth;
+                    }
+                }
+            } else {
+                for (int r = 0; r < rows; r++) {
+                    int s = start + (y0 + r) * dy;
+                    int d = r * outWidth;
+                    for (int x = 0; x < outWidth; x++) {
+                        band[d + x] = src[s];
+                        s += dx;
+                    }
+                }
+            }
+            dst.position(base + y0 * outWidth);
+            dst.put(band, 0, rows * outWidth);
+        }
+    }
+
+    private static void rotateChroma(byte[] src, int width, int height, int rotation,
+                                     ByteBuffer dst, int base, boolean nv12, byte[] band) {
+        int chromaWidth = width / 2;
+        int chromaHeight = height / 2;
+        boolean transpose = rotation == 90 || rotation == 270;
+        int outWidth = transpose ? chromaHeight : chromaWidth;
+        int outHeight = transpose ? chromaWidth : chromaHeight;
+        int start = width * height + mapStart(rotation, chromaWidth, chromaHeight, width, 2);
+        int dx = mapDx(rotation, width, 2);
+        int dy = mapDy(rotation, width, 2);
+        int planeSize = outWidth * outHeight;
+        // band 前半部分放 U 行（NV12 时放 UV 交织行），I420 的 V 行放在后半部分
+        int vOffset = TILE * outWidth;
+        for (int y0 = 0; y0 < outHeight; y0 += TILE) {
+            int rows = Math.min(TILE, outHeight - y0);
+            if (transpose) {
+                for (int x = 0; x < outWidth; x++) {
+                    int s = start + x * dx + y0 * dy;
+                    for (int r = 0; r < rows; r++) {
+                        storeChroma(band, r, x, outWidth, vOffset, nv12, src[s + 1], src[s]);
+                        s += dy;
+                    }
+                }
+            } else {
+                for (int r = 0; r < rows; r++) {
+                    int s = start + (y0 + r) * dy;
+                    for (int x = 0; x < outWidth; x++) {
+                        storeChroma(band, r, x, outWidth, vOffset, nv12, src[s + 1], src[s]);
+                        s += dx;
+                    }
+                }
+            }
+            if (nv12) {
+                dst.position(base + y0 * outWidth * 2);
+                dst.put(band, 0, rows * outWidth * 2);
+            } else {
+                dst.position(base + y0 * outWidth);
+                dst.put(band, 0, rows * outWidth);
+                dst.position(base + planeSize + y0 * outWidth);
+                dst.put(band, vOffset, rows * outWidth);
+            }
+        }
+    }
+
+    private static void storeChroma(byte[] band, int row, int x, int outWidth, int vOffset, boolean nv12,
+                                    byte u, byte v) {
+        if (nv12) {
+            int d = (row * outWidth + x) * 2;
+            band[d] = u;
+            band[d + 1] = v;
+        } else {
+            int d = row * outWidth + x;
+            band[d] = u;
+            band[vOffset + d] = v;
+        }
+    }
+}